@@ -21,7 +21,6 @@ package org.ofbiz.content.data;
 
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.InputStream;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -180,12 +179,11 @@ public class DataEvents {
             https = "true";
         }
 
-        // get the data resource stream and conent length
-        Map<String, Object> resourceData;
+        // stream the content to the browser, answering the conditional and range requests
         try {
-            resourceData = DataResourceWorker.getDataResourceStream(dataResource, https, webSiteId, locale, contextRoot, false);
+            DataResourceStreamer.streamDataResource(request, response, dataResource, mimeType, dataName, https, webSiteId, locale, contextRoot);
         } catch (IOException e) {
-            Debug.logError(e, "Error getting DataResource stream", module);
+            Debug.logError(e, "Unable to write content to browser", module);
             request.setAttribute("_ERROR_MESSAGE_", e.getMessage());
             return "error";
         } catch (GeneralException e) {
@@ -194,32 +192,6 @@ public class DataEvents {
             return "error";
         }
 
-        // get the stream data
-        InputStream stream = null;
-        Long length = null;
-
-        if (resourceData != null) {
-            stream = (InputStream) resourceData.get("stream");
-            length = (Long) resourceData.get("length");
-        }
-        Debug.log("Got resource data stream: " + length + " bytes", module);
-
-        // stream the content to the browser
-        if (stream != null && length != null) {
-            try {
-                UtilHttp.streamContentToBrowser(response, stream, length.intValue(), mimeType, dataName);
-            } catch (IOException e) {
-                Debug.logError(e, "Unable to write content to browser", module);
-                request.setAttribute("_ERROR_MESSAGE_", e.getMessage());
-                return "error";
-            }
-        } else {
-            String errorMsg = "No data is available.";
-            Debug.logError(errorMsg, module);
-            request.setAttribute("_ERROR_MESSAGE_", errorMsg);
-            return "error";
-        }
-
         return "success";
     }
 
@@ -0,0 +1,207 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+/* This file has been modified by Open Source Strategies, Inc. */
+package org.ofbiz.content.data;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.IOUtils;
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.UtilProperties;
+
+/**
+ * A bounded disk cache of the content of the _OBJECT data resources, so that the content held in the database can be
+ * served from a file, with the byte ranges and the zero-copy transfers a file allows.
+ * <p>
+ * A cached content is kept in a file named after the data resource and its version, the last update time of its content,
+ * so that an updated content is never served from the cache. When the files exceed <code>content.object.cache.maxSize</code>
+ * bytes the least recently used ones are removed. The cache is disabled when that size is 0.
+ */
+public final class DataResourceFileCache {
+
+    public static final String module = DataResourceFileCache.class.getName();
+
+    private static final DataResourceFileCache instance = new DataResourceFileCache();
+
+    private final File directory;
+    private final long maxSize;
+    private final AtomicLong size = new AtomicLong();
+    private final Object evictLock = new Object();
+
+    private DataResourceFileCache() {
+        this.maxSize = (long) UtilProperties.getPropertyNumber("content.properties", "content.object.cache.maxSize", 0);
+        String path = UtilProperties.getPropertyValue("content.properties", "content.object.cache.path", "runtime/cache/dataresource");
+        File dir = new File(path);
+        if (!dir.isAbsolute()) {
+            dir = new File(System.getProperty("ofbiz.home"), path);
+        }
+        this.directory = dir;
+        if (maxSize > 0) {
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                Debug.logWarning("Could not create the data resource cache directory " + directory + ", the cache is disabled", module);
+                return;
+            }
+            File[] files = directory.listFiles();
+            for (File file : files) {
+                if (file.getName().endsWith(".tmp")) {
+                    // left by an interrupted write
+                    file.delete();
+                } else {
+                    size.addAndGet(file.length());
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the data resource file cache.
+     * @return the <code>DataResourceFileCache</code>, or null if it is disabled
+     */
+    public static DataResourceFileCache getInstance() {
+        return instance.maxSize > 0 && instance.directory.isDirectory() ? instance : null;
+    }
+
+    /**
+     * Gets the cached content of a data resource.
+     * @param dataResourceId the data resource
+     * @param version the last update time of the content
+     * @return the cached <code>File</code>, or null if the content of this version is not cached
+     */
+    public File get(String dataResourceId, long version) {
+        File file = getFile(dataResourceId, version);
+        if (!file.isFile()) {
+            return null;
+        }
+        // the modification time orders the files for the eviction
+        file.setLastModified(System.currentTimeMillis());
+        return file;
+    }
+
+    /**
+     * Caches the content of a data resource, replacing its previous versions. The given stream is always closed.
+     * @param dataResourceId the data resource
+     * @param version the last update time of the content
+     * @param in the content
+     * @return the cached <code>File</code>
+     * @throws IOException if the content could not be read or written
+     */
+    public File put(final String dataResourceId, long version, InputStream in) throws IOException {
+        File file = getFile(dataResourceId, version);
+        File tmpFile = File.createTempFile(file.getName(), ".tmp", directory);
+        try {
+            OutputStream out = new FileOutputStream(tmpFile);
+            try {
+                IOUtils.copy(in, out);
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            tmpFile.delete();
+            throw e;
+        } finally {
+            in.close();
+        }
+
+        // remove the other versions of the content
+        final String prefix = getFilePrefix(dataResourceId);
+        File[] versions = directory.listFiles(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.startsWith(prefix) && !name.endsWith(".tmp");
+            }
+        });
+        for (File version2 : versions) {
+            long length = version2.length();
+            if (version2.delete()) {
+                size.addAndGet(-length);
+            }
+        }
+
+        long length = tmpFile.length();
+        if (!tmpFile.renameTo(file)) {
+            // another thread cached the same version meanwhile
+            tmpFile.delete();
+            return file;
+        }
+        if (size.addAndGet(length) > maxSize) {
+            evict();
+        }
+        return file;
+    }
+
+    /**
+     * Removes the least recently used files until the cache is back to 90% of its max size.
+     */
+    private void evict() {
+        synchronized (evictLock) {
+            if (size.get() <= maxSize) {
+                return;
+            }
+            File[] files = directory.listFiles();
+            Arrays.sort(files, new Comparator<File>() {
+                public int compare(File f1, File f2) {
+                    long m1 = f1.lastModified();
+                    long m2 = f2.lastModified();
+                    return m1 < m2 ? -1 : (m1 == m2 ? 0 : 1);
+                }
+            });
+            long target = maxSize / 10 * 9;
+            int evicted = 0;
+            for (File file : files) {
+                if (size.get() <= target) {
+                    break;
+                }
+                if (file.getName().endsWith(".tmp")) {
+                    continue;
+                }
+                long length = file.length();
+                if (file.delete()) {
+                    size.addAndGet(-length);
+                    evicted++;
+                }
+            }
+            if (Debug.verboseOn()) Debug.logVerbose("Evicted " + evicted + " files from the data resource cache, " + size.get() + " bytes cached", module);
+        }
+    }
+
+    private File getFile(String dataResourceId, long version) {
+        return new File(directory, getFilePrefix(dataResourceId) + Long.toHexString(version));
+    }
+
+    // the ids are escaped so that they make safe file names which do not collide
+    private static String getFilePrefix(String dataResourceId) {
+        StringBuilder prefix = new StringBuilder(dataResourceId.length() + 1);
+        for (int i = 0; i < dataResourceId.length(); i++) {
+            char c = dataResourceId.charAt(i);
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '-') {
+                prefix.append(c);
+            } else {
+                prefix.append('_').append(Integer.toHexString(c)).append('_');
+            }
+        }
+        return prefix.append('.').toString();
+    }
+}
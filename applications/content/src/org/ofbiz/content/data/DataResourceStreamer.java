@@ -0,0 +1,316 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+/* This file has been modified by Open Source Strategies, Inc. */
+package org.ofbiz.content.data;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.sql.Timestamp;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.GeneralException;
+import org.ofbiz.base.util.UtilHttp;
+import org.ofbiz.base.util.UtilMisc;
+import org.ofbiz.base.util.UtilValidate;
+import org.ofbiz.entity.Delegator;
+import org.ofbiz.entity.GenericEntityException;
+import org.ofbiz.entity.GenericValue;
+
+/**
+ * Streams the content of a data resource to the browser without loading it in memory.
+ * <p>
+ * The content held in the database is read from the BLOB stream, or from the <code>DataResourceFileCache</code> when enabled,
+ * and the content held in a file is sent with <code>FileChannel.transferTo</code>.
+ * The response has an <code>ETag</code> made of the data resource id and the last update time of its content, so that
+ * a browser revalidating its copy with <code>If-None-Match</code> gets a 304 response, and a single byte
+ * <code>Range</code> request gets a 206 response with only the requested bytes.
+ */
+public final class DataResourceStreamer {
+
+    public static final String module = DataResourceStreamer.class.getName();
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private DataResourceStreamer() { }
+
+    /**
+     * Streams the content of a data resource to the response, answering the conditional and the range requests.
+     * @param request the request
+     * @param response the response
+     * @param dataResource the <code>DataResource</code> to stream
+     * @param contentType the content type of the response
+     * @param fileName the attachment file name, or null
+     * @param https the https flag used to resolve a relative URL_RESOURCE
+     * @param webSiteId the web site used to resolve a relative URL_RESOURCE
+     * @param locale the locale
+     * @param contextRoot the root directory of the CONTEXT_FILE resources
+     * @throws IOException if the content could not be read or written
+     * @throws GeneralException if the data resource could not be read
+     */
+    public static void streamDataResource(HttpServletRequest request, HttpServletResponse response, GenericValue dataResource, String contentType, String fileName,
+            String https, String webSiteId, Locale locale, String contextRoot) throws IOException, GeneralException {
+
+        String dataResourceId = dataResource.getString("dataResourceId");
+        String dataResourceTypeId = dataResource.getString("dataResourceTypeId");
+        long version = getVersion(dataResource, contextRoot);
+        String eTag = version < 0 ? null : "\"" + dataResourceId + "-" + Long.toHexString(version) + "\"";
+
+        if (eTag != null) {
+            // let the browser keep its copy but always revalidate it
+            response.setHeader("ETag", eTag);
+            response.setHeader("Cache-Control", "Y".equals(dataResource.getString("isPublic")) ? "public, no-cache" : "private, no-cache");
+            if (matchesETag(request.getHeader("If-None-Match"), eTag)) {
+                response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return;
+            }
+        } else {
+            UtilHttp.setResponseBrowserProxyNoCache(response);
+        }
+
+        // get the content, from the file cache for the content held in the database
+        InputStream in = null;
+        long length = -1;
+        DataResourceFileCache fileCache = DataResourceFileCache.getInstance();
+        if (fileCache != null && version >= 0 && DataResourceWorker.getObjectDataField(dataResourceTypeId) != null) {
+            File file = fileCache.get(dataResourceId, version);
+            if (file == null) {
+                Map<String, Object> objectData = DataResourceWorker.getObjectDataStream(dataResource.getDelegator(), dataResourceTypeId, dataResourceId);
+                if (objectData != null) {
+                    file = fileCache.put(dataResourceId, version, (InputStream) objectData.get("stream"));
+                }
+            }
+            if (file != null) {
+                in = new FileInputStream(file);
+                length = file.length();
+            }
+        }
+        if (in == null) {
+            Map<String, Object> resourceData = DataResourceWorker.getDataResourceStream(dataResource, https, webSiteId, locale, contextRoot, false);
+            in = (InputStream) resourceData.get("stream");
+            Long resourceLength = (Long) resourceData.get("length");
+            length = resourceLength == null ? -1 : resourceLength.longValue();
+        }
+
+        try {
+            long start = 0;
+            long count = length;
+            if (length >= 0) {
+                response.setHeader("Accept-Ranges", "bytes");
+                long[] range = null;
+                String ifRange = request.getHeader("If-Range");
+                if (ifRange == null || ifRange.equals(eTag)) {
+                    range = parseRange(request.getHeader("Range"), length);
+                }
+                if (range != null && range[0] >= length) {
+                    response.setHeader("Content-Range", "bytes */" + length);
+                    response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                    return;
+                } else if (range != null) {
+                    start = range[0];
+                    count = range[1] - range[0] + 1;
+                    response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                    response.setHeader("Content-Range", "bytes " + range[0] + "-" + range[1] + "/" + length);
+                }
+                response.setHeader("Content-Length", Long.toString(count));
+            }
+            if (contentType != null) {
+                response.setContentType(contentType);
+            }
+            if (fileName != null) {
+                response.setHeader("Content-Disposition", "attachment;filename=" + fileName);
+            }
+            if ("HEAD".equalsIgnoreCase(request.getMethod())) {
+                return;
+            }
+
+            OutputStream out = response.getOutputStream();
+            if (in instanceof FileInputStream && count >= 0) {
+                transferFile(((FileInputStream) in).getChannel(), start, count, out);
+            } else {
+                copyStream(in, start, count, out);
+            }
+            out.flush();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Gets the version of the content of a data resource, the last update time of the data resource or of the value
+     * or file holding its content.
+     * @param dataResource the <code>DataResource</code>
+     * @param contextRoot the root directory of the CONTEXT_FILE resources
+     * @return the version, or -1 if the content has no known version, like an URL_RESOURCE
+     * @throws GeneralException if the data resource could not be read
+     */
+    public static long getVersion(GenericValue dataResource, String contextRoot) throws GeneralException {
+        String dataResourceTypeId = dataResource.getString("dataResourceTypeId");
+        Timestamp lastUpdatedStamp = dataResource.getTimestamp("lastUpdatedStamp");
+        if (UtilValidate.isEmpty(dataResourceTypeId) || lastUpdatedStamp == null || "URL_RESOURCE".equals(dataResourceTypeId)) {
+            return -1;
+        }
+        long version = lastUpdatedStamp.getTime();
+
+        String contentEntityName = null;
+        String[] objectDataField = DataResourceWorker.getObjectDataField(dataResourceTypeId);
+        if (objectDataField != null) {
+            contentEntityName = objectDataField[0];
+        } else if ("ELECTRONIC_TEXT".equals(dataResourceTypeId)) {
+            contentEntityName = "ElectronicText";
+        }
+        if (contentEntityName != null) {
+            // only select the stamp, not the content
+            Delegator delegator = dataResource.getDelegator();
+            try {
+                GenericValue content = delegator.findByPrimaryKeyPartial(delegator.makePK(contentEntityName, UtilMisc.toMap("dataResourceId", dataResource.get("dataResourceId"))),
+                        UtilMisc.toSet("lastUpdatedStamp"));
+                if (content != null && content.getTimestamp("lastUpdatedStamp") != null) {
+                    version = Math.max(version, content.getTimestamp("lastUpdatedStamp").getTime());
+                }
+            } catch (GenericEntityException e) {
+                throw new GeneralException("Error reading the " + contentEntityName + " of DataResource [" + dataResource.get("dataResourceId") + "]", e);
+            }
+        } else if (dataResourceTypeId.endsWith("_FILE") || dataResourceTypeId.endsWith("_FILE_BIN")) {
+            String objectInfo = dataResource.getString("objectInfo");
+            if (UtilValidate.isEmpty(objectInfo)) {
+                return -1;
+            }
+            try {
+                File file = DataResourceWorker.getContentFile(dataResourceTypeId, objectInfo, contextRoot);
+                if (file == null) {
+                    return -1;
+                }
+                version = Math.max(version, file.lastModified());
+            } catch (IOException e) {
+                // the error is reported when the content is read
+                return -1;
+            }
+        }
+        return version;
+    }
+
+    /**
+     * Checks if an <code>If-None-Match</code> header matches an entity tag, either directly, as a weak tag or with <code>*</code>.
+     * @param header the header value, a comma separated list of entity tags, or null
+     * @param eTag the entity tag of the content
+     * @return true if the browser copy is current
+     */
+    public static boolean matchesETag(String header, String eTag) {
+        if (header == null) {
+            return false;
+        }
+        for (String value : header.split(",")) {
+            value = value.trim();
+            if ("*".equals(value) || eTag.equals(value) || ("W/" + eTag).equals(value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Parses a single byte range, a request for several ranges being answered with the whole content.
+     * The returned first position is at or past the length when the range cannot be satisfied.
+     * @param header the <code>Range</code> header value, or null
+     * @param length the length of the content
+     * @return the first and last byte positions, or null if there is no range to serve
+     */
+    public static long[] parseRange(String header, long length) {
+        if (header == null || !header.startsWith("bytes=") || header.indexOf(',') >= 0) {
+            return null;
+        }
+        String spec = header.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+        try {
+            long first;
+            long last;
+            if (dash == 0) {
+                // the last n bytes
+                long suffix = Long.parseLong(spec.substring(1).trim());
+                if (suffix <= 0) {
+                    return null;
+                }
+                first = Math.max(0, length - suffix);
+                last = length - 1;
+            } else {
+                first = Long.parseLong(spec.substring(0, dash).trim());
+                String lastSpec = spec.substring(dash + 1).trim();
+                last = lastSpec.length() == 0 ? length - 1 : Math.min(length - 1, Long.parseLong(lastSpec));
+                if (last < first && first < length) {
+                    return null;
+                }
+            }
+            return new long[] {first, last};
+        } catch (NumberFormatException e) {
+            Debug.logWarning("Ignoring the invalid Range header [" + header + "]", module);
+            return null;
+        }
+    }
+
+    private static void transferFile(FileChannel channel, long start, long count, OutputStream out) throws IOException {
+        WritableByteChannel target = Channels.newChannel(out);
+        long position = start;
+        long end = start + count;
+        while (position < end) {
+            long transferred = channel.transferTo(position, end - position, target);
+            if (transferred <= 0) {
+                throw new IOException("The file ended at byte " + position + " before byte " + end);
+            }
+            position += transferred;
+        }
+    }
+
+    private static void copyStream(InputStream in, long start, long count, OutputStream out) throws IOException {
+        long skipped = 0;
+        while (skipped < start) {
+            long n = in.skip(start - skipped);
+            if (n <= 0) {
+                if (in.read() < 0) {
+                    throw new IOException("The content ended at byte " + skipped + " before byte " + start);
+                }
+                n = 1;
+            }
+            skipped += n;
+        }
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long remaining = count < 0 ? Long.MAX_VALUE : count;
+        while (remaining > 0) {
+            int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (read < 0) {
+                break;
+            }
+            out.write(buffer, 0, read);
+            remaining -= read;
+        }
+    }
+}
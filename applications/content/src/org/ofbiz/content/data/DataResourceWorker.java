@@ -25,6 +25,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -33,6 +34,9 @@ import java.io.Writer;
 import java.net.URL;
 import java.net.URLConnection;
 import java.nio.ByteBuffer;
+import java.sql.Blob;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Locale;
@@ -51,6 +55,7 @@ import org.apache.commons.fileupload.FileItem;
 import org.apache.commons.fileupload.FileUploadException;
 import org.apache.commons.fileupload.disk.DiskFileItemFactory;
 import org.apache.commons.fileupload.servlet.ServletFileUpload;
+import org.apache.commons.io.IOUtils;
 import org.ofbiz.base.location.FlexibleLocation;
 import org.ofbiz.base.util.Debug;
 import org.ofbiz.base.util.FileUtil;
@@ -69,6 +74,11 @@ import org.ofbiz.content.content.UploadContentAndImage;
 import org.ofbiz.entity.Delegator;
 import org.ofbiz.entity.GenericEntityException;
 import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.config.DatasourceInfo;
+import org.ofbiz.entity.config.EntityConfigUtil;
+import org.ofbiz.entity.datasource.GenericHelperInfo;
+import org.ofbiz.entity.jdbc.SQLProcessor;
+import org.ofbiz.entity.model.ModelEntity;
 import org.ofbiz.service.GenericServiceException;
 import org.ofbiz.service.LocalDispatcher;
 import org.ofbiz.widget.screen.MacroScreenRenderer;
@@ -972,6 +982,9 @@ public class DataResourceWorker  implements org.ofbiz.widget.DataResourceWorkerI
         }
 
         String dataResourceTypeId = dataResource.getString("dataResourceTypeId");
+        if (UtilValidate.isEmpty(dataResourceTypeId)) {
+            dataResourceTypeId = "SHORT_TEXT";
+        }
         String dataResourceId = dataResource.getString("dataResourceId");
         Delegator delegator = dataResource.getDelegator();
 
@@ -996,10 +1009,18 @@ public class DataResourceWorker  implements org.ofbiz.widget.DataResourceWorkerI
             }
 
             byte[] bytes = text.getBytes();
-            return UtilMisc.toMap("stream", new ByteArrayInputStream(bytes), "length", Integer.valueOf(bytes.length));
+            return UtilMisc.toMap("stream", new ByteArrayInputStream(bytes), "length", Long.valueOf(bytes.length));
 
         // object (binary) data
         } else if (dataResourceTypeId.endsWith("_OBJECT")) {
+            // stream the content from the database instead of loading it, unless it should come from the cache
+            if (!cache && getObjectDataField(dataResourceTypeId) != null) {
+                Map<String, Object> objectData = getObjectDataStream(delegator, dataResourceTypeId, dataResourceId);
+                if (objectData != null) {
+                    return objectData;
+                }
+            }
+
             byte[] bytes = new byte[0];
             GenericValue valObj;
 
@@ -1080,6 +1101,124 @@ public class DataResourceWorker  implements org.ofbiz.widget.DataResourceWorkerI
         throw new GeneralException("The dataResourceTypeId [" + dataResourceTypeId + "] is not supported in getDataResourceStream");
     }
 
+    /**
+     * Gets the entity and field holding the content of an _OBJECT data resource type.
+     * @param dataResourceTypeId the data resource type
+     * @return an array of the entity name and the field name, or null if the type is not an _OBJECT type
+     */
+    public static String[] getObjectDataField(String dataResourceTypeId) {
+        if ("IMAGE_OBJECT".equals(dataResourceTypeId)) {
+            return new String[] {"ImageDataResource", "imageData"};
+        } else if ("VIDEO_OBJECT".equals(dataResourceTypeId)) {
+            return new String[] {"VideoDataResource", "videoData"};
+        } else if ("AUDIO_OBJECT".equals(dataResourceTypeId)) {
+            return new String[] {"AudioDataResource", "audioData"};
+        } else if ("OTHER_OBJECT".equals(dataResourceTypeId)) {
+            return new String[] {"OtherDataResource", "dataResourceContent"};
+        }
+        return null;
+    }
+
+    /**
+     * Opens a stream on the content of an _OBJECT data resource which reads the BLOB column as it is consumed,
+     * instead of loading the whole content in memory as <code>GenericValue.getBytes</code> does.
+     * The stream holds a database connection until it is closed, so it must always be closed.
+     * @param delegator the delegator
+     * @param dataResourceTypeId the data resource type, which must be an _OBJECT type
+     * @param dataResourceId the data resource
+     * @return Map containing 'stream': the InputStream and 'length' a Long containing the content-length, or null
+     *  if the content must be read through the entity engine because it was stored as a serialized object
+     * @throws GeneralException if the content could not be read
+     */
+    public static Map<String, Object> getObjectDataStream(Delegator delegator, String dataResourceTypeId, String dataResourceId) throws GeneralException {
+        String[] objectDataField = getObjectDataField(dataResourceTypeId);
+        if (objectDataField == null) {
+            throw new GeneralException("Unsupported OBJECT type [" + dataResourceTypeId + "]; cannot stream");
+        }
+        ModelEntity modelEntity = delegator.getModelEntity(objectDataField[0]);
+        GenericHelperInfo helperInfo = delegator.getGroupHelperInfo(delegator.getEntityGroupName(objectDataField[0]));
+        DatasourceInfo datasourceInfo = EntityConfigUtil.getDatasourceInfo(helperInfo.getHelperBaseName());
+        String sql = "SELECT " + modelEntity.getField(objectDataField[1]).getColName() + " FROM " + modelEntity.getTableName(datasourceInfo)
+            + " WHERE " + modelEntity.getField("dataResourceId").getColName() + " = ?";
+
+        SQLProcessor sqlP = new SQLProcessor(helperInfo);
+        InputStream stream = null;
+        try {
+            sqlP.prepareStatement(sql);
+            sqlP.setValue(dataResourceId);
+            ResultSet rs = sqlP.executeQuery();
+            long length = 0;
+            if (rs.next()) {
+                Blob blob = null;
+                byte[] bytes = null;
+                try {
+                    blob = rs.getBlob(1);
+                } catch (SQLException e) {
+                    // the column is not a BLOB locator, for example a PostgreSQL BYTEA
+                    bytes = rs.getBytes(1);
+                }
+                if (blob != null) {
+                    length = blob.length();
+                    if (isSerializedObject(blob.getBytes(1, (int) Math.min(2, length)))) {
+                        return null;
+                    }
+                    stream = new ObjectDataInputStream(blob.getBinaryStream(), sqlP);
+                } else if (bytes != null) {
+                    if (isSerializedObject(bytes)) {
+                        return null;
+                    }
+                    length = bytes.length;
+                    stream = new ByteArrayInputStream(bytes);
+                }
+            }
+            if (stream == null) {
+                stream = new ByteArrayInputStream(new byte[0]);
+            }
+            return UtilMisc.toMap("stream", stream, "length", Long.valueOf(length));
+        } catch (SQLException e) {
+            throw new GeneralException("Error reading the " + objectDataField[0] + " of DataResource [" + dataResourceId + "]", e);
+        } finally {
+            // the connection is released when the stream is closed
+            if (!(stream instanceof ObjectDataInputStream)) {
+                sqlP.close();
+            }
+        }
+    }
+
+    // the values stored by older versions of the entity engine were serialized byte arrays
+    private static boolean isSerializedObject(byte[] bytes) {
+        return bytes != null && bytes.length >= 2 && bytes[0] == (byte) 0xAC && bytes[1] == (byte) 0xED;
+    }
+
+    /**
+     * A BLOB stream which closes its <code>SQLProcessor</code> when closed.
+     */
+    private static final class ObjectDataInputStream extends FilterInputStream {
+
+        private SQLProcessor sqlP;
+
+        private ObjectDataInputStream(InputStream in, SQLProcessor sqlP) {
+            super(in);
+            this.sqlP = sqlP;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                if (sqlP != null) {
+                    try {
+                        sqlP.close();
+                    } catch (GenericEntityException e) {
+                        Debug.logWarning(e, "Could not close the BLOB stream connection", module);
+                    }
+                    sqlP = null;
+                }
+            }
+        }
+    }
+
     // TODO: remove this method in favor of getDataResourceStream
     public static void streamDataResource(OutputStream os, Delegator delegator, String dataResourceId, String https, String webSiteId, Locale locale, String rootDir) throws IOException, GeneralException {
         try {
@@ -1106,8 +1245,18 @@ public class DataResourceWorker  implements org.ofbiz.widget.DataResourceWorkerI
                     if (text != null) os.write(text.getBytes());
                 }
             } else if (dataResourceTypeId.equals("IMAGE_OBJECT")) {
-                byte[] imageBytes = acquireImage(delegator, dataResource);
-                if (imageBytes != null) os.write(imageBytes);
+                Map<String, Object> objectData = getObjectDataStream(delegator, dataResourceTypeId, dataResourceId);
+                if (objectData != null) {
+                    InputStream in = (InputStream) objectData.get("stream");
+                    try {
+                        IOUtils.copy(in, os);
+                    } finally {
+                        in.close();
+                    }
+                } else {
+                    byte[] imageBytes = acquireImage(delegator, dataResource);
+                    if (imageBytes != null) os.write(imageBytes);
+                }
             } else if (dataResourceTypeId.equals("LINK")) {
                 String text = dataResource.getString("objectInfo");
                 os.write(text.getBytes());
@@ -1133,9 +1282,10 @@ public class DataResourceWorker  implements org.ofbiz.widget.DataResourceWorkerI
                 File inputFile = getContentFile(dataResourceTypeId, objectInfo, rootDir);
                 //long fileSize = inputFile.length();
                 FileInputStream fis = new FileInputStream(inputFile);
-                int c;
-                while ((c = fis.read()) != -1) {
-                    os.write(c);
+                try {
+                    IOUtils.copy(fis, os);
+                } finally {
+                    fis.close();
                 }
             } else {
                 throw new GeneralException("The dataResourceTypeId [" + dataResourceTypeId + "] is not supported in streamDataResource");
@@ -0,0 +1,324 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+/* This file has been modified by Open Source Strategies, Inc. */
+package org.ofbiz.content.data.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import javolution.util.FastMap;
+
+import org.ofbiz.base.util.UtilMisc;
+import org.ofbiz.content.data.DataResourceStreamer;
+import org.ofbiz.content.data.DataResourceWorker;
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.jdbc.SQLProcessor;
+import org.ofbiz.entity.testtools.EntityTestCase;
+
+/**
+ * Tests the range and conditional requests answered by <code>DataResourceStreamer</code>, and that the BLOB stream
+ * of an _OBJECT data resource releases its connection when closed.
+ */
+public class DataResourceStreamerTests extends EntityTestCase {
+
+    private static final String TEXT = "0123456789";
+    private static final byte[] OBJECT = new byte[] {10, 11, 12, 13, 14, 15, 16, 17, 18, 19};
+
+    protected GenericValue textResource = null;
+    protected GenericValue objectResource = null;
+
+    public DataResourceStreamerTests(String name) {
+        super(name);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        delegator.create("DataResource", UtilMisc.toMap("dataResourceId", "DRSTEST_TEXT", "dataResourceTypeId", "SHORT_TEXT", "objectInfo", TEXT));
+        delegator.create("DataResource", UtilMisc.toMap("dataResourceId", "DRSTEST_OBJECT", "dataResourceTypeId", "OTHER_OBJECT"));
+        GenericValue content = delegator.makeValue("OtherDataResource", UtilMisc.toMap("dataResourceId", "DRSTEST_OBJECT"));
+        content.setBytes("dataResourceContent", OBJECT);
+        content.create();
+        textResource = delegator.findByPrimaryKey("DataResource", UtilMisc.toMap("dataResourceId", "DRSTEST_TEXT"));
+        objectResource = delegator.findByPrimaryKey("DataResource", UtilMisc.toMap("dataResourceId", "DRSTEST_OBJECT"));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        delegator.removeByAnd("OtherDataResource", UtilMisc.toMap("dataResourceId", "DRSTEST_OBJECT"));
+        delegator.removeByAnd("DataResource", UtilMisc.toMap("dataResourceId", "DRSTEST_OBJECT"));
+        delegator.removeByAnd("DataResource", UtilMisc.toMap("dataResourceId", "DRSTEST_TEXT"));
+    }
+
+    public void testParseSingleRange() throws Exception {
+        assertRange("first bytes", 0, 4, DataResourceStreamer.parseRange("bytes=0-4", 10));
+        assertRange("middle bytes", 3, 3, DataResourceStreamer.parseRange("bytes=3-3", 10));
+        assertRange("last past the end", 5, 9, DataResourceStreamer.parseRange("bytes=5-100", 10));
+        assertRange("spaces", 2, 4, DataResourceStreamer.parseRange("bytes= 2 - 4 ", 10));
+    }
+
+    public void testParseSuffixRange() throws Exception {
+        assertRange("last bytes", 7, 9, DataResourceStreamer.parseRange("bytes=-3", 10));
+        assertRange("more than the length", 0, 9, DataResourceStreamer.parseRange("bytes=-20", 10));
+        assertNull("empty suffix", DataResourceStreamer.parseRange("bytes=-0", 10));
+    }
+
+    public void testParseOpenEndedRange() throws Exception {
+        assertRange("from the start", 0, 9, DataResourceStreamer.parseRange("bytes=0-", 10));
+        assertRange("from the middle", 4, 9, DataResourceStreamer.parseRange("bytes=4-", 10));
+        assertRange("last byte", 9, 9, DataResourceStreamer.parseRange("bytes=9-", 10));
+    }
+
+    public void testParseUnsatisfiableRange() throws Exception {
+        long[] range = DataResourceStreamer.parseRange("bytes=10-", 10);
+        assertNotNull("open ended at the length", range);
+        assertTrue("open ended at the length is past the end", range[0] >= 10);
+        range = DataResourceStreamer.parseRange("bytes=12-20", 10);
+        assertNotNull("past the end", range);
+        assertTrue("past the end is past the end", range[0] >= 10);
+    }
+
+    public void testParseIgnoredRanges() throws Exception {
+        assertNull("no header", DataResourceStreamer.parseRange(null, 10));
+        assertNull("inverted", DataResourceStreamer.parseRange("bytes=5-2", 10));
+        assertNull("several ranges", DataResourceStreamer.parseRange("bytes=0-1,4-5", 10));
+        assertNull("other unit", DataResourceStreamer.parseRange("items=0-1", 10));
+        assertNull("no dash", DataResourceStreamer.parseRange("bytes=5", 10));
+        assertNull("not a number", DataResourceStreamer.parseRange("bytes=a-b", 10));
+    }
+
+    public void testMatchesETag() throws Exception {
+        String eTag = "\"DR-1\"";
+        assertFalse("no header", DataResourceStreamer.matchesETag(null, eTag));
+        assertTrue("same tag", DataResourceStreamer.matchesETag("\"DR-1\"", eTag));
+        assertTrue("weak tag", DataResourceStreamer.matchesETag("W/\"DR-1\"", eTag));
+        assertTrue("any tag", DataResourceStreamer.matchesETag("*", eTag));
+        assertTrue("tag in a list", DataResourceStreamer.matchesETag("\"DR-0\", \"DR-1\"", eTag));
+        assertFalse("other tag", DataResourceStreamer.matchesETag("\"DR-2\"", eTag));
+        assertFalse("unquoted tag", DataResourceStreamer.matchesETag("DR-1", eTag));
+    }
+
+    public void testStreamWholeContent() throws Exception {
+        FakeResponse response = stream(textResource, request("GET"));
+        assertEquals("status", HttpServletResponse.SC_OK, response.status);
+        assertEquals("Content-Length", "10", response.headers.get("Content-Length"));
+        assertEquals("Accept-Ranges", "bytes", response.headers.get("Accept-Ranges"));
+        assertNotNull("ETag", response.headers.get("ETag"));
+        assertEquals("content", TEXT, response.out.toString());
+    }
+
+    public void testStreamHead() throws Exception {
+        FakeResponse response = stream(textResource, request("HEAD"));
+        assertEquals("status", HttpServletResponse.SC_OK, response.status);
+        assertEquals("Content-Length", "10", response.headers.get("Content-Length"));
+        assertEquals("no content", 0, response.out.size());
+    }
+
+    public void testStreamNotModified() throws Exception {
+        String eTag = stream(textResource, request("GET")).headers.get("ETag");
+        FakeResponse response = stream(textResource, request("GET", "If-None-Match", eTag));
+        assertEquals("status", HttpServletResponse.SC_NOT_MODIFIED, response.status);
+        assertEquals("no content", 0, response.out.size());
+
+        response = stream(textResource, request("GET", "If-None-Match", "\"DRSTEST_TEXT-0\""));
+        assertEquals("status of an old copy", HttpServletResponse.SC_OK, response.status);
+        assertEquals("content of an old copy", TEXT, response.out.toString());
+    }
+
+    public void testStreamRange() throws Exception {
+        FakeResponse response = stream(textResource, request("GET", "Range", "bytes=2-4"));
+        assertEquals("status", HttpServletResponse.SC_PARTIAL_CONTENT, response.status);
+        assertEquals("Content-Range", "bytes 2-4/10", response.headers.get("Content-Range"));
+        assertEquals("Content-Length", "3", response.headers.get("Content-Length"));
+        assertEquals("content", "234", response.out.toString());
+    }
+
+    public void testStreamSuffixRange() throws Exception {
+        FakeResponse response = stream(textResource, request("GET", "Range", "bytes=-3"));
+        assertEquals("status", HttpServletResponse.SC_PARTIAL_CONTENT, response.status);
+        assertEquals("Content-Range", "bytes 7-9/10", response.headers.get("Content-Range"));
+        assertEquals("content", "789", response.out.toString());
+    }
+
+    public void testStreamOpenEndedRange() throws Exception {
+        FakeResponse response = stream(textResource, request("GET", "Range", "bytes=6-"));
+        assertEquals("status", HttpServletResponse.SC_PARTIAL_CONTENT, response.status);
+        assertEquals("Content-Range", "bytes 6-9/10", response.headers.get("Content-Range"));
+        assertEquals("content", "6789", response.out.toString());
+    }
+
+    public void testStreamUnsatisfiableRange() throws Exception {
+        FakeResponse response = stream(textResource, request("GET", "Range", "bytes=10-"));
+        assertEquals("status", HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE, response.status);
+        assertEquals("Content-Range", "bytes */10", response.headers.get("Content-Range"));
+        assertEquals("no content", 0, response.out.size());
+    }
+
+    public void testStreamInvertedRange() throws Exception {
+        FakeResponse response = stream(textResource, request("GET", "Range", "bytes=5-2"));
+        assertEquals("status", HttpServletResponse.SC_OK, response.status);
+        assertNull("Content-Range", response.headers.get("Content-Range"));
+        assertEquals("content", TEXT, response.out.toString());
+    }
+
+    public void testStreamMultipleRanges() throws Exception {
+        FakeResponse response = stream(textResource, request("GET", "Range", "bytes=0-1,4-5"));
+        assertEquals("status", HttpServletResponse.SC_OK, response.status);
+        assertNull("Content-Range", response.headers.get("Content-Range"));
+        assertEquals("Content-Length", "10", response.headers.get("Content-Length"));
+        assertEquals("content", TEXT, response.out.toString());
+    }
+
+    public void testStreamIfRange() throws Exception {
+        String eTag = stream(textResource, request("GET")).headers.get("ETag");
+        FakeResponse response = stream(textResource, request("GET", "Range", "bytes=2-4", "If-Range", eTag));
+        assertEquals("status of a current copy", HttpServletResponse.SC_PARTIAL_CONTENT, response.status);
+        assertEquals("content of a current copy", "234", response.out.toString());
+
+        response = stream(textResource, request("GET", "Range", "bytes=2-4", "If-Range", "\"DRSTEST_TEXT-0\""));
+        assertEquals("status of an old copy", HttpServletResponse.SC_OK, response.status);
+        assertNull("Content-Range of an old copy", response.headers.get("Content-Range"));
+        assertEquals("content of an old copy", TEXT, response.out.toString());
+    }
+
+    public void testStreamObjectRange() throws Exception {
+        FakeResponse response = stream(objectResource, request("GET"));
+        assertEquals("status", HttpServletResponse.SC_OK, response.status);
+        assertTrue("content", Arrays.equals(OBJECT, response.out.toByteArray()));
+
+        response = stream(objectResource, request("GET", "Range", "bytes=3-5"));
+        assertEquals("range status", HttpServletResponse.SC_PARTIAL_CONTENT, response.status);
+        assertEquals("Content-Range", "bytes 3-5/10", response.headers.get("Content-Range"));
+        assertTrue("range content", Arrays.equals(new byte[] {13, 14, 15}, response.out.toByteArray()));
+    }
+
+    public void testObjectDataStreamClosesSQLProcessor() throws Exception {
+        Map<String, Object> objectData = DataResourceWorker.getObjectDataStream(delegator, "OTHER_OBJECT", "DRSTEST_OBJECT");
+        assertNotNull("stream", objectData);
+        assertEquals("length", Long.valueOf(OBJECT.length), objectData.get("length"));
+        InputStream in = (InputStream) objectData.get("stream");
+        if (in instanceof ByteArrayInputStream) {
+            // the database returned the bytes instead of a BLOB locator, no connection is held
+            assertTrue("content", Arrays.equals(OBJECT, readAll(in)));
+            return;
+        }
+        Field field = in.getClass().getDeclaredField("sqlP");
+        field.setAccessible(true);
+        SQLProcessor sqlP = (SQLProcessor) field.get(in);
+        assertNotNull("open SQLProcessor", sqlP);
+        assertNotNull("open result set", sqlP.getResultSet());
+        assertTrue("content", Arrays.equals(OBJECT, readAll(in)));
+        in.close();
+        assertNull("closed result set", sqlP.getResultSet());
+        assertNull("closed statement", sqlP.getPreparedStatement());
+        assertNull("released SQLProcessor", field.get(in));
+        // closing again does nothing
+        in.close();
+    }
+
+    private static void assertRange(String label, long first, long last, long[] range) {
+        assertNotNull(label, range);
+        assertEquals(label + " first", first, range[0]);
+        assertEquals(label + " last", last, range[1]);
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4];
+        int read;
+        while ((read = in.read(buffer)) >= 0) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    private static FakeResponse stream(GenericValue dataResource, HttpServletRequest request) throws Exception {
+        FakeResponse response = new FakeResponse();
+        DataResourceStreamer.streamDataResource(request, response.proxy, dataResource, "application/octet-stream", null, null, null, Locale.getDefault(), null);
+        return response;
+    }
+
+    private static HttpServletRequest request(final String method, String... headers) {
+        final Map<String, String> headerMap = FastMap.newInstance();
+        for (int i = 0; i < headers.length; i += 2) {
+            headerMap.put(headers[i], headers[i + 1]);
+        }
+        return (HttpServletRequest) Proxy.newProxyInstance(DataResourceStreamerTests.class.getClassLoader(), new Class<?>[] {HttpServletRequest.class},
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method m, Object[] args) {
+                        if ("getMethod".equals(m.getName())) {
+                            return method;
+                        } else if ("getHeader".equals(m.getName())) {
+                            return headerMap.get(args[0]);
+                        }
+                        throw new UnsupportedOperationException(m.getName());
+                    }
+                });
+    }
+
+    /**
+     * Records the status, the headers and the content sent to an <code>HttpServletResponse</code>.
+     */
+    private static final class FakeResponse implements InvocationHandler {
+
+        private final Map<String, String> headers = FastMap.newInstance();
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        private final HttpServletResponse proxy;
+        private int status = HttpServletResponse.SC_OK;
+
+        private FakeResponse() {
+            proxy = (HttpServletResponse) Proxy.newProxyInstance(DataResourceStreamerTests.class.getClassLoader(), new Class<?>[] {HttpServletResponse.class}, this);
+        }
+
+        public Object invoke(Object p, Method m, Object[] args) {
+            String name = m.getName();
+            if ("setHeader".equals(name) || "addHeader".equals(name)) {
+                headers.put((String) args[0], (String) args[1]);
+            } else if ("setDateHeader".equals(name)) {
+                headers.put((String) args[0], String.valueOf(args[1]));
+            } else if ("setStatus".equals(name) || "sendError".equals(name)) {
+                status = ((Integer) args[0]).intValue();
+            } else if ("setContentType".equals(name)) {
+                headers.put("Content-Type", (String) args[0]);
+            } else if ("getOutputStream".equals(name)) {
+                return new ServletOutputStream() {
+                    @Override
+                    public void write(int b) {
+                        out.write(b);
+                    }
+                };
+            } else {
+                throw new UnsupportedOperationException(name);
+            }
+            return null;
+        }
+    }
+}
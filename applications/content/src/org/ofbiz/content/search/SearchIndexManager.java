@@ -0,0 +1,411 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+/* This file has been modified by Open Source Strategies, Inc. */
+package org.ofbiz.content.search;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javolution.util.FastList;
+import javolution.util.FastMap;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.LockObtainFailedException;
+import org.apache.lucene.store.NativeFSLockFactory;
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.UtilProperties;
+
+/**
+ * Keeps one <code>IndexWriter</code> open per content search index for the life of the JVM, so that indexing a content
+ * only adds its changes to the index instead of rewriting it.
+ * <p>
+ * The documents are replaced with <code>updateDocument</code> and the changes are committed every
+ * <code>index.commitInterval</code> milliseconds (see <code>search.properties</code>). After each commit the shared
+ * reader the searches use is reopened, which only loads the new segments, so a change is searchable within one commit
+ * interval. The segments are only merged into one by {@link #optimize()}, which is run by the
+ * <code>optimizeContentIndex</code> service as a maintenance job.
+ * <p>
+ * The searches only open a reader, the writer is opened the first time the index is written. The write lock is a native
+ * file system lock, which is released by the operating system when the JVM holding it exits, so a lock file left by an
+ * unclean shutdown does not block the writer, and a lock still held by another JVM is never removed.
+ */
+public final class SearchIndexManager {
+
+    public static final String module = SearchIndexManager.class.getName();
+
+    private static final ConcurrentMap<String, SearchIndexManager> managers = new ConcurrentHashMap<String, SearchIndexManager>();
+    private static Timer committer = null;
+
+    private final String path;
+    private final Directory directory;
+    // opened the first time the index is written
+    private volatile IndexWriter writer = null;
+    private final Object commitLock = new Object();
+    private volatile boolean dirty = false;
+    // the reader of the last commit, its reference is held by the manager and one more by each search using it,
+    //  null until the index exists
+    private IndexReader reader;
+
+    private final long since = System.currentTimeMillis();
+    private final AtomicLong indexed = new AtomicLong();
+    private final AtomicLong deleted = new AtomicLong();
+    private final AtomicLong totalIndexTime = new AtomicLong();
+    private final AtomicLong commits = new AtomicLong();
+    private final AtomicLong totalCommitTime = new AtomicLong();
+    private final AtomicLong searches = new AtomicLong();
+    private final AtomicLong totalSearchTime = new AtomicLong();
+    private final AtomicLong maxSearchTime = new AtomicLong();
+    private volatile long lastOptimizeTime = 0;
+
+    private SearchIndexManager(String path) throws IOException {
+        this.path = path;
+        File dir = new File(path);
+        this.directory = FSDirectory.getDirectory(dir, new NativeFSLockFactory(dir));
+        if (IndexReader.indexExists(directory)) {
+            this.reader = IndexReader.open(directory, true);
+        }
+    }
+
+    /**
+     * Gets the manager of a content search index to write it, opening its writer and creating the index the first time.
+     * @param path the index path, as returned by <code>SearchWorker.getIndexPath</code>
+     * @return the <code>SearchIndexManager</code>
+     * @throws IOException if the index could not be opened, or if its write lock is held by another JVM
+     */
+    public static SearchIndexManager getInstance(String path) throws IOException {
+        SearchIndexManager manager = getManager(path);
+        manager.openWriter();
+        return manager;
+    }
+
+    /**
+     * Gets the manager of a content search index to search it, without opening a writer.
+     * @param path the index path, as returned by <code>SearchWorker.getIndexPath</code>
+     * @return the <code>SearchIndexManager</code>
+     * @throws FileNotFoundException if the index does not exist
+     * @throws IOException if the index could not be opened
+     */
+    public static SearchIndexManager getSearchInstance(String path) throws IOException {
+        // do not create the index directory, nor its lock file, only to search it
+        if (!managers.containsKey(new File(path).getCanonicalPath()) && !IndexReader.indexExists(path)) {
+            throw new FileNotFoundException("No content search index exists in " + path);
+        }
+        SearchIndexManager manager = getManager(path);
+        if (!manager.hasReader() && !manager.refreshReader()) {
+            throw new FileNotFoundException("No content search index exists in " + path);
+        }
+        return manager;
+    }
+
+    private static SearchIndexManager getManager(String path) throws IOException {
+        String key = new File(path).getCanonicalPath();
+        SearchIndexManager manager = managers.get(key);
+        if (manager == null) {
+            synchronized (SearchIndexManager.class) {
+                manager = managers.get(key);
+                if (manager == null) {
+                    manager = new SearchIndexManager(path);
+                    if (committer == null) {
+                        long interval = Math.max(100, (long) UtilProperties.getPropertyNumber("search", "index.commitInterval", 5000));
+                        committer = new Timer("content-search-index-commit", true);
+                        committer.schedule(new CommitTask(), interval, interval);
+                        Runtime.getRuntime().addShutdownHook(new Thread("content-search-index-close") {
+                            @Override
+                            public void run() {
+                                closeAll();
+                            }
+                        });
+                    }
+                    managers.put(key, manager);
+                    Debug.logInfo("Opened the content search index " + path, module);
+                }
+            }
+        }
+        return manager;
+    }
+
+    private void openWriter() throws IOException {
+        if (writer != null) {
+            return;
+        }
+        synchronized (commitLock) {
+            if (writer != null) {
+                return;
+            }
+            try {
+                writer = new IndexWriter(directory, new StandardAnalyzer(), !IndexReader.indexExists(directory), IndexWriter.MaxFieldLength.UNLIMITED);
+            } catch (LockObtainFailedException e) {
+                // the native lock is only held by a running JVM, which could be writing the index
+                Debug.logError(e, "The content search index " + path + " is locked by another process, it cannot be written", module);
+                throw e;
+            }
+            Debug.logInfo("Opened the writer of the content search index " + path, module);
+        }
+        refreshReader();
+    }
+
+    /**
+     * Opens the reader of the searches once the index exists, or reopens it to see the last commit.
+     * @return <code>true</code> if the index exists
+     */
+    private boolean refreshReader() throws IOException {
+        synchronized (commitLock) {
+            IndexReader oldReader;
+            synchronized (this) {
+                oldReader = reader;
+            }
+            IndexReader newReader;
+            if (oldReader == null) {
+                if (!IndexReader.indexExists(directory)) {
+                    return false;
+                }
+                newReader = IndexReader.open(directory, true);
+            } else {
+                newReader = oldReader.reopen();
+            }
+            if (newReader != oldReader) {
+                synchronized (this) {
+                    reader = newReader;
+                }
+                if (oldReader != null) {
+                    // closed once the searches still using it are done
+                    oldReader.decRef();
+                }
+            }
+            return true;
+        }
+    }
+
+    private synchronized boolean hasReader() {
+        return reader != null;
+    }
+
+    private IndexWriter getWriter() throws IOException {
+        openWriter();
+        return writer;
+    }
+
+    /**
+     * Replaces the documents having the given term with a new document, or adds it.
+     * @param term the term identifying the document, like the contentId
+     * @param doc the new <code>Document</code>
+     * @throws IOException if the index could not be written
+     */
+    public void updateDocument(Term term, Document doc) throws IOException {
+        long startTime = System.currentTimeMillis();
+        getWriter().updateDocument(term, doc);
+        dirty = true;
+        indexed.incrementAndGet();
+        totalIndexTime.addAndGet(System.currentTimeMillis() - startTime);
+    }
+
+    /**
+     * Deletes the documents having the given term.
+     * @param term the term identifying the documents
+     * @throws IOException if the index could not be written
+     */
+    public void deleteDocuments(Term term) throws IOException {
+        getWriter().deleteDocuments(term);
+        dirty = true;
+        deleted.incrementAndGet();
+    }
+
+    /**
+     * Commits the changes, and reopens the reader used by the searches so that they see the changes.
+     * This is called on schedule, and only needs to be called to make the changes visible at once.
+     * When the index is not written by this JVM, only reopens the reader to see the changes committed by the writer.
+     * @throws IOException if the index could not be written
+     */
+    public void commit() throws IOException {
+        synchronized (commitLock) {
+            if (writer == null) {
+                refreshReader();
+                return;
+            }
+            if (!dirty) {
+                return;
+            }
+            long startTime = System.currentTimeMillis();
+            dirty = false;
+            try {
+                writer.commit();
+            } catch (IOException e) {
+                dirty = true;
+                throw e;
+            }
+            refreshReader();
+            commits.incrementAndGet();
+            totalCommitTime.addAndGet(System.currentTimeMillis() - startTime);
+        }
+    }
+
+    /**
+     * Merges the index into a single segment, which makes the searches faster but rewrites the whole index.
+     * This is a maintenance task, never run when indexing.
+     * @throws IOException if the index could not be written
+     */
+    public void optimize() throws IOException {
+        long startTime = System.currentTimeMillis();
+        getWriter().optimize();
+        dirty = true;
+        commit();
+        lastOptimizeTime = System.currentTimeMillis();
+        Debug.logInfo("Optimized the content search index " + path + " in " + (lastOptimizeTime - startTime) + " ms", module);
+    }
+
+    /**
+     * Searches the last committed state of the index.
+     * @param query the <code>Query</code>
+     * @return the matching documents, best first
+     * @throws IOException if the index could not be read
+     */
+    public List<Document> search(Query query) throws IOException {
+        long startTime = System.currentTimeMillis();
+        IndexReader searchReader;
+        synchronized (this) {
+            searchReader = reader;
+            if (searchReader == null) {
+                return Collections.emptyList();
+            }
+            searchReader.incRef();
+        }
+        try {
+            if (searchReader.maxDoc() == 0) {
+                return Collections.emptyList();
+            }
+            IndexSearcher searcher = new IndexSearcher(searchReader);
+            TopDocs topDocs = searcher.search(query, null, searchReader.maxDoc());
+            List<Document> docs = FastList.newInstance();
+            for (ScoreDoc scoreDoc : topDocs.scoreDocs) {
+                docs.add(searcher.doc(scoreDoc.doc));
+            }
+            return docs;
+        } finally {
+            searchReader.decRef();
+            long searchTime = System.currentTimeMillis() - startTime;
+            searches.incrementAndGet();
+            totalSearchTime.addAndGet(searchTime);
+            long max = maxSearchTime.get();
+            while (searchTime > max && !maxSearchTime.compareAndSet(max, searchTime)) {
+                max = maxSearchTime.get();
+            }
+        }
+    }
+
+    /**
+     * Gets the indexing and search counters of the index.
+     * @return a <code>Map</code> with the index path and number of documents, the number of documents indexed and
+     *  deleted and the number of documents indexed per minute since the index was opened, the average time in milliseconds
+     *  to index a document, the number of commits and their average time, the number of searches and their average and max time,
+     *  and the time of the last optimize
+     */
+    public Map<String, Object> getStatistics() {
+        long indexedCount = indexed.get();
+        long commitCount = commits.get();
+        long searchCount = searches.get();
+        long elapsed = Math.max(1, System.currentTimeMillis() - since);
+        Map<String, Object> map = FastMap.newInstance();
+        map.put("path", path);
+        try {
+            IndexWriter statisticsWriter = writer;
+            if (statisticsWriter != null) {
+                map.put("numDocs", statisticsWriter.numDocs());
+            } else {
+                IndexReader statisticsReader;
+                synchronized (this) {
+                    statisticsReader = reader;
+                }
+                map.put("numDocs", statisticsReader != null ? statisticsReader.numDocs() : 0);
+            }
+        } catch (IOException e) {
+            Debug.logWarning(e, "Could not count the documents of the content search index " + path, module);
+        }
+        map.put("indexed", indexedCount);
+        map.put("deleted", deleted.get());
+        map.put("indexedPerMinute", indexedCount * 60000 / elapsed);
+        map.put("averageIndexTime", indexedCount > 0 ? totalIndexTime.get() / indexedCount : 0L);
+        map.put("commits", commitCount);
+        map.put("averageCommitTime", commitCount > 0 ? totalCommitTime.get() / commitCount : 0L);
+        map.put("searches", searchCount);
+        map.put("averageSearchTime", searchCount > 0 ? totalSearchTime.get() / searchCount : 0L);
+        map.put("maxSearchTime", maxSearchTime.get());
+        map.put("lastOptimizeTime", lastOptimizeTime);
+        return map;
+    }
+
+    /**
+     * Gets the counters of all the indexes opened, see {@link #getStatistics()}.
+     * @return a list of <code>Map</code>
+     */
+    public static List<Map<String, Object>> getAllStatistics() {
+        List<Map<String, Object>> statistics = FastList.newInstance();
+        for (SearchIndexManager manager : managers.values()) {
+            statistics.add(manager.getStatistics());
+        }
+        return statistics;
+    }
+
+    private static void closeAll() {
+        for (SearchIndexManager manager : managers.values()) {
+            try {
+                manager.commit();
+                if (manager.writer != null) {
+                    manager.writer.close();
+                }
+                if (manager.reader != null) {
+                    manager.reader.decRef();
+                }
+            } catch (IOException e) {
+                Debug.logError(e, "Could not close the content search index " + manager.path, module);
+            }
+        }
+    }
+
+    private static final class CommitTask extends TimerTask {
+        @Override
+        public void run() {
+            for (SearchIndexManager manager : managers.values()) {
+                try {
+                    manager.commit();
+                } catch (Throwable t) {
+                    Debug.logError(t, "Could not commit the content search index " + manager.path, module);
+                }
+            }
+        }
+    }
+}
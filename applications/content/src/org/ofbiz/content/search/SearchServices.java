@@ -19,6 +19,7 @@
 /* This file has been modified by Open Source Strategies, Inc. */
 package org.ofbiz.content.search;
 
+import java.io.IOException;
 import java.util.List;
 import java.util.Map;
 
@@ -62,4 +63,21 @@ public class SearchServices {
         if (Debug.infoOn()) Debug.logInfo("in indexTree, results:" + results, module);
         return results;
     }
+
+    public static Map<String, Object> optimizeContentIndex(DispatchContext dctx, Map<String, ? extends Object> context) {
+        String path = (String) context.get("path");
+        try {
+            SearchIndexManager.getInstance(SearchWorker.getIndexPath(path)).optimize();
+        } catch (IOException e) {
+            Debug.logError(e, module);
+            return ServiceUtil.returnError("Error optimizing the content index: " + e.toString());
+        }
+        return ServiceUtil.returnSuccess();
+    }
+
+    public static Map<String, Object> getContentIndexStatistics(DispatchContext dctx, Map<String, ? extends Object> context) {
+        Map<String, Object> results = ServiceUtil.returnSuccess();
+        results.put("statistics", SearchIndexManager.getAllStatistics());
+        return results;
+    }
 }
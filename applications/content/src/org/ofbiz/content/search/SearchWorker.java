@@ -19,7 +19,6 @@
 /* This file has been modified by Open Source Strategies, Inc. */
 package org.ofbiz.content.search;
 
-import java.io.FileNotFoundException;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -38,7 +37,6 @@ import org.ofbiz.entity.GenericEntityException;
 import org.ofbiz.entity.GenericValue;
 import org.ofbiz.service.LocalDispatcher;
 
-import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
@@ -103,65 +101,35 @@ public class SearchWorker {
         String indexAllPath = getIndexPath(path);
         if (Debug.infoOn())
             Debug.logInfo("in indexContent, indexAllPath:" + indexAllPath, module);
-        GenericValue content = null;
-        // Delete existing documents
-        Iterator iter = null;
-        List contentList = null;
-        IndexReader reader = null;
-        try {
-            reader = IndexReader.open(indexAllPath);
-        } catch (Exception e) {
-            // ignore
-        }
-        //if (Debug.infoOn()) Debug.logInfo("in indexContent, reader:" +
-        // reader, module);
-        contentList = FastList.newInstance();
-        iter = idList.iterator();
+        SearchIndexManager indexManager = SearchIndexManager.getInstance(indexAllPath);
+        Iterator iter = idList.iterator();
         while (iter.hasNext()) {
             String id = (String) iter.next();
             if (Debug.infoOn())
                 Debug.logInfo("in indexContent, id:" + id, module);
+            GenericValue content = null;
             try {
                 content = delegator.findByPrimaryKeyCache("Content", UtilMisc .toMap("contentId", id));
-                if (content != null) {
-                    if (reader != null) {
-                        deleteContentDocument(content, reader);
-                    }
-                    contentList.add(content);
-                }
             } catch (GenericEntityException e) {
                 Debug.logError(e, module);
                 return;
             }
+            if (content != null) {
+                indexContent(dispatcher, delegator, context, content, indexManager);
+            }
         }
-        if (reader != null) {
-            reader.close();
-        }
-        // Now create
-        IndexWriter writer = null;
-        try {
-            writer = new IndexWriter(indexAllPath, new StandardAnalyzer(), false, IndexWriter.MaxFieldLength.UNLIMITED);
-        } catch (Exception e) {
-            writer = new IndexWriter(indexAllPath, new StandardAnalyzer(), true, IndexWriter.MaxFieldLength.UNLIMITED);
-        }
-        //if (Debug.infoOn()) Debug.logInfo("in indexContent, writer:" +
-        // writer, module);
-        iter = contentList.iterator();
-        while (iter.hasNext()) {
-            content = (GenericValue) iter.next();
-            indexContent(dispatcher, delegator, context, content, writer);
-        }
-        writer.optimize();
-        writer.close();
     }
 
 
     public static void deleteContentDocument(GenericValue content, String path) throws Exception {
         String indexAllPath = null;
         indexAllPath = getIndexPath(path);
-        IndexReader reader = IndexReader.open(indexAllPath);
-            deleteContentDocument(content, reader);
-            reader.close();
+        SearchIndexManager indexManager = SearchIndexManager.getInstance(indexAllPath);
+        indexManager.deleteDocuments(new Term("contentId", content.getString("contentId")));
+        String dataResourceId = content.getString("dataResourceId");
+        if (dataResourceId != null) {
+            indexManager.deleteDocuments(new Term("dataResourceId", dataResourceId));
+        }
     }
 
     public static void deleteContentDocument(GenericValue content, IndexReader reader) throws Exception {
@@ -188,25 +156,36 @@ public class SearchWorker {
 
     public static void indexContent(LocalDispatcher dispatcher, Delegator delegator, Map context, GenericValue content, String path) throws Exception {
         String indexAllPath = getIndexPath(path);
-        IndexWriter writer = null;
-        try {
-               writer = new IndexWriter(indexAllPath, new StandardAnalyzer(), false, IndexWriter.MaxFieldLength.UNLIMITED);
-                    if (Debug.infoOn()) Debug.logInfo("Used old directory:" + indexAllPath, module);
-        } catch (FileNotFoundException e) {
-               writer = new IndexWriter(indexAllPath, new StandardAnalyzer(), true, IndexWriter.MaxFieldLength.UNLIMITED);
-                    if (Debug.infoOn()) Debug.logInfo("Created new directory:" + indexAllPath, module);
-        }
+        indexContent(dispatcher, delegator, context, content, SearchIndexManager.getInstance(indexAllPath));
+    }
 
-        indexContent(dispatcher, delegator, context, content, writer);
-           writer.optimize();
-        writer.close();
+    /**
+     * Indexes a content in the shared writer of its index, replacing its previous document.
+     */
+    public static void indexContent(LocalDispatcher dispatcher, Delegator delegator, Map context, GenericValue content, SearchIndexManager indexManager) throws Exception {
+        // as before, reindexing a content also removes the document of its data resource
+        String dataResourceId = content.getString("dataResourceId");
+        if (dataResourceId != null) {
+            indexManager.deleteDocuments(new Term("dataResourceId", dataResourceId));
+        }
+        Term term = new Term("contentId", content.getString("contentId"));
+        Document doc = ContentDocument.Document(content, context, dispatcher);
+        if (doc != null) {
+            indexManager.updateDocument(term, doc);
+            Integer goodIndexCount = (Integer)context.get("goodIndexCount");
+            int newCount = goodIndexCount.intValue() + 1;
+            Integer newIndexCount = Integer.valueOf(newCount);
+            context.put("goodIndexCount", newIndexCount);
+        } else {
+            indexManager.deleteDocuments(term);
+        }
     }
 
     public static void indexContent(LocalDispatcher dispatcher, Delegator delegator, Map context, GenericValue content, IndexWriter writer) throws Exception {
         Document doc = ContentDocument.Document(content, context, dispatcher);
         //if (Debug.infoOn()) Debug.logInfo("in indexContent, content:" + content, module);
             if (doc != null) {
-                writer.addDocument(doc);
+                writer.updateDocument(new Term("contentId", content.getString("contentId")), doc);
                 Integer goodIndexCount = (Integer)context.get("goodIndexCount");
                 int newCount = goodIndexCount.intValue() + 1;
                 Integer newIndexCount = Integer.valueOf(newCount);
@@ -228,21 +207,13 @@ public class SearchWorker {
 
     public static void indexDataResource(Delegator delegator, Map context, String id, String path) throws Exception {
         String indexAllPath = getIndexPath(path);
-        IndexWriter writer = null;
-        try {
-            writer = new IndexWriter(indexAllPath, new StandardAnalyzer(), false, IndexWriter.MaxFieldLength.UNLIMITED);
-        } catch (FileNotFoundException e) {
-            writer = new IndexWriter(indexAllPath, new StandardAnalyzer(), true, IndexWriter.MaxFieldLength.UNLIMITED);
-        }
-        indexDataResource(delegator, context, id, writer);
-        writer.optimize();
-        writer.close();
-
+        Document doc = DataResourceDocument.Document(id, delegator, context);
+        SearchIndexManager.getInstance(indexAllPath).updateDocument(new Term("dataResourceId", id), doc);
     }
 
     public static void indexDataResource(Delegator delegator, Map context, String id, IndexWriter writer) throws Exception {
         Document doc = DataResourceDocument.Document(id, delegator, context);
-        writer.addDocument(doc);
+        writer.updateDocument(new Term("dataResourceId", id), doc);
     }
 
     public static String getIndexPath(String path) {
@@ -19,9 +19,7 @@
 /* This file has been modified by Open Source Strategies, Inc. */
 package org.ofbiz.content.view;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.nio.ByteBuffer;
 import java.sql.Timestamp;
 import java.text.ParseException;
 import java.util.List;
@@ -38,7 +36,7 @@ import org.ofbiz.base.util.UtilHttp;
 import org.ofbiz.base.util.UtilMisc;
 import org.ofbiz.base.util.UtilValidate;
 import org.ofbiz.content.content.ContentWorker;
-import org.ofbiz.content.data.DataResourceWorker;
+import org.ofbiz.content.data.DataResourceStreamer;
 import org.ofbiz.entity.Delegator;
 import org.ofbiz.entity.GenericEntityException;
 import org.ofbiz.entity.GenericValue;
@@ -127,8 +125,6 @@ public class SimpleContentViewHandler extends AbstractViewHandler {
             if (UtilValidate.isNotEmpty(dataResourceId)) {
                 GenericValue dataResource = delegator.findByPrimaryKeyCache("DataResource", UtilMisc.toMap("dataResourceId", dataResourceId));
                 // DEJ20080717: why are we rendering the DataResource directly instead of rendering the content?
-                ByteBuffer byteBuffer = DataResourceWorker.getContentAsByteBuffer(delegator, dataResourceId, https, webSiteId, locale, rootDir);
-                ByteArrayInputStream bais = new ByteArrayInputStream(byteBuffer.array());
                 // hack for IE and mime types
                 //String userAgent = request.getHeader("User-Agent");
                 //if (userAgent.indexOf("MSIE") > -1) {
@@ -151,7 +147,7 @@ public class SimpleContentViewHandler extends AbstractViewHandler {
                 if (!UtilValidate.isEmpty(dataResource.getString("dataResourceName"))) {
                     fileName = dataResource.getString("dataResourceName").replace(" ", "_"); // spaces in filenames can be a problem
                 }
-                UtilHttp.streamContentToBrowser(response, bais, byteBuffer.limit(), contentType2, fileName);
+                DataResourceStreamer.streamDataResource(request, response, dataResource, contentType2, fileName, https, webSiteId, locale, rootDir);
             }
         } catch (GenericEntityException e) {
             throw new ViewHandlerException(e.getMessage());
@@ -21,19 +21,16 @@
 import org.apache.lucene.analysis.Analyzer
 import org.apache.lucene.analysis.standard.StandardAnalyzer
 import org.apache.lucene.document.Document
-import org.apache.lucene.search.Searcher
-import org.apache.lucene.search.IndexSearcher
-import org.apache.lucene.index.IndexReader
 import org.apache.lucene.search.Query
 import org.apache.lucene.search.TermQuery
 import org.apache.lucene.search.BooleanQuery
 import org.apache.lucene.search.BooleanClause;
 import org.apache.lucene.index.Term
-import org.apache.lucene.search.Hits
 import org.apache.lucene.queryParser.QueryParser
 import org.ofbiz.base.util.UtilHttp
 import org.ofbiz.base.util.Debug
 import org.ofbiz.product.feature.ParametricSearch
+import org.ofbiz.content.search.SearchIndexManager
 import org.ofbiz.content.search.SearchWorker
 
 paramMap = UtilHttp.getParameterMap(request);
@@ -53,14 +50,13 @@ Debug.logInfo("in search, featureIdByType:" + featureIdByType, "");
 
 combQuery = new BooleanQuery();
 indexPath = null;
-Searcher searcher = null;
+SearchIndexManager indexManager = null;
 Analyzer analyzer = null;
 
 try {
     indexPath = SearchWorker.getIndexPath(null);
     Debug.logInfo("in search, indexPath:" + indexPath, "");
-    searcher = new IndexSearcher(indexPath);
-    Debug.logInfo("in search, searcher:" + searcher, "");
+    indexManager = SearchIndexManager.getSearchInstance(indexPath);
     analyzer = new StandardAnalyzer();
 } catch (java.io.FileNotFoundException e) {
     request.setAttribute("errorMsgReq", "No index file exists.");
@@ -120,15 +116,14 @@ if (searchFeature1 || searchFeature2 || searchFeature3 || !featureIdByType.isEmp
         combQuery.add(featureQuery, featuresRequired);
     }
 }
-if (searcher) {
+if (indexManager) {
     Debug.logInfo("in search searchFeature3, combQuery:" + combQuery.toString(), "");
-    Hits hits = searcher.search(combQuery);
-    Debug.logInfo("in search, hits:" + hits.length(), "");
+    hits = indexManager.search(combQuery);
+    Debug.logInfo("in search, hits:" + hits.size(), "");
 
     contentList = [] as ArrayList;
     hitSet = [:] as HashSet;
-    for (int start = 0; start < hits.length(); start++) {
-         doc = hits.doc(start);
+    hits.each { doc ->
          contentId = doc.contentId;
          content = delegator.findOne("Content", [contentId : contentId], true);
          if (!hitSet.contains(contentId)) {
@@ -0,0 +1,402 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+/* This file has been modified by Open Source Strategies, Inc. */
+package org.ofbiz.order.shoppingcart.product;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javolution.util.FastList;
+import javolution.util.FastMap;
+
+import org.ofbiz.base.util.UtilMisc;
+import org.ofbiz.base.util.UtilValidate;
+import org.ofbiz.entity.Delegator;
+import org.ofbiz.entity.GenericEntityException;
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.cache.Cache;
+import org.ofbiz.entity.condition.EntityCondition;
+import org.ofbiz.entity.condition.EntityOperator;
+import org.ofbiz.entity.util.EntityUtil;
+import org.ofbiz.order.shoppingcart.ShoppingCart;
+import org.ofbiz.order.shoppingcart.ShoppingCartItem;
+
+/**
+ * The rules of a promotion compiled for <code>ProductPromoWorker</code>: the conditions and actions of each rule in the order
+ * they are run, and the product id sets of the conditions and actions, which were otherwise rebuilt from the promotion
+ * categories and the category members each time a condition was checked or an action performed.
+ * <p>
+ * A compiled promotion is kept in the entity object cache, and is compiled again when one of the cached lists of its rules,
+ * conditions, actions, categories or products it was compiled from has been replaced in the entity cache.
+ * A product id set is kept until any category member or rollup changes, or until one of the dated members or rollups it was
+ * built from starts or ends.
+ * <p>
+ * When the first condition of a rule can only be met by cart lines of its products, the rule is gated by the product id set
+ * of that condition, and a promotion which rules are all gated by products none of the cart lines have does not need to run:
+ * checking its rules would not change the cart.
+ */
+public class CompiledProductPromo {
+
+    public static final String module = CompiledProductPromo.class.getName();
+
+    private static final String CACHE_NAME = "compiledProductPromo";
+    private static final String VERSION_NAME = "compiledProductPromoVersion";
+    /** Matches all the category members and rollups, so the version token is removed on any change to them. */
+    private static final EntityCondition VERSION_CONDITION = EntityCondition.makeCondition("productCategoryId", EntityOperator.NOT_EQUAL, null);
+
+    private final String productPromoId;
+    private final List<GenericValue> productPromoRules;
+    private final List<GenericValue> productPromoConds;
+    private final List<GenericValue> productPromoActions;
+    private final List<GenericValue> productPromoCategories;
+    private final List<GenericValue> productPromoProducts;
+
+    private final Map<String, List<GenericValue>> condsByRule = FastMap.newInstance();
+    private final Map<String, List<GenericValue>> actionsByRule = FastMap.newInstance();
+    private final List<GenericValue> gateConds = FastList.newInstance();
+    private final boolean hasOrderTotalCondition;
+
+    private final ConcurrentMap<String, ProductIds> productIds = new ConcurrentHashMap<String, ProductIds>();
+
+    private CompiledProductPromo(String productPromoId, List<GenericValue> productPromoRules, List<GenericValue> productPromoConds, List<GenericValue> productPromoActions,
+            List<GenericValue> productPromoCategories, List<GenericValue> productPromoProducts) {
+        this.productPromoId = productPromoId;
+        this.productPromoRules = productPromoRules;
+        this.productPromoConds = productPromoConds;
+        this.productPromoActions = productPromoActions;
+        this.productPromoCategories = productPromoCategories;
+        this.productPromoProducts = productPromoProducts;
+
+        boolean hasOtCond = false;
+        for (GenericValue productPromoCond : productPromoConds) {
+            if ("PPIP_ORDER_TOTAL".equals(productPromoCond.getString("inputParamEnumId"))) {
+                hasOtCond = true;
+                break;
+            }
+        }
+        this.hasOrderTotalCondition = hasOtCond;
+
+        boolean allGated = true;
+        for (GenericValue productPromoRule : productPromoRules) {
+            String productPromoRuleId = productPromoRule.getString("productPromoRuleId");
+            // same filtering and ordering as the conditions and actions were read for each rule
+            List<GenericValue> conds = EntityUtil.filterByAnd(productPromoConds, UtilMisc.toMap("productPromoRuleId", productPromoRuleId));
+            List<GenericValue> actions = EntityUtil.filterByAnd(productPromoActions, UtilMisc.toMap("productPromoRuleId", productPromoRuleId));
+            actions = EntityUtil.orderBy(actions, UtilMisc.toList("productPromoActionSeqId"));
+            condsByRule.put(productPromoRuleId, conds);
+            actionsByRule.put(productPromoRuleId, actions);
+
+            if (allGated && !conds.isEmpty() && isProductGate(conds.get(0))) {
+                gateConds.add(conds.get(0));
+            } else {
+                allGated = false;
+            }
+        }
+        if (!allGated) {
+            gateConds.clear();
+        }
+    }
+
+    /**
+     * Gets the compiled promotion from the entity object cache, compiling it when it is missing or when the cached lists
+     * of the promotion it was compiled from have changed.
+     * @param delegator a <code>Delegator</code> value
+     * @param productPromoId the promotion to get
+     * @return the <code>CompiledProductPromo</code>
+     * @throws GenericEntityException if an error occurs
+     */
+    public static CompiledProductPromo getCompiledProductPromo(Delegator delegator, String productPromoId) throws GenericEntityException {
+        // these are the same cached lists the promotion rules were read from before, so they are usually found in the entity cache
+        Map<String, Object> fields = UtilMisc.<String, Object>toMap("productPromoId", productPromoId);
+        List<GenericValue> rules = delegator.findByAndCache("ProductPromoRule", fields, null);
+        List<GenericValue> conds = delegator.findByAndCache("ProductPromoCond", fields, UtilMisc.toList("productPromoCondSeqId"));
+        List<GenericValue> actions = delegator.findByAndCache("ProductPromoAction", fields);
+        List<GenericValue> categories = delegator.findByAndCache("ProductPromoCategory", fields);
+        List<GenericValue> products = delegator.findByAndCache("ProductPromoProduct", fields);
+
+        Cache cache = delegator.getCache();
+        EntityCondition condition = EntityCondition.makeCondition(fields);
+        CompiledProductPromo compiled = cache.get("ProductPromo", condition, CACHE_NAME);
+        if (compiled != null && compiled.productPromoRules == rules && compiled.productPromoConds == conds && compiled.productPromoActions == actions
+                && compiled.productPromoCategories == categories && compiled.productPromoProducts == products) {
+            return compiled;
+        }
+
+        compiled = new CompiledProductPromo(productPromoId, rules, conds, actions, categories, products);
+        cache.put("ProductPromo", condition, CACHE_NAME, compiled);
+        return compiled;
+    }
+
+    public String getProductPromoId() {
+        return productPromoId;
+    }
+
+    /** Gets the rules of the promotion, the cached list also returned by <code>productPromo.getRelatedCache("ProductPromoRule")</code>. */
+    public List<GenericValue> getProductPromoRules() {
+        return productPromoRules;
+    }
+
+    /** Gets the conditions of a rule ordered by <code>productPromoCondSeqId</code>. */
+    public List<GenericValue> getProductPromoConds(GenericValue productPromoRule) {
+        List<GenericValue> conds = condsByRule.get(productPromoRule.getString("productPromoRuleId"));
+        if (conds == null) {
+            return Collections.emptyList();
+        }
+        return conds;
+    }
+
+    /** Gets the actions of a rule ordered by <code>productPromoActionSeqId</code>. */
+    public List<GenericValue> getProductPromoActions(GenericValue productPromoRule) {
+        List<GenericValue> actions = actionsByRule.get(productPromoRule.getString("productPromoRuleId"));
+        if (actions == null) {
+            return Collections.emptyList();
+        }
+        return actions;
+    }
+
+    public boolean hasOrderTotalCondition() {
+        return hasOrderTotalCondition;
+    }
+
+    /**
+     * Checks if the rules of the promotion may be met by the cart. This is false only when all the rules are gated by the products
+     * of their first condition and no cart line eligible to promotions has one of these products; running the promotion would then
+     * fail each rule on its first condition without changing the cart, since the lines are only added to during a promotion run.
+     * @param cart the <code>ShoppingCart</code>
+     * @param delegator a <code>Delegator</code> value
+     * @param nowTimestamp the promotion run time
+     * @return false if the promotion does not need to run
+     * @throws GenericEntityException if an error occurs
+     */
+    public boolean mayApply(ShoppingCart cart, Delegator delegator, Timestamp nowTimestamp) throws GenericEntityException {
+        if (gateConds.isEmpty()) {
+            return true;
+        }
+        for (GenericValue gateCond : gateConds) {
+            Set<String> condProductIds = getCondProductIds(gateCond, delegator, nowTimestamp);
+            Iterator<ShoppingCartItem> cartItemIter = cart.iterator();
+            while (cartItemIter.hasNext()) {
+                ShoppingCartItem cartItem = cartItemIter.next();
+                // the same cart lines the product conditions count
+                GenericValue product = cartItem.getProduct();
+                String parentProductId = cartItem.getParentProductId();
+                if (!cartItem.getIsPromo() &&
+                        (condProductIds.contains(cartItem.getProductId()) || (parentProductId != null && condProductIds.contains(parentProductId))) &&
+                        (product == null || !"N".equals(product.getString("includeInPromotions")))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks if a condition is false whenever the cart has no line of its products.
+     * A condition value which is not a number is not a gate, so it still fails as before when the condition is checked.
+     */
+    private static boolean isProductGate(GenericValue productPromoCond) {
+        String inputParamEnumId = productPromoCond.getString("inputParamEnumId");
+        String condValue = productPromoCond.getString("condValue");
+        try {
+            if ("PPIP_PRODUCT_QUANT".equals(inputParamEnumId)) {
+                // the quantity needed defaults to one
+                return UtilValidate.isEmpty(condValue) || new BigDecimal(condValue).signum() > 0;
+            } else if ("PPIP_PRODUCT_AMOUNT".equals(inputParamEnumId)) {
+                return UtilValidate.isNotEmpty(condValue) && new BigDecimal(condValue).signum() > 0;
+            } else if ("PPIP_PRODUCT_TOTAL".equals(inputParamEnumId)) {
+                if (UtilValidate.isEmpty(condValue)) {
+                    // never met
+                    return true;
+                }
+                // without any line the amount available is zero
+                int compare = BigDecimal.ZERO.compareTo(new BigDecimal(condValue));
+                String operatorEnumId = productPromoCond.getString("operatorEnumId");
+                if ("PPC_EQ".equals(operatorEnumId)) {
+                    return compare != 0;
+                } else if ("PPC_NEQ".equals(operatorEnumId)) {
+                    return compare == 0;
+                } else if ("PPC_LT".equals(operatorEnumId)) {
+                    return compare >= 0;
+                } else if ("PPC_LTE".equals(operatorEnumId)) {
+                    return compare > 0;
+                } else if ("PPC_GT".equals(operatorEnumId)) {
+                    return compare <= 0;
+                } else if ("PPC_GTE".equals(operatorEnumId)) {
+                    return compare < 0;
+                }
+            }
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        return false;
+    }
+
+    /**
+     * Gets the products of a condition, see <code>ProductPromoWorker.getPromoRuleCondProductIds</code>.
+     * @return the cached product id <code>Set</code>, which must not be modified
+     */
+    public Set<String> getCondProductIds(GenericValue productPromoCond, Delegator delegator, Timestamp nowTimestamp) throws GenericEntityException {
+        String key = "C:" + productPromoCond.getString("productPromoRuleId") + ":" + productPromoCond.getString("productPromoCondSeqId");
+        return getProductIds(key, productPromoCond, "productPromoCondSeqId", delegator, nowTimestamp);
+    }
+
+    /**
+     * Gets the products of an action, see <code>ProductPromoWorker.getPromoRuleActionProductIds</code>.
+     * @return the cached product id <code>Set</code>, which must not be modified
+     */
+    public Set<String> getActionProductIds(GenericValue productPromoAction, Delegator delegator, Timestamp nowTimestamp) throws GenericEntityException {
+        String key = "A:" + productPromoAction.getString("productPromoRuleId") + ":" + productPromoAction.getString("productPromoActionSeqId");
+        return getProductIds(key, productPromoAction, "productPromoActionSeqId", delegator, nowTimestamp);
+    }
+
+    private Set<String> getProductIds(String key, GenericValue condOrAction, String seqIdField, Delegator delegator, Timestamp nowTimestamp) throws GenericEntityException {
+        // get the versions first, so a set built from members changed meanwhile is not used after
+        Cache cache = delegator.getCache();
+        Object memberVersion = getVersion(cache, "ProductCategoryMember");
+        Object rollupVersion = getVersion(cache, "ProductCategoryRollup");
+        ProductIds ids = productIds.get(key);
+        if (ids != null && nowTimestamp != null && ids.memberVersion == memberVersion && ids.rollupVersion == rollupVersion && ids.range.contains(nowTimestamp)) {
+            return ids.productIds;
+        }
+
+        Map<String, Object> global = UtilMisc.<String, Object>toMap("productPromoRuleId", "_NA_", seqIdField, "_NA_");
+        Map<String, Object> own = UtilMisc.<String, Object>toMap("productPromoRuleId", condOrAction.get("productPromoRuleId"), seqIdField, condOrAction.get(seqIdField));
+        List<GenericValue> categories = EntityUtil.filterByAnd(productPromoCategories, global);
+        categories.addAll(EntityUtil.filterByAnd(productPromoCategories, own));
+        List<GenericValue> products = EntityUtil.filterByAnd(productPromoProducts, global);
+        products.addAll(EntityUtil.filterByAnd(productPromoProducts, own));
+
+        Set<String> productIdSet = new HashSet<String>();
+        if (nowTimestamp == null) {
+            // the members are then not filtered by date, don't keep that set
+            ProductPromoWorker.makeProductPromoIdSet(productIdSet, categories, products, delegator, nowTimestamp, false);
+            return productIdSet;
+        }
+        ValidRange range = new ValidRange(nowTimestamp);
+        ProductPromoWorker.makeProductPromoIdSet(productIdSet, categories, products, delegator, nowTimestamp, range);
+
+        ids = new ProductIds(Collections.unmodifiableSet(productIdSet), memberVersion, rollupVersion, range);
+        productIds.put(key, ids);
+        return ids.productIds;
+    }
+
+    /** Gets the token replaced each time a value of the entity is stored or removed, since the entity object cache is then cleared. */
+    private static Object getVersion(Cache cache, String entityName) {
+        Object version = cache.get(entityName, VERSION_CONDITION, VERSION_NAME);
+        if (version == null) {
+            version = new Object();
+            cache.put(entityName, VERSION_CONDITION, VERSION_NAME, version);
+        }
+        return version;
+    }
+
+    /**
+     * A product id set, with the versions of the category members and rollups and the time range it was built for.
+     */
+    private static final class ProductIds {
+        private final Set<String> productIds;
+        private final Object memberVersion;
+        private final Object rollupVersion;
+        private final ValidRange range;
+
+        private ProductIds(Set<String> productIds, Object memberVersion, Object rollupVersion, ValidRange range) {
+            this.productIds = productIds;
+            this.memberVersion = memberVersion;
+            this.rollupVersion = rollupVersion;
+            this.range = range;
+        }
+    }
+
+    /**
+     * Filters dated values at a moment, and keeps the time range in which all the values filtered stay active or not active.
+     */
+    public static final class ValidRange {
+        private final Timestamp moment;
+        private Timestamp validFrom = null;
+        private Timestamp validUntil = null;
+        private boolean valid = true;
+
+        public ValidRange(Timestamp moment) {
+            this.moment = moment;
+        }
+
+        /** Same as <code>EntityUtil.isValueActive</code>, also narrowing the range to the dates of the value. */
+        public boolean isValueActive(GenericValue datedValue) {
+            Timestamp fromDate = datedValue.getTimestamp("fromDate");
+            Timestamp thruDate = datedValue.getTimestamp("thruDate");
+            if (thruDate != null && !thruDate.after(moment)) {
+                // ended, and will stay so
+                since(thruDate);
+                return false;
+            }
+            if (fromDate != null && fromDate.after(moment)) {
+                // not yet started
+                until(fromDate);
+                return false;
+            }
+            if (fromDate != null) {
+                since(fromDate);
+            }
+            if (thruDate != null) {
+                until(thruDate);
+            }
+            return true;
+        }
+
+        /** Same as <code>EntityUtil.filterByDate</code>, also narrowing the range to the dates of the values. */
+        public <T extends GenericValue> List<T> filterByDate(List<T> datedValues) {
+            List<T> result = FastList.newInstance();
+            for (T datedValue : datedValues) {
+                if (isValueActive(datedValue)) {
+                    result.add(datedValue);
+                }
+            }
+            return result;
+        }
+
+        /** Marks the range as empty, for a result which should not be reused. */
+        public void invalidate() {
+            valid = false;
+        }
+
+        public boolean contains(Timestamp timestamp) {
+            return valid && (validFrom == null || !validFrom.after(timestamp)) && (validUntil == null || validUntil.after(timestamp));
+        }
+
+        private void since(Timestamp timestamp) {
+            if (validFrom == null || timestamp.after(validFrom)) {
+                validFrom = timestamp;
+            }
+        }
+
+        private void until(Timestamp timestamp) {
+            if (validUntil == null || timestamp.before(validUntil)) {
+                validUntil = timestamp;
+            }
+        }
+    }
+}
@@ -367,18 +367,7 @@ public class ProductPromoWorker {
     }
 
     protected static boolean hasOrderTotalCondition(GenericValue productPromo, Delegator delegator) throws GenericEntityException {
-        boolean hasOtCond = false;
-        List productPromoConds = delegator.findByAndCache("ProductPromoCond", UtilMisc.toMap("productPromoId", productPromo.get("productPromoId")), UtilMisc.toList("productPromoCondSeqId"));
-        Iterator productPromoCondIter = productPromoConds.iterator();
-        while (productPromoCondIter.hasNext()) {
-            GenericValue productPromoCond = (GenericValue) productPromoCondIter.next();
-            String inputParamEnumId = productPromoCond.getString("inputParamEnumId");
-            if ("PPIP_ORDER_TOTAL".equals(inputParamEnumId)) {
-                hasOtCond = true;
-                break;
-            }
-        }
-        return hasOtCond;
+        return CompiledProductPromo.getCompiledProductPromo(delegator, productPromo.getString("productPromoId")).hasOrderTotalCondition();
     }
 
     protected static void runProductPromos(List productPromoList, ShoppingCart cart, Delegator delegator, LocalDispatcher dispatcher, Timestamp nowTimestamp, boolean isolatedTestRun) throws GeneralException {
@@ -393,6 +382,9 @@ public class ProductPromoWorker {
         //default to 2 times the number of items in the cart
         long maxUseLimit = cart.getTotalQuantity().multiply(BigDecimal.valueOf(2)).setScale(0, BigDecimal.ROUND_CEILING).longValue();
 
+        // can be turned off to run all the promotions, see order.properties
+        boolean skipUnmatched = !"N".equals(UtilProperties.getPropertyValue("order", "order.promo.skipUnmatched", "Y"));
+
         try {
             // repeat until no more rules to run: either all rules are run, or no changes to the cart in a loop
             boolean cartChanged = true;
@@ -409,8 +401,12 @@ public class ProductPromoWorker {
                     GenericValue productPromo = (GenericValue) productPromoIter.next();
                     String productPromoId = productPromo.getString("productPromoId");
 
-                    List productPromoRules = productPromo.getRelatedCache("ProductPromoRule", null, null);
-                    if (UtilValidate.isNotEmpty(productPromoRules)) {
+                    CompiledProductPromo compiledPromo = CompiledProductPromo.getCompiledProductPromo(delegator, productPromoId);
+                    List productPromoRules = compiledPromo.getProductPromoRules();
+                    // skip the promotions which rules all need products that are not in the cart, their conditions would all fail
+                    if (skipUnmatched && UtilValidate.isNotEmpty(productPromoRules) && !compiledPromo.mayApply(cart, delegator, nowTimestamp)) {
+                        if (Debug.verboseOn()) Debug.logVerbose("Skipping promotion [" + productPromoId + "], no cart item meets the products of its rules", module);
+                    } else if (UtilValidate.isNotEmpty(productPromoRules)) {
                         // always have a useLimit to avoid unlimited looping, default to 1 if no other is specified
                         Long candidateUseLimit = getProductPromoUseLimit(productPromo, partyId, delegator);
                         Long useLimit = candidateUseLimit;
@@ -743,6 +739,7 @@ public class ProductPromoWorker {
     protected static boolean runProductPromoRules(ShoppingCart cart, boolean cartChanged, Long useLimit, boolean requireCode, String productPromoCodeId, Long codeUseLimit, long maxUseLimit,
             GenericValue productPromo, List productPromoRules, LocalDispatcher dispatcher, Delegator delegator, Timestamp nowTimestamp) throws GenericEntityException, UseLimitException {
         String productPromoId = productPromo.getString("productPromoId");
+        CompiledProductPromo compiledPromo = CompiledProductPromo.getCompiledProductPromo(delegator, productPromoId);
         while ((useLimit == null || useLimit.longValue() > cart.getProductPromoUseCount(productPromoId)) &&
                 (!requireCode || UtilValidate.isNotEmpty(productPromoCodeId)) &&
                 (codeUseLimit == null || codeUseLimit.longValue() > cart.getProductPromoCodeUse(productPromoCodeId))) {
@@ -758,9 +755,7 @@ public class ProductPromoWorker {
                 boolean performActions = true;
 
                 // loop through conditions for rule, if any false, set allConditionsTrue to false
-                List productPromoConds = delegator.findByAndCache("ProductPromoCond", UtilMisc.toMap("productPromoId", productPromo.get("productPromoId")), UtilMisc.toList("productPromoCondSeqId"));
-                productPromoConds = EntityUtil.filterByAnd(productPromoConds, UtilMisc.toMap("productPromoRuleId", productPromoRule.get("productPromoRuleId")));
-                // using the other method to consolodate cache entries because the same cache is used elsewhere: List productPromoConds = productPromoRule.getRelatedCache("ProductPromoCond", null, UtilMisc.toList("productPromoCondSeqId"));
+                List productPromoConds = compiledPromo.getProductPromoConds(productPromoRule);
                 if (Debug.verboseOn()) Debug.logVerbose("Checking " + productPromoConds.size() + " conditions for rule " + productPromoRule, module);
 
                 Iterator productPromoCondIter = UtilMisc.toIterator(productPromoConds);
@@ -779,7 +774,7 @@ public class ProductPromoWorker {
                 if (performActions) {
                     // perform all actions, either apply or unapply
 
-                    List productPromoActions = productPromoRule.getRelatedCache("ProductPromoAction", null, UtilMisc.toList("productPromoActionSeqId"));
+                    List productPromoActions = compiledPromo.getProductPromoActions(productPromoRule);
                     if (Debug.verboseOn()) Debug.logVerbose("Performing " + productPromoActions.size() + " actions for rule " + productPromoRule, module);
                     Iterator productPromoActionIter = UtilMisc.toIterator(productPromoActions);
                     while (productPromoActionIter != null && productPromoActionIter.hasNext()) {
@@ -1797,47 +1792,43 @@ public class ProductPromoWorker {
         return null;
     }
 
+    /**
+     * Gets the products of a promotion condition, from the compiled promotion.
+     * @return the cached product id <code>Set</code>, which must not be modified
+     */
     public static Set getPromoRuleCondProductIds(GenericValue productPromoCond, Delegator delegator, Timestamp nowTimestamp) throws GenericEntityException {
-        // get a cached list for the whole promo and filter it as needed, this for better efficiency in caching
-        List productPromoCategoriesAll = delegator.findByAndCache("ProductPromoCategory", UtilMisc.toMap("productPromoId", productPromoCond.get("productPromoId")));
-        List productPromoCategories = EntityUtil.filterByAnd(productPromoCategoriesAll, UtilMisc.toMap("productPromoRuleId", "_NA_", "productPromoCondSeqId", "_NA_"));
-        productPromoCategories.addAll(EntityUtil.filterByAnd(productPromoCategoriesAll, UtilMisc.toMap("productPromoRuleId", productPromoCond.get("productPromoRuleId"), "productPromoCondSeqId", productPromoCond.get("productPromoCondSeqId"))));
-
-        List productPromoProductsAll = delegator.findByAndCache("ProductPromoProduct", UtilMisc.toMap("productPromoId", productPromoCond.get("productPromoId")));
-        List productPromoProducts = EntityUtil.filterByAnd(productPromoProductsAll, UtilMisc.toMap("productPromoRuleId", "_NA_", "productPromoCondSeqId", "_NA_"));
-        productPromoProducts.addAll(EntityUtil.filterByAnd(productPromoProductsAll, UtilMisc.toMap("productPromoRuleId", productPromoCond.get("productPromoRuleId"), "productPromoCondSeqId", productPromoCond.get("productPromoCondSeqId"))));
-
-        Set productIds = new HashSet();
-        makeProductPromoIdSet(productIds, productPromoCategories, productPromoProducts, delegator, nowTimestamp, false);
-        return productIds;
+        CompiledProductPromo compiledPromo = CompiledProductPromo.getCompiledProductPromo(delegator, productPromoCond.getString("productPromoId"));
+        return compiledPromo.getCondProductIds(productPromoCond, delegator, nowTimestamp);
     }
 
+    /**
+     * Gets the products of a promotion action, from the compiled promotion.
+     * @return the cached product id <code>Set</code>, which must not be modified
+     */
     public static Set getPromoRuleActionProductIds(GenericValue productPromoAction, Delegator delegator, Timestamp nowTimestamp) throws GenericEntityException {
-        // get a cached list for the whole promo and filter it as needed, this for better efficiency in caching
-        List productPromoCategoriesAll = delegator.findByAndCache("ProductPromoCategory", UtilMisc.toMap("productPromoId", productPromoAction.get("productPromoId")));
-        List productPromoCategories = EntityUtil.filterByAnd(productPromoCategoriesAll, UtilMisc.toMap("productPromoRuleId", "_NA_", "productPromoActionSeqId", "_NA_"));
-        productPromoCategories.addAll(EntityUtil.filterByAnd(productPromoCategoriesAll, UtilMisc.toMap("productPromoRuleId", productPromoAction.get("productPromoRuleId"), "productPromoActionSeqId", productPromoAction.get("productPromoActionSeqId"))));
-
-        List productPromoProductsAll = delegator.findByAndCache("ProductPromoProduct", UtilMisc.toMap("productPromoId", productPromoAction.get("productPromoId")));
-        List productPromoProducts = EntityUtil.filterByAnd(productPromoProductsAll, UtilMisc.toMap("productPromoRuleId", "_NA_", "productPromoActionSeqId", "_NA_"));
-        productPromoProducts.addAll(EntityUtil.filterByAnd(productPromoProductsAll, UtilMisc.toMap("productPromoRuleId", productPromoAction.get("productPromoRuleId"), "productPromoActionSeqId", productPromoAction.get("productPromoActionSeqId"))));
-
-        Set productIds = new HashSet();
-        makeProductPromoIdSet(productIds, productPromoCategories, productPromoProducts, delegator, nowTimestamp, false);
-        return productIds;
+        CompiledProductPromo compiledPromo = CompiledProductPromo.getCompiledProductPromo(delegator, productPromoAction.getString("productPromoId"));
+        return compiledPromo.getActionProductIds(productPromoAction, delegator, nowTimestamp);
     }
 
     public static void makeProductPromoIdSet(Set productIds, List productPromoCategories, List productPromoProducts, Delegator delegator, Timestamp nowTimestamp, boolean filterOldProducts) throws GenericEntityException {
+        makeProductPromoIdSet(productIds, productPromoCategories, productPromoProducts, delegator, nowTimestamp, (CompiledProductPromo.ValidRange) null);
+    }
+
+    /**
+     * Makes the product id set of the given promotion categories and products.
+     * @param range if not null, the dated category members and rollups are filtered with it, so it gets the time range the set is valid for
+     */
+    public static void makeProductPromoIdSet(Set productIds, List productPromoCategories, List productPromoProducts, Delegator delegator, Timestamp nowTimestamp, CompiledProductPromo.ValidRange range) throws GenericEntityException {
         // do the includes
-        handleProductPromoCategories(productIds, productPromoCategories, "PPPA_INCLUDE", delegator, nowTimestamp);
+        handleProductPromoCategories(productIds, productPromoCategories, "PPPA_INCLUDE", delegator, nowTimestamp, range);
         handleProductPromoProducts(productIds, productPromoProducts, "PPPA_INCLUDE");
 
         // do the excludes
-        handleProductPromoCategories(productIds, productPromoCategories, "PPPA_EXCLUDE", delegator, nowTimestamp);
+        handleProductPromoCategories(productIds, productPromoCategories, "PPPA_EXCLUDE", delegator, nowTimestamp, range);
         handleProductPromoProducts(productIds, productPromoProducts, "PPPA_EXCLUDE");
 
         // do the always includes
-        handleProductPromoCategories(productIds, productPromoCategories, "PPPA_ALWAYS", delegator, nowTimestamp);
+        handleProductPromoCategories(productIds, productPromoCategories, "PPPA_ALWAYS", delegator, nowTimestamp, range);
         handleProductPromoProducts(productIds, productPromoProducts, "PPPA_ALWAYS");
     }
 
@@ -1914,6 +1905,10 @@ public class ProductPromoWorker {
     }
 
     protected static void handleProductPromoCategories(Set productIds, List productPromoCategories, String productPromoApplEnumId, Delegator delegator, Timestamp nowTimestamp) throws GenericEntityException {
+        handleProductPromoCategories(productIds, productPromoCategories, productPromoApplEnumId, delegator, nowTimestamp, null);
+    }
+
+    protected static void handleProductPromoCategories(Set productIds, List productPromoCategories, String productPromoApplEnumId, Delegator delegator, Timestamp nowTimestamp, CompiledProductPromo.ValidRange range) throws GenericEntityException {
         boolean include = !"PPPA_EXCLUDE".equals(productPromoApplEnumId);
         Set productCategoryIds = new HashSet();
         Map productCategoryGroupSetListMap = new HashMap();
@@ -1924,7 +1919,11 @@ public class ProductPromoWorker {
             if (productPromoApplEnumId.equals(productPromoCategory.getString("productPromoApplEnumId"))) {
                 Set tempCatIdSet = new HashSet();
                 if ("Y".equals(productPromoCategory.getString("includeSubCategories"))) {
-                    ProductSearch.getAllSubCategoryIds(productPromoCategory.getString("productCategoryId"), tempCatIdSet, delegator, nowTimestamp);
+                    if (range == null) {
+                        ProductSearch.getAllSubCategoryIds(productPromoCategory.getString("productCategoryId"), tempCatIdSet, delegator, nowTimestamp);
+                    } else {
+                        getAllSubCategoryIds(productPromoCategory.getString("productCategoryId"), tempCatIdSet, delegator, range);
+                    }
                 } else {
                     tempCatIdSet.add(productPromoCategory.getString("productCategoryId"));
                 }
@@ -1963,7 +1962,7 @@ public class ProductPromoWorker {
         }
 
         // now that the category Set and Map are setup, take care of the productCategoryIds Set first
-        getAllProductIds(productCategoryIds, productIds, delegator, nowTimestamp, include);
+        getAllProductIds(productCategoryIds, productIds, delegator, nowTimestamp, include, range);
 
         // now handle the productCategoryGroupSetListMap
         // if a set has more than one category (because of an include sub-cats) then do an or
@@ -1980,7 +1979,7 @@ public class ProductPromoWorker {
                 // make a Set of productIds including all ids from all categories
                 Set catIdSet = (Set) cidslIter.next();
                 Set groupProductIdSet = new HashSet();
-                getAllProductIds(catIdSet, groupProductIdSet, delegator, nowTimestamp, true);
+                getAllProductIds(catIdSet, groupProductIdSet, delegator, nowTimestamp, true, range);
                 productIdSetList.add(groupProductIdSet);
             }
 
@@ -2025,12 +2024,20 @@ public class ProductPromoWorker {
     }
 
     protected static void getAllProductIds(Set productCategoryIdSet, Set productIdSet, Delegator delegator, Timestamp nowTimestamp, boolean include) throws GenericEntityException {
+        getAllProductIds(productCategoryIdSet, productIdSet, delegator, nowTimestamp, include, null);
+    }
+
+    protected static void getAllProductIds(Set productCategoryIdSet, Set productIdSet, Delegator delegator, Timestamp nowTimestamp, boolean include, CompiledProductPromo.ValidRange range) throws GenericEntityException {
         Iterator productCategoryIdIter = productCategoryIdSet.iterator();
         while (productCategoryIdIter.hasNext()) {
             String productCategoryId = (String) productCategoryIdIter.next();
             // get all product category memebers, filter by date
             List productCategoryMembers = delegator.findByAndCache("ProductCategoryMember", UtilMisc.toMap("productCategoryId", productCategoryId));
-            productCategoryMembers = EntityUtil.filterByDate(productCategoryMembers, nowTimestamp);
+            if (range == null) {
+                productCategoryMembers = EntityUtil.filterByDate(productCategoryMembers, nowTimestamp);
+            } else {
+                productCategoryMembers = range.filterByDate(productCategoryMembers);
+            }
             Iterator productCategoryMemberIter = productCategoryMembers.iterator();
             while (productCategoryMemberIter.hasNext()) {
                 GenericValue productCategoryMember = (GenericValue) productCategoryMemberIter.next();
@@ -2044,6 +2051,27 @@ public class ProductPromoWorker {
         }
     }
 
+    /** Same as <code>ProductSearch.getAllSubCategoryIds</code>, filtering the rollups with the given range. */
+    private static void getAllSubCategoryIds(String productCategoryId, Set<String> productCategoryIdSet, Delegator delegator, CompiledProductPromo.ValidRange range) {
+        productCategoryIdSet.add(productCategoryId);
+        try {
+            List<GenericValue> productCategoryRollupList = delegator.findByAndCache("ProductCategoryRollup", UtilMisc.toMap("parentProductCategoryId", productCategoryId));
+            for (GenericValue productCategoryRollup: productCategoryRollupList) {
+                String subProductCategoryId = productCategoryRollup.getString("productCategoryId");
+                if (productCategoryIdSet.contains(subProductCategoryId)) {
+                    continue;
+                }
+                if (range.isValueActive(productCategoryRollup)) {
+                    getAllSubCategoryIds(subProductCategoryId, productCategoryIdSet, delegator, range);
+                }
+            }
+        } catch (GenericEntityException e) {
+            Debug.logError(e, "Error finding sub-categories for product promotion", module);
+            // the set may be incomplete, so it is not reused
+            range.invalidate();
+        }
+    }
+
     protected static void handleProductPromoProducts(Set productIds, List productPromoProducts, String productPromoApplEnumId) throws GenericEntityException {
         boolean include = !"PPPA_EXCLUDE".equals(productPromoApplEnumId);
         Iterator productPromoProductIter = productPromoProducts.iterator();
@@ -0,0 +1,109 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+/* This file has been modified by Open Source Strategies, Inc. */
+package org.ofbiz.order.test;
+
+import java.math.BigDecimal;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+
+import javolution.util.FastList;
+
+import org.ofbiz.base.util.UtilProperties;
+import org.ofbiz.order.shoppingcart.ShoppingCart;
+import org.ofbiz.order.shoppingcart.ShoppingCartItem;
+import org.ofbiz.order.shoppingcart.product.ProductPromoWorker;
+import org.ofbiz.service.testtools.OFBizTestCase;
+
+/**
+ * Checks that skipping the promotions which rules all need products not in the cart, see
+ * <code>CompiledProductPromo.mayApply</code>, gives the same cart as running all the promotions.
+ */
+public class ProductPromoSkipTest extends OFBizTestCase {
+
+    public ProductPromoSkipTest(String name) {
+        super(name);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        UtilProperties.setPropertyValueInMemory("order", "order.promo.skipUnmatched", "Y");
+    }
+
+    public void testPromoProductsInCart() throws Exception {
+        assertSamePromotions(new String[] {"GZ-1005", "WG-1111"}, new String[] {"1", "2"});
+    }
+
+    public void testPromoProductsNotInCart() throws Exception {
+        assertSamePromotions(new String[] {"WG-1111"}, new String[] {"5"});
+    }
+
+    public void testPromoOrderTotal() throws Exception {
+        assertSamePromotions(new String[] {"GZ-2644", "GZ-1005", "WG-5569"}, new String[] {"3", "2", "4"});
+    }
+
+    /** Runs the promotions of the cart without and with the skip, and compares the resulting carts. */
+    private void assertSamePromotions(String[] productIds, String[] quantities) throws Exception {
+        ShoppingCart cart = makeCart(productIds, quantities);
+
+        UtilProperties.setPropertyValueInMemory("order", "order.promo.skipUnmatched", "N");
+        ProductPromoWorker.doPromotions(cart, dispatcher);
+        List<String> expected = describeCart(cart);
+
+        UtilProperties.setPropertyValueInMemory("order", "order.promo.skipUnmatched", "Y");
+        ProductPromoWorker.doPromotions(cart, dispatcher);
+        List<String> actual = describeCart(cart);
+
+        assertEquals("Cart after promotions with the skip", expected, actual);
+    }
+
+    private ShoppingCart makeCart(String[] productIds, String[] quantities) throws Exception {
+        ShoppingCart cart = new ShoppingCart(delegator, "9000", Locale.US, "USD");
+        cart.setOrderType("SALES_ORDER");
+        cart.setBillToCustomerPartyId("DemoCustomer");
+        cart.setPlacingCustomerPartyId("DemoCustomer");
+        cart.setShipToCustomerPartyId("DemoCustomer");
+        cart.setEndUserCustomerPartyId("DemoCustomer");
+        for (int i = 0; i < productIds.length; i++) {
+            cart.addOrIncreaseItem(productIds[i], null, new BigDecimal(quantities[i]), null, null, null,
+                                   null, null, null, null,
+                                   null, null, null, null, null, dispatcher);
+        }
+        return cart;
+    }
+
+    /** Describes the cart lines, adjustments and promotion uses. */
+    private static List<String> describeCart(ShoppingCart cart) {
+        List<String> description = FastList.newInstance();
+        Iterator<ShoppingCartItem> itemIter = cart.iterator();
+        while (itemIter.hasNext()) {
+            ShoppingCartItem item = itemIter.next();
+            description.add("item " + item.getProductId() + " x " + item.getQuantity() + (item.getIsPromo() ? " promo" : "") + " adjustments " + item.getOtherAdjustments());
+        }
+        Iterator<ShoppingCart.ProductPromoUseInfo> useIter = cart.getProductPromoUseInfoIter();
+        while (useIter.hasNext()) {
+            ShoppingCart.ProductPromoUseInfo useInfo = useIter.next();
+            description.add("promo " + useInfo.getProductPromoId() + " discount " + useInfo.getTotalDiscountAmount() + " left " + useInfo.getQuantityLeftInActions());
+        }
+        description.add("order adjustments " + cart.getOrderOtherAdjustmentTotal());
+        description.add("grand total " + cart.getGrandTotal());
+        return description;
+    }
+}
@@ -34,6 +34,7 @@ import org.ofbiz.base.util.Debug;
 import org.ofbiz.base.util.UtilDateTime;
 import org.ofbiz.base.util.UtilGenerics;
 import org.ofbiz.base.util.UtilMisc;
+import org.ofbiz.base.util.UtilProperties;
 import org.ofbiz.base.util.UtilValidate;
 import org.ofbiz.common.CommonWorkers;
 import org.ofbiz.entity.Delegator;
@@ -60,6 +61,10 @@ public class InventoryServices {
 
     public static final MathContext generalRounding = new MathContext(10);
 
+    /** The InventoryItemDetail quantity diff fields, and the InventoryItem total fields they add up to */
+    private static final String[] inventoryDiffFields = {"availableToPromiseDiff", "quantityOnHandDiff", "accountingQuantityDiff"};
+    private static final String[] inventoryTotalFields = {"availableToPromiseTotal", "quantityOnHandTotal", "accountingQuantityTotal"};
+
     public static Map<String, Object> prepareInventoryTransfer(DispatchContext dctx, Map<String, ? extends Object> context) {
         Delegator delegator = dctx.getDelegator();
         String inventoryItemId = (String) context.get("inventoryItemId");
@@ -994,4 +999,140 @@ public class InventoryServices {
         return result;
     }
 
+    /**
+     * Adds the quantity diffs of a new InventoryItemDetail to the totals of its InventoryItem with a single
+     * atomic update, so unlike updateInventoryItemFromDetail the cost does not grow with the number of details.
+     */
+    public static Map<String, Object> applyInventoryItemDetailDiff(DispatchContext dctx, Map<String, ? extends Object> context) {
+        Delegator delegator = dctx.getDelegator();
+        LocalDispatcher dispatcher = dctx.getDispatcher();
+        String inventoryItemId = (String) context.get("inventoryItemId");
+
+        if (!"Y".equals(UtilProperties.getPropertyValue("catalog.properties", "inventory.totals.incremental", "Y"))) {
+            try {
+                return dispatcher.runSync("updateInventoryItemFromDetail", UtilMisc.toMap("inventoryItemId", inventoryItemId));
+            } catch (GenericServiceException e) {
+                Debug.logError(e, module);
+                return ServiceUtil.returnError(e.getMessage());
+            }
+        }
+
+        Map<String, BigDecimal> totalsDiff = FastMap.newInstance();
+        for (int i = 0; i < inventoryDiffFields.length; i++) {
+            BigDecimal diff = (BigDecimal) context.get(inventoryDiffFields[i]);
+            if (diff != null && diff.signum() != 0) {
+                totalsDiff.put(inventoryTotalFields[i], diff);
+            }
+        }
+        if (totalsDiff.isEmpty()) {
+            return ServiceUtil.returnSuccess();
+        }
+
+        try {
+            int updated = delegator.incrementByCondition("InventoryItem", totalsDiff, EntityCondition.makeCondition("inventoryItemId", EntityOperator.EQUALS, inventoryItemId));
+            if (updated == 0) {
+                return ServiceUtil.returnError("Cannot locate inventory item [" + inventoryItemId + "]");
+            }
+            // store the item again so the InventoryItem ECAs see the new totals, the update keeps the row
+            // locked until the end of the transaction so what is read here cannot be overwritten with stale totals
+            GenericValue inventoryItem = delegator.findByPrimaryKey("InventoryItem", UtilMisc.toMap("inventoryItemId", inventoryItemId));
+            delegator.store(inventoryItem);
+        } catch (GenericEntityException e) {
+            Debug.logError(e, module);
+            return ServiceUtil.returnError("Could not update the totals of inventory item [" + inventoryItemId + "]: " + e.getMessage());
+        }
+
+        return ServiceUtil.returnSuccess();
+    }
+
+    /**
+     * Compares the totals of the non serialized InventoryItems against the sums of their InventoryItemDetail records,
+     * and returns the items which drifted; if fix is Y their totals are set again from the details.
+     */
+    public static Map<String, Object> reconcileInventoryItemTotals(DispatchContext dctx, Map<String, ? extends Object> context) {
+        Delegator delegator = dctx.getDelegator();
+        LocalDispatcher dispatcher = dctx.getDispatcher();
+        GenericValue userLogin = (GenericValue) context.get("userLogin");
+        String inventoryItemId = (String) context.get("inventoryItemId");
+        String facilityId = (String) context.get("facilityId");
+        boolean fix = "Y".equals(context.get("fix"));
+
+        DynamicViewEntity totalsViewEntity = new DynamicViewEntity();
+        totalsViewEntity.addMemberEntity("II", "InventoryItem");
+        totalsViewEntity.addMemberEntity("IID", "InventoryItemDetail");
+        totalsViewEntity.addViewLink("II", "IID", Boolean.FALSE, ModelKeyMap.makeKeyMapList("inventoryItemId"));
+        totalsViewEntity.addAlias("II", "inventoryItemId", null, null, null, Boolean.TRUE, null);
+        totalsViewEntity.addAlias("II", "inventoryItemTypeId", null, null, null, Boolean.TRUE, null);
+        totalsViewEntity.addAlias("II", "facilityId", null, null, null, Boolean.TRUE, null);
+        for (int i = 0; i < inventoryTotalFields.length; i++) {
+            totalsViewEntity.addAlias("II", inventoryTotalFields[i], null, null, null, Boolean.TRUE, null);
+            totalsViewEntity.addAlias("IID", inventoryDiffFields[i], null, null, null, null, "sum");
+        }
+
+        List<EntityCondition> conditions = UtilMisc.<EntityCondition>toList(EntityCondition.makeCondition("inventoryItemTypeId", EntityOperator.NOT_EQUAL, "SERIALIZED_INV_ITEM"));
+        if (UtilValidate.isNotEmpty(inventoryItemId)) {
+            conditions.add(EntityCondition.makeCondition("inventoryItemId", EntityOperator.EQUALS, inventoryItemId));
+        }
+        if (UtilValidate.isNotEmpty(facilityId)) {
+            conditions.add(EntityCondition.makeCondition("facilityId", EntityOperator.EQUALS, facilityId));
+        }
+
+        List<Map<String, Object>> driftedItems = FastList.newInstance();
+        EntityListIterator totalsIt = null;
+        try {
+            totalsIt = delegator.findListIteratorByCondition(totalsViewEntity, EntityCondition.makeCondition(conditions, EntityOperator.AND), null, null, null, null);
+            GenericValue totals = null;
+            while ((totals = totalsIt.next()) != null) {
+                Map<String, Object> drift = null;
+                for (int i = 0; i < inventoryTotalFields.length; i++) {
+                    BigDecimal total = totals.getBigDecimal(inventoryTotalFields[i]);
+                    BigDecimal detailSum = totals.getBigDecimal(inventoryDiffFields[i]);
+                    if ((total == null ? BigDecimal.ZERO : total).compareTo(detailSum == null ? BigDecimal.ZERO : detailSum) != 0) {
+                        if (drift == null) {
+                            drift = UtilMisc.<String, Object>toMap("inventoryItemId", totals.get("inventoryItemId"), "facilityId", totals.get("facilityId"));
+                        }
+                        drift.put(inventoryTotalFields[i], total);
+                        drift.put(inventoryDiffFields[i], detailSum);
+                    }
+                }
+                if (drift != null) {
+                    Debug.logWarning("Inventory item totals drifted from the sums of the details: " + drift, module);
+                    driftedItems.add(drift);
+                }
+            }
+        } catch (GenericEntityException e) {
+            Debug.logError(e, module);
+            return ServiceUtil.returnError("Could not compare the inventory item totals: " + e.getMessage());
+        } finally {
+            if (totalsIt != null) {
+                try {
+                    totalsIt.close();
+                } catch (GenericEntityException e) {
+                    Debug.logError(e, module);
+                }
+            }
+        }
+
+        if (fix) {
+            for (Map<String, Object> drift: driftedItems) {
+                try {
+                    Map<String, Object> results = dispatcher.runSync("updateInventoryItemFromDetail", UtilMisc.toMap("inventoryItemId", drift.get("inventoryItemId"), "userLogin", userLogin));
+                    if (ServiceUtil.isError(results)) {
+                        return ServiceUtil.returnError(ServiceUtil.getErrorMessage(results));
+                    }
+                } catch (GenericServiceException e) {
+                    Debug.logError(e, module);
+                    return ServiceUtil.returnError(e.getMessage());
+                }
+            }
+        }
+        if (driftedItems.size() > 0 || Debug.infoOn()) {
+            Debug.logInfo("Found " + driftedItems.size() + " inventory items with drifted totals" + (fix ? ", reset them from the details" : ""), module);
+        }
+
+        Map<String, Object> results = ServiceUtil.returnSuccess();
+        results.put("driftedItems", driftedItems);
+        return results;
+    }
+
 }
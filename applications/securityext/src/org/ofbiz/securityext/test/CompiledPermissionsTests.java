@@ -0,0 +1,90 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+/* This file has been modified by Open Source Strategies, Inc. */
+package org.ofbiz.securityext.test;
+
+import java.sql.Timestamp;
+
+import org.ofbiz.base.util.UtilDateTime;
+import org.ofbiz.base.util.UtilMisc;
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.security.Security;
+import org.ofbiz.security.SecurityFactory;
+import org.ofbiz.service.testtools.OFBizTestCase;
+
+/**
+ * Tests the permissions OFBizSecurity compiles into the entity object cache, in particular that the
+ * cached permissions follow changes to SecurityGroupPermission and UserLoginSecurityGroup.
+ */
+public class CompiledPermissionsTests extends OFBizTestCase {
+
+    protected Security security = null;
+    protected GenericValue userLogin = null;
+
+    public CompiledPermissionsTests(String name) {
+        super(name);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        security = SecurityFactory.getInstance(delegator);
+        userLogin = delegator.findByPrimaryKey("UserLogin", UtilMisc.toMap("userLoginId", "sectest"));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        delegator.removeByAnd("SecurityGroupPermission", UtilMisc.toMap("groupId", "SECTEST", "permissionId", "SECTEST_UPDATE"));
+        delegator.removeByAnd("UserLoginSecurityGroup", UtilMisc.toMap("userLoginId", "sectest", "groupId", "SECTEST_ADMIN"));
+    }
+
+    public void testGroupPermission() throws Exception {
+        assertTrue("User was not granted the group permission", security.hasPermission("SECTEST_VIEW", userLogin));
+        assertFalse("User was granted a permission not in the group", security.hasPermission("SECTEST_UPDATE", userLogin));
+        assertTrue("User was not granted the entity permission", security.hasEntityPermission("SECTEST", "_VIEW", userLogin));
+        assertFalse("User was granted an unknown permission", security.hasPermission("SECTEST_UNKNOWN", userLogin));
+        assertFalse("Null userLogin was granted a permission", security.hasPermission("SECTEST_VIEW", (GenericValue) null));
+    }
+
+    public void testGroupPermissionChange() throws Exception {
+        // compile and cache the permissions first
+        assertFalse("User was granted a permission not in the group", security.hasPermission("SECTEST_UPDATE", userLogin));
+
+        GenericValue groupPermission = delegator.makeValue("SecurityGroupPermission", UtilMisc.toMap("groupId", "SECTEST", "permissionId", "SECTEST_UPDATE"));
+        delegator.create(groupPermission);
+        assertTrue("User was not granted the permission added to the group", security.hasPermission("SECTEST_UPDATE", userLogin));
+        assertTrue("User lost the existing group permission", security.hasPermission("SECTEST_VIEW", userLogin));
+
+        delegator.removeValue(groupPermission);
+        assertFalse("User kept the permission removed from the group", security.hasPermission("SECTEST_UPDATE", userLogin));
+    }
+
+    public void testUserLoginGroupChange() throws Exception {
+        assertFalse("User was granted a permission not in the group", security.hasPermission("SECTEST_UPDATE", userLogin));
+
+        Timestamp now = UtilDateTime.nowTimestamp();
+        GenericValue userLoginSecurityGroup = delegator.makeValue("UserLoginSecurityGroup", UtilMisc.toMap("userLoginId", "sectest", "groupId", "SECTEST_ADMIN", "fromDate", now));
+        delegator.create(userLoginSecurityGroup);
+        assertTrue("User was not granted the permissions of the group added", security.hasEntityPermission("SECTEST", "_UPDATE", userLogin));
+
+        userLoginSecurityGroup.set("thruDate", now);
+        delegator.store(userLoginSecurityGroup);
+        assertFalse("User kept the permissions of the expired group", security.hasEntityPermission("SECTEST", "_UPDATE", userLogin));
+        assertTrue("User lost the existing group permission", security.hasPermission("SECTEST_VIEW", userLogin));
+    }
+}
@@ -1015,7 +1015,8 @@ public class UtilHttp {
         BufferedOutputStream bos = new BufferedOutputStream(out, bufferSize);
         BufferedInputStream bis = new BufferedInputStream(in, bufferSize);
 
-        byte[] buffer = new byte[length];
+        // the length may be unknown (-1), and a large content must not be buffered whole
+        byte[] buffer = new byte[length > 0 && length < 8192 ? length : 8192];
         int read = 0;
         try {
             while ((read = bis.read(buffer, 0, buffer.length)) != -1) {
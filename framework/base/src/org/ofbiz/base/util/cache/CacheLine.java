@@ -24,6 +24,11 @@ import java.util.concurrent.TimeUnit;
 import org.ofbiz.base.concurrent.ExecutionPool;
 
 public abstract class CacheLine<V> extends ExecutionPool.Pulse {
+    /** The weight of the value, set before the line is put in the cache when the cache has a weigher. */
+    volatile long weight = 0;
+    /** Set when the line is read, and cleared by the weight eviction sweeps. */
+    volatile boolean accessed = false;
+
     protected CacheLine(long loadTimeNanos, long expireTimeNanos) {
         super(loadTimeNanos, expireTimeNanos);
         // FIXME: this seems very odd to me (ARH)
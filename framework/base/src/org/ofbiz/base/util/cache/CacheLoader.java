@@ -0,0 +1,37 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+/* This file has been modified by Open Source Strategies, Inc. */
+package org.ofbiz.base.util.cache;
+
+/**
+ * Computes the value of a cache key which is missing or about to expire, see {@link UtilCache#get(Object, CacheLoader)}.
+ * @param <K> the type of the keys
+ * @param <V> the type of the values
+ * @param <E> the type of exception thrown when the value cannot be computed
+ */
+public interface CacheLoader<K, V, E extends Exception> {
+
+    /**
+     * Computes the value of the given key.
+     * @param key the key to load
+     * @return the value, or <code>null</code> when there is no value to cache
+     * @throws E if the value could not be computed
+     */
+    public V load(K key) throws E;
+}
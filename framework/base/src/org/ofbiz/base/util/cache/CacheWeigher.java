@@ -0,0 +1,38 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+/* This file has been modified by Open Source Strategies, Inc. */
+package org.ofbiz.base.util.cache;
+
+/**
+ * Estimates the memory used by the elements of a cache, see {@link UtilCache#setWeigher(CacheWeigher)}.
+ * The weights are computed when the elements are put in the cache, so a weigher must be cheap
+ * and should not serialize or walk the whole value.
+ * @param <K> the type of the keys
+ * @param <V> the type of the values
+ */
+public interface CacheWeigher<K, V> {
+
+    /**
+     * Estimates the memory used by an element.
+     * @param key the key of the element
+     * @param value the value of the element
+     * @return the estimated size in bytes, must not be negative
+     */
+    public long weigh(K key, V value);
+}
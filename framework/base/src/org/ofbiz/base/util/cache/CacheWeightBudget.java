@@ -0,0 +1,157 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+/* This file has been modified by Open Source Strategies, Inc. */
+package org.ofbiz.base.util.cache;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.MissingResourceException;
+import java.util.ResourceBundle;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javolution.util.FastList;
+import javolution.util.FastMap;
+
+import org.ofbiz.base.util.Debug;
+
+/**
+ * A weight limit shared by several caches, configured in <code>cache.properties</code>: the caches with the
+ * <code>weightBudget</code> parameter set to the name of the budget add the weight of their elements to it, and when
+ * the total is over <code>weightBudget.[name].maxWeight</code> the heaviest caches evict elements until it is back under the limit.
+ */
+public final class CacheWeightBudget {
+
+    public static final String module = CacheWeightBudget.class.getName();
+
+    private static final ConcurrentMap<String, CacheWeightBudget> budgets = new ConcurrentHashMap<String, CacheWeightBudget>();
+
+    private final String name;
+    private volatile long maxWeight;
+    private final AtomicLong weight = new AtomicLong();
+    private final Set<UtilCache<?, ?>> caches = new CopyOnWriteArraySet<UtilCache<?, ?>>();
+
+    private CacheWeightBudget(String name, long maxWeight) {
+        this.name = name;
+        this.maxWeight = maxWeight;
+    }
+
+    /**
+     * Gets the budget of the given name, creating it with the limit configured in <code>cache.properties</code>.
+     * @param name the name of the budget
+     * @return a <code>CacheWeightBudget</code> value
+     */
+    public static CacheWeightBudget getBudget(String name) {
+        CacheWeightBudget budget = budgets.get(name);
+        if (budget == null) {
+            long maxWeight = 0;
+            try {
+                maxWeight = Long.parseLong(ResourceBundle.getBundle("cache").getString("weightBudget." + name + ".maxWeight"));
+            } catch (MissingResourceException e) {
+                Debug.logWarning("No weightBudget." + name + ".maxWeight set in cache.properties, the caches of this budget will not be limited", module);
+            } catch (NumberFormatException e) {
+                Debug.logWarning("Invalid weightBudget." + name + ".maxWeight in cache.properties: " + e.getMessage(), module);
+            }
+            budgets.putIfAbsent(name, new CacheWeightBudget(name, maxWeight));
+            budget = budgets.get(name);
+        }
+        return budget;
+    }
+
+    /** Gets the names of the budgets created. */
+    public static Set<String> getBudgetNames() {
+        return Collections.unmodifiableSet(budgets.keySet());
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /** Returns the current total weight of the caches of this budget. */
+    public long getWeight() {
+        return weight.get();
+    }
+
+    /** Returns the weight limit of this budget, 0 if there is no limit. */
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    /** Sets the weight limit of this budget, 0 for no limit. */
+    public void setMaxWeight(long maxWeight) {
+        this.maxWeight = maxWeight;
+        evictIfNeeded();
+    }
+
+    void addCache(UtilCache<?, ?> cache) {
+        if (caches.add(cache)) {
+            weight.addAndGet(cache.getWeight());
+        }
+    }
+
+    void removeCache(UtilCache<?, ?> cache) {
+        if (caches.remove(cache)) {
+            weight.addAndGet(-cache.getWeight());
+        }
+    }
+
+    void addWeight(long delta) {
+        weight.addAndGet(delta);
+    }
+
+    /** Evicts elements from the heaviest caches of this budget until its weight is under its limit. */
+    void evictIfNeeded() {
+        long excess = weight.get() - maxWeight;
+        if (maxWeight <= 0 || excess <= 0) {
+            return;
+        }
+        // sort on a snapshot of the weights, which change while sorting
+        final Map<UtilCache<?, ?>, Long> weights = FastMap.newInstance();
+        for (UtilCache<?, ?> cache : caches) {
+            if (cache.getWeight() > 0) {
+                weights.put(cache, cache.getWeight());
+            }
+        }
+        List<UtilCache<?, ?>> heaviest = FastList.newInstance();
+        heaviest.addAll(weights.keySet());
+        Collections.sort(heaviest, new Comparator<UtilCache<?, ?>>() {
+            public int compare(UtilCache<?, ?> cache1, UtilCache<?, ?> cache2) {
+                return weights.get(cache2).compareTo(weights.get(cache1));
+            }
+        });
+        for (UtilCache<?, ?> cache : heaviest) {
+            // evict at most half of a cache before moving to the next one, so a single cache is not emptied for the others
+            excess -= cache.evictWeight(Math.min(excess, Math.max(1, weights.get(cache) / 2)));
+            if (excess <= 0) {
+                return;
+            }
+        }
+        for (UtilCache<?, ?> cache : heaviest) {
+            excess -= cache.evictWeight(excess);
+            if (excess <= 0) {
+                return;
+            }
+        }
+    }
+}
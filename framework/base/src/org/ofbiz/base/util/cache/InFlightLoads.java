@@ -0,0 +1,214 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+/* This file has been modified by Open Source Strategies, Inc. */
+package org.ofbiz.base.util.cache;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.ofbiz.base.util.Debug;
+
+/**
+ * Coalesces the concurrent loads of the same key, so only one thread computes a missing value
+ * and the other threads asking for it wait for its result instead of computing it again.
+ * <p>
+ * A load can be marked stale while it is running, when the key is removed from its cache, so the loader
+ * can avoid caching a value which may have been read before the change.
+ * When a load fails the waiting threads run their own loader, so each of them gets its own exception.
+ * They also run their own loader when the load they waited for was marked stale, or when it did not finish
+ * within the wait timeout, so a slow or blocked load does not block all the threads asking for the same key.
+ */
+public final class InFlightLoads<V> {
+
+    public static final String module = InFlightLoads.class.getName();
+
+    /** The default number of milliseconds a thread waits for the load of another thread before loading the value itself. */
+    public static final long DEFAULT_WAIT_TIMEOUT = 30000;
+
+    private final ConcurrentMap<Object, Load<V>> loads = new ConcurrentHashMap<Object, Load<V>>();
+
+    private final AtomicLong loadCount = new AtomicLong();
+    private final AtomicLong waitCount = new AtomicLong();
+    private final AtomicLong backgroundLoadCount = new AtomicLong();
+
+    private volatile long waitTimeout = DEFAULT_WAIT_TIMEOUT;
+
+    /**
+     * Loads the value of a key, or waits for the load of the same key already running in another thread.
+     * @param flightKey the key identifying the load, can be different from the key given to the loader
+     * @param key the key given to the loader
+     * @param loader the <code>CacheLoader</code> computing the value
+     * @return the loaded value
+     * @throws E if the value could not be loaded
+     */
+    public <K, E extends Exception> V load(Object flightKey, K key, CacheLoader<K, V, E> loader) throws E {
+        Load<V> load = new Load<V>(Thread.currentThread());
+        Load<V> current = loads.putIfAbsent(flightKey, load);
+        if (current != null) {
+            // a loader asking for its own key would wait for itself
+            if (current.owner != Thread.currentThread()) {
+                waitCount.incrementAndGet();
+                if (waitTimeout > 0 && current.await(waitTimeout) && !current.stale) {
+                    return current.value;
+                }
+            }
+            // the other load failed, was marked stale or is too slow, load without waiting
+            return loader.load(key);
+        }
+        loadCount.incrementAndGet();
+        return run(flightKey, load, key, loader);
+    }
+
+    /**
+     * Starts loading the value of a key in the given executor, unless a load of the same key is already running.
+     * @param flightKey the key identifying the load
+     * @param key the key given to the loader
+     * @param loader the <code>CacheLoader</code> computing the value
+     * @param executor the <code>Executor</code> running the load
+     * @return <code>true</code> if a load was started
+     */
+    public <K, E extends Exception> boolean loadInBackground(final Object flightKey, final K key, final CacheLoader<K, V, E> loader, Executor executor) {
+        final Load<V> load = new Load<V>(null);
+        if (loads.putIfAbsent(flightKey, load) != null) {
+            return false;
+        }
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        InFlightLoads.this.run(flightKey, load, key, loader);
+                    } catch (Exception e) {
+                        Debug.logWarning(e, "Could not load in the background the value of key [" + key + "]", module);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            loads.remove(flightKey, load);
+            load.done(false);
+            return false;
+        }
+        backgroundLoadCount.incrementAndGet();
+        return true;
+    }
+
+    private <K, E extends Exception> V run(Object flightKey, Load<V> load, K key, CacheLoader<K, V, E> loader) throws E {
+        boolean loaded = false;
+        try {
+            load.value = loader.load(key);
+            loaded = true;
+            return load.value;
+        } finally {
+            loads.remove(flightKey, load);
+            load.done(loaded);
+        }
+    }
+
+    /**
+     * Marks the running load of a key as stale, because the key was changed while it was loading.
+     * @param flightKey the key identifying the load
+     */
+    public void markStale(Object flightKey) {
+        Load<V> load = loads.get(flightKey);
+        if (load != null) {
+            load.stale = true;
+        }
+    }
+
+    /** Marks all the running loads as stale. */
+    public void markAllStale() {
+        for (Load<V> load : loads.values()) {
+            load.stale = true;
+        }
+    }
+
+    /**
+     * Checks if the running load of a key was marked stale, to be called by its loader.
+     * @param flightKey the key identifying the load
+     * @return <code>true</code> if the key was changed since the load started
+     */
+    public boolean isStale(Object flightKey) {
+        Load<V> load = loads.get(flightKey);
+        return load != null && load.stale;
+    }
+
+    /**
+     * Sets how long a thread waits for the load of the same key running in another thread,
+     * after which it runs its own loader.
+     * @param waitTimeoutMillis the wait timeout in milliseconds, 0 or less to never wait
+     */
+    public void setWaitTimeout(long waitTimeoutMillis) {
+        this.waitTimeout = waitTimeoutMillis;
+    }
+
+    /** Returns the number of milliseconds a thread waits for the load of another thread. */
+    public long getWaitTimeout() {
+        return waitTimeout;
+    }
+
+    /** Returns the number of loads run in the calling threads. */
+    public long getLoadCount() {
+        return loadCount.get();
+    }
+
+    /** Returns the number of times a thread waited for the load of another thread instead of loading the value. */
+    public long getWaitCount() {
+        return waitCount.get();
+    }
+
+    /** Returns the number of loads started in the background. */
+    public long getBackgroundLoadCount() {
+        return backgroundLoadCount.get();
+    }
+
+    private static final class Load<V> {
+
+        private final Thread owner;
+        private final CountDownLatch latch = new CountDownLatch(1);
+        private volatile V value;
+        private volatile boolean loaded = false;
+        private volatile boolean stale = false;
+
+        private Load(Thread owner) {
+            this.owner = owner;
+        }
+
+        private void done(boolean loaded) {
+            this.loaded = loaded;
+            latch.countDown();
+        }
+
+        private boolean await(long timeoutMillis) {
+            try {
+                if (!latch.await(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                    Debug.logWarning("A load did not finish within " + timeoutMillis + " milliseconds, loading the value without waiting", module);
+                    return false;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            return loaded;
+        }
+    }
+}
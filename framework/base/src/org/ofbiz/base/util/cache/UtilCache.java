@@ -35,7 +35,9 @@ import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -105,6 +107,11 @@ public class UtilCache<K, V> implements Serializable {
      */
     protected long expireTimeNanos = 0;
 
+    /** Specifies how long before an element expires it is reloaded in the background by {@link #get(Object, CacheLoader)}.
+     * If set to 0, elements are only loaded once they are missing.
+     */
+    protected long refreshAheadNanos = 0;
+
     /** Specifies whether or not to use soft references for this cache, defaults to false */
     protected boolean useSoftReference = false;
 
@@ -120,6 +127,23 @@ public class UtilCache<K, V> implements Serializable {
 
     protected JdbmRecordManager jdbmMgr;
 
+    /** Estimates the memory used by the elements, when set the weight of the cache is kept up to date as elements are put and removed. */
+    protected volatile CacheWeigher<K, V> weigher = null;
+    /** The maximum weight of the elements in memory, the elements not used recently are evicted when it is reached.
+     * If set to 0, there is no weight limit.
+     */
+    protected volatile long maxWeight = 0;
+    /** The total weight of the elements in memory. */
+    private final AtomicLong weight = new AtomicLong(0);
+    /** The budget shared with other caches this cache weight is counted in, if any. */
+    private volatile CacheWeightBudget weightBudget = null;
+    /** A count of the number of elements evicted because of the weight limits. */
+    protected AtomicLong weightEvictionCount = new AtomicLong(0);
+    private final AtomicBoolean evicting = new AtomicBoolean(false);
+
+    /** The loads running for the keys missing from the cache, see {@link #get(Object, CacheLoader)}. */
+    private final transient InFlightLoads<V> loads = new InFlightLoads<V>();
+
     // weak ref on this
     private static final ConcurrentMap<String, JdbmRecordManager> fileManagers = new ConcurrentHashMap<String, JdbmRecordManager>();
 
@@ -144,7 +168,7 @@ public class UtilCache<K, V> implements Serializable {
         if (maxMemSize == 0) {
             memoryTable = new ConcurrentHashMap<Object, CacheLine<V>>();
         } else {
-            memoryTable = ConcurrentLinkedHashMap.create(ConcurrentLinkedHashMap.EvictionPolicy.LRU, maxMemSize);
+            memoryTable = createLRUTable(maxMemSize);
         }
         if (this.useFileSystemStore) {
             // create the manager the first time it is needed
@@ -223,6 +247,22 @@ public class UtilCache<K, V> implements Serializable {
             if (UtilValidate.isNotEmpty(value)) {
                 this.expireTimeNanos = TimeUnit.NANOSECONDS.convert(Long.parseLong(value), TimeUnit.MILLISECONDS);
             }
+            value = getPropertyParam(res, propNames, "refreshAheadTime");
+            if (UtilValidate.isNotEmpty(value)) {
+                this.refreshAheadNanos = TimeUnit.NANOSECONDS.convert(Long.parseLong(value), TimeUnit.MILLISECONDS);
+            }
+            value = getPropertyParam(res, propNames, "loadWaitTimeout");
+            if (UtilValidate.isNotEmpty(value)) {
+                loads.setWaitTimeout(Long.parseLong(value));
+            }
+            value = getPropertyParam(res, propNames, "maxWeight");
+            if (UtilValidate.isNotEmpty(value)) {
+                this.maxWeight = Long.parseLong(value);
+            }
+            value = getPropertyParam(res, propNames, "weightBudget");
+            if (UtilValidate.isNotEmpty(value)) {
+                setWeightBudget(CacheWeightBudget.getBudget(value));
+            }
             value = getPropertyParam(res, propNames, "useSoftReference");
             if (value != null) {
                 useSoftReference = "true".equals(value);
@@ -238,6 +278,14 @@ public class UtilCache<K, V> implements Serializable {
         }
     }
 
+    private ConcurrentMap<Object, CacheLine<V>> createLRUTable(int capacity) {
+        return ConcurrentLinkedHashMap.create(ConcurrentLinkedHashMap.EvictionPolicy.LRU, capacity, new ConcurrentLinkedHashMap.EvictionListener<Object, CacheLine<V>>() {
+            public void onEviction(Object key, CacheLine<V> line) {
+                addWeight(-line.weight);
+            }
+        });
+    }
+
     private Object fromKey(Object key) {
         return key == null ? ObjectType.NULL : key;
     }
@@ -369,7 +417,7 @@ public class UtilCache<K, V> implements Serializable {
 
     V putInternal(K key, V value, long expireTimeNanos) {
         Object nulledKey = fromKey(key);
-        CacheLine<V> oldCacheLine = memoryTable.put(nulledKey, createCacheLine(key, value, expireTimeNanos));
+        CacheLine<V> oldCacheLine = putLine(nulledKey, key, value, expireTimeNanos);
         V oldValue = oldCacheLine == null ? null : cancel(oldCacheLine);
         if (fileTable != null) {
             try {
@@ -382,13 +430,108 @@ public class UtilCache<K, V> implements Serializable {
         }
         if (oldValue == null) {
             noteAddition(key, value);
-            return null;
         } else {
             noteUpdate(key, value, oldValue);
-            return oldValue;
+        }
+        evictIfNeeded();
+        return oldValue;
+    }
+
+    /** Puts a new line for the element in memory, counting its weight, and returns the line it replaced. */
+    private CacheLine<V> putLine(Object nulledKey, K key, V value, long expireTimeNanos) {
+        CacheLine<V> line = createCacheLine(key, value, expireTimeNanos);
+        CacheWeigher<K, V> weigher = this.weigher;
+        if (weigher != null) {
+            // the weight is set before the line can be removed by another thread, so it is always subtracted once
+            line.weight = Math.max(0, weigher.weigh(key, value));
+        }
+        CacheLine<V> oldLine = memoryTable.put(nulledKey, line);
+        addWeight(line.weight - (oldLine != null ? oldLine.weight : 0));
+        return oldLine;
+    }
+
+    private void addWeight(long delta) {
+        if (delta != 0) {
+            weight.addAndGet(delta);
+            CacheWeightBudget weightBudget = this.weightBudget;
+            if (weightBudget != null) {
+                weightBudget.addWeight(delta);
+            }
+        }
+    }
+
+    private void evictIfNeeded() {
+        if (maxWeight > 0 && weight.get() > maxWeight) {
+            evictWeight(weight.get() - maxWeight);
+        }
+        CacheWeightBudget weightBudget = this.weightBudget;
+        if (weightBudget != null) {
+            weightBudget.evictIfNeeded();
         }
     }
 
+    /** Evicts elements from memory until the given weight is freed, or the cache is empty.
+     * The elements read since the previous sweep get a second chance and are evicted last.
+     * When another thread is already evicting, this returns without evicting anything.
+     * @param toFree The weight to free
+     * @return The weight freed
+     */
+    long evictWeight(long toFree) {
+        if (toFree <= 0 || !evicting.compareAndSet(false, true)) {
+            return 0;
+        }
+        long freed = 0;
+        try {
+            for (int pass = 0; pass < 2 && freed < toFree; pass++) {
+                Iterator<Map.Entry<Object, CacheLine<V>>> it = memoryTable.entrySet().iterator();
+                while (freed < toFree && it.hasNext()) {
+                    Map.Entry<Object, CacheLine<V>> entry = it.next();
+                    CacheLine<V> line = entry.getValue();
+                    if (pass == 0 && line.accessed) {
+                        line.accessed = false;
+                        continue;
+                    }
+                    if (memoryTable.remove(entry.getKey(), line)) {
+                        V value = cancel(line);
+                        addWeight(-line.weight);
+                        freed += line.weight;
+                        weightEvictionCount.incrementAndGet();
+                        if (fileTable == null) {
+                            // the elements of a file system store are still in the file table
+                            noteRemoval(toKey(entry.getKey()), value);
+                        }
+                    }
+                }
+            }
+        } finally {
+            evicting.set(false);
+        }
+        return freed;
+    }
+
+    /** Recomputes the weight of an element which value was changed in place, for example a <code>Map</code> value to which entries were added.
+     * @param key The key for the element
+     */
+    public void updateWeight(Object key) {
+        CacheWeigher<K, V> weigher = this.weigher;
+        if (weigher == null) {
+            return;
+        }
+        CacheLine<V> line = memoryTable.get(fromKey(key));
+        if (line == null) {
+            return;
+        }
+        V value = line.getValue();
+        long newWeight = value == null ? 0 : Math.max(0, weigher.weigh(toKey(fromKey(key)), value));
+        long delta;
+        synchronized (line) {
+            delta = newWeight - line.weight;
+            line.weight = newWeight;
+        }
+        addWeight(delta);
+        evictIfNeeded();
+    }
+
     /** Gets an element from the cache according to the specified key.
      * @param key The key for the element, used to reference it in the hastables and LRU linked list
      * @return The value of the element specified by the key
@@ -412,17 +555,74 @@ public class UtilCache<K, V> implements Serializable {
                 } else {
                     hitCount.incrementAndGet();
                 }
-                memoryTable.put(nulledKey, createCacheLine((K) key, value, expireTimeNanos));
+                putLine(nulledKey, (K) key, value, expireTimeNanos);
+                evictIfNeeded();
                 return value;
             } else {
                 missCountNotFound.incrementAndGet();
             }
         } else {
             if (countGet) hitCount.incrementAndGet();
+            if (weigher != null && !line.accessed) line.accessed = true;
         }
         return line != null ? line.getValue() : null;
     }
 
+    /** Gets an element from the cache, loading it with the given loader when it is missing.
+     * When several threads ask for the same missing key, only one of them runs its loader and the others
+     * wait for its value. If a refreshAheadTime is set, an element which is about to expire is reloaded
+     * in the background while its current value is returned.
+     * A value removed from the cache while it was loading is returned but not cached, as it may be out of date.
+     * @param key The key for the element
+     * @param loader The <code>CacheLoader</code> computing the value of a missing element, a <code>null</code> value is not cached
+     * @return The value of the element specified by the key
+     * @throws E if the loader failed
+     */
+    public <E extends Exception> V get(K key, CacheLoader<K, V, E> loader) throws E {
+        V value = get(key);
+        Object nulledKey = fromKey(key);
+        if (value == null) {
+            return loads.load(nulledKey, key, new StoringLoader<E>(nulledKey, loader));
+        }
+        if (refreshAheadNanos > 0) {
+            CacheLine<V> line = memoryTable.get(nulledKey);
+            if (line != null && line.getLoadTimeNanos() > 0 && line.getExpireTimeNanos() - System.nanoTime() < refreshAheadNanos) {
+                loads.loadInBackground(nulledKey, key, new StoringLoader<E>(nulledKey, loader), RefreshExecutor.executor);
+            }
+        }
+        return value;
+    }
+
+    /** Puts the values loaded by a <code>CacheLoader</code>, unless they were removed while loading. */
+    private final class StoringLoader<E extends Exception> implements CacheLoader<K, V, E> {
+
+        private final Object nulledKey;
+        private final CacheLoader<K, V, E> loader;
+
+        private StoringLoader(Object nulledKey, CacheLoader<K, V, E> loader) {
+            this.nulledKey = nulledKey;
+            this.loader = loader;
+        }
+
+        public V load(K key) throws E {
+            V value = loader.load(key);
+            if (value != null) {
+                // the removes are synchronized too, so the value cannot be removed between the check and the put
+                synchronized (UtilCache.this) {
+                    if (!loads.isStale(nulledKey)) {
+                        putInternal(key, value, expireTimeNanos);
+                    }
+                }
+            }
+            return value;
+        }
+    }
+
+    /** Holds the executor of the refresh ahead loads, created the first time a cache uses it. */
+    private static final class RefreshExecutor {
+        private static final ScheduledExecutorService executor = ExecutionPool.getExecutor("UtilCache-refresh", 2);
+    }
+
     public Collection<V> values() {
         if (fileTable != null) {
             List<V> values = FastList.newInstance();
@@ -455,7 +655,13 @@ public class UtilCache<K, V> implements Serializable {
         }
     }
 
+    /** Returns the size of the elements in bytes: the weight of the elements in memory when the cache has a weigher,
+     * otherwise the size of the serialized values, which is expensive to compute.
+     */
     public long getSizeInBytes() {
+        if (weigher != null) {
+            return getWeight();
+        }
         long totalSize = 0;
         if (fileTable != null) {
             try {
@@ -492,6 +698,7 @@ public class UtilCache<K, V> implements Serializable {
             if (Debug.verboseOn()) Debug.logVerbose("In UtilCache tried to remove with null key, using NullObject" + this.name, module);
         }
         Object nulledKey = fromKey(key);
+        loads.markStale(nulledKey);
         CacheLine<V> oldCacheLine;
         V oldValue;
         if (fileTable != null) {
@@ -515,6 +722,7 @@ public class UtilCache<K, V> implements Serializable {
         }
         if (oldCacheLine != null) {
             cancel(oldCacheLine);
+            addWeight(-oldCacheLine.weight);
         }
         return postRemove((K) key, oldValue, countRemove);
     }
@@ -525,6 +733,7 @@ public class UtilCache<K, V> implements Serializable {
         if (!memoryTable.remove(nulledKey, existingCacheLine)) {
             return;
         }
+        addWeight(-existingCacheLine.weight);
         if (fileTable != null) {
             try {
                 fileTable.remove(nulledKey);
@@ -549,6 +758,7 @@ public class UtilCache<K, V> implements Serializable {
 
     /** Removes all elements from this cache */
     public synchronized void erase() {
+        loads.markAllStale();
         if (fileTable != null) {
             // FIXME: erase from memory too
             Set<Object> keys = new HashSet<Object>();
@@ -568,7 +778,12 @@ public class UtilCache<K, V> implements Serializable {
                     Debug.logError(e, module);
                 }
             }
-            memoryTable.clear();
+            Iterator<Map.Entry<Object, CacheLine<V>>> it = memoryTable.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<Object, CacheLine<V>> entry = it.next();
+                it.remove();
+                addWeight(-entry.getValue().weight);
+            }
         } else {
             Iterator<Map.Entry<Object, CacheLine<V>>> it = memoryTable.entrySet().iterator();
             while (it.hasNext()) {
@@ -576,6 +791,7 @@ public class UtilCache<K, V> implements Serializable {
                 noteRemoval(toKey(entry.getKey()), entry.getValue().getValue());
                 removeHitCount.incrementAndGet();
                 it.remove();
+                addWeight(-entry.getValue().weight);
             }
         }
     }
@@ -649,6 +865,27 @@ public class UtilCache<K, V> implements Serializable {
         return this.removeMissCount.get();
     }
 
+    /** Returns the number of missing elements loaded by {@link #get(Object, CacheLoader)}
+     * @return The number of loads
+     */
+    public long getLoadCount() {
+        return loads.getLoadCount();
+    }
+
+    /** Returns the number of times a thread waited for another thread loading the same missing element
+     * @return The number of waits
+     */
+    public long getLoadWaitCount() {
+        return loads.getWaitCount();
+    }
+
+    /** Returns the number of elements reloaded in the background because they were about to expire
+     * @return The number of refresh ahead loads
+     */
+    public long getRefreshCount() {
+        return loads.getBackgroundLoadCount();
+    }
+
     /** Clears the hit and miss counters
      */
     public void clearCounters() {
@@ -657,6 +894,7 @@ public class UtilCache<K, V> implements Serializable {
         this.missCountExpired.set(0);
         this.missCountSoftRef.set(0);
         this.removeHitCount.set(0);
+        this.weightEvictionCount.set(0);
         this.removeMissCount.set(0);
     }
 
@@ -686,7 +924,7 @@ public class UtilCache<K, V> implements Serializable {
                 ((ConcurrentLinkedHashMap) this.memoryTable).setCapacity(newInMemory);
                 return;
             } else {
-                this.memoryTable = ConcurrentLinkedHashMap.create(ConcurrentLinkedHashMap.EvictionPolicy.LRU, newInMemory);
+                this.memoryTable = createLRUTable(newInMemory);
             }
         } else {
             this.memoryTable = new ConcurrentHashMap<Object, CacheLine<V>>();
@@ -716,7 +954,7 @@ public class UtilCache<K, V> implements Serializable {
         if (expireTimeMillis > 0) {
             this.expireTimeNanos = TimeUnit.NANOSECONDS.convert(expireTimeMillis, TimeUnit.MILLISECONDS);
             for (Map.Entry<?, CacheLine<V>> entry: memoryTable.entrySet()) {
-                entry.setValue(entry.getValue().changeLine(useSoftReference, expireTimeNanos));
+                entry.setValue(changeLine(entry.getValue(), useSoftReference, expireTimeNanos));
             }
         } else {
             this.expireTimeNanos = 0;
@@ -724,6 +962,12 @@ public class UtilCache<K, V> implements Serializable {
         }
     }
 
+    private CacheLine<V> changeLine(CacheLine<V> line, boolean useSoftReference, long expireTimeNanos) {
+        CacheLine<V> newLine = line.changeLine(useSoftReference, expireTimeNanos);
+        newLine.weight = line.weight;
+        return newLine;
+    }
+
     /** return the current expire time for the cache elements
      * @return The expire time for the cache elements
      */
@@ -731,12 +975,106 @@ public class UtilCache<K, V> implements Serializable {
         return TimeUnit.MILLISECONDS.convert(expireTimeNanos, TimeUnit.NANOSECONDS);
     }
 
+    /** Sets how long before they expire the elements are reloaded in the background by {@link #get(Object, CacheLoader)}.
+     * If 0, elements are only loaded once they are missing.
+     * @param refreshAheadTimeMillis The refresh ahead time for the cache elements
+     */
+    public void setRefreshAheadTime(long refreshAheadTimeMillis) {
+        this.refreshAheadNanos = refreshAheadTimeMillis > 0 ? TimeUnit.NANOSECONDS.convert(refreshAheadTimeMillis, TimeUnit.MILLISECONDS) : 0;
+    }
+
+    /** return the current refresh ahead time for the cache elements
+     * @return The refresh ahead time for the cache elements
+     */
+    public long getRefreshAheadTime() {
+        return TimeUnit.MILLISECONDS.convert(refreshAheadNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /** Sets how long {@link #get(Object, CacheLoader)} waits for the load of the same key running in another thread
+     * before loading the element itself.
+     * @param loadWaitTimeoutMillis The wait timeout, 0 or less to never wait
+     */
+    public void setLoadWaitTimeout(long loadWaitTimeoutMillis) {
+        loads.setWaitTimeout(loadWaitTimeoutMillis);
+    }
+
+    /** return the current wait timeout for the loads of the missing elements
+     * @return The wait timeout in milliseconds
+     */
+    public long getLoadWaitTimeout() {
+        return loads.getWaitTimeout();
+    }
+
+    /** Sets the weigher estimating the memory used by the elements, and recomputes the weight of the elements in memory.
+     * @param weigher The <code>CacheWeigher</code>, or <code>null</code> to stop counting the weight
+     */
+    public synchronized void setWeigher(CacheWeigher<K, V> weigher) {
+        this.weigher = weigher;
+        long total = 0;
+        for (Map.Entry<Object, CacheLine<V>> entry: memoryTable.entrySet()) {
+            CacheLine<V> line = entry.getValue();
+            V value = line.getValue();
+            line.weight = weigher == null || value == null ? 0 : Math.max(0, weigher.weigh(toKey(entry.getKey()), value));
+            total += line.weight;
+        }
+        addWeight(total - weight.get());
+        evictIfNeeded();
+    }
+
+    public CacheWeigher<K, V> getWeigher() {
+        return weigher;
+    }
+
+    /** Sets the maximum weight of the elements in memory, 0 for no limit.
+     * The limit is only applied when the cache has a weigher.
+     * @param maxWeight The maximum weight
+     */
+    public void setMaxWeight(long maxWeight) {
+        this.maxWeight = maxWeight;
+        evictIfNeeded();
+    }
+
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    /** Returns the total weight of the elements in memory, as estimated by the weigher
+     * @return The weight, 0 if the cache has no weigher
+     */
+    public long getWeight() {
+        return weight.get();
+    }
+
+    /** Returns the number of elements evicted because of the cache or budget weight limits
+     * @return The number of weight evictions
+     */
+    public long getWeightEvictionCount() {
+        return weightEvictionCount.get();
+    }
+
+    /** Sets the budget shared with other caches this cache weight is counted in.
+     * @param weightBudget The <code>CacheWeightBudget</code>, or <code>null</code> to remove the cache from its budget
+     */
+    public synchronized void setWeightBudget(CacheWeightBudget weightBudget) {
+        if (this.weightBudget != null) {
+            this.weightBudget.removeCache(this);
+        }
+        this.weightBudget = weightBudget;
+        if (weightBudget != null) {
+            weightBudget.addCache(this);
+        }
+    }
+
+    public CacheWeightBudget getWeightBudget() {
+        return weightBudget;
+    }
+
     /** Set whether or not the cache lines should use a soft reference to the data */
     public void setUseSoftReference(boolean useSoftReference) {
         if (this.useSoftReference != useSoftReference) {
             this.useSoftReference = useSoftReference;
             for (Map.Entry<?, CacheLine<V>> entry: memoryTable.entrySet()) {
-                entry.setValue(entry.getValue().changeLine(useSoftReference, expireTimeNanos));
+                entry.setValue(changeLine(entry.getValue(), useSoftReference, expireTimeNanos));
             }
         }
     }
@@ -28,6 +28,8 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.*;
@@ -36,6 +38,9 @@ import org.ofbiz.base.util.Debug;
 import org.ofbiz.base.util.UtilMisc;
 import org.ofbiz.base.util.UtilObject;
 import org.ofbiz.base.util.cache.CacheListener;
+import org.ofbiz.base.util.cache.CacheLoader;
+import org.ofbiz.base.util.cache.CacheWeightBudget;
+import org.ofbiz.base.util.cache.CacheWeigher;
 import org.ofbiz.base.util.cache.UtilCache;
 import org.ofbiz.base.test.GenericTestCaseBase;
 
@@ -358,6 +363,63 @@ public class UtilCacheTests extends GenericTestCaseBase implements Serializable
         assertEquals("map-values", map.values().size(), cache.values().size());
     }
 
+    public void testWeight() throws Exception {
+        UtilCache<String, String> cache = createUtilCache(0, 0, 0, false, false);
+        cache.setWeigher(new CacheWeigher<String, String>() {
+            public long weigh(String key, String value) {
+                return value.length();
+            }
+        });
+        assertEquals("empty weight", 0, cache.getWeight());
+        cache.put("one", "12345");
+        cache.put("two", "1234567890");
+        assertEquals("weight", 15, cache.getWeight());
+        assertEquals("byteSize", 15, cache.getSizeInBytes());
+        cache.put("one", "123");
+        assertEquals("replaced weight", 13, cache.getWeight());
+        cache.remove("two");
+        assertEquals("removed weight", 3, cache.getWeight());
+
+        cache.setMaxWeight(20);
+        for (int i = 0; i < 10; i++) {
+            cache.put(Integer.toString(i), "12345");
+        }
+        assertThat(cache.getWeight(), lessThanOrEqualTo(20L));
+        assertThat(cache.getWeightEvictionCount(), greaterThan(0L));
+        long weight = 0;
+        for (String value: cache.values()) {
+            weight += value.length();
+        }
+        assertEquals("weight of the values", weight, cache.getWeight());
+
+        cache.erase();
+        assertEquals("erased weight", 0, cache.getWeight());
+    }
+
+    public void testWeightBudget() throws Exception {
+        CacheWeigher<String, String> weigher = new CacheWeigher<String, String>() {
+            public long weigh(String key, String value) {
+                return value.length();
+            }
+        };
+        CacheWeightBudget budget = CacheWeightBudget.getBudget(getClass().getName() + "." + getName());
+        budget.setMaxWeight(30);
+        UtilCache<String, String> cache1 = UtilCache.createUtilCache(getClass().getName() + "." + getName() + ".1");
+        UtilCache<String, String> cache2 = UtilCache.createUtilCache(getClass().getName() + "." + getName() + ".2");
+        for (UtilCache<String, String> cache: UtilMisc.toList(cache1, cache2)) {
+            cache.setWeigher(weigher);
+            cache.setWeightBudget(budget);
+        }
+        for (int i = 0; i < 10; i++) {
+            cache1.put(Integer.toString(i), "12345");
+            cache2.put(Integer.toString(i), "12345");
+        }
+        assertThat(budget.getWeight(), lessThanOrEqualTo(30L));
+        assertEquals("budget weight", cache1.getWeight() + cache2.getWeight(), budget.getWeight());
+        cache1.setWeightBudget(null);
+        assertEquals("budget weight without cache1", cache2.getWeight(), budget.getWeight());
+    }
+
     private void expireTest(UtilCache<String, Serializable> cache, int size, long ttl) throws Exception {
         Map<String, Serializable> map = new HashMap<String, Serializable>();
         for (int i = 0; i < size; i++) {
@@ -394,4 +456,109 @@ public class UtilCacheTests extends GenericTestCaseBase implements Serializable
         assertNull("not-key(0)", cache.get("0"));
         assertTrue("empty", cache.isEmpty());
     }
+
+    /** A loader returning its value once released, so the test controls when a load ends. */
+    private static final class BlockingLoader implements CacheLoader<String, String, RuntimeException> {
+        private final String value;
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final CountDownLatch released = new CountDownLatch(1);
+
+        private BlockingLoader(String value) {
+            this.value = value;
+        }
+
+        public String load(String key) {
+            started.countDown();
+            try {
+                released.await(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return value;
+        }
+    }
+
+    private static final class ConstantLoader implements CacheLoader<String, String, RuntimeException> {
+        private final String value;
+
+        private ConstantLoader(String value) {
+            this.value = value;
+        }
+
+        public String load(String key) {
+            return value;
+        }
+    }
+
+    private static Thread startGet(final UtilCache<String, String> cache, final String key, final CacheLoader<String, String, RuntimeException> loader, final List<String> results) {
+        Thread thread = new Thread(module) {
+            public void run() {
+                results.add(cache.get(key, loader));
+            }
+        };
+        thread.start();
+        return thread;
+    }
+
+    private static void waitUntilWaiting(Thread thread) throws InterruptedException {
+        long end = System.currentTimeMillis() + 10000;
+        while (thread.getState() != Thread.State.WAITING && thread.getState() != Thread.State.TIMED_WAITING && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+    }
+
+    public void testLoaderWaitsForRunningLoad() throws Exception {
+        UtilCache<String, String> cache = createUtilCache(0, 0, 0, false, false);
+        BlockingLoader loader = new BlockingLoader("loaded");
+        List<String> results = Collections.synchronizedList(new LinkedList<String>());
+        Thread loading = startGet(cache, "key", loader, results);
+        assertTrue("load started", loader.started.await(10, TimeUnit.SECONDS));
+        Thread waiting = startGet(cache, "key", new ConstantLoader("not waited"), results);
+        waitUntilWaiting(waiting);
+        loader.released.countDown();
+        loading.join(10000);
+        waiting.join(10000);
+        assertEquals("both threads get the value of the running load", UtilMisc.toList("loaded", "loaded"), results);
+        assertEquals("cached", "loaded", cache.get("key"));
+        assertEquals("one load", 1, cache.getLoadCount());
+        assertEquals("one wait", 1, cache.getLoadWaitCount());
+    }
+
+    public void testLoaderDoesNotReturnStaleLoad() throws Exception {
+        UtilCache<String, String> cache = createUtilCache(0, 0, 0, false, false);
+        BlockingLoader loader = new BlockingLoader("stale");
+        List<String> results = Collections.synchronizedList(new LinkedList<String>());
+        Thread loading = startGet(cache, "key", loader, results);
+        assertTrue("load started", loader.started.await(10, TimeUnit.SECONDS));
+        List<String> waitingResults = Collections.synchronizedList(new LinkedList<String>());
+        Thread waiting = startGet(cache, "key", new ConstantLoader("fresh"), waitingResults);
+        waitUntilWaiting(waiting);
+        // the key changes while it is loading, the waiting thread must not get the value read before the change
+        cache.remove("key");
+        loader.released.countDown();
+        loading.join(10000);
+        waiting.join(10000);
+        assertEquals("the running load returns its own value", UtilMisc.toList("stale"), results);
+        assertEquals("the waiting thread loads the value again", UtilMisc.toList("fresh"), waitingResults);
+        assertEquals("the stale value is not cached", "fresh", cache.get("key"));
+    }
+
+    public void testLoaderWaitTimeout() throws Exception {
+        UtilCache<String, String> cache = createUtilCache(0, 0, 0, false, false);
+        cache.setLoadWaitTimeout(100);
+        assertEquals("wait timeout", 100, cache.getLoadWaitTimeout());
+        BlockingLoader loader = new BlockingLoader("slow");
+        List<String> results = Collections.synchronizedList(new LinkedList<String>());
+        Thread loading = startGet(cache, "key", loader, results);
+        try {
+            assertTrue("load started", loader.started.await(10, TimeUnit.SECONDS));
+            // the slow load is still running, the caller stops waiting and runs its own loader
+            assertEquals("own value after the timeout", "own", cache.get("key", new ConstantLoader("own")));
+            assertTrue("the slow load is still running", results.isEmpty());
+        } finally {
+            loader.released.countDown();
+            loading.join(10000);
+        }
+        assertEquals("the slow load ends", UtilMisc.toList("slow"), results);
+    }
 }
@@ -1130,6 +1130,12 @@ public interface Delegator {
      */
     public void setSequencer(SequenceUtil sequencer);
 
+    /**
+     * Gets the SequenceUtil used by this delegator, for example to look at its
+     * bank statistics; null if no sequenced id was requested yet.
+     */
+    public SequenceUtil getSequencer();
+
     /**
      * Store the Entity from the GenericValue to the persistent store
      *
@@ -1196,7 +1202,9 @@ public interface Delegator {
      * appropriate. <br/>These updates all happen in one transaction, so they
      * will either all succeed or all fail, if the data source supports
      * transactions. This is just like to othersToStore feature of the
-     * GenericEntity on a create or store.
+     * GenericEntity on a create or store. <br/>When the datasource has a
+     * batch-size, consecutive values of the same entity are looked up with
+     * multi-row selects and inserted or updated in JDBC batches.
      *
      * @param values
      *            List of GenericValue instances containing the entities to
@@ -1242,6 +1250,23 @@ public interface Delegator {
      */
     public int storeByCondition(String entityName, Map<String, ? extends Object> fieldsToSet, EntityCondition condition, boolean doCacheClear) throws GenericEntityException;
 
+    /**
+     * Atomically add the given amounts to numeric fields of a group of values, with a single
+     * <code>UPDATE ... SET field = COALESCE(field, 0) + ?</code> statement, so concurrent increments
+     * of the same rows do not need to read them first. Like storeByCondition this does not run the
+     * entity ECAs.
+     *
+     * @param entityName
+     *            The name of the Entity as defined in the entity XML file
+     * @param fieldsToIncrement
+     *            The numeric fields to increment and the amount (positive or negative) to add to each
+     * @param condition
+     *            The condition that restricts the list of incremented values
+     * @return int representing number of rows effected by this operation
+     * @throws GenericEntityException
+     */
+    public int incrementByCondition(String entityName, Map<String, ? extends Number> fieldsToIncrement, EntityCondition condition) throws GenericEntityException;
+
     /**
      * Enables/Disables the JMS listeners globally
      * (this will not effect any dispatchers already running)
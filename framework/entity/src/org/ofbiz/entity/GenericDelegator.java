@@ -24,6 +24,7 @@ import java.io.IOException;
 import java.net.URL;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -46,6 +47,7 @@ import org.ofbiz.base.util.UtilMisc;
 import org.ofbiz.base.util.UtilObject;
 import org.ofbiz.base.util.UtilValidate;
 import org.ofbiz.base.util.UtilXml;
+import org.ofbiz.base.util.cache.CacheLoader;
 import org.ofbiz.entity.cache.Cache;
 import org.ofbiz.entity.condition.EntityCondition;
 import org.ofbiz.entity.condition.EntityConditionList;
@@ -1294,6 +1296,52 @@ public class GenericDelegator implements Delegator {
         }
     }
 
+    /* (non-Javadoc)
+     * @see org.ofbiz.entity.Delegator#incrementByCondition(java.lang.String, java.util.Map, org.ofbiz.entity.condition.EntityCondition)
+     */
+    public int incrementByCondition(String entityName, Map<String, ? extends Number> fieldsToIncrement, EntityCondition condition) throws GenericEntityException {
+        boolean beganTransaction = false;
+        try {
+            if (alwaysUseTransaction) {
+                beganTransaction = TransactionUtil.begin();
+            }
+
+            // always clear cache before the operation
+            this.clearCacheLineByCondition(entityName, condition);
+            ModelEntity modelEntity = getModelReader().getModelEntity(entityName);
+            GenericHelper helper = getEntityHelper(entityName);
+
+            List<GenericValue> updatedEntities = null;
+            if (testMode) {
+                updatedEntities = this.findList(entityName, condition, null, null, null, false);
+            }
+
+            int rowsAffected = helper.incrementByCondition(modelEntity, fieldsToIncrement, condition);
+
+            if (testMode) {
+                for (GenericValue entity : updatedEntities) {
+                    storeForTestRollback(new TestOperation(OperationType.UPDATE, entity));
+                }
+            }
+
+            return rowsAffected;
+        } catch (GenericEntityException e) {
+            String errMsg = "Failure in incrementByCondition operation for entity [" + entityName + "]: " + e.toString() + ". Rolling back transaction.";
+            Debug.logError(e, errMsg, module);
+            try {
+                // only rollback the transaction if we started one...
+                TransactionUtil.rollback(beganTransaction, errMsg, e);
+            } catch (GenericEntityException e2) {
+                Debug.logError(e2, "[GenericDelegator] Could not rollback transaction: " + e2.toString(), module);
+            }
+            // after rolling back, rethrow the exception
+            throw e;
+        } finally {
+            // only commit the transaction if we started one... this will throw an exception if it fails
+            TransactionUtil.commit(beganTransaction);
+        }
+    }
+
     /* (non-Javadoc)
      * @see org.ofbiz.entity.Delegator#store(org.ofbiz.entity.GenericValue)
      */
@@ -1393,55 +1441,20 @@ public class GenericDelegator implements Delegator {
         try {
             beganTransaction = TransactionUtil.begin();
 
-            for (GenericValue value: values) {
-                String entityName = value.getEntityName();
-                GenericPK primaryKey = value.getPrimaryKey();
-                GenericHelper helper = getEntityHelper(entityName);
-
-                // exists?
-                // NOTE: don't use findByPrimaryKey because we don't want to the ECA events to fire and such
-                if (!primaryKey.isPrimaryKey()) {
-                    throw new GenericModelException("[GenericDelegator.storeAll] One of the passed primary keys is not a valid primary key: " + primaryKey);
-                }
-                GenericValue existing = null;
-                try {
-                    existing = helper.findByPrimaryKey(primaryKey);
-                    this.decryptFields(existing);
-                } catch (GenericEntityNotFoundException e) {
-                    existing = null;
-                }
-
-                if (existing == null) {
-                    if (createDummyFks) {
-                        value.checkFks(true);
-                    }
-                    this.create(value, doCacheClear);
-                    numberChanged++;
-                } else {
-                    // don't send fields that are the same, and if no fields have changed, update nothing
-                    ModelEntity modelEntity = value.getModelEntity();
-                    GenericValue toStore = GenericValue.create(this, modelEntity, value.getPrimaryKey());
-                    boolean atLeastOneField = false;
-                    Iterator<ModelField> nonPksIter = modelEntity.getNopksIterator();
-                    while (nonPksIter.hasNext()) {
-                        ModelField modelField = nonPksIter.next();
-                        String fieldName = modelField.getName();
-                        if (value.containsKey(fieldName)) {
-                            Object fieldValue = value.get(fieldName);
-                            Object oldValue = existing.get(fieldName);
-                            if (!UtilObject.equalsHelper(oldValue, fieldValue)) {
-                                toStore.put(fieldName, fieldValue);
-                                atLeastOneField = true;
-                            }
+            // consecutive values of the same entity are written in JDBC batches when the datasource has a batch-size, otherwise one at a time
+            int runStart = 0;
+            for (int i = 1; i <= values.size(); i++) {
+                if (i == values.size() || !values.get(i).getEntityName().equals(values.get(runStart).getEntityName())) {
+                    List<GenericValue> run = values.subList(runStart, i);
+                    int batchSize = this.getBatchSize(run.get(0).getEntityName());
+                    if (batchSize > 0) {
+                        numberChanged += this.storeAllBatched(run, batchSize, doCacheClear, createDummyFks);
+                    } else {
+                        for (GenericValue value: run) {
+                            numberChanged += this.storeAllSingle(value, doCacheClear, createDummyFks);
                         }
                     }
-
-                    if (atLeastOneField) {
-                        if (createDummyFks) {
-                            value.checkFks(true);
-                        }
-                        numberChanged += this.store(toStore, doCacheClear);
-                    }
+                    runStart = i;
                 }
             }
 
@@ -1463,6 +1476,231 @@ public class GenericDelegator implements Delegator {
         }
     }
 
+    /** The storeAll per value path: looks up the existing value then creates or stores it. */
+    private int storeAllSingle(GenericValue value, boolean doCacheClear, boolean createDummyFks) throws GenericEntityException {
+        String entityName = value.getEntityName();
+        GenericPK primaryKey = value.getPrimaryKey();
+        GenericHelper helper = getEntityHelper(entityName);
+
+        // exists?
+        // NOTE: don't use findByPrimaryKey because we don't want to the ECA events to fire and such
+        if (!primaryKey.isPrimaryKey()) {
+            throw new GenericModelException("[GenericDelegator.storeAll] One of the passed primary keys is not a valid primary key: " + primaryKey);
+        }
+        GenericValue existing = null;
+        try {
+            existing = helper.findByPrimaryKey(primaryKey);
+            this.decryptFields(existing);
+        } catch (GenericEntityNotFoundException e) {
+            existing = null;
+        }
+
+        if (existing == null) {
+            if (createDummyFks) {
+                value.checkFks(true);
+            }
+            this.create(value, doCacheClear);
+            return 1;
+        } else {
+            GenericValue toStore = this.makeStoreAllChanges(value, existing);
+            if (toStore != null) {
+                if (createDummyFks) {
+                    value.checkFks(true);
+                }
+                return this.store(toStore, doCacheClear);
+            }
+        }
+        return 0;
+    }
+
+    /** Gets a value holding only the fields of the given value that differ from the existing one, or null if there is no change. */
+    private GenericValue makeStoreAllChanges(GenericValue value, GenericValue existing) {
+        // don't send fields that are the same, and if no fields have changed, update nothing
+        ModelEntity modelEntity = value.getModelEntity();
+        GenericValue toStore = GenericValue.create(this, modelEntity, value.getPrimaryKey());
+        boolean atLeastOneField = false;
+        Iterator<ModelField> nonPksIter = modelEntity.getNopksIterator();
+        while (nonPksIter.hasNext()) {
+            ModelField modelField = nonPksIter.next();
+            String fieldName = modelField.getName();
+            if (value.containsKey(fieldName)) {
+                Object fieldValue = value.get(fieldName);
+                Object oldValue = existing.get(fieldName);
+                if (!UtilObject.equalsHelper(oldValue, fieldValue)) {
+                    toStore.put(fieldName, fieldValue);
+                    atLeastOneField = true;
+                }
+            }
+        }
+        return atLeastOneField ? toStore : null;
+    }
+
+    /** The storeAll batched path for values of a same entity: splits them in chunks of at most batchSize values with distinct primary keys. */
+    private int storeAllBatched(List<GenericValue> values, int batchSize, boolean doCacheClear, boolean createDummyFks) throws GenericEntityException {
+        int numberChanged = 0;
+        List<GenericValue> chunk = FastList.newInstance();
+        Set<GenericPK> chunkKeys = new HashSet<GenericPK>();
+        for (GenericValue value: values) {
+            GenericPK primaryKey = value.getPrimaryKey();
+            if (!primaryKey.isPrimaryKey()) {
+                throw new GenericModelException("[GenericDelegator.storeAll] One of the passed primary keys is not a valid primary key: " + primaryKey);
+            }
+            // a value repeated in the list must see the result of the previous write, so it starts a new chunk
+            if (chunk.size() == batchSize || chunkKeys.contains(primaryKey)) {
+                numberChanged += this.storeAllChunk(chunk, doCacheClear, createDummyFks);
+                chunk.clear();
+                chunkKeys.clear();
+            }
+            chunk.add(value);
+            chunkKeys.add(primaryKey);
+        }
+        if (chunk.size() > 0) {
+            numberChanged += this.storeAllChunk(chunk, doCacheClear, createDummyFks);
+        }
+        return numberChanged;
+    }
+
+    /**
+     * Writes a chunk of values of a same entity: the existing values are found with one multi-row select,
+     * then the new values are inserted and the changed values updated each in JDBC batches. The ECA rules,
+     * audit log, cache clear and test mode operations are the same as for create and store, in the order of the values.
+     * The RUN rules of a value must see the values before it written, so when the entity has RUN rules the pending
+     * values are written, and their RETURN rules run, before the rules of the next value.
+     */
+    private int storeAllChunk(List<GenericValue> values, boolean doCacheClear, boolean createDummyFks) throws GenericEntityException {
+        String entityName = values.get(0).getEntityName();
+        GenericHelper helper = getEntityHelper(entityName);
+        EntityEcaRuleRunner<?> ecaRunner = this.getEcaRuleRunner(entityName);
+
+        // exists?
+        // NOTE: use the helper directly because we don't want to the ECA events to fire and such
+        List<GenericPK> primaryKeys = FastList.newInstance();
+        for (GenericValue value: values) {
+            primaryKeys.add(value.getPrimaryKey());
+        }
+        Map<GenericPK, GenericValue> existingValues = FastMap.newInstance();
+        for (GenericValue existing: helper.findAllByPrimaryKeys(primaryKeys)) {
+            if (existing != null) {
+                this.decryptFields(existing);
+                existingValues.put(existing.getPrimaryKey(), existing);
+            }
+        }
+
+        boolean hasRunRules = ecaRunner.hasRules(EntityEcaHandler.EV_RUN);
+        int numberChanged = 0;
+        List<GenericValue> toCreate = FastList.newInstance();
+        List<GenericValue> toStore = FastList.newInstance();
+        List<GenericValue> toStoreExisting = FastList.newInstance();
+        for (GenericValue value: values) {
+            GenericValue existing = existingValues.get(value.getPrimaryKey());
+            GenericValue storeValue = null;
+            if (existing != null) {
+                storeValue = this.makeStoreAllChanges(value, existing);
+                if (storeValue == null) {
+                    continue;
+                }
+            }
+            if (hasRunRules) {
+                numberChanged += this.writeStoreAllBatch(helper, ecaRunner, toCreate, toStore, toStoreExisting, doCacheClear);
+            }
+
+            if (existing == null) {
+                if (createDummyFks) {
+                    value.checkFks(true);
+                }
+                ecaRunner.evalRules(EntityEcaHandler.EV_VALIDATE, EntityEcaHandler.OP_CREATE, value, false);
+                ecaRunner.evalRules(EntityEcaHandler.EV_RUN, EntityEcaHandler.OP_CREATE, value, false);
+
+                value.setDelegator(this);
+                this.encryptFields(value);
+
+                // if audit log on for any fields, save new value with no old value because it's a create
+                if (value.getModelEntity().getHasFieldWithAuditLog()) {
+                    createEntityAuditLogAll(value, false, false);
+                }
+                toCreate.add(value);
+            } else {
+                if (createDummyFks) {
+                    value.checkFks(true);
+                }
+                ecaRunner.evalRules(EntityEcaHandler.EV_VALIDATE, EntityEcaHandler.OP_STORE, storeValue, false);
+                if (doCacheClear) {
+                    // always clear cache before the operation
+                    ecaRunner.evalRules(EntityEcaHandler.EV_CACHE_CLEAR, EntityEcaHandler.OP_STORE, storeValue, false);
+                    this.clearCacheLine(storeValue);
+                }
+                ecaRunner.evalRules(EntityEcaHandler.EV_RUN, EntityEcaHandler.OP_STORE, storeValue, false);
+                this.encryptFields(storeValue);
+
+                // if audit log on for any fields, save old value before the update so we still have both
+                if (storeValue.getModelEntity().getHasFieldWithAuditLog()) {
+                    createEntityAuditLogAll(storeValue, true, false);
+                }
+                toStore.add(storeValue);
+                toStoreExisting.add(existing);
+            }
+        }
+        numberChanged += this.writeStoreAllBatch(helper, ecaRunner, toCreate, toStore, toStoreExisting, doCacheClear);
+
+        return numberChanged;
+    }
+
+    /** Writes the pending values of storeAllChunk in JDBC batches, runs their RETURN rules and clears the lists. */
+    private int writeStoreAllBatch(GenericHelper helper, EntityEcaRuleRunner<?> ecaRunner, List<GenericValue> toCreate, List<GenericValue> toStore, List<GenericValue> toStoreExisting, boolean doCacheClear) throws GenericEntityException {
+        int numberChanged = 0;
+        if (toCreate.size() > 0) {
+            helper.createAll(toCreate);
+            numberChanged += toCreate.size();
+
+            for (GenericValue value: toCreate) {
+                if (testMode) {
+                    storeForTestRollback(new TestOperation(OperationType.INSERT, value));
+                }
+                value.setDelegator(this);
+                if (value.lockEnabled()) {
+                    refresh(value, doCacheClear);
+                } else {
+                    if (doCacheClear) {
+                        ecaRunner.evalRules(EntityEcaHandler.EV_CACHE_CLEAR, EntityEcaHandler.OP_CREATE, value, false);
+                        this.clearCacheLine(value);
+                    }
+                }
+                ecaRunner.evalRules(EntityEcaHandler.EV_RETURN, EntityEcaHandler.OP_CREATE, value, false);
+            }
+        }
+
+        if (toStore.size() > 0) {
+            numberChanged += helper.storeAll(toStore);
+
+            for (int i = 0; i < toStore.size(); i++) {
+                GenericValue value = toStore.get(i);
+                if (testMode) {
+                    storeForTestRollback(new TestOperation(OperationType.UPDATE, toStoreExisting.get(i)));
+                }
+                // refresh the valueObject to get the new version
+                if (value.lockEnabled()) {
+                    refresh(value, doCacheClear);
+                }
+                ecaRunner.evalRules(EntityEcaHandler.EV_RETURN, EntityEcaHandler.OP_STORE, value, false);
+            }
+        }
+
+        toCreate.clear();
+        toStore.clear();
+        toStoreExisting.clear();
+        return numberChanged;
+    }
+
+    /** Gets the batch-size of the datasource of the given entity, 0 when storeAll should not use batches. */
+    protected int getBatchSize(String entityName) {
+        GenericHelperInfo helperInfo = this.getEntityHelperInfo(entityName);
+        if (helperInfo == null) {
+            return 0;
+        }
+        DatasourceInfo datasourceInfo = EntityConfigUtil.getDatasourceInfo(helperInfo.getHelperBaseName());
+        return datasourceInfo == null ? 0 : datasourceInfo.batchSize;
+    }
+
     /* (non-Javadoc)
      * @see org.ofbiz.entity.Delegator#removeAll(java.lang.String)
      */
@@ -1530,16 +1768,36 @@ public class GenericDelegator implements Delegator {
      */
     public GenericValue findOne(String entityName, Map<String, ? extends Object> fields, boolean useCache) throws GenericEntityException {
         GenericPK primaryKey = this.makePK(entityName, fields);
-        EntityEcaRuleRunner<?> ecaRunner = this.getEcaRuleRunner(entityName);
+        final EntityEcaRuleRunner<?> ecaRunner = this.getEcaRuleRunner(entityName);
         if (useCache) {
             ecaRunner.evalRules(EntityEcaHandler.EV_CACHE_CHECK, EntityEcaHandler.OP_FIND, primaryKey, false);
 
+            // a thread in a transaction does not wait for a load which may be blocked by its own locks
+            if (!primaryKey.getModelEntity().getNeverCache() && !TransactionUtil.isTransactionInPlace()) {
+                // only one thread reads a missing value, the other threads asking for it wait for its result
+                GenericValue value = this.cache.get(primaryKey, new CacheLoader<GenericPK, GenericValue, GenericEntityException>() {
+                    public GenericValue load(GenericPK primaryKey) throws GenericEntityException {
+                        return findOneFromDatasource(primaryKey, ecaRunner, true);
+                    }
+                });
+                return value == GenericValue.NULL_VALUE ? null : value;
+            }
+
             GenericValue value = this.getFromPrimaryKeyCache(primaryKey);
             if (value != null) {
                 return value;
             }
+            value = findOneFromDatasource(primaryKey, ecaRunner, true);
+            this.putInPrimaryKeyCache(primaryKey, value != null ? value : GenericValue.NULL_VALUE);
+            return value;
         }
 
+        return findOneFromDatasource(primaryKey, ecaRunner, false);
+    }
+
+    /** Reads a value by its primary key from the datasource, the caller puts it in the cache when useCache is set. */
+    private GenericValue findOneFromDatasource(GenericPK primaryKey, EntityEcaRuleRunner<?> ecaRunner, boolean useCache) throws GenericEntityException {
+        String entityName = primaryKey.getEntityName();
         boolean beganTransaction = false;
         try {
             if (alwaysUseTransaction) {
@@ -1564,13 +1822,8 @@ public class GenericDelegator implements Delegator {
                 this.decryptFields(value);
             }
 
-            if (useCache) {
-                if (value != null) {
-                    ecaRunner.evalRules(EntityEcaHandler.EV_CACHE_PUT, EntityEcaHandler.OP_FIND, value, false);
-                    this.putInPrimaryKeyCache(primaryKey, value);
-                } else {
-                    this.putInPrimaryKeyCache(primaryKey, GenericValue.NULL_VALUE);
-                }
+            if (useCache && value != null) {
+                ecaRunner.evalRules(EntityEcaHandler.EV_CACHE_PUT, EntityEcaHandler.OP_FIND, value, false);
             }
 
             ecaRunner.evalRules(EntityEcaHandler.EV_RETURN, EntityEcaHandler.OP_FIND, (value == null ? primaryKey : value), false);
@@ -2160,39 +2413,67 @@ public class GenericDelegator implements Delegator {
     /* (non-Javadoc)
      * @see org.ofbiz.entity.Delegator#findList(java.lang.String, org.ofbiz.entity.condition.EntityCondition, java.util.Set, java.util.List, org.ofbiz.entity.util.EntityFindOptions, boolean)
      */
-    public List<GenericValue> findList(String entityName, EntityCondition entityCondition,
-            Set<String> fieldsToSelect, List<String> orderBy, EntityFindOptions findOptions, boolean useCache)
+    public List<GenericValue> findList(final String entityName, final EntityCondition entityCondition,
+            final Set<String> fieldsToSelect, final List<String> orderBy, final EntityFindOptions findOptions, boolean useCache)
             throws GenericEntityException {
 
-        EntityEcaRuleRunner<?> ecaRunner = null;
-        GenericValue dummyValue = null;
-        if (useCache) {
-            ecaRunner = this.getEcaRuleRunner(entityName);
+        // a page of the list is not cached under the key of the whole list
+        if (useCache && (findOptions == null || (findOptions.getOffset() <= 0 && findOptions.getLimit() < 0 && findOptions.getSeekAfter() == null))) {
+            final EntityEcaRuleRunner<?> ecaRunner = this.getEcaRuleRunner(entityName);
             ModelEntity modelEntity = getModelReader().getModelEntity(entityName);
-            dummyValue = GenericValue.create(modelEntity);
+            final GenericValue dummyValue = GenericValue.create(modelEntity);
             ecaRunner.evalRules(EntityEcaHandler.EV_CACHE_CHECK, EntityEcaHandler.OP_FIND, dummyValue, false);
 
-            List<GenericValue> cacheList = this.cache.get(entityName, entityCondition, orderBy);
-            if (cacheList != null) {
-                return cacheList;
+            // a thread in a transaction does not wait for a load which may be blocked by its own locks
+            if (TransactionUtil.isTransactionInPlace()) {
+                List<GenericValue> cacheList = this.cache.get(entityName, entityCondition, orderBy);
+                if (cacheList != null) {
+                    return cacheList;
+                }
+                List<GenericValue> list = findListFromDatasource(entityName, entityCondition, fieldsToSelect, orderBy, findOptions, true);
+                ecaRunner.evalRules(EntityEcaHandler.EV_CACHE_PUT, EntityEcaHandler.OP_FIND, dummyValue, false);
+                this.cache.put(entityName, entityCondition, orderBy, list);
+                return list;
             }
+
+            // only one thread reads a missing list, the other threads asking for it wait for its result
+            return this.cache.get(entityName, entityCondition, orderBy, new CacheLoader<Object, List<GenericValue>, GenericEntityException>() {
+                public List<GenericValue> load(Object orderByKey) throws GenericEntityException {
+                    List<GenericValue> list = findListFromDatasource(entityName, entityCondition, fieldsToSelect, orderBy, findOptions, true);
+                    ecaRunner.evalRules(EntityEcaHandler.EV_CACHE_PUT, EntityEcaHandler.OP_FIND, dummyValue, false);
+                    return list;
+                }
+            });
         }
 
+        return findListFromDatasource(entityName, entityCondition, fieldsToSelect, orderBy, findOptions, false);
+    }
+
+    /**
+     * Reads a list from the datasource. A list put in the cache is always read from the primary database, because a
+     * list read from a lagging replica would be returned to all the next callers until the cache is cleared.
+     */
+    private List<GenericValue> findListFromDatasource(String entityName, EntityCondition entityCondition,
+            Set<String> fieldsToSelect, List<String> orderBy, EntityFindOptions findOptions, boolean forCache)
+            throws GenericEntityException {
+
         boolean beganTransaction = false;
         try {
             if (alwaysUseTransaction) {
                 beganTransaction = TransactionUtil.begin();
             }
 
+            // a list put in the cache is read from the primary database, otherwise when the caller has no transaction
+            //  which could have changed the data the list can be read from a replica
+            if (forCache) {
+                findOptions = withReadOnly(findOptions, false);
+            } else if (beganTransaction) {
+                findOptions = withReadOnly(findOptions, true);
+            }
             EntityListIterator eli = this.find(entityName, entityCondition, null, fieldsToSelect, orderBy, findOptions);
             eli.setDelegator(this);
             List<GenericValue> list = eli.getCompleteList();
             eli.close();
-
-            if (useCache) {
-                ecaRunner.evalRules(EntityEcaHandler.EV_CACHE_PUT, EntityEcaHandler.OP_FIND, dummyValue, false);
-                this.cache.put(entityName, entityCondition, orderBy, list);
-            }
             return list;
         } catch (GenericEntityException e) {
             String errMsg = "Failure in findByCondition operation for entity [" + entityName + "]: " + e.toString() + ". Rolling back transaction.";
@@ -2211,6 +2492,13 @@ public class GenericDelegator implements Delegator {
         }
     }
 
+    /** Copies the given find options with the read-only option set, which allows a find made outside of a transaction to read from a replica. */
+    private static EntityFindOptions withReadOnly(EntityFindOptions findOptions, boolean readOnly) {
+        EntityFindOptions readOnlyOptions = findOptions == null ? new EntityFindOptions() : new EntityFindOptions(findOptions);
+        readOnlyOptions.setReadOnly(readOnly);
+        return readOnlyOptions;
+    }
+
     /* (non-Javadoc)
      * @see org.ofbiz.entity.Delegator#findListIteratorByCondition(org.ofbiz.entity.model.DynamicViewEntity, org.ofbiz.entity.condition.EntityCondition, org.ofbiz.entity.condition.EntityCondition, java.util.Collection, java.util.List, org.ofbiz.entity.util.EntityFindOptions)
      */
@@ -2296,7 +2584,7 @@ public class GenericDelegator implements Delegator {
 
             ecaRunner.evalRules(EntityEcaHandler.EV_RUN, EntityEcaHandler.OP_FIND, dummyValue, false);
             GenericHelper helper = getEntityHelper(modelEntity.getEntityName());
-            long count = helper.findCountByCondition(modelEntity, whereEntityCondition, havingEntityCondition, findOptions);
+            long count = helper.findCountByCondition(modelEntity, whereEntityCondition, havingEntityCondition, beganTransaction ? withReadOnly(findOptions, true) : findOptions);
 
             ecaRunner.evalRules(EntityEcaHandler.EV_RETURN, EntityEcaHandler.OP_FIND, dummyValue, false);
             return count;
@@ -2857,6 +3145,10 @@ public class GenericDelegator implements Delegator {
             //if (!"find".equals(currentOperation)) Debug.logWarning("evalRules for entity " + value.getEntityName() + ", currentOperation " + currentOperation + ", event " + event, module);
             entityEcaHandler.evalRules(currentOperation, eventMap, event, value, isError);
         }
+
+        protected boolean hasRules(String event) {
+            return entityEcaHandler != null && eventMap != null && UtilValidate.isNotEmpty(eventMap.get(event));
+        }
     }
 
     protected EntityEcaRuleRunner<?> getEcaRuleRunner(String entityName) {
@@ -2966,6 +3258,13 @@ public class GenericDelegator implements Delegator {
         this.sequencer = sequencer;
     }
 
+    /* (non-Javadoc)
+     * @see org.ofbiz.entity.Delegator#getSequencer()
+     */
+    public SequenceUtil getSequencer() {
+        return this.sequencer;
+    }
+
     /* (non-Javadoc)
      * @see org.ofbiz.entity.Delegator#refreshSequencer()
      */
@@ -19,12 +19,19 @@
 /* This file has been modified by Open Source Strategies, Inc. */
 package org.ofbiz.entity.cache;
 
+import org.ofbiz.base.util.cache.CacheWeigher;
 import org.ofbiz.base.util.cache.UtilCache;
 import org.ofbiz.entity.Delegator;
 import org.ofbiz.entity.DelegatorFactory;
+import org.ofbiz.entity.model.ModelEntity;
 
 public abstract class AbstractCache<K, V> {
 
+    /** The estimated memory used by a cached value, besides its fields. */
+    protected static final long VALUE_OVERHEAD = 160;
+    /** The estimated memory used by a field of a cached value: the map entry, the key and an average value. */
+    protected static final long FIELD_SIZE = 64;
+
     protected String delegatorName, id;
 
     protected AbstractCache(String delegatorName, String id) {
@@ -77,6 +84,33 @@ public abstract class AbstractCache<K, V> {
 
     protected UtilCache<K, V> getOrCreateCache(String entityName) {
         String name = getCacheName(entityName);
-        return UtilCache.getOrCreateUtilCache(name, 0, 0, 0, true, false, getCacheNames(entityName));
+        UtilCache<K, V> utilCache = UtilCache.getOrCreateUtilCache(name, 0, 0, 0, true, false, getCacheNames(entityName));
+        if (utilCache.getWeigher() == null) {
+            CacheWeigher<K, V> weigher = createWeigher(entityName);
+            if (weigher != null) {
+                utilCache.setWeigher(weigher);
+            }
+        }
+        return utilCache;
+    }
+
+    /**
+     * Creates the weigher estimating the memory used by the elements of the cache of the given entity,
+     * used for the <code>maxWeight</code> and <code>weightBudget</code> cache settings.
+     * @param entityName the entity name
+     * @return a <code>CacheWeigher</code>, or <code>null</code> to not count the weight of the cache
+     */
+    protected CacheWeigher<K, V> createWeigher(String entityName) {
+        return null;
+    }
+
+    /**
+     * Gets the estimated memory used by a value of the given entity, from its number of fields.
+     * @param entityName the entity name
+     * @return the estimated size in bytes
+     */
+    protected long getEstimatedValueSize(String entityName) {
+        ModelEntity modelEntity = getDelegator().getModelEntity(entityName);
+        return VALUE_OVERHEAD + FIELD_SIZE * (modelEntity != null ? modelEntity.getFieldsSize() : 10);
     }
 }
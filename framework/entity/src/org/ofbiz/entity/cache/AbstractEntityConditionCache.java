@@ -19,15 +19,23 @@
 /* This file has been modified by Open Source Strategies, Inc. */
 package org.ofbiz.entity.cache;
 
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Collection;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javolution.util.FastMap;
 
 import org.ofbiz.base.util.Debug;
 import org.ofbiz.base.util.UtilMisc;
 import org.ofbiz.base.util.UtilValidate;
+import org.ofbiz.base.util.cache.CacheLoader;
+import org.ofbiz.base.util.cache.CacheWeigher;
+import org.ofbiz.base.util.cache.InFlightLoads;
 import org.ofbiz.base.util.cache.UtilCache;
 import org.ofbiz.entity.GenericEntity;
 import org.ofbiz.entity.GenericPK;
@@ -40,10 +48,51 @@ public abstract class AbstractEntityConditionCache<K, V> extends AbstractCache<E
 
     public static final String module = AbstractEntityConditionCache.class.getName();
 
+    /** The index of the cached conditions of each entity cache, by cache name. */
+    private final ConcurrentMap<String, EntityConditionIndex<Map<K, V>>> conditionIndexes = new ConcurrentHashMap<String, EntityConditionIndex<Map<K, V>>>();
+
+    /** The loads running for the missing values, by entity name, condition and key. */
+    private final InFlightLoads<V> loads = new InFlightLoads<V>();
+
+    private final AtomicLong storeHookCount = new AtomicLong();
+    private final AtomicLong conditionsScanned = new AtomicLong();
+    private final AtomicLong conditionsRemoved = new AtomicLong();
+
     protected AbstractEntityConditionCache(String delegatorName, String id) {
         super(delegatorName, id);
     }
 
+    @Override
+    protected UtilCache<EntityCondition, Map<K, V>> getOrCreateCache(String entityName) {
+        UtilCache<EntityCondition, Map<K, V>> utilCache = super.getOrCreateCache(entityName);
+        EntityConditionIndex<Map<K, V>> index = conditionIndexes.get(utilCache.getName());
+        if (index == null || index.getCache() != utilCache) {
+            synchronized (conditionIndexes) {
+                index = conditionIndexes.get(utilCache.getName());
+                if (index == null || index.getCache() != utilCache) {
+                    conditionIndexes.put(utilCache.getName(), new EntityConditionIndex<Map<K, V>>(utilCache));
+                }
+            }
+        }
+        return utilCache;
+    }
+
+    /**
+     * Gets the counters of the cache invalidation done when values are stored.
+     * @return a <code>Map</code> with the number of store hooks, the number of cached conditions checked and removed,
+     *  and the average number of conditions checked and removed per store hook
+     */
+    public Map<String, Object> getStoreHookStatistics() {
+        long hooks = storeHookCount.get();
+        Map<String, Object> statistics = FastMap.newInstance();
+        statistics.put("storeHooks", hooks);
+        statistics.put("conditionsScanned", conditionsScanned.get());
+        statistics.put("conditionsRemoved", conditionsRemoved.get());
+        statistics.put("averageScanned", hooks > 0 ? conditionsScanned.get() / (double) hooks : 0.0);
+        statistics.put("averageRemoved", hooks > 0 ? conditionsRemoved.get() / (double) hooks : 0.0);
+        return statistics;
+    }
+
     protected V get(String entityName, EntityCondition condition, K key) {
         Map<K, V> conditionCache = getConditionCache(entityName, condition);
         if (conditionCache == null) return null;
@@ -51,6 +100,54 @@ public abstract class AbstractEntityConditionCache<K, V> extends AbstractCache<E
         return conditionCache.get(key);
     }
 
+    /**
+     * Gets a value from the cache, loading it when it is missing; only one thread loads a missing value and the others wait for it.
+     * The loaded value is put in the condition cache found before loading, so when the condition is cleared while loading
+     * the value, which may be out of date, is returned but not cached.
+     * @param entityName the entity name
+     * @param condition the condition
+     * @param key the key of the value in the condition cache
+     * @param loader the <code>CacheLoader</code> reading the value
+     * @return the value
+     * @throws E if the value could not be loaded
+     */
+    protected <E extends Exception> V get(String entityName, EntityCondition condition, K key, final CacheLoader<K, V, E> loader) throws E {
+        V value = get(entityName, condition, key);
+        if (value != null) {
+            return value;
+        }
+        if (this.getDelegator().getModelEntity(entityName).getNeverCache()) {
+            return loader.load(key);
+        }
+        EntityCondition frozenCondition = getFrozenConditionKey(condition);
+        final UtilCache<EntityCondition, Map<K, V>> utilCache = getOrCreateCache(entityName);
+        final EntityCondition conditionKey = getConditionKey(frozenCondition);
+        final Map<K, V> conditionCache = getOrCreateConditionCache(entityName, frozenCondition);
+        return loads.load(Arrays.asList(entityName, frozenCondition, key), key, new CacheLoader<K, V, E>() {
+            public V load(K key) throws E {
+                V value = loader.load(key);
+                if (value != null) {
+                    synchronized (conditionCache) {
+                        conditionCache.put(key, value);
+                    }
+                    utilCache.updateWeight(conditionKey);
+                }
+                return value;
+            }
+        });
+    }
+
+    /**
+     * Gets the counters of the values loaded through {@link #get(String, EntityCondition, Object, CacheLoader)}.
+     * @return a <code>Map</code> with the number of loads and the number of times a thread waited for the load of another thread
+     */
+    public Map<String, Object> getLoadStatistics() {
+        Map<String, Object> statistics = FastMap.newInstance();
+        statistics.put("loads", loads.getLoadCount());
+        statistics.put("loadWaits", loads.getWaitCount());
+        return statistics;
+    }
+
     protected V put(String entityName, EntityCondition condition, K key, V value) {
         ModelEntity entity = this.getDelegator().getModelEntity(entityName);
         if (entity.getNeverCache()) {
@@ -59,8 +156,40 @@ public abstract class AbstractEntityConditionCache<K, V> extends AbstractCache<E
         }
 
         Map<K, V> conditionCache = getOrCreateConditionCache(entityName, condition);
+        V oldValue;
         synchronized (conditionCache) {
-            return conditionCache.put(key, value);
+            oldValue = conditionCache.put(key, value);
+        }
+        updateWeight(entityName, condition);
+        return oldValue;
+    }
+
+    @Override
+    protected CacheWeigher<EntityCondition, Map<K, V>> createWeigher(String entityName) {
+        final long valueSize = getEstimatedValueSize(entityName);
+        return new CacheWeigher<EntityCondition, Map<K, V>>() {
+            public long weigh(EntityCondition condition, Map<K, V> conditionCache) {
+                // a list weighs as many values as it has rows
+                long weight = VALUE_OVERHEAD;
+                synchronized (conditionCache) {
+                    for (V value : conditionCache.values()) {
+                        weight += value instanceof Collection<?> ? VALUE_OVERHEAD + ((Collection<?>) value).size() * valueSize : valueSize;
+                    }
+                }
+                return weight;
+            }
+        };
+    }
+
+    /**
+     * Updates the weight of a condition cache after values were put in it or removed from it.
+     * @param entityName the entity name
+     * @param condition the condition
+     */
+    protected void updateWeight(String entityName, EntityCondition condition) {
+        UtilCache<EntityCondition, Map<K, V>> cache = getCache(entityName);
+        if (cache != null) {
+            cache.updateWeight(getConditionKey(condition));
         }
     }
 
@@ -73,9 +202,12 @@ public abstract class AbstractEntityConditionCache<K, V> extends AbstractCache<E
     protected V remove(String entityName, EntityCondition condition, K key) {
         Map<K, V> conditionCache = getConditionCache(entityName, condition);
         if (conditionCache == null) return null;
+        V oldValue;
         synchronized (conditionCache) {
-            return conditionCache.remove(key);
-         }
+            oldValue = conditionCache.remove(key);
+        }
+        updateWeight(entityName, condition);
+        return oldValue;
     }
 
     public static final EntityCondition getConditionKey(EntityCondition condition) {
@@ -158,8 +290,9 @@ public abstract class AbstractEntityConditionCache<K, V> extends AbstractCache<E
         }
     }
 
-    public synchronized void storeHook(boolean isPK, GenericEntity oldEntity, GenericEntity newEntity) {
+    public void storeHook(boolean isPK, GenericEntity oldEntity, GenericEntity newEntity) {
         ModelEntity model = getModelCheckValid(oldEntity, newEntity);
+        storeHookCount.incrementAndGet();
         String entityName = model.getEntityName();
         // for info about cache clearing
         if (newEntity == null) {
@@ -182,7 +315,17 @@ public abstract class AbstractEntityConditionCache<K, V> extends AbstractCache<E
         if (entityCache == null) {
             return;
         }
-        for (EntityCondition condition: entityCache.getCacheLineKeys()) {
+        // only check the conditions which can match the values, unless the cache is not indexed or this is a primary key change
+        // where the conditions not matching the old values are also removed
+        Collection<? extends EntityCondition> conditions;
+        EntityConditionIndex<Map<K, V>> index = conditionIndexes.get(entityCache.getName());
+        if (isPK || index == null || index.getCache() != entityCache) {
+            conditions = entityCache.getCacheLineKeys();
+        } else {
+            conditions = index.getCandidates(oldValues, newValues);
+        }
+        conditionsScanned.addAndGet(conditions.size());
+        for (EntityCondition condition: conditions) {
             //Debug.logInfo("In storeHook entityName [" + entityName + "] checking against condition: " + condition, module);
             boolean shouldRemove = false;
             if (condition == null) {
@@ -222,7 +365,9 @@ public abstract class AbstractEntityConditionCache<K, V> extends AbstractCache<E
             if (shouldRemove) {
                 if (Debug.verboseOn()) Debug.logVerbose("In storeHook, matched condition, removing from cache for entityName [" + entityName + "] in cache with name [" + entityCache.getName() + "] entry with condition: " + condition, module);
                 // doesn't work anymore since this is a copy of the cache keySet, can call remove directly though with a concurrent mod exception: cacheKeyIter.remove();
-                entityCache.remove(condition);
+                if (entityCache.remove(condition) != null) {
+                    conditionsRemoved.incrementAndGet();
+                }
             }
         }
     }
@@ -23,6 +23,7 @@ import java.util.List;
 
 import org.ofbiz.base.util.Debug;
 import org.ofbiz.base.util.UtilGenerics;
+import org.ofbiz.base.util.cache.CacheLoader;
 import org.ofbiz.entity.GenericEntity;
 import org.ofbiz.entity.GenericValue;
 import org.ofbiz.entity.GenericPK;
@@ -64,6 +65,14 @@ public class Cache {
         return entityListCache.get(entityName, condition, orderBy);
     }
 
+    public <E extends Exception> GenericValue get(GenericPK pk, CacheLoader<GenericPK, GenericValue, E> loader) throws E {
+        return entityCache.get(pk, loader);
+    }
+
+    public <E extends Exception> List<GenericValue> get(String entityName, EntityCondition condition, List<String> orderBy, CacheLoader<Object, List<GenericValue>, E> loader) throws E {
+        return entityListCache.get(entityName, condition, orderBy, loader);
+    }
+
     public <T> T get(String entityName, EntityCondition condition, String name) {
         return UtilGenerics.<T>cast(entityObjectCache.get(entityName, condition, name));
     }
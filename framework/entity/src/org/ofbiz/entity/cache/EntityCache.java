@@ -20,6 +20,8 @@
 package org.ofbiz.entity.cache;
 
 import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.cache.CacheLoader;
+import org.ofbiz.base.util.cache.CacheWeigher;
 import org.ofbiz.base.util.cache.UtilCache;
 import org.ofbiz.entity.GenericPK;
 import org.ofbiz.entity.GenericValue;
@@ -32,12 +34,49 @@ public class EntityCache extends AbstractCache<GenericPK, GenericValue> {
         super(delegatorName, "entity");
     }
 
+    @Override
+    protected CacheWeigher<GenericPK, GenericValue> createWeigher(String entityName) {
+        final long valueSize = getEstimatedValueSize(entityName);
+        return new CacheWeigher<GenericPK, GenericValue>() {
+            public long weigh(GenericPK pk, GenericValue entity) {
+                return entity == GenericValue.NULL_VALUE ? VALUE_OVERHEAD : valueSize;
+            }
+        };
+    }
+
     public GenericValue get(GenericPK pk) {
         UtilCache<GenericPK, GenericValue> entityCache = getCache(pk.getEntityName());
         if (entityCache == null) return null;
         return entityCache.get(pk);
     }
 
+    /**
+     * Gets a value from the cache, loading it when it is missing; only one thread loads a missing value
+     * and the others wait for it, see <code>UtilCache.get(Object, CacheLoader)</code>.
+     * @param pk the primary key of the value
+     * @param loader the <code>CacheLoader</code> reading the value, which may return <code>null</code> when it does not exist
+     * @return the value, or <code>GenericValue.NULL_VALUE</code> if it does not exist
+     * @throws E if the value could not be loaded
+     */
+    public <E extends Exception> GenericValue get(GenericPK pk, final CacheLoader<GenericPK, GenericValue, E> loader) throws E {
+        if (pk.getModelEntity().getNeverCache()) {
+            GenericValue entity = loader.load(pk);
+            return entity == null ? GenericValue.NULL_VALUE : entity;
+        }
+        UtilCache<GenericPK, GenericValue> entityCache = getOrCreateCache(pk.getEntityName());
+        return entityCache.get(pk, new CacheLoader<GenericPK, GenericValue, E>() {
+            public GenericValue load(GenericPK pk) throws E {
+                GenericValue entity = loader.load(pk);
+                if (entity == null) {
+                    return GenericValue.NULL_VALUE;
+                }
+                // before going into the cache, make this value immutable
+                entity.setImmutable();
+                return entity;
+            }
+        });
+    }
+
     public GenericValue put(GenericValue entity) {
         if (entity == null) return null;
         return put(entity.getPrimaryKey(), entity);
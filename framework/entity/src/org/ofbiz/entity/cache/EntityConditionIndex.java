@@ -0,0 +1,232 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+/* This file has been modified by Open Source Strategies, Inc. */
+package org.ofbiz.entity.cache;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.ofbiz.base.util.cache.CacheListener;
+import org.ofbiz.base.util.cache.UtilCache;
+import org.ofbiz.entity.GenericEntity;
+import org.ofbiz.entity.condition.EntityCondition;
+import org.ofbiz.entity.condition.EntityConditionList;
+import org.ofbiz.entity.condition.EntityExpr;
+import org.ofbiz.entity.condition.EntityFieldMap;
+import org.ofbiz.entity.condition.EntityFieldValue;
+import org.ofbiz.entity.condition.EntityOperator;
+
+/**
+ * Index of the conditions cached in an entity condition cache, kept up to date as a listener of the <code>UtilCache</code>.
+ * <p>
+ * Each condition is indexed by one of its equality constraints on a String value (<code>field = 'value'</code>),
+ * taken from the condition itself or from the top level of an AND list or field map. The other conditions are
+ * kept in a list which is always checked. When a value is stored, only the conditions indexed by the old and
+ * new values of their field can match it, so these are the only ones that need to be checked.
+ * The <code>null</code> condition, which matches all the values, is kept as a flag and is always a candidate.
+ */
+public final class EntityConditionIndex<V> implements CacheListener<EntityCondition, V> {
+
+    private final ConcurrentMap<String, ConcurrentMap<String, Set<EntityCondition>>> indexedConditions = new ConcurrentHashMap<String, ConcurrentMap<String, Set<EntityCondition>>>();
+    private final Set<EntityCondition> otherConditions = newConditionSet();
+    private final AtomicBoolean nullCondition = new AtomicBoolean();
+    private final UtilCache<EntityCondition, V> cache;
+
+    public EntityConditionIndex(UtilCache<EntityCondition, V> cache) {
+        this.cache = cache;
+        cache.addListener(this);
+        // the cache may already have some conditions
+        for (EntityCondition condition : cache.getCacheLineKeys()) {
+            add(condition);
+        }
+    }
+
+    public UtilCache<EntityCondition, V> getCache() {
+        return cache;
+    }
+
+    private static Set<EntityCondition> newConditionSet() {
+        return Collections.newSetFromMap(new ConcurrentHashMap<EntityCondition, Boolean>());
+    }
+
+    public void noteKeyAddition(UtilCache<EntityCondition, V> cache, EntityCondition key, V newValue) {
+        add(key);
+    }
+
+    public void noteKeyRemoval(UtilCache<EntityCondition, V> cache, EntityCondition key, V oldValue) {
+        // the condition may have been put back in the mean time
+        if (!cache.containsKey(key)) {
+            remove(key);
+        }
+    }
+
+    public void noteKeyUpdate(UtilCache<EntityCondition, V> cache, EntityCondition key, V newValue, V oldValue) {
+        // the condition is already indexed
+    }
+
+    void add(EntityCondition condition) {
+        if (condition == null) {
+            nullCondition.set(true);
+            return;
+        }
+        String[] indexKey = getIndexKey(condition);
+        if (indexKey == null) {
+            otherConditions.add(condition);
+            return;
+        }
+        ConcurrentMap<String, Set<EntityCondition>> values = indexedConditions.get(indexKey[0]);
+        if (values == null) {
+            ConcurrentMap<String, Set<EntityCondition>> newValues = new ConcurrentHashMap<String, Set<EntityCondition>>();
+            values = indexedConditions.putIfAbsent(indexKey[0], newValues);
+            if (values == null) {
+                values = newValues;
+            }
+        }
+        // only lock the values of the field while adding or removing a set, the readers do not lock
+        synchronized (values) {
+            Set<EntityCondition> conditions = values.get(indexKey[1]);
+            if (conditions == null) {
+                conditions = newConditionSet();
+                values.put(indexKey[1], conditions);
+            }
+            conditions.add(condition);
+        }
+    }
+
+    void remove(EntityCondition condition) {
+        if (condition == null) {
+            nullCondition.set(false);
+            return;
+        }
+        String[] indexKey = getIndexKey(condition);
+        if (indexKey == null) {
+            otherConditions.remove(condition);
+            return;
+        }
+        ConcurrentMap<String, Set<EntityCondition>> values = indexedConditions.get(indexKey[0]);
+        if (values == null) {
+            return;
+        }
+        synchronized (values) {
+            Set<EntityCondition> conditions = values.get(indexKey[1]);
+            if (conditions != null) {
+                conditions.remove(condition);
+                if (conditions.isEmpty()) {
+                    values.remove(indexKey[1]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the cached conditions which may match one of the given values.
+     * @param oldValues the values before the change, may be <code>null</code>
+     * @param newValues the values after the change, may be <code>null</code>
+     * @return the conditions to check
+     */
+    public Collection<EntityCondition> getCandidates(List<? extends Map<String, Object>> oldValues, List<? extends Map<String, Object>> newValues) {
+        Set<EntityCondition> candidates = new HashSet<EntityCondition>(otherConditions);
+        if (nullCondition.get()) {
+            candidates.add(null);
+        }
+        for (Map.Entry<String, ConcurrentMap<String, Set<EntityCondition>>> entry : indexedConditions.entrySet()) {
+            addCandidates(candidates, entry.getKey(), entry.getValue(), oldValues);
+            addCandidates(candidates, entry.getKey(), entry.getValue(), newValues);
+        }
+        return candidates;
+    }
+
+    private static void addCandidates(Set<EntityCondition> candidates, String fieldName, ConcurrentMap<String, Set<EntityCondition>> values, List<? extends Map<String, Object>> maps) {
+        if (maps == null) {
+            return;
+        }
+        for (Map<String, Object> map : maps) {
+            if (map == null || map instanceof GenericEntity.NULL) {
+                continue;
+            }
+            Object value = map.get(fieldName);
+            if (value instanceof String) {
+                Set<EntityCondition> conditions = values.get(value);
+                if (conditions != null) {
+                    candidates.addAll(conditions);
+                }
+            } else if (value != null) {
+                // the comparison may convert the value, so check all the conditions on this field
+                for (Set<EntityCondition> conditions : values.values()) {
+                    candidates.addAll(conditions);
+                }
+            }
+            // a null value cannot equal a String constraint
+        }
+    }
+
+    /**
+     * Finds an equality constraint on a String value which must be true for the condition to match.
+     * @param condition an <code>EntityCondition</code> value
+     * @return the field name and value, or <code>null</code> if the condition has no such constraint
+     */
+    public static String[] getIndexKey(EntityCondition condition) {
+        if (condition instanceof EntityExpr) {
+            EntityExpr expr = (EntityExpr) condition;
+            if (EntityOperator.EQUALS.equals(expr.getOperator())) {
+                if (expr.getLhs() instanceof EntityFieldValue && expr.getRhs() instanceof String) {
+                    return new String[] {((EntityFieldValue) expr.getLhs()).getFieldName(), (String) expr.getRhs()};
+                }
+            } else if (EntityOperator.AND.equals(expr.getOperator())) {
+                if (expr.getLhs() instanceof EntityCondition && expr.getRhs() instanceof EntityCondition) {
+                    String[] indexKey = getIndexKey((EntityCondition) expr.getLhs());
+                    return indexKey != null ? indexKey : getIndexKey((EntityCondition) expr.getRhs());
+                }
+            }
+        } else if (condition instanceof EntityFieldMap) {
+            EntityFieldMap fieldMap = (EntityFieldMap) condition;
+            if (EntityOperator.AND.equals(fieldMap.getOperator())) {
+                // the field map is a list of EntityExpr made with its comparison operator, which may not be EQUALS
+                Iterator<String> it = fieldMap.getFieldKeyIterator();
+                for (int i = 0; it.hasNext(); i++) {
+                    it.next();
+                    String[] indexKey = getIndexKey(fieldMap.getCondition(i));
+                    if (indexKey != null) {
+                        return indexKey;
+                    }
+                }
+            }
+        } else if (condition instanceof EntityConditionList) {
+            EntityConditionList<?> conditionList = (EntityConditionList<?>) condition;
+            if (EntityOperator.AND.equals(conditionList.getOperator())) {
+                Iterator<? extends EntityCondition> it = conditionList.getConditionIterator();
+                while (it.hasNext()) {
+                    String[] indexKey = getIndexKey(it.next());
+                    if (indexKey != null) {
+                        return indexKey;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+}
@@ -23,6 +23,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
+import org.ofbiz.base.util.cache.CacheLoader;
 import org.ofbiz.entity.GenericValue;
 import org.ofbiz.entity.condition.EntityCondition;
 import org.ofbiz.entity.util.EntityUtil;
@@ -49,16 +50,34 @@ public class EntityListCache extends AbstractEntityConditionCache<Object, List<G
             Iterator<List<GenericValue>> it = conditionCache.values().iterator();
             if (it.hasNext()) valueList = it.next();
 
-            synchronized (conditionCache) {
-                if (valueList != null) {
+            if (valueList != null) {
+                synchronized (conditionCache) {
                     valueList = EntityUtil.orderBy(valueList, orderBy);
                     conditionCache.put(orderByKey, valueList);
                 }
+                updateWeight(entityName, condition);
             }
         }
         return valueList;
     }
 
+    /**
+     * Gets a cached list, loading it when it is missing; only one thread loads a missing list and the others wait for it.
+     * @param entityName the entity name
+     * @param condition the condition of the list
+     * @param orderBy the ordering of the list
+     * @param loader the <code>CacheLoader</code> reading the list, given the order by key
+     * @return the list
+     * @throws E if the list could not be loaded
+     */
+    public <E extends Exception> List<GenericValue> get(String entityName, EntityCondition condition, List<String> orderBy, CacheLoader<Object, List<GenericValue>, E> loader) throws E {
+        List<GenericValue> valueList = get(entityName, condition, orderBy);
+        if (valueList != null) {
+            return valueList;
+        }
+        return super.get(entityName, condition, getOrderByKey(orderBy), loader);
+    }
+
     public void put(String entityName, EntityCondition condition, List<GenericValue> entities) {
         this.put(entityName, condition, null, entities);
     }
@@ -0,0 +1,116 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+/* This file has been modified by Open Source Strategies, Inc. */
+package org.ofbiz.entity.cache.test;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.ofbiz.base.test.GenericTestCaseBase;
+import org.ofbiz.base.util.UtilMisc;
+import org.ofbiz.base.util.cache.UtilCache;
+import org.ofbiz.entity.cache.EntityConditionIndex;
+import org.ofbiz.entity.condition.EntityCondition;
+import org.ofbiz.entity.condition.EntityOperator;
+
+public class EntityConditionIndexTests extends GenericTestCaseBase {
+
+    public EntityConditionIndexTests(String name) {
+        super(name);
+    }
+
+    private UtilCache<EntityCondition, String> cache;
+    private EntityConditionIndex<String> index;
+
+    @Override
+    protected void setUp() throws Exception {
+        cache = UtilCache.createUtilCache(getClass().getName() + "." + getName(), 0, 0, 0, false, false);
+        index = new EntityConditionIndex<String>(cache);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        cache.erase();
+    }
+
+    private static List<Map<String, Object>> values(String productId) {
+        return UtilMisc.toList(UtilMisc.<String, Object>toMap("productId", productId, "quantity", Long.valueOf(2)));
+    }
+
+    private Collection<EntityCondition> candidates(String productId) {
+        return index.getCandidates(null, values(productId));
+    }
+
+    public void testNullCondition() throws Exception {
+        cache.put(null, "all");
+        assertTrue("null condition is a candidate", candidates("A").contains(null));
+        assertTrue("null condition is a candidate of a removal", index.getCandidates(values("A"), null).contains(null));
+        cache.remove(null);
+        assertFalse("removed null condition", candidates("A").contains(null));
+    }
+
+    public void testEquals() throws Exception {
+        EntityCondition condition = EntityCondition.makeCondition("productId", EntityOperator.EQUALS, "A");
+        assertEquals("index key", new String[] {"productId", "A"}, EntityConditionIndex.getIndexKey(condition));
+        cache.put(condition, "A");
+        assertTrue("matching value", candidates("A").contains(condition));
+        assertFalse("other value", candidates("B").contains(condition));
+        assertTrue("matching old value", index.getCandidates(values("A"), values("B")).contains(condition));
+        cache.remove(condition);
+        assertFalse("removed condition", candidates("A").contains(condition));
+    }
+
+    public void testAndList() throws Exception {
+        EntityCondition condition = EntityCondition.makeCondition(UtilMisc.toList(
+                EntityCondition.makeCondition("quantity", EntityOperator.GREATER_THAN, Long.valueOf(1)),
+                EntityCondition.makeCondition("productId", EntityOperator.EQUALS, "A")), EntityOperator.AND);
+        assertEquals("index key", new String[] {"productId", "A"}, EntityConditionIndex.getIndexKey(condition));
+        cache.put(condition, "A");
+        assertTrue("matching value", candidates("A").contains(condition));
+        assertFalse("other value", candidates("B").contains(condition));
+    }
+
+    public void testFieldMap() throws Exception {
+        EntityCondition condition = EntityCondition.makeCondition(UtilMisc.toMap("productId", "A", "facilityId", "F"));
+        String[] indexKey = EntityConditionIndex.getIndexKey(condition);
+        assertNotNull("index key", indexKey);
+        cache.put(condition, "A");
+        Map<String, Object> value = UtilMisc.<String, Object>toMap("productId", "A", "facilityId", "F");
+        assertTrue("matching value", index.getCandidates(null, UtilMisc.toList(value)).contains(condition));
+        value.put(indexKey[0], "other");
+        assertFalse("other value", index.getCandidates(null, UtilMisc.toList(value)).contains(condition));
+    }
+
+    public void testNotIndexable() throws Exception {
+        EntityCondition orCondition = EntityCondition.makeCondition(UtilMisc.toList(
+                EntityCondition.makeCondition("productId", EntityOperator.EQUALS, "A"),
+                EntityCondition.makeCondition("productId", EntityOperator.EQUALS, "B")), EntityOperator.OR);
+        EntityCondition likeCondition = EntityCondition.makeCondition("productId", EntityOperator.LIKE, "A%");
+        assertNull("or has no index key", EntityConditionIndex.getIndexKey(orCondition));
+        assertNull("like has no index key", EntityConditionIndex.getIndexKey(likeCondition));
+        cache.put(orCondition, "or");
+        cache.put(likeCondition, "like");
+        Collection<EntityCondition> candidates = candidates("C");
+        assertTrue("or is always a candidate", candidates.contains(orCondition));
+        assertTrue("like is always a candidate", candidates.contains(likeCondition));
+        cache.remove(orCondition);
+        assertFalse("removed condition", candidates("C").contains(orCondition));
+    }
+}
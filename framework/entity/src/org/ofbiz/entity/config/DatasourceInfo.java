@@ -38,6 +38,7 @@ public class DatasourceInfo {
     public String fieldTypeName;
     public List<? extends Element> sqlLoadPaths;
     public List<? extends Element> readDatas;
+    public List<? extends Element> readReplicas;
     public Element datasourceElement;
 
     public static final int TYPE_JNDI_JDBC = 1;
@@ -76,6 +77,9 @@ public class DatasourceInfo {
     public String tableType = null;
     public String characterSet = null;
     public String collate = null;
+    public int batchSize = 0;
+    public String rowLock = "none";
+    public String offsetStyle = "none";
 
     public DatasourceInfo(Element element) {
         this.name = element.getAttribute("name");
@@ -84,6 +88,7 @@ public class DatasourceInfo {
 
         sqlLoadPaths = UtilXml.childElementList(element, "sql-load-path");
         readDatas = UtilXml.childElementList(element, "read-data");
+        readReplicas = UtilXml.childElementList(element, "read-replica");
         datasourceElement = element;
 
         if (datasourceElement == null) {
@@ -110,6 +115,9 @@ public class DatasourceInfo {
             Debug.logWarning("datasource def not found with name " + this.name + ", using default for table-type (none)", module);
             Debug.logWarning("datasource def not found with name " + this.name + ", using default for character-set (none)", module);
             Debug.logWarning("datasource def not found with name " + this.name + ", using default for collate (none)", module);
+            Debug.logWarning("datasource def not found with name " + this.name + ", using default for batch-size (0)", module);
+            Debug.logWarning("datasource def not found with name " + this.name + ", using default for row-lock (none)", module);
+            Debug.logWarning("datasource def not found with name " + this.name + ", using default for offset-style (none)", module);
         } else {
             this.schemaName = datasourceElement.getAttribute("schema-name");
             // anything but false is true
@@ -160,6 +168,20 @@ public class DatasourceInfo {
             this.tableType = datasourceElement.getAttribute("table-type");
             this.characterSet = datasourceElement.getAttribute("character-set");
             this.collate = datasourceElement.getAttribute("collate");
+            String batchSizeStr = datasourceElement.getAttribute("batch-size");
+            if (UtilValidate.isNotEmpty(batchSizeStr)) {
+                try {
+                    this.batchSize = Integer.parseInt(batchSizeStr);
+                } catch (Exception e) {
+                    Debug.logError("Could not parse batch-size value for datasource with name " + this.name + ", batching disabled", module);
+                }
+            }
+            if (UtilValidate.isNotEmpty(datasourceElement.getAttribute("row-lock"))) {
+                this.rowLock = datasourceElement.getAttribute("row-lock");
+            }
+            if (UtilValidate.isNotEmpty(datasourceElement.getAttribute("offset-style"))) {
+                this.offsetStyle = datasourceElement.getAttribute("offset-style");
+            }
         }
         if (UtilValidate.isEmpty(this.fkStyle)) this.fkStyle = "name_constraint";
         if (UtilValidate.isEmpty(this.joinStyle)) this.joinStyle = "ansi";
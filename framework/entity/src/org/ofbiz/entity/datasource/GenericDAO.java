@@ -21,6 +21,7 @@ package org.ofbiz.entity.datasource;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.sql.Timestamp;
 import java.util.Collection;
 import java.util.Collections;
@@ -45,12 +46,17 @@ import org.ofbiz.entity.GenericEntity;
 import org.ofbiz.entity.GenericEntityException;
 import org.ofbiz.entity.GenericModelException;
 import org.ofbiz.entity.GenericNotImplementedException;
+import org.ofbiz.entity.GenericPK;
 import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.condition.EntityComparisonOperator;
 import org.ofbiz.entity.condition.EntityCondition;
 import org.ofbiz.entity.condition.EntityConditionParam;
+import org.ofbiz.entity.condition.EntityOperator;
+import org.ofbiz.entity.condition.OrderByItem;
 import org.ofbiz.entity.config.DatasourceInfo;
 import org.ofbiz.entity.config.EntityConfigUtil;
 import org.ofbiz.entity.jdbc.DatabaseUtil;
+import org.ofbiz.entity.jdbc.RowMapper;
 import org.ofbiz.entity.jdbc.SQLProcessor;
 import org.ofbiz.entity.jdbc.SqlJdbcUtil;
 import org.ofbiz.entity.model.ModelEntity;
@@ -127,6 +133,27 @@ public class GenericDAO {
             return singleUpdateView(entity, (ModelViewEntity) modelEntity, fieldsToSave, sqlP);
         }
 
+        setInsertStamps(entity, modelEntity, fieldsToSave);
+
+        String sql = "INSERT INTO " + modelEntity.getTableName(datasourceInfo) + " (" + modelEntity.colNameString(fieldsToSave) + ") VALUES (" +
+            modelEntity.fieldsStringList(fieldsToSave, "?", ", ") + ")";
+
+        try {
+            sqlP.prepareStatement(sql);
+            SqlJdbcUtil.setValues(sqlP, fieldsToSave, entity, modelFieldTypeReader);
+            int retVal = sqlP.executeUpdate();
+
+            entity.synchronizedWithDatasource();
+            return retVal;
+        } catch (GenericEntityException e) {
+            Debug.logError("Error while inserting " + entity.toString(), module);
+            throw new GenericEntityException("Error while inserting " + entity.getEntityName(), e);
+        } finally {
+            sqlP.close();
+        }
+    }
+
+    private void setInsertStamps(GenericEntity entity, ModelEntity modelEntity, List<ModelField> fieldsToSave) {
         // if we have a STAMP_TX_FIELD or CREATE_STAMP_TX_FIELD then set it with NOW, always do this before the STAMP_FIELD
         // NOTE: these fairly complicated if statements have a few objectives:
         //   1. don't run the TransationUtil.getTransaction*Stamp() methods when we don't need to
@@ -159,23 +186,6 @@ public class GenericDAO {
                 addFieldIfMissing(fieldsToSave, ModelEntity.CREATE_STAMP_FIELD, modelEntity);
             }
         }
-
-        String sql = "INSERT INTO " + modelEntity.getTableName(datasourceInfo) + " (" + modelEntity.colNameString(fieldsToSave) + ") VALUES (" +
-            modelEntity.fieldsStringList(fieldsToSave, "?", ", ") + ")";
-
-        try {
-            sqlP.prepareStatement(sql);
-            SqlJdbcUtil.setValues(sqlP, fieldsToSave, entity, modelFieldTypeReader);
-            int retVal = sqlP.executeUpdate();
-
-            entity.synchronizedWithDatasource();
-            return retVal;
-        } catch (GenericEntityException e) {
-            Debug.logError("Error while inserting " + entity.toString(), module);
-            throw new GenericEntityException("Error while inserting " + entity.getEntityName(), e);
-        } finally {
-            sqlP.close();
-        }
     }
 
     public int updateAll(GenericEntity entity) throws GenericEntityException {
@@ -248,20 +258,7 @@ public class GenericDAO {
             }
         }
 
-        // if we have a STAMP_TX_FIELD then set it with NOW, always do this before the STAMP_FIELD
-        // NOTE: these fairly complicated if statements have a few objectives:
-        //   1. don't run the TransationUtil.getTransaction*Stamp() methods when we don't need to
-        //   2. don't set the stamp values if it is from an EntitySync (ie maintain original values), unless the stamps are null then set it anyway, ie even if it was from an EntitySync (also used for imports and such)
-        if (modelEntity.isField(ModelEntity.STAMP_TX_FIELD) && (!entity.getIsFromEntitySync() || entity.get(ModelEntity.STAMP_TX_FIELD) == null)) {
-            entity.set(ModelEntity.STAMP_TX_FIELD, TransactionUtil.getTransactionStartStamp());
-            addFieldIfMissing(fieldsToSave, ModelEntity.STAMP_TX_FIELD, modelEntity);
-        }
-
-        // if we have a STAMP_FIELD then update it with NOW.
-        if (modelEntity.isField(ModelEntity.STAMP_FIELD) && (!entity.getIsFromEntitySync() || entity.get(ModelEntity.STAMP_FIELD) == null)) {
-            entity.set(ModelEntity.STAMP_FIELD, TransactionUtil.getTransactionUniqueNowStamp());
-            addFieldIfMissing(fieldsToSave, ModelEntity.STAMP_FIELD, modelEntity);
-        }
+        setUpdateStamps(entity, modelEntity, fieldsToSave);
 
         String sql = "UPDATE " + modelEntity.getTableName(datasourceInfo) + " SET " + modelEntity.colNameString(fieldsToSave, "=?, ", "=?", false) + " WHERE " +
             SqlJdbcUtil.makeWhereStringFromFields(modelEntity.getPkFieldsUnmodifiable(), entity, "AND");
@@ -287,6 +284,23 @@ public class GenericDAO {
         return retVal;
     }
 
+    private void setUpdateStamps(GenericEntity entity, ModelEntity modelEntity, List<ModelField> fieldsToSave) {
+        // if we have a STAMP_TX_FIELD then set it with NOW, always do this before the STAMP_FIELD
+        // NOTE: these fairly complicated if statements have a few objectives:
+        //   1. don't run the TransationUtil.getTransaction*Stamp() methods when we don't need to
+        //   2. don't set the stamp values if it is from an EntitySync (ie maintain original values), unless the stamps are null then set it anyway, ie even if it was from an EntitySync (also used for imports and such)
+        if (modelEntity.isField(ModelEntity.STAMP_TX_FIELD) && (!entity.getIsFromEntitySync() || entity.get(ModelEntity.STAMP_TX_FIELD) == null)) {
+            entity.set(ModelEntity.STAMP_TX_FIELD, TransactionUtil.getTransactionStartStamp());
+            addFieldIfMissing(fieldsToSave, ModelEntity.STAMP_TX_FIELD, modelEntity);
+        }
+
+        // if we have a STAMP_FIELD then update it with NOW.
+        if (modelEntity.isField(ModelEntity.STAMP_FIELD) && (!entity.getIsFromEntitySync() || entity.get(ModelEntity.STAMP_FIELD) == null)) {
+            entity.set(ModelEntity.STAMP_FIELD, TransactionUtil.getTransactionUniqueNowStamp());
+            addFieldIfMissing(fieldsToSave, ModelEntity.STAMP_FIELD, modelEntity);
+        }
+    }
+
     public int updateByCondition(ModelEntity modelEntity, Map<String, ? extends Object> fieldsToSet, EntityCondition condition) throws GenericEntityException {
         SQLProcessor sqlP = new SQLProcessor(helperInfo);
 
@@ -338,6 +352,346 @@ public class GenericDAO {
         }
     }
 
+    public int incrementByCondition(ModelEntity modelEntity, Map<String, ? extends Number> fieldsToIncrement, EntityCondition condition) throws GenericEntityException {
+        SQLProcessor sqlP = new SQLProcessor(helperInfo);
+
+        try {
+            return incrementByCondition(modelEntity, fieldsToIncrement, condition, sqlP);
+        } catch (GenericDataSourceException e) {
+            sqlP.rollback();
+            throw new GenericDataSourceException("Generic Entity Exception occured in incrementByCondition", e);
+        } finally {
+            sqlP.close();
+        }
+    }
+
+    /** Adds the given amounts to numeric fields with a single <code>UPDATE ... SET col = COALESCE(col, 0) + ?</code>,
+     * so the database serializes concurrent increments of a row instead of the caller doing a read-modify-write.
+     * The stamp fields of the entity are updated as a store would.
+     */
+    public int incrementByCondition(ModelEntity modelEntity, Map<String, ? extends Number> fieldsToIncrement, EntityCondition condition, SQLProcessor sqlP) throws GenericEntityException {
+        if (modelEntity == null || UtilValidate.isEmpty(fieldsToIncrement) || condition == null)
+            return 0;
+        if (modelEntity instanceof ModelViewEntity) {
+            throw new org.ofbiz.entity.GenericNotImplementedException("Operation incrementByCondition not supported yet for view entities");
+        }
+
+        StringBuilder sql = new StringBuilder("UPDATE ").append(modelEntity.getTableName(datasourceInfo)).append(" SET ");
+        List<ModelField> fieldList = FastList.newInstance();
+        for (String name: fieldsToIncrement.keySet()) {
+            ModelField field = modelEntity.getField(name);
+            if (field == null || field.getIsPk()) {
+                throw new GenericModelException("Cannot increment field [" + name + "] of entity [" + modelEntity.getEntityName() + "], it is not a non-primary-key field");
+            }
+            if (fieldList.size() > 0) {
+                sql.append(", ");
+            }
+            sql.append(field.getColName()).append(" = COALESCE(").append(field.getColName()).append(", 0) + ?");
+            fieldList.add(field);
+        }
+        List<ModelField> stampFieldList = FastList.newInstance();
+        if (modelEntity.isField(ModelEntity.STAMP_TX_FIELD)) {
+            stampFieldList.add(modelEntity.getField(ModelEntity.STAMP_TX_FIELD));
+        }
+        if (modelEntity.isField(ModelEntity.STAMP_FIELD)) {
+            stampFieldList.add(modelEntity.getField(ModelEntity.STAMP_FIELD));
+        }
+        for (ModelField stampField: stampFieldList) {
+            sql.append(", ").append(stampField.getColName()).append(" = ?");
+        }
+        List<EntityConditionParam> whereEntityConditionParams = FastList.newInstance();
+        sql.append(" WHERE ").append(condition.makeWhereString(modelEntity, whereEntityConditionParams, this.datasourceInfo));
+
+        try {
+            sqlP.prepareStatement(sql.toString());
+            for (ModelField field: fieldList) {
+                SqlJdbcUtil.setValue(sqlP, field, modelEntity.getEntityName(), fieldsToIncrement.get(field.getName()), modelFieldTypeReader);
+            }
+            for (ModelField stampField: stampFieldList) {
+                Object stamp = ModelEntity.STAMP_TX_FIELD.equals(stampField.getName()) ? TransactionUtil.getTransactionStartStamp() : TransactionUtil.getTransactionUniqueNowStamp();
+                SqlJdbcUtil.setValue(sqlP, stampField, modelEntity.getEntityName(), stamp, modelFieldTypeReader);
+            }
+            for (EntityConditionParam whereEntityConditionParam: whereEntityConditionParams) {
+                SqlJdbcUtil.setValue(sqlP, whereEntityConditionParam.getModelField(), modelEntity.getEntityName(), whereEntityConditionParam.getFieldValue(), modelFieldTypeReader);
+            }
+
+            return sqlP.executeUpdate();
+        } finally {
+            sqlP.close();
+        }
+    }
+
+    /* ====================================================================== */
+
+    /* ====================================================================== */
+
+    /** Inserts a list of entities using JDBC batches. Consecutive entities of the same entity are
+     * written with a single prepared statement, in chunks of at most batch-size rows (see the datasource
+     * batch-size attribute); view entities are still inserted one at a time.
+     *@param entities The entities to insert, the order is preserved
+     *@return int representing number of rows inserted
+     */
+    public int insertBatch(List<? extends GenericEntity> entities) throws GenericEntityException {
+        if (UtilValidate.isEmpty(entities)) {
+            return 0;
+        }
+
+        int retVal = 0;
+        int runStart = 0;
+        for (int i = 1; i <= entities.size(); i++) {
+            if (i == entities.size() || !entities.get(i).getEntityName().equals(entities.get(runStart).getEntityName())) {
+                retVal += insertRun(entities.subList(runStart, i));
+                runStart = i;
+            }
+        }
+        return retVal;
+    }
+
+    private int insertRun(List<? extends GenericEntity> entities) throws GenericEntityException {
+        ModelEntity modelEntity = entities.get(0).getModelEntity();
+
+        if (modelEntity == null) {
+            throw new GenericModelException("Could not find ModelEntity record for entityName: " + entities.get(0).getEntityName());
+        }
+
+        if (modelEntity instanceof ModelViewEntity) {
+            int retVal = 0;
+            for (GenericEntity entity: entities) {
+                retVal += insert(entity);
+            }
+            return retVal;
+        }
+
+        List<ModelField> fieldsToSave = modelEntity.getFieldsUnmodifiable();
+        String sql = "INSERT INTO " + modelEntity.getTableName(datasourceInfo) + " (" + modelEntity.colNameString(fieldsToSave) + ") VALUES (" +
+            modelEntity.fieldsStringList(fieldsToSave, "?", ", ") + ")";
+
+        SQLProcessor sqlP = new SQLProcessor(helperInfo);
+        try {
+            sqlP.prepareStatement(sql);
+            int retVal = 0;
+            int batchCount = 0;
+            for (GenericEntity entity: entities) {
+                setInsertStamps(entity, modelEntity, fieldsToSave);
+                SqlJdbcUtil.setValues(sqlP, fieldsToSave, entity, modelFieldTypeReader);
+                sqlP.addBatch();
+                if (++batchCount == datasourceInfo.batchSize) {
+                    retVal += countBatchRows(sqlP.executeBatch());
+                    batchCount = 0;
+                }
+            }
+            if (batchCount > 0) {
+                retVal += countBatchRows(sqlP.executeBatch());
+            }
+
+            for (GenericEntity entity: entities) {
+                entity.synchronizedWithDatasource();
+            }
+            return retVal;
+        } catch (GenericEntityException e) {
+            sqlP.rollback();
+            Debug.logError("Error while batch inserting " + entities.size() + " values of entity " + modelEntity.getEntityName(), module);
+            throw new GenericEntityException("Error while inserting " + modelEntity.getEntityName(), e);
+        } finally {
+            sqlP.close();
+        }
+    }
+
+    /** Updates a list of entities using JDBC batches. Like update, only the non-PK fields present in each
+     * entity are written, so the entities of a same entity are grouped by the set of fields they carry and
+     * each group is sent with its own prepared statement. Lock enabled and view entities are updated one at a time.
+     *@param entities The entities to update, they must all have a valid primary key
+     *@return int representing number of rows updated
+     */
+    public int updateBatch(List<? extends GenericEntity> entities) throws GenericEntityException {
+        if (UtilValidate.isEmpty(entities)) {
+            return 0;
+        }
+
+        int retVal = 0;
+        int runStart = 0;
+        for (int i = 1; i <= entities.size(); i++) {
+            if (i == entities.size() || !entities.get(i).getEntityName().equals(entities.get(runStart).getEntityName())) {
+                retVal += updateRun(entities.subList(runStart, i));
+                runStart = i;
+            }
+        }
+        return retVal;
+    }
+
+    private int updateRun(List<? extends GenericEntity> entities) throws GenericEntityException {
+        ModelEntity modelEntity = entities.get(0).getModelEntity();
+
+        if (modelEntity == null) {
+            throw new GenericModelException("Could not find ModelEntity record for entityName: " + entities.get(0).getEntityName());
+        }
+
+        int retVal = 0;
+        if (modelEntity instanceof ModelViewEntity || modelEntity.lock()) {
+            for (GenericEntity entity: entities) {
+                retVal += update(entity);
+            }
+            return retVal;
+        }
+
+        // group the entities by the list of fields to save, keeping the original order
+        Map<String, List<ModelField>> fieldsByKey = FastMap.newInstance();
+        Map<String, List<GenericEntity>> entitiesByKey = FastMap.newInstance();
+        for (GenericEntity entity: entities) {
+            for (ModelField pkField: modelEntity.getPkFieldsUnmodifiable()) {
+                if (entity.dangerousGetNoCheckButFast(pkField) == null) {
+                    throw new GenericModelException("Cannot batch update entity [" + entity.getEntityName() + "] with a null primary key field [" + pkField.getName() + "]: " + entity);
+                }
+            }
+
+            List<ModelField> partialFields = FastList.newInstance();
+            Collection<String> keys = entity.getAllKeys();
+            Iterator<ModelField> nopkIter = modelEntity.getNopksIterator();
+            while (nopkIter.hasNext()) {
+                ModelField curField = nopkIter.next();
+                if (keys.contains(curField.getName())) {
+                    partialFields.add(curField);
+                }
+            }
+
+            if (partialFields.size() <= 0) {
+                // same as singleUpdate, counts as effectively updated
+                retVal++;
+                continue;
+            }
+
+            setUpdateStamps(entity, modelEntity, partialFields);
+
+            StringBuilder keyBuilder = new StringBuilder();
+            for (ModelField field: partialFields) {
+                keyBuilder.append(field.getName()).append(',');
+            }
+            String key = keyBuilder.toString();
+            List<GenericEntity> group = entitiesByKey.get(key);
+            if (group == null) {
+                group = FastList.newInstance();
+                entitiesByKey.put(key, group);
+                fieldsByKey.put(key, partialFields);
+            }
+            group.add(entity);
+        }
+
+        String pkWhereString = modelEntity.colNameString(modelEntity.getPkFieldsUnmodifiable(), "=? AND ", "=?", false);
+        for (Map.Entry<String, List<GenericEntity>> groupEntry: entitiesByKey.entrySet()) {
+            List<ModelField> fieldsToSave = fieldsByKey.get(groupEntry.getKey());
+            List<GenericEntity> group = groupEntry.getValue();
+            String sql = "UPDATE " + modelEntity.getTableName(datasourceInfo) + " SET " + modelEntity.colNameString(fieldsToSave, "=?, ", "=?", false) + " WHERE " + pkWhereString;
+
+            SQLProcessor sqlP = new SQLProcessor(helperInfo);
+            try {
+                sqlP.prepareStatement(sql);
+                int batchCount = 0;
+                for (GenericEntity entity: group) {
+                    SqlJdbcUtil.setValues(sqlP, fieldsToSave, entity, modelFieldTypeReader);
+                    SqlJdbcUtil.setPkValues(sqlP, modelEntity, entity, modelFieldTypeReader);
+                    sqlP.addBatch();
+                    if (++batchCount == datasourceInfo.batchSize) {
+                        retVal += checkBatchUpdated(sqlP.executeBatch());
+                        batchCount = 0;
+                    }
+                }
+                if (batchCount > 0) {
+                    retVal += checkBatchUpdated(sqlP.executeBatch());
+                }
+
+                for (GenericEntity entity: group) {
+                    entity.synchronizedWithDatasource();
+                }
+            } catch (GenericEntityNotFoundException e) {
+                sqlP.rollback();
+                throw e;
+            } catch (GenericEntityException e) {
+                sqlP.rollback();
+                Debug.logError("Error while batch updating " + group.size() + " values of entity " + modelEntity.getEntityName(), module);
+                throw new GenericEntityException("Error while updating " + modelEntity.getEntityName(), e);
+            } finally {
+                sqlP.close();
+            }
+        }
+
+        return retVal;
+    }
+
+    private static int countBatchRows(int[] updateCounts) {
+        int rows = 0;
+        for (int updateCount: updateCounts) {
+            if (updateCount == Statement.SUCCESS_NO_INFO) {
+                // the driver executed the statement but does not tell how many rows it affected
+                rows++;
+            } else if (updateCount > 0) {
+                rows += updateCount;
+            }
+        }
+        return rows;
+    }
+
+    private static int checkBatchUpdated(int[] updateCounts) throws GenericEntityNotFoundException {
+        for (int updateCount: updateCounts) {
+            if (updateCount == 0) {
+                throw new GenericEntityNotFoundException("Tried to update an entity that does not exist.");
+            }
+        }
+        return countBatchRows(updateCounts);
+    }
+
+    /** Selects the values matching a list of primary keys with one multi-row query per entity, using an IN
+     * condition for single field primary keys and OR-ed field conditions otherwise. The returned values are not
+     * in any particular order and primary keys that are not found are simply missing from the result.
+     *@param primaryKeys The primary keys to find, they should all be of the same entity
+     *@return List of GenericValue found
+     */
+    public List<GenericValue> selectByPrimaryKeys(List<GenericPK> primaryKeys) throws GenericEntityException {
+        List<GenericValue> results = FastList.newInstance();
+        if (UtilValidate.isEmpty(primaryKeys)) {
+            return results;
+        }
+
+        int runStart = 0;
+        for (int i = 1; i <= primaryKeys.size(); i++) {
+            if (i == primaryKeys.size() || !primaryKeys.get(i).getEntityName().equals(primaryKeys.get(runStart).getEntityName())) {
+                List<GenericPK> run = primaryKeys.subList(runStart, i);
+                ModelEntity modelEntity = run.get(0).getModelEntity();
+                if (modelEntity == null) {
+                    throw new GenericModelException("Could not find ModelEntity record for entityName: " + run.get(0).getEntityName());
+                }
+
+                EntityCondition condition = null;
+                List<ModelField> pkFields = modelEntity.getPkFieldsUnmodifiable();
+                if (pkFields.size() == 1) {
+                    String pkFieldName = pkFields.get(0).getName();
+                    List<Object> pkValues = FastList.newInstance();
+                    for (GenericPK primaryKey: run) {
+                        pkValues.add(primaryKey.get(pkFieldName));
+                    }
+                    condition = EntityCondition.makeCondition(pkFieldName, EntityOperator.IN, pkValues);
+                } else {
+                    List<EntityCondition> pkConditions = FastList.newInstance();
+                    for (GenericPK primaryKey: run) {
+                        pkConditions.add(EntityCondition.makeCondition(primaryKey.getPrimaryKey()));
+                    }
+                    condition = EntityCondition.makeCondition(pkConditions, EntityOperator.OR);
+                }
+
+                EntityListIterator eli = selectListIteratorByCondition(modelEntity, condition, null, null, null, null);
+                try {
+                    for (GenericValue value: eli.getCompleteList()) {
+                        value.setDelegator(run.get(0).getDelegator());
+                        results.add(value);
+                    }
+                } finally {
+                    eli.close();
+                }
+                runStart = i;
+            }
+        }
+        return results;
+    }
+
     /* ====================================================================== */
 
     /* ====================================================================== */
@@ -522,12 +876,8 @@ public class GenericDAO {
             sqlP.executeQuery();
 
             if (sqlP.next()) {
-                int idx = 1;
-                Iterator<ModelField> nopkIter = modelEntity.getNopksIterator();
-                while (nopkIter.hasNext()) {
-                    ModelField curField = nopkIter.next();
-                    SqlJdbcUtil.getValue(sqlP.getResultSet(), idx, curField, entity, modelFieldTypeReader);
-                    idx++;
+                if (modelEntity.getNopksSize() > 0) {
+                    RowMapper.getRowMapper(modelEntity, modelEntity.getNopksCopy(), modelFieldTypeReader).getReader(sqlP.getResultSet()).read(entity);
                 }
 
                 entity.synchronizedWithDatasource();
@@ -593,9 +943,8 @@ public class GenericDAO {
             sqlP.executeQuery();
 
             if (sqlP.next()) {
-                for (int j = 0; j < partialFields.size(); j++) {
-                    ModelField curField = partialFields.get(j);
-                    SqlJdbcUtil.getValue(sqlP.getResultSet(), j + 1, curField, entity, modelFieldTypeReader);
+                if (partialFields.size() > 0) {
+                    RowMapper.getRowMapper(modelEntity, partialFields, modelFieldTypeReader).getReader(sqlP.getResultSet()).read(entity);
                 }
 
                 entity.synchronizedWithDatasource();
@@ -608,7 +957,6 @@ public class GenericDAO {
         }
     }
 
-    /* ====================================================================== */
     /* ====================================================================== */
 
     /** Finds GenericValues by the conditions specified in the EntityCondition object, the the EntityCondition javadoc for more details.
@@ -665,6 +1013,38 @@ public class GenericDAO {
             selectFields = modelEntity.getFieldsUnmodifiable();
         }
 
+        // populate the info from entity-condition in the view-entity, if it is one and there is one
+        List<EntityCondition> viewWhereConditions = null;
+        List<EntityCondition> viewHavingConditions = null;
+        List<String> viewOrderByList = null;
+        if (modelViewEntity != null) {
+            viewWhereConditions = FastList.newInstance();
+            viewHavingConditions = FastList.newInstance();
+            viewOrderByList = FastList.newInstance();
+            modelViewEntity.populateViewEntityConditionInformation(modelFieldTypeReader, viewWhereConditions, viewHavingConditions, viewOrderByList, null);
+        }
+
+        // ORDER BY clause, made first since the row-number offset style numbers the rows in the select list
+        List<String> orderByExpanded = FastList.<String>newInstance();
+        // add the manually specified ones, then the ones in the view entity's entity-condition
+        if (orderBy != null) {
+            orderByExpanded.addAll(orderBy);
+        }
+        if (viewOrderByList != null) {
+            // add to end of other order by so that those in method call will override those in view
+            orderByExpanded.addAll(viewOrderByList);
+        }
+        String orderByString = SqlJdbcUtil.makeOrderByClause(modelEntity, orderByExpanded, datasourceInfo);
+
+        // OFFSET / LIMIT, rendered by the database when the datasource supports it, else the offset rows are skipped on the cursor
+        int offset = Math.max(0, findOptions.getOffset());
+        int limit = findOptions.getLimit();
+        String offsetStyle = null;
+        if (offset > 0 || limit >= 0) {
+            offsetStyle = getOffsetStyle(modelEntity, UtilValidate.isNotEmpty(orderByExpanded), findOptions);
+        }
+        boolean rowNumber = "row-number".equals(offsetStyle);
+
         StringBuilder sqlBuffer = new StringBuilder("SELECT ");
 
         if (findOptions.getDistinct()) {
@@ -676,24 +1056,21 @@ public class GenericDAO {
         } else {
             sqlBuffer.append("*");
         }
-
-        // populate the info from entity-condition in the view-entity, if it is one and there is one
-        List<EntityCondition> viewWhereConditions = null;
-        List<EntityCondition> viewHavingConditions = null;
-        List<String> viewOrderByList = null;
-        if (modelViewEntity != null) {
-            viewWhereConditions = FastList.newInstance();
-            viewHavingConditions = FastList.newInstance();
-            viewOrderByList = FastList.newInstance();
-            modelViewEntity.populateViewEntityConditionInformation(modelFieldTypeReader, viewWhereConditions, viewHavingConditions, viewOrderByList, null);
+        if (rowNumber) {
+            sqlBuffer.append(", ROW_NUMBER() OVER (").append(orderByString.trim()).append(") RN_");
         }
 
         // FROM clause and when necessary the JOIN or LEFT JOIN clause(s) as well
         sqlBuffer.append(SqlJdbcUtil.makeFromClause(modelEntity, datasourceInfo));
 
-        // WHERE clause
+        // WHERE clause, restricted to the rows sorting after the seek values for a keyset page
+        EntityCondition queryWhereCondition = whereEntityCondition;
+        if (findOptions.getSeekAfter() != null) {
+            EntityCondition seekCondition = makeSeekAfterCondition(modelEntity, orderByExpanded, findOptions.getSeekAfter());
+            queryWhereCondition = whereEntityCondition == null ? seekCondition : EntityCondition.makeCondition(whereEntityCondition, EntityOperator.AND, seekCondition);
+        }
         List<EntityConditionParam> whereEntityConditionParams = FastList.newInstance();
-        StringBuilder whereString = makeConditionWhereString(modelEntity, whereEntityCondition, viewWhereConditions, whereEntityConditionParams);
+        StringBuilder whereString = makeConditionWhereString(modelEntity, queryWhereCondition, viewWhereConditions, whereEntityConditionParams);
         if (whereString.length() > 0) {
             sqlBuffer.append(" WHERE ");
             sqlBuffer.append(whereString.toString());
@@ -717,24 +1094,59 @@ public class GenericDAO {
             sqlBuffer.append(havingString);
         }
 
-        // ORDER BY clause
-        List<String> orderByExpanded = FastList.<String>newInstance();
-        // add the manually specified ones, then the ones in the view entity's entity-condition
-        if (orderBy != null) {
-            orderByExpanded.addAll(orderBy);
+        if (rowNumber) {
+            // the row numbers are only known once selected, so filter them in an outer select
+            sqlBuffer.insert(0, "SELECT * FROM (");
+            sqlBuffer.append(") ROW_NUMBERED_ WHERE RN_ > ").append(offset);
+            if (limit >= 0) {
+                sqlBuffer.append(" AND RN_ <= ").append((long) offset + limit);
+            }
+            sqlBuffer.append(" ORDER BY RN_");
+        } else {
+            sqlBuffer.append(orderByString);
+            if ("limit".equals(offsetStyle)) {
+                // MySQL does not accept an OFFSET without a LIMIT
+                sqlBuffer.append(" LIMIT ").append(limit >= 0 ? limit : Integer.MAX_VALUE);
+                if (offset > 0) {
+                    sqlBuffer.append(" OFFSET ").append(offset);
+                }
+            } else if ("fetch".equals(offsetStyle)) {
+                sqlBuffer.append(" OFFSET ").append(offset).append(" ROWS");
+                if (limit >= 0) {
+                    sqlBuffer.append(" FETCH NEXT ").append(limit).append(" ROWS ONLY");
+                }
+            }
         }
-        if (viewOrderByList != null) {
-            // add to end of other order by so that those in method call will override those in view
-            orderByExpanded.addAll(viewOrderByList);
+
+        // FOR UPDATE clause, only for the databases configured for it
+        if (findOptions.getForUpdate() && !(modelEntity instanceof ModelViewEntity)) {
+            if ("skip-locked".equals(datasourceInfo.rowLock)) {
+                sqlBuffer.append(" FOR UPDATE SKIP LOCKED");
+            } else if ("for-update".equals(datasourceInfo.rowLock)) {
+                sqlBuffer.append(" FOR UPDATE");
+            }
         }
-        sqlBuffer.append(SqlJdbcUtil.makeOrderByClause(modelEntity, orderByExpanded, datasourceInfo));
 
         // make the final SQL String
         String sql = sqlBuffer.toString();
 
-        SQLProcessor sqlP = new SQLProcessor(helperInfo);
+        // without an offset style the rows up to the end of the page are read and the offset rows skipped on the cursor
+        int maxRows = findOptions.getMaxRows();
+        int skipRows = 0;
+        if (offsetStyle == null && (offset > 0 || limit >= 0)) {
+            skipRows = offset;
+            if (limit == 0 && offset == 0) {
+                // JDBC reads all the rows for 0 max rows, so read one and skip it
+                maxRows = 1;
+                skipRows = 1;
+            } else if (limit >= 0 && (maxRows <= 0 || maxRows > offset + limit)) {
+                maxRows = offset + limit;
+            }
+        }
+
+        SQLProcessor sqlP = getReadProcessor(findOptions);
         sqlP.prepareStatement(sql, findOptions.getSpecifyTypeAndConcur(), findOptions.getResultSetType(),
-                findOptions.getResultSetConcurrency(), findOptions.getFetchSize(), findOptions.getMaxRows());
+                findOptions.getResultSetConcurrency(), findOptions.getFetchSize(), maxRows);
 
         if (verboseOn) {
             // put this inside an if statement so that we don't have to generate the string when not used...
@@ -765,7 +1177,89 @@ public class GenericDAO {
                 Debug.logTiming("Ran query in " + queryTotalTime + " milli-seconds: " + sql, module);
             }
         }
-        return new EntityListIterator(sqlP, modelEntity, selectFields, modelFieldTypeReader, this, whereEntityCondition, havingEntityCondition, findOptions.getDistinct());
+        EntityListIterator iterator = new EntityListIterator(sqlP, modelEntity, selectFields, modelFieldTypeReader, this, whereEntityCondition, havingEntityCondition, orderBy, findOptions);
+        if (skipRows > 0) {
+            iterator.skip(skipRows);
+        }
+        return iterator;
+    }
+
+    /**
+     * Tells if the offset and limit find options of a find on the given entity are applied by the database,
+     * rather than by skipping the offset rows on the cursor.
+     * @param modelEntity the entity to find
+     * @param orderBy the order by of the find
+     * @param findOptions the find options
+     * @return true if the datasource has an offset style which can be used for this find
+     */
+    public boolean isOffsetSupported(ModelEntity modelEntity, List<String> orderBy, EntityFindOptions findOptions) {
+        return getOffsetStyle(modelEntity, UtilValidate.isNotEmpty(orderBy), findOptions) != null;
+    }
+
+    /**
+     * Gets the <code>SQLProcessor</code> of a find, connected to a usable read replica of the datasource when the find
+     * is read-only, else to the datasource itself.
+     */
+    private SQLProcessor getReadProcessor(EntityFindOptions findOptions) throws GenericEntityException {
+        ReadReplicaRouter router = ReadReplicaRouter.getRouter(datasourceInfo);
+        ReadReplicaRouter.Replica replica = router == null ? null : router.getReplica(helperInfo, findOptions);
+        if (replica != null) {
+            SQLProcessor sqlP = new SQLProcessor(replica.getHelperInfo(helperInfo));
+            try {
+                sqlP.getConnection();
+                return sqlP;
+            } catch (GenericEntityException e) {
+                replica.markDown(e);
+                try {
+                    sqlP.close();
+                } catch (GenericDataSourceException e2) {
+                    Debug.logWarning(e2, "Could not close the SQLProcessor of read replica " + replica.getDatasourceName(), module);
+                }
+            }
+        }
+        return new SQLProcessor(helperInfo);
+    }
+
+    private String getOffsetStyle(ModelEntity modelEntity, boolean hasOrderBy, EntityFindOptions findOptions) {
+        String offsetStyle = datasourceInfo.offsetStyle;
+        if ("limit".equals(offsetStyle) || "fetch".equals(offsetStyle)) {
+            return offsetStyle;
+        } else if ("row-number".equals(offsetStyle)) {
+            // the rows cannot be numbered without an order, nor be distinct or locked once numbered,
+            // and the nested select needs unique column names which a view entity only has when aliased
+            if (!hasOrderBy || findOptions.getDistinct() || findOptions.getForUpdate()
+                    || (modelEntity instanceof ModelViewEntity && !datasourceInfo.aliasViews)) {
+                return null;
+            }
+            return offsetStyle;
+        }
+        return null;
+    }
+
+    /**
+     * Makes the condition selecting the rows sorting after the given values of the order by fields, for example
+     * <code>(A &gt; a) OR (A = a AND B &lt; b)</code> for <code>A, B DESC</code>.
+     */
+    private EntityCondition makeSeekAfterCondition(ModelEntity modelEntity, List<String> orderBy, List<Object> seekAfter) throws GenericEntityException {
+        if (UtilValidate.isEmpty(orderBy) || seekAfter.size() > orderBy.size()) {
+            throw new GenericModelException("In selectListIteratorByCondition the seek after values " + seekAfter + " do not match the order by " + orderBy + " of entity " + modelEntity.getEntityName());
+        }
+        List<EntityCondition> alternatives = FastList.newInstance();
+        List<EntityCondition> equals = FastList.newInstance();
+        for (int i = 0; i < seekAfter.size(); i++) {
+            OrderByItem item = OrderByItem.parse(orderBy.get(i));
+            Object value = seekAfter.get(i);
+            if (value == null) {
+                throw new GenericModelException("In selectListIteratorByCondition the seek after value of " + orderBy.get(i) + " is null, keyset pages need not null order by fields");
+            }
+            List<EntityCondition> alternative = FastList.newInstance();
+            alternative.addAll(equals);
+            EntityComparisonOperator<?, ?> operator = item.getDescending() ? EntityOperator.LESS_THAN : EntityOperator.GREATER_THAN;
+            alternative.add(EntityCondition.makeCondition(item.getValue(), operator, value));
+            alternatives.add(EntityCondition.makeCondition(alternative, EntityOperator.AND));
+            equals.add(EntityCondition.makeCondition(item.getValue(), EntityOperator.EQUALS, value));
+        }
+        return EntityCondition.makeCondition(alternatives, EntityOperator.OR);
     }
 
     protected StringBuilder makeConditionWhereString(ModelEntity modelEntity, EntityCondition whereEntityCondition, List<EntityCondition> viewWhereConditions, List<EntityConditionParam> whereEntityConditionParams) throws GenericEntityException {
@@ -947,17 +1441,20 @@ public class GenericDAO {
             sqlP.executeQuery();
             //int collsize = collist.size();
 
+            List<ModelField> selectFields = FastList.newInstance();
+            for (String fldname: fldlist) {
+                selectFields.add(modelEntityTwo.getField(fldname));
+            }
+            RowMapper.Reader rowReader = null;
             while (sqlP.next()) {
                 Map<String, Object> emptyMap = Collections.emptyMap();
                 GenericValue gv = gd.makeValue(modelEntityTwo.getEntityName(), emptyMap);
 
-                // loop thru all columns for in one row
-                int idx = 1;
-                for (String fldname: fldlist) {
-                    ModelField mf = modelEntityTwo.getField(fldname);
-                    SqlJdbcUtil.getValue(sqlP.getResultSet(), idx, mf, gv, modelFieldTypeReader);
-                    idx++;
+                // read all columns for in one row
+                if (rowReader == null) {
+                    rowReader = RowMapper.getRowMapper(modelEntityTwo, selectFields, modelFieldTypeReader).getReader(sqlP.getResultSet());
                 }
+                rowReader.read(gv);
                 retlist.add(gv);
             }
         } finally {
@@ -1081,7 +1578,7 @@ public class GenericDAO {
         String sql = sqlBuffer.toString();
         if (Debug.verboseOn()) Debug.logVerbose("Count select sql: " + sql, module);
 
-        SQLProcessor sqlP = new SQLProcessor(helperInfo);
+        SQLProcessor sqlP = getReadProcessor(findOptions);
         sqlP.prepareStatement(sql, findOptions.getSpecifyTypeAndConcur(), findOptions.getResultSetType(),
                 findOptions.getResultSetConcurrency(), findOptions.getFetchSize(), findOptions.getMaxRows());
         if (verboseOn) {
@@ -52,6 +52,13 @@ public interface GenericHelper {
      */
     public GenericValue create(GenericValue value) throws GenericEntityException;
 
+    /** Creates a list of Entities in the form of GenericValues and writes them to the database,
+     * using JDBC batches when the datasource supports it
+     *@param values List of GenericValue instances to insert, in order
+     *@return int representing number of rows effected by this operation
+     */
+    public int createAll(List<GenericValue> values) throws GenericEntityException;
+
     /** Find a Generic Entity by its Primary Key
      *@param primaryKey The primary key to find by.
      *@return The GenericValue corresponding to the primaryKey
@@ -113,12 +120,28 @@ public interface GenericHelper {
      */
     public int storeByCondition(ModelEntity modelEntity, Map<String, ? extends Object> fieldsToSet, EntityCondition condition) throws GenericEntityException;
 
+    /** Adds the given amounts to the numeric fields of the entities matching the condition, in a single atomic update
+     *@param modelEntity The ModelEntity of the Entity as defined in the entity XML file
+     *@param fieldsToIncrement The numeric fields to increment and the amount to add to each
+     *@param condition The condition that restricts the list of incremented values
+     *@return int representing number of rows effected by this operation
+     *@throws GenericEntityException
+     */
+    public int incrementByCondition(ModelEntity modelEntity, Map<String, ? extends Number> fieldsToIncrement, EntityCondition condition) throws GenericEntityException;
+
     /** Store the Entity from the GenericValue to the persistent store
      *@param value GenericValue instance containing the entity
      *@return int representing number of rows effected by this operation
      */
     public int store(GenericValue value) throws GenericEntityException;
 
+    /** Store the Entities from the List of GenericValues to the persistent store, using
+     * JDBC batches when the datasource supports it; like store this only does updates
+     *@param values List of GenericValue instances containing the entities
+     *@return int representing number of rows effected by this operation
+     */
+    public int storeAll(List<GenericValue> values) throws GenericEntityException;
+
     /** Check the datasource to make sure the entity definitions are correct, optionally adding missing entities or fields on the server
      *@param modelEntities Map of entityName names and ModelEntity values
      *@param messages List to put any result messages in
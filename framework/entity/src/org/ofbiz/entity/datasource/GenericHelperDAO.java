@@ -20,6 +20,7 @@
 package org.ofbiz.entity.datasource;
 
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -30,6 +31,8 @@ import org.ofbiz.entity.GenericEntityException;
 import org.ofbiz.entity.GenericPK;
 import org.ofbiz.entity.GenericValue;
 import org.ofbiz.entity.condition.EntityCondition;
+import org.ofbiz.entity.config.DatasourceInfo;
+import org.ofbiz.entity.config.EntityConfigUtil;
 import org.ofbiz.entity.model.ModelEntity;
 import org.ofbiz.entity.model.ModelRelation;
 import org.ofbiz.entity.util.EntityFindOptions;
@@ -67,6 +70,19 @@ public class GenericHelperDAO implements GenericHelper {
         return value;
     }
 
+    /** Creates a list of Entities in the form of GenericValues and writes them to the database
+     * in JDBC batches
+     *@return int representing number of rows effected by this operation
+     */
+    public int createAll(List<GenericValue> values) throws GenericEntityException {
+        if (values == null) {
+            return 0;
+        }
+        int retVal = genericDAO.insertBatch(values);
+        if (Debug.verboseOn()) Debug.logVerbose("Batch Insert Return Value : " + retVal, module);
+        return retVal;
+    }
+
     /** Find a Generic Entity by its Primary Key
      *@param primaryKey The primary key to find by.
      *@return The GenericValue corresponding to the primaryKey
@@ -106,6 +122,23 @@ public class GenericHelperDAO implements GenericHelper {
         if (primaryKeys == null) return null;
         List<GenericValue> results = new LinkedList<GenericValue>();
 
+        int batchSize = this.getBatchSize();
+        if (batchSize > 0) {
+            // look up the keys with multi-row selects, then return them in the order they were passed
+            Map<GenericPK, GenericValue> found = new HashMap<GenericPK, GenericValue>();
+            for (int i = 0; i < primaryKeys.size(); i += batchSize) {
+                for (GenericValue value: genericDAO.selectByPrimaryKeys(primaryKeys.subList(i, Math.min(i + batchSize, primaryKeys.size())))) {
+                    found.put(value.getPrimaryKey(), value);
+                }
+            }
+            for (GenericPK primaryKey: primaryKeys) {
+                GenericValue result = found.get(primaryKey);
+
+                if (result != null) results.add(result);
+            }
+            return results;
+        }
+
         for (GenericPK primaryKey: primaryKeys) {
             GenericValue result = this.findByPrimaryKey(primaryKey);
 
@@ -172,6 +205,17 @@ public class GenericHelperDAO implements GenericHelper {
         return genericDAO.update(value);
     }
 
+    /** Store the Entities from the List of GenericValues to the persistent store in JDBC batches
+     *@param values List of GenericValue instances containing the entities
+     *@return int representing number of rows effected by this operation
+     */
+    public int storeAll(List<GenericValue> values) throws GenericEntityException {
+        if (values == null) {
+            return 0;
+        }
+        return genericDAO.updateBatch(values);
+    }
+
     /** Updates a group of values in a single pass.
      *@param modelEntity The ModelEntity of the Entity as defined in the entity XML file
      *@param fieldsToSet The fields of the named entity to set in the database
@@ -186,6 +230,19 @@ public class GenericHelperDAO implements GenericHelper {
         return genericDAO.updateByCondition(modelEntity, fieldsToSet, condition);
     }
 
+    public int incrementByCondition(ModelEntity modelEntity, Map<String, ? extends Number> fieldsToIncrement, EntityCondition condition) throws GenericEntityException {
+        if (modelEntity == null || condition == null) {
+            return 0;
+        }
+        return genericDAO.incrementByCondition(modelEntity, fieldsToIncrement, condition);
+    }
+
+    /** Gets the maximum number of rows per batch configured for the datasource, 0 if batching is disabled */
+    protected int getBatchSize() {
+        DatasourceInfo datasourceInfo = EntityConfigUtil.getDatasourceInfo(helperInfo.getHelperBaseName());
+        return datasourceInfo == null ? 0 : datasourceInfo.batchSize;
+    }
+
     /** Check the datasource to make sure the entity definitions are correct, optionally adding missing entities or fields on the server
      *@param modelEntities Map of entityName names and ModelEntity values
      *@param messages List to put any result messages in
@@ -287,6 +287,17 @@ public class MemoryHelper implements GenericHelper {
         }
     }
 
+    public int createAll(List<GenericValue> values) throws GenericEntityException {
+        int count = 0;
+        for (GenericValue gv: values) {
+            if (addToCache(gv)) {
+                count++;
+            }
+        }
+
+        return count;
+    }
+
     public GenericValue create(GenericPK primaryKey) throws GenericEntityException {
         return create(GenericValue.create(primaryKey));
     }
@@ -404,6 +415,10 @@ public class MemoryHelper implements GenericHelper {
         return 0;
     }
 
+    public int incrementByCondition(ModelEntity modelEntity, Map<String, ? extends Number> fieldsToIncrement, EntityCondition condition) throws GenericEntityException {
+        return 0;
+    }
+
     public int store(GenericValue value) throws GenericEntityException {
         if (addToCache(value)) {
             return 1;
@@ -0,0 +1,282 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+/* This file has been modified by Open Source Strategies, Inc. */
+package org.ofbiz.entity.datasource;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javolution.util.FastList;
+import javolution.util.FastMap;
+
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.UtilValidate;
+import org.ofbiz.entity.config.DatasourceInfo;
+import org.ofbiz.entity.jdbc.ConnectionFactory;
+import org.ofbiz.entity.util.EntityFindOptions;
+import org.w3c.dom.Element;
+
+/**
+ * Routes the finds of a datasource to its read replicas, declared by the <code>read-replica</code> elements of the datasource
+ * in <code>entityengine.xml</code>.
+ * <p>
+ * Only the finds with the read-only find option are routed, which the <code>GenericDelegator</code> also sets on the finds
+ * made outside of a transaction; the finds for update and the finds of a tenant always stay on the datasource.
+ * Each replica is checked every <code>check-interval-millis</code> by a daemon thread, and a replica which is down or lags
+ * more than <code>max-lag-seconds</code> behind is skipped until a later check finds it usable again.
+ * When no replica is usable the datasource itself is used.
+ */
+public final class ReadReplicaRouter {
+
+    public static final String module = ReadReplicaRouter.class.getName();
+
+    private static final ConcurrentMap<String, ReadReplicaRouter> routers = new ConcurrentHashMap<String, ReadReplicaRouter>();
+    private static Timer checker = null;
+
+    private final String datasourceName;
+    private final List<Replica> replicas;
+    private final AtomicInteger next = new AtomicInteger();
+    private final AtomicLong primaryReads = new AtomicLong();
+
+    private ReadReplicaRouter(DatasourceInfo datasourceInfo) {
+        this.datasourceName = datasourceInfo.name;
+        List<Replica> replicas = FastList.newInstance();
+        if (datasourceInfo.readReplicas != null) {
+            for (Element replicaElement : datasourceInfo.readReplicas) {
+                replicas.add(new Replica(replicaElement));
+            }
+        }
+        this.replicas = Collections.unmodifiableList(replicas);
+    }
+
+    /**
+     * Gets the router of a datasource, creating it and starting the checks of its replicas the first time.
+     * @param datasourceInfo the datasource
+     * @return the <code>ReadReplicaRouter</code>, or <code>null</code> if the datasource has no read replica
+     */
+    public static ReadReplicaRouter getRouter(DatasourceInfo datasourceInfo) {
+        ReadReplicaRouter router = routers.get(datasourceInfo.name);
+        if (router == null) {
+            synchronized (ReadReplicaRouter.class) {
+                router = routers.get(datasourceInfo.name);
+                if (router == null) {
+                    router = new ReadReplicaRouter(datasourceInfo);
+                    for (Replica replica : router.replicas) {
+                        if (checker == null) {
+                            checker = new Timer("entity-read-replica-check", true);
+                        }
+                        checker.schedule(replica.new CheckTask(), 0, replica.checkIntervalMillis);
+                    }
+                    routers.put(datasourceInfo.name, router);
+                    if (!router.replicas.isEmpty()) {
+                        Debug.logInfo("Routing the read-only finds of datasource " + datasourceInfo.name + " to " + router.replicas.size() + " read replicas", module);
+                    }
+                }
+            }
+        }
+        return router.replicas.isEmpty() ? null : router;
+    }
+
+    /**
+     * Gets the replica to use for a find, taking the usable replicas in turn.
+     * @param helperInfo the helper of the find, on this router datasource
+     * @param findOptions the options of the find
+     * @return the <code>Replica</code> to use, or <code>null</code> if the find must use the datasource
+     */
+    public Replica getReplica(GenericHelperInfo helperInfo, EntityFindOptions findOptions) {
+        if (findOptions == null || !findOptions.getReadOnly() || findOptions.getForUpdate() || UtilValidate.isNotEmpty(helperInfo.getTenantId())) {
+            return null;
+        }
+        int size = replicas.size();
+        int start = next.getAndIncrement() & Integer.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            Replica replica = replicas.get((start + i) % size);
+            if (replica.isUsable()) {
+                replica.reads.incrementAndGet();
+                return replica;
+            }
+        }
+        primaryReads.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Gets the state of the replicas of all the datasources.
+     * @return a list of <code>Map</code> with the datasource and replica names, whether the replica is usable, its last
+     *  measured lag in seconds, its number of reads and failures, and the number of read-only finds of the datasource
+     *  which found no usable replica
+     */
+    public static List<Map<String, Object>> getStatistics() {
+        List<Map<String, Object>> statistics = FastList.newInstance();
+        for (ReadReplicaRouter router : routers.values()) {
+            for (Replica replica : router.replicas) {
+                Map<String, Object> map = FastMap.newInstance();
+                map.put("datasourceName", router.datasourceName);
+                map.put("replicaName", replica.datasourceName);
+                map.put("usable", replica.isUsable());
+                map.put("lagSeconds", replica.lagSeconds);
+                map.put("reads", replica.reads.get());
+                map.put("failures", replica.failures.get());
+                map.put("primaryReads", router.primaryReads.get());
+                statistics.add(map);
+            }
+        }
+        return statistics;
+    }
+
+    /**
+     * A read replica, itself declared as a datasource.
+     */
+    public static final class Replica {
+
+        private final String datasourceName;
+        private final String checkQuery;
+        private final String lagQuery;
+        private final long maxLagSeconds;
+        private final long checkIntervalMillis;
+        private final AtomicLong reads = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        // not usable until the first check
+        private volatile boolean up = false;
+        private volatile long lagSeconds = -1;
+
+        private Replica(Element element) {
+            this.datasourceName = element.getAttribute("datasource-name");
+            this.checkQuery = element.getAttribute("check-query");
+            this.lagQuery = element.getAttribute("lag-query");
+            this.maxLagSeconds = parseLong(element.getAttribute("max-lag-seconds"), 30);
+            this.checkIntervalMillis = Math.max(100, parseLong(element.getAttribute("check-interval-millis"), 10000));
+        }
+
+        private static long parseLong(String value, long defaultValue) {
+            if (UtilValidate.isEmpty(value)) {
+                return defaultValue;
+            }
+            try {
+                return Long.parseLong(value);
+            } catch (NumberFormatException e) {
+                Debug.logWarning("Invalid read-replica attribute value [" + value + "], using the default " + defaultValue, module);
+                return defaultValue;
+            }
+        }
+
+        public String getDatasourceName() {
+            return datasourceName;
+        }
+
+        /**
+         * Gets the helper to get the connections of this replica for a find.
+         * @param helperInfo the helper of the find on the replicated datasource
+         * @return a <code>GenericHelperInfo</code> value
+         */
+        public GenericHelperInfo getHelperInfo(GenericHelperInfo helperInfo) {
+            return new GenericHelperInfo(helperInfo.getEntityGroupName(), datasourceName);
+        }
+
+        public boolean isUsable() {
+            return up;
+        }
+
+        /**
+         * Stops using this replica until the next check finds it up, after a find could not use it.
+         * @param cause the error of the find
+         */
+        public void markDown(Throwable cause) {
+            failures.incrementAndGet();
+            if (up) {
+                up = false;
+                Debug.logWarning(cause, "Read replica " + datasourceName + " failed, using the primary datasource until it is checked again", module);
+            }
+        }
+
+        private void check() {
+            Connection connection = null;
+            try {
+                connection = ConnectionFactory.getConnection(new GenericHelperInfo(null, datasourceName));
+                if (connection == null) {
+                    throw new SQLException("No connection to datasource " + datasourceName);
+                }
+                if (UtilValidate.isNotEmpty(checkQuery)) {
+                    runQuery(connection, checkQuery);
+                }
+                long lag = 0;
+                if (UtilValidate.isNotEmpty(lagQuery)) {
+                    Object value = runQuery(connection, lagQuery);
+                    // a null lag means there is nothing to replay
+                    lag = value == null ? 0 : new BigDecimal(value.toString().trim()).longValue();
+                }
+                lagSeconds = lag;
+                boolean usable = lag <= maxLagSeconds;
+                if (usable != up) {
+                    if (usable) {
+                        Debug.logInfo("Read replica " + datasourceName + " is usable, lag " + lag + " s", module);
+                    } else {
+                        Debug.logWarning("Read replica " + datasourceName + " lags " + lag + " s behind, more than the " + maxLagSeconds + " s tolerated", module);
+                    }
+                }
+                up = usable;
+            } catch (Exception e) {
+                failures.incrementAndGet();
+                if (up) {
+                    Debug.logWarning(e, "Read replica " + datasourceName + " is down, using the primary datasource", module);
+                } else if (Debug.verboseOn()) {
+                    Debug.logVerbose("Read replica " + datasourceName + " is still down: " + e, module);
+                }
+                up = false;
+            } finally {
+                if (connection != null) {
+                    try {
+                        connection.close();
+                    } catch (SQLException e) {
+                        Debug.logWarning(e, "Could not close the connection of read replica " + datasourceName, module);
+                    }
+                }
+            }
+        }
+
+        private static Object runQuery(Connection connection, String query) throws SQLException {
+            Statement statement = connection.createStatement();
+            try {
+                ResultSet rs = statement.executeQuery(query);
+                return rs.next() ? rs.getObject(1) : null;
+            } finally {
+                statement.close();
+            }
+        }
+
+        private final class CheckTask extends TimerTask {
+            @Override
+            public void run() {
+                check();
+            }
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+/* This file has been modified by Open Source Strategies, Inc. */
+package org.ofbiz.entity.jdbc;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+
+import org.ofbiz.entity.GenericDataSourceException;
+import org.ofbiz.entity.GenericEntity;
+import org.ofbiz.entity.GenericEntityException;
+import org.ofbiz.entity.GenericModelException;
+import org.ofbiz.entity.model.ModelEntity;
+import org.ofbiz.entity.model.ModelField;
+import org.ofbiz.entity.model.ModelFieldType;
+import org.ofbiz.entity.model.ModelFieldTypeReader;
+
+/**
+ * Reads the rows of a select into GenericEntity values, for a given entity and list of selected fields.
+ * <p>
+ * The field types are resolved once when the mapper is built, and the mappers are kept in the <code>ModelEntity</code>
+ * for each list of fields. The column types, needed to know which String fields are read from a CLOB,
+ * are resolved once per <code>ResultSet</code> by {@link #getReader(ResultSet)}, instead of once per value
+ * as <code>SqlJdbcUtil.getValue</code> does.
+ */
+public final class RowMapper {
+
+    private final ModelFieldTypeReader modelFieldTypeReader;
+    private final String entityName;
+    private final ModelField[] fields;
+    private final int[] types;
+
+    private RowMapper(ModelEntity modelEntity, List<ModelField> selectFields, ModelFieldTypeReader modelFieldTypeReader) throws GenericEntityException {
+        this.modelFieldTypeReader = modelFieldTypeReader;
+        this.entityName = modelEntity.getEntityName();
+        this.fields = selectFields.toArray(new ModelField[selectFields.size()]);
+        this.types = new int[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            ModelFieldType mft = modelFieldTypeReader.getModelFieldType(fields[i].getType());
+            if (mft == null) {
+                throw new GenericModelException("definition fieldType " + fields[i].getType() + " not found, cannot getValue for field " +
+                        entityName + "." + fields[i].getName() + ".");
+            }
+            types[i] = SqlJdbcUtil.getType(mft.getJavaType());
+        }
+    }
+
+    /**
+     * Gets the mapper for the given entity and selected fields, building it the first time.
+     * @param modelEntity the entity selected
+     * @param selectFields the fields selected, in the order of the columns
+     * @param modelFieldTypeReader the field types of the datasource
+     * @return a <code>RowMapper</code> value
+     * @throws GenericEntityException if a field type is not supported
+     */
+    public static RowMapper getRowMapper(ModelEntity modelEntity, List<ModelField> selectFields, ModelFieldTypeReader modelFieldTypeReader) throws GenericEntityException {
+        StringBuilder key = new StringBuilder();
+        for (ModelField field : selectFields) {
+            key.append(field.getName()).append(',');
+        }
+        ConcurrentMap<String, RowMapper> rowMappers = modelEntity.getRowMappers();
+        RowMapper rowMapper = rowMappers.get(key.toString());
+        if (rowMapper == null || rowMapper.modelFieldTypeReader != modelFieldTypeReader) {
+            rowMapper = new RowMapper(modelEntity, selectFields, modelFieldTypeReader);
+            rowMappers.put(key.toString(), rowMapper);
+        }
+        return rowMapper;
+    }
+
+    /**
+     * Gets a reader of the rows of the given <code>ResultSet</code>, which columns are the selected fields starting at the first one.
+     * @param rs the <code>ResultSet</code> to read
+     * @return a <code>Reader</code> value
+     * @throws GenericEntityException if the result set metadata could not be read
+     */
+    public Reader getReader(ResultSet rs) throws GenericEntityException {
+        return new Reader(rs);
+    }
+
+    /**
+     * Reads the rows of a <code>ResultSet</code>.
+     */
+    public final class Reader {
+
+        private final ResultSet rs;
+        private final boolean[] clobs;
+
+        private Reader(ResultSet rs) throws GenericEntityException {
+            this.rs = rs;
+            this.clobs = new boolean[fields.length];
+            try {
+                ResultSetMetaData rsmd = rs.getMetaData();
+                for (int i = 0; i < fields.length; i++) {
+                    // only the String fields need to know about CLOB columns
+                    clobs[i] = types[i] == 1 && java.sql.Types.CLOB == rsmd.getColumnType(i + 1);
+                }
+            } catch (SQLException e) {
+                throw new GenericDataSourceException("SQL Exception while getting the result set metadata of entity " + entityName, e);
+            }
+        }
+
+        /**
+         * Sets the values of the current row in the given entity.
+         * @param entity the <code>GenericEntity</code> to set
+         * @throws GenericEntityException if a value could not be read
+         */
+        public void read(GenericEntity entity) throws GenericEntityException {
+            for (int i = 0; i < fields.length; i++) {
+                ModelField curField = fields[i];
+                try {
+                    Object value = SqlJdbcUtil.readValue(rs, i + 1, types[i], clobs[i], curField, entityName);
+                    if (value != SqlJdbcUtil.NO_VALUE) {
+                        entity.dangerousSetNoCheckButFast(curField, value);
+                    }
+                } catch (SQLException sqle) {
+                    throw new GenericDataSourceException("SQL Exception while getting value : " + curField.getName() + " [" + curField.getColName() + "] (" + (i + 1) + ")", sqle);
+                }
+            }
+        }
+    }
+}
@@ -426,6 +426,40 @@ public class SQLProcessor {
         }
     }
 
+    /**
+     * Add the current set of binding variables to the batch of the prepared statement
+     * and reset the binding index so the next set of values can be set.
+     *
+     * @throws GenericDataSourceException
+     */
+    public void addBatch() throws GenericDataSourceException {
+        try {
+            _ps.addBatch();
+            _ind = 1;
+        } catch (SQLException sqle) {
+            throw new GenericDataSourceException("SQL Exception while adding batch for the following:" + _sql, sqle);
+        }
+    }
+
+    /**
+     * Execute the batch of the prepared statement
+     *
+     * @return  The number of rows updated by each statement of the batch
+     * @throws GenericDataSourceException
+     */
+    public int[] executeBatch() throws GenericDataSourceException {
+        try {
+            return _ps.executeBatch();
+        } catch (SQLException sqle) {
+            this.checkLockWaitInfo(sqle);
+            if (sqle.getNextException() != null) {
+                Debug.logError(sqle.getNextException(), "Next exception in batch: ", module);
+            }
+            Debug.logError("SQL Exception while executing the following batch: " + _sql, module);
+            throw new GenericDataSourceException("SQL Exception:" , sqle);
+        }
+    }
+
     /**
      * Execute update based on the SQL statement given
      *
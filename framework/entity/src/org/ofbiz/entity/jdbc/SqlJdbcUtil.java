@@ -514,163 +514,172 @@ public class SqlJdbcUtil {
             ResultSetMetaData rsmd = rs.getMetaData();
             int colType = rsmd.getColumnType(ind);
 
-            if (typeValue <= 4 || typeValue >= 11) {
-                switch (typeValue) {
-                case 1:
-                    if (java.sql.Types.CLOB == colType) {
-                        // Debug.logInfo("For field " + curField.getName() + " of entity " + entity.getEntityName() + " getString is a CLOB, trying getCharacterStream", module);
-                        // if the String is empty, try to get a text input stream, this is required for some databases for larger fields, like CLOBs
-
-                        Clob valueClob = rs.getClob(ind);
-                        Reader valueReader = null;
-                        if (valueClob != null) {
-                            valueReader = valueClob.getCharacterStream();
-                        }
+            Object value = readValue(rs, ind, typeValue, java.sql.Types.CLOB == colType, curField, entity.getEntityName());
+            if (value != NO_VALUE) {
+                entity.dangerousSetNoCheckButFast(curField, value);
+            }
+        } catch (SQLException sqle) {
+            throw new GenericDataSourceException("SQL Exception while getting value : " + curField.getName() + " [" + curField.getColName() + "] (" + ind + ")", sqle);
+        }
+    }
+
+    /** Returned by <code>readValue</code> when the field should be left unset. */
+    static final Object NO_VALUE = new Object();
+
+    /**
+     * Reads the value of a column of the current row.
+     * @param rs the <code>ResultSet</code>
+     * @param ind the column index
+     * @param typeValue the type of the field, as returned by <code>getType</code>
+     * @param isClob if the column is a CLOB
+     * @param curField the field read
+     * @param entityName the name of the entity, for the error messages
+     * @return the value, or <code>NO_VALUE</code> if the field should be left unset
+     * @throws SQLException if an error occurs
+     * @throws GenericEntityException if an error occurs
+     */
+    static Object readValue(ResultSet rs, int ind, int typeValue, boolean isClob, ModelField curField, String entityName) throws SQLException, GenericEntityException {
+        if (typeValue <= 4 || typeValue >= 11) {
+            switch (typeValue) {
+            case 1:
+                if (isClob) {
+                    // Debug.logInfo("For field " + curField.getName() + " of entity " + entityName + " getString is a CLOB, trying getCharacterStream", module);
+                    // if the String is empty, try to get a text input stream, this is required for some databases for larger fields, like CLOBs
+
+                    Clob valueClob = rs.getClob(ind);
+                    Reader valueReader = null;
+                    if (valueClob != null) {
+                        valueReader = valueClob.getCharacterStream();
+                    }
 
-                        //Reader valueReader = rs.getCharacterStream(ind);
-                        if (valueReader != null) {
-                            char[] inCharBuffer = new char[CHAR_BUFFER_SIZE];
-                            StringBuilder strBuf = new StringBuilder();
-                            int charsRead = 0;
-                            try {
-                                while ((charsRead = valueReader.read(inCharBuffer, 0, CHAR_BUFFER_SIZE)) > 0) {
-                                    strBuf.append(inCharBuffer, 0, charsRead);
-                                }
-                                valueReader.close();
-                            } catch (IOException e) {
-                                throw new GenericEntityException("Error reading long character stream for field " + curField.getName() + " of entity " + entity.getEntityName(), e);
+                    //Reader valueReader = rs.getCharacterStream(ind);
+                    if (valueReader != null) {
+                        char[] inCharBuffer = new char[CHAR_BUFFER_SIZE];
+                        StringBuilder strBuf = new StringBuilder();
+                        int charsRead = 0;
+                        try {
+                            while ((charsRead = valueReader.read(inCharBuffer, 0, CHAR_BUFFER_SIZE)) > 0) {
+                                strBuf.append(inCharBuffer, 0, charsRead);
                             }
-                            entity.dangerousSetNoCheckButFast(curField, strBuf.toString());
-                        } else {
-                            entity.dangerousSetNoCheckButFast(curField, null);
+                            valueReader.close();
+                        } catch (IOException e) {
+                            throw new GenericEntityException("Error reading long character stream for field " + curField.getName() + " of entity " + entityName, e);
                         }
+                        return strBuf.toString();
                     } else {
-                        String value = rs.getString(ind);
-                        entity.dangerousSetNoCheckButFast(curField, value);
+                        return null;
                     }
-                    break;
+                } else {
+                    return rs.getString(ind);
+                }
 
-                case 2:
-                    entity.dangerousSetNoCheckButFast(curField, rs.getTimestamp(ind));
-                    break;
+            case 2:
+                return rs.getTimestamp(ind);
 
-                case 3:
-                    entity.dangerousSetNoCheckButFast(curField, rs.getTime(ind));
-                    break;
+            case 3:
+                return rs.getTime(ind);
 
-                case 4:
-                    entity.dangerousSetNoCheckButFast(curField, rs.getDate(ind));
-                    break;
+            case 4:
+                return rs.getDate(ind);
 
-                case 11:
-                    Object obj = null;
+            case 11:
+                Object obj = null;
 
-                    byte[] originalBytes = rs.getBytes(ind);
-                    obj = deserializeField(originalBytes, ind, curField);
+                byte[] originalBytes = rs.getBytes(ind);
+                obj = deserializeField(originalBytes, ind, curField);
 
-                    if (obj != null) {
-                        entity.dangerousSetNoCheckButFast(curField, obj);
-                    } else {
-                        entity.dangerousSetNoCheckButFast(curField, originalBytes);
-                    }
-                    break;
-                case 12:
-                    Object originalObject;
-                    byte[] fieldBytes;
-                    try {
-                        Blob theBlob = rs.getBlob(ind);
-                        fieldBytes = theBlob != null ? theBlob.getBytes(1, (int) theBlob.length()) : null;
-                        originalObject = theBlob;
-                    } catch (SQLException e) {
-                        // for backward compatibility if getBlob didn't work try getBytes
-                        fieldBytes = rs.getBytes(ind);
-                        originalObject = fieldBytes;
-                    }
+                if (obj != null) {
+                    return obj;
+                } else {
+                    return originalBytes;
+                }
+            case 12:
+                Object originalObject;
+                byte[] fieldBytes;
+                try {
+                    Blob theBlob = rs.getBlob(ind);
+                    fieldBytes = theBlob != null ? theBlob.getBytes(1, (int) theBlob.length()) : null;
+                    originalObject = theBlob;
+                } catch (SQLException e) {
+                    // for backward compatibility if getBlob didn't work try getBytes
+                    fieldBytes = rs.getBytes(ind);
+                    originalObject = fieldBytes;
+                }
 
-                    if (originalObject != null) {
-                        // for backward compatibility, check to see if there is a serialized object and if so return that
-                        Object blobObject = deserializeField(fieldBytes, ind, curField);
-                        if (blobObject != null) {
-                            entity.dangerousSetNoCheckButFast(curField, blobObject);
+                if (originalObject != null) {
+                    // for backward compatibility, check to see if there is a serialized object and if so return that
+                    Object blobObject = deserializeField(fieldBytes, ind, curField);
+                    if (blobObject != null) {
+                        return blobObject;
+                    } else {
+                        if (originalObject instanceof Blob) {
+                            // NOTE using SerialBlob here instead of the Blob from the database to make sure we can pass it around, serialize it, etc
+                            return new SerialBlob((Blob) originalObject);
                         } else {
-                            if (originalObject instanceof Blob) {
-                                // NOTE using SerialBlob here instead of the Blob from the database to make sure we can pass it around, serialize it, etc
-                                entity.dangerousSetNoCheckButFast(curField, new SerialBlob((Blob) originalObject));
-                            } else {
-                                entity.dangerousSetNoCheckButFast(curField, originalObject);
-                            }
+                            return originalObject;
                         }
                     }
+                }
 
-                    break;
-                case 13:
-                    entity.dangerousSetNoCheckButFast(curField, new SerialClob(rs.getClob(ind)));
-                    break;
-                case 14:
-                case 15:
-                    entity.dangerousSetNoCheckButFast(curField, rs.getObject(ind));
-                    break;
+                break;
+            case 13:
+                return new SerialClob(rs.getClob(ind));
+            case 14:
+            case 15:
+                return rs.getObject(ind);
+            }
+        } else {
+            switch (typeValue) {
+            case 5:
+                int intValue = rs.getInt(ind);
+                if (rs.wasNull()) {
+                    return null;
+                } else {
+                    return Integer.valueOf(intValue);
                 }
-            } else {
-                switch (typeValue) {
-                case 5:
-                    int intValue = rs.getInt(ind);
-                    if (rs.wasNull()) {
-                        entity.dangerousSetNoCheckButFast(curField, null);
-                    } else {
-                        entity.dangerousSetNoCheckButFast(curField, Integer.valueOf(intValue));
-                    }
-                    break;
 
-                case 6:
-                    long longValue = rs.getLong(ind);
-                    if (rs.wasNull()) {
-                        entity.dangerousSetNoCheckButFast(curField, null);
-                    } else {
-                        entity.dangerousSetNoCheckButFast(curField, Long.valueOf(longValue));
-                    }
-                    break;
+            case 6:
+                long longValue = rs.getLong(ind);
+                if (rs.wasNull()) {
+                    return null;
+                } else {
+                    return Long.valueOf(longValue);
+                }
 
-                case 7:
-                    float floatValue = rs.getFloat(ind);
-                    if (rs.wasNull()) {
-                        entity.dangerousSetNoCheckButFast(curField, null);
-                    } else {
-                        entity.dangerousSetNoCheckButFast(curField, Float.valueOf(floatValue));
-                    }
-                    break;
+            case 7:
+                float floatValue = rs.getFloat(ind);
+                if (rs.wasNull()) {
+                    return null;
+                } else {
+                    return Float.valueOf(floatValue);
+                }
 
-                case 8:
-                    double doubleValue = rs.getDouble(ind);
-                    if (rs.wasNull()) {
-                        entity.dangerousSetNoCheckButFast(curField, null);
-                    } else {
-                        entity.dangerousSetNoCheckButFast(curField, Double.valueOf(doubleValue));
-                    }
-                    break;
+            case 8:
+                double doubleValue = rs.getDouble(ind);
+                if (rs.wasNull()) {
+                    return null;
+                } else {
+                    return Double.valueOf(doubleValue);
+                }
 
-                case 9:
-                    BigDecimal bigDecimalValue = rs.getBigDecimal(ind);
-                    if (rs.wasNull()) {
-                        entity.dangerousSetNoCheckButFast(curField, null);
-                    } else {
-                        entity.dangerousSetNoCheckButFast(curField, bigDecimalValue);
-                    }
-                    break;
+            case 9:
+                BigDecimal bigDecimalValue = rs.getBigDecimal(ind);
+                if (rs.wasNull()) {
+                    return null;
+                } else {
+                    return bigDecimalValue;
+                }
 
-                case 10:
-                    boolean booleanValue = rs.getBoolean(ind);
-                    if (rs.wasNull()) {
-                        entity.dangerousSetNoCheckButFast(curField, null);
-                    } else {
-                        entity.dangerousSetNoCheckButFast(curField, Boolean.valueOf(booleanValue));
-                    }
-                    break;
+            case 10:
+                boolean booleanValue = rs.getBoolean(ind);
+                if (rs.wasNull()) {
+                    return null;
+                } else {
+                    return Boolean.valueOf(booleanValue);
                 }
             }
-        } catch (SQLException sqle) {
-            throw new GenericDataSourceException("SQL Exception while getting value : " + curField.getName() + " [" + curField.getColName() + "] (" + ind + ")", sqle);
         }
+        return NO_VALUE;
     }
 
     private static Object deserializeField(byte[] fieldBytes, int ind, ModelField curField) throws GenericDataSourceException {
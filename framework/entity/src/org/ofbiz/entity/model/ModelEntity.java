@@ -30,6 +30,8 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javolution.util.FastList;
 import javolution.util.FastMap;
@@ -51,6 +53,7 @@ import org.ofbiz.entity.GenericValue;
 import org.ofbiz.entity.config.DatasourceInfo;
 import org.ofbiz.entity.config.EntityConfigUtil;
 import org.ofbiz.entity.jdbc.DatabaseUtil;
+import org.ofbiz.entity.jdbc.RowMapper;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 
@@ -132,6 +135,9 @@ public class ModelEntity extends ModelInfo implements Comparable<ModelEntity>, S
     /** The location of this entity's definition */
     protected String location = "";
 
+    /** The row mappers of the selects on this entity, by list of selected fields */
+    private transient ConcurrentMap<String, RowMapper> rowMappers = null;
+
     // ===== CONSTRUCTORS =====
     /** Default Constructor */
     public ModelEntity() {}
@@ -383,6 +389,14 @@ public class ModelEntity extends ModelInfo implements Comparable<ModelEntity>, S
         this.dependentOn = dependentOn;
     }
 
+    /** The row mappers of the selects on this entity, by list of selected fields, see RowMapper.getRowMapper */
+    public ConcurrentMap<String, RowMapper> getRowMappers() {
+        if (this.rowMappers == null) {
+            this.rowMappers = new ConcurrentHashMap<String, RowMapper>();
+        }
+        return this.rowMappers;
+    }
+
     /** An indicator to specify if this entity is never cached.
      * If true causes the delegator to not clear caches on write and to not get
      * from cache on read showing a warning messages to that effect
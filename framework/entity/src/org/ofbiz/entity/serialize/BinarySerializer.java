@@ -0,0 +1,523 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+/* This file has been modified by Open Source Strategies, Inc. */
+package org.ofbiz.entity.serialize;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.io.UnsupportedEncodingException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Stack;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.Vector;
+import java.util.WeakHashMap;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import javolution.util.FastMap;
+
+import org.ofbiz.base.util.Base64;
+import org.ofbiz.base.util.UtilGenerics;
+import org.ofbiz.base.util.UtilMisc;
+import org.ofbiz.base.util.UtilObject;
+import org.ofbiz.entity.Delegator;
+import org.ofbiz.entity.GenericEntity;
+import org.ofbiz.entity.GenericPK;
+import org.ofbiz.entity.GenericValue;
+import org.xml.sax.SAXException;
+
+/**
+ * Compact binary form of the objects supported by <code>XmlSerializer</code>, stored as text so it fits in the same
+ * fields, for example <code>RuntimeData.runtimeInfo</code>.
+ * <p>
+ * The serialized text starts with a version prefix followed by the Base64 of the binary form, which is deflated when
+ * it is bigger than {@link #COMPRESS_THRESHOLD} bytes. Each object is written as a one byte type tag and its raw value;
+ * the <code>GenericValue</code> and <code>GenericPK</code> are written as their entity name and their non null fields,
+ * and the entity names, field names and other strings already written are referenced by their index.
+ * {@link #deserialize(String, Delegator)} also reads the content written by <code>XmlSerializer</code>,
+ * so the existing serialized data stays readable.
+ */
+public class BinarySerializer {
+    public static final String module = BinarySerializer.class.getName();
+
+    /** The prefix of the serialized text, followed by 'r' for a raw or 'z' for a deflated binary form. */
+    public static final String PREFIX = "ofbiz-bin1";
+    /** The size of the binary form above which it is deflated. */
+    public static final int COMPRESS_THRESHOLD = 512;
+
+    private static final byte NULL = 0;
+    private static final byte STRING = 1;
+    private static final byte STRING_REF = 2;
+    private static final byte INTEGER = 3;
+    private static final byte LONG = 4;
+    private static final byte FLOAT = 5;
+    private static final byte DOUBLE = 6;
+    private static final byte BOOLEAN_TRUE = 7;
+    private static final byte BOOLEAN_FALSE = 8;
+    private static final byte BIG_DECIMAL = 9;
+    private static final byte LOCALE = 10;
+    private static final byte TIMESTAMP = 11;
+    private static final byte SQL_DATE = 12;
+    private static final byte SQL_TIME = 13;
+    private static final byte DATE = 14;
+    private static final byte BYTES = 15;
+    private static final byte ARRAY_LIST = 20;
+    private static final byte LINKED_LIST = 21;
+    private static final byte STACK = 22;
+    private static final byte VECTOR = 23;
+    private static final byte TREE_SET = 24;
+    private static final byte HASH_SET = 25;
+    private static final byte COLLECTION = 26;
+    private static final byte HASH_MAP = 30;
+    private static final byte PROPERTIES = 31;
+    private static final byte HASHTABLE = 32;
+    private static final byte WEAK_HASH_MAP = 33;
+    private static final byte TREE_MAP = 34;
+    private static final byte MAP = 35;
+    private static final byte GENERIC_PK = 40;
+    private static final byte GENERIC_VALUE = 41;
+    private static final byte CUSTOM = 50;
+
+    /**
+     * Serializes an object to its compact text form.
+     * @param object the object to serialize, which must be of a type supported by <code>XmlSerializer</code>
+     * @return the serialized text
+     * @throws SerializeException if the object or one of its members cannot be serialized
+     */
+    public static String serialize(Object object) throws SerializeException {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            Writer writer = new Writer(new DataOutputStream(bytes));
+            writer.write(object);
+            writer.out.flush();
+            byte[] data = bytes.toByteArray();
+            char format = 'r';
+            if (data.length > COMPRESS_THRESHOLD) {
+                ByteArrayOutputStream compressed = new ByteArrayOutputStream(data.length / 2);
+                DeflaterOutputStream deflater = new DeflaterOutputStream(compressed, new Deflater(Deflater.BEST_SPEED));
+                deflater.write(data);
+                deflater.close();
+                if (compressed.size() < data.length) {
+                    data = compressed.toByteArray();
+                    format = 'z';
+                }
+            }
+            return PREFIX + format + new String(Base64.base64Encode(data), "US-ASCII");
+        } catch (IOException e) {
+            throw new SerializeException("Could not serialize object of class " + (object == null ? null : object.getClass().getName()), e);
+        }
+    }
+
+    /**
+     * Checks if the given text was written by {@link #serialize(Object)}.
+     * @param content the serialized text
+     * @return true if the content is in the binary form, false for the <code>XmlSerializer</code> form
+     */
+    public static boolean isBinary(String content) {
+        return content != null && content.startsWith(PREFIX);
+    }
+
+    /**
+     * Deserializes an object written by {@link #serialize(Object)} or by <code>XmlSerializer.serialize</code>.
+     * <p>This method should be used with caution. If the content contains a serialized <code>GenericValue</code>
+     * or <code>GenericPK</code> then it is possible to unintentionally corrupt the database.</p>
+     * @param content the serialized text
+     * @param delegator the delegator used to make the <code>GenericValue</code> and <code>GenericPK</code>
+     * @return the deserialized object
+     * @throws SerializeException if the content is not valid
+     * @throws SAXException if the content is invalid XML
+     * @throws ParserConfigurationException if the XML parser could not be created
+     * @throws IOException if the content could not be read
+     */
+    public static Object deserialize(String content, Delegator delegator) throws SerializeException, SAXException, ParserConfigurationException, IOException {
+        if (!isBinary(content)) {
+            return XmlSerializer.deserialize(content, delegator);
+        }
+        if (content.length() <= PREFIX.length()) {
+            throw new SerializeException("Serialized content is truncated");
+        }
+        char format = content.charAt(PREFIX.length());
+        byte[] data;
+        try {
+            data = Base64.base64Decode(content.substring(PREFIX.length() + 1).getBytes("US-ASCII"));
+        } catch (UnsupportedEncodingException e) {
+            throw new SerializeException("Could not decode the serialized content", e);
+        }
+        InputStream in = new ByteArrayInputStream(data);
+        if (format == 'z') {
+            in = new InflaterInputStream(in);
+        } else if (format != 'r') {
+            throw new SerializeException("Unknown serialized content format: " + format);
+        }
+        try {
+            return new Reader(new DataInputStream(in), delegator).read();
+        } catch (IOException e) {
+            throw new SerializeException("Could not deserialize the content", e);
+        }
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Invalid variable length int");
+    }
+
+    /**
+     * Writes the objects of one serialized content, keeping the strings already written.
+     */
+    private static final class Writer {
+
+        private final DataOutputStream out;
+        private final Map<String, Integer> strings = FastMap.newInstance();
+
+        private Writer(DataOutputStream out) {
+            this.out = out;
+        }
+
+        private void writeString(String value) throws IOException {
+            Integer index = strings.get(value);
+            if (index != null) {
+                out.writeByte(STRING_REF);
+                writeVarInt(out, index);
+            } else {
+                out.writeByte(STRING);
+                strings.put(value, strings.size());
+                // writeUTF is limited to 64k bytes
+                byte[] utf8 = value.getBytes("UTF-8");
+                writeVarInt(out, utf8.length);
+                out.write(utf8);
+            }
+        }
+
+        private void writeBytes(byte[] value) throws IOException {
+            writeVarInt(out, value.length);
+            out.write(value);
+        }
+
+        private void write(Object object) throws IOException, SerializeException {
+            if (object == null || object == GenericEntity.NULL_FIELD) {
+                out.writeByte(NULL);
+            } else if (object instanceof String) {
+                writeString((String) object);
+            } else if (object instanceof Integer) {
+                out.writeByte(INTEGER);
+                out.writeInt((Integer) object);
+            } else if (object instanceof Long) {
+                out.writeByte(LONG);
+                out.writeLong((Long) object);
+            } else if (object instanceof Float) {
+                out.writeByte(FLOAT);
+                out.writeFloat((Float) object);
+            } else if (object instanceof Double) {
+                out.writeByte(DOUBLE);
+                out.writeDouble((Double) object);
+            } else if (object instanceof Boolean) {
+                out.writeByte(((Boolean) object).booleanValue() ? BOOLEAN_TRUE : BOOLEAN_FALSE);
+            } else if (object instanceof BigDecimal) {
+                BigDecimal value = (BigDecimal) object;
+                out.writeByte(BIG_DECIMAL);
+                writeVarInt(out, value.scale());
+                writeBytes(value.unscaledValue().toByteArray());
+            } else if (object instanceof Locale) {
+                out.writeByte(LOCALE);
+                writeString(object.toString());
+            } else if (object instanceof java.sql.Timestamp) {
+                out.writeByte(TIMESTAMP);
+                out.writeLong(((java.sql.Timestamp) object).getTime());
+                out.writeInt(((java.sql.Timestamp) object).getNanos());
+            } else if (object instanceof java.sql.Date) {
+                out.writeByte(SQL_DATE);
+                out.writeLong(((java.sql.Date) object).getTime());
+            } else if (object instanceof java.sql.Time) {
+                out.writeByte(SQL_TIME);
+                out.writeLong(((java.sql.Time) object).getTime());
+            } else if (object instanceof java.util.Date) {
+                // NOTE: make sure this is AFTER the java.sql date/time objects since they inherit from java.util.Date
+                out.writeByte(DATE);
+                out.writeLong(((java.util.Date) object).getTime());
+            } else if (object instanceof byte[]) {
+                out.writeByte(BYTES);
+                writeBytes((byte[]) object);
+            } else if (object instanceof Collection) {
+                // these ARE order sensitive; for instance Stack extends Vector, so if Vector were first we would lose the stack part
+                if (object instanceof ArrayList) {
+                    out.writeByte(ARRAY_LIST);
+                } else if (object instanceof LinkedList) {
+                    out.writeByte(LINKED_LIST);
+                } else if (object instanceof Stack) {
+                    out.writeByte(STACK);
+                } else if (object instanceof Vector) {
+                    out.writeByte(VECTOR);
+                } else if (object instanceof TreeSet) {
+                    out.writeByte(TREE_SET);
+                } else if (object instanceof HashSet) {
+                    out.writeByte(HASH_SET);
+                } else {
+                    // no specific type found, do general Collection, will deserialize as LinkedList
+                    out.writeByte(COLLECTION);
+                }
+                Collection<?> value = UtilGenerics.cast(object);
+                writeVarInt(out, value.size());
+                for (Object element : value) {
+                    write(element);
+                }
+            } else if (object instanceof GenericPK) {
+                out.writeByte(GENERIC_PK);
+                writeEntity((GenericEntity) object);
+            } else if (object instanceof GenericValue) {
+                out.writeByte(GENERIC_VALUE);
+                writeEntity((GenericEntity) object);
+            } else if (object instanceof Map) {
+                // these ARE order sensitive; for instance Properties extends Hashtable, so if Hashtable were first we would lose the Properties part
+                if (object instanceof HashMap) {
+                    out.writeByte(HASH_MAP);
+                } else if (object instanceof Properties) {
+                    out.writeByte(PROPERTIES);
+                } else if (object instanceof Hashtable) {
+                    out.writeByte(HASHTABLE);
+                } else if (object instanceof WeakHashMap) {
+                    out.writeByte(WEAK_HASH_MAP);
+                } else if (object instanceof TreeMap) {
+                    out.writeByte(TREE_MAP);
+                } else {
+                    // serialize as a simple Map implementation if nothing else applies, these will deserialize as a HashMap
+                    out.writeByte(MAP);
+                }
+                Map<?, ?> value = UtilGenerics.cast(object);
+                writeVarInt(out, value.size());
+                for (Map.Entry<?, ?> entry : value.entrySet()) {
+                    write(entry.getKey());
+                    write(entry.getValue());
+                }
+            } else if (object instanceof Serializable) {
+                byte[] objBytes = UtilObject.getBytes(object);
+                if (objBytes == null) {
+                    throw new SerializeException("Unable to serialize object; null byte array returned");
+                }
+                out.writeByte(CUSTOM);
+                writeBytes(objBytes);
+            } else {
+                throw new SerializeException("Cannot serialize object of class " + object.getClass().getName());
+            }
+        }
+
+        private void writeEntity(GenericEntity entity) throws IOException, SerializeException {
+            writeString(entity.getEntityName());
+            Map<String, Object> fields = entity.getAllFields();
+            int count = 0;
+            for (Object value : fields.values()) {
+                if (value != null && value != GenericEntity.NULL_FIELD) {
+                    count++;
+                }
+            }
+            writeVarInt(out, count);
+            for (Map.Entry<String, Object> field : fields.entrySet()) {
+                Object value = field.getValue();
+                if (value != null && value != GenericEntity.NULL_FIELD) {
+                    writeString(field.getKey());
+                    write(value);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the objects of one serialized content, keeping the strings already read.
+     */
+    private static final class Reader {
+
+        private final DataInputStream in;
+        private final Delegator delegator;
+        private final List<String> strings = new ArrayList<String>();
+
+        private Reader(DataInputStream in, Delegator delegator) {
+            this.in = in;
+            this.delegator = delegator;
+        }
+
+        private byte[] readBytes() throws IOException {
+            byte[] value = new byte[readVarInt(in)];
+            in.readFully(value);
+            return value;
+        }
+
+        private String readString(byte tag) throws IOException, SerializeException {
+            if (tag == STRING) {
+                String value = new String(readBytes(), "UTF-8");
+                strings.add(value);
+                return value;
+            } else if (tag == STRING_REF) {
+                int index = readVarInt(in);
+                if (index >= strings.size()) {
+                    throw new SerializeException("Invalid string reference " + index);
+                }
+                return strings.get(index);
+            }
+            throw new SerializeException("Expected a string but found type " + tag);
+        }
+
+        private String readString() throws IOException, SerializeException {
+            return readString(in.readByte());
+        }
+
+        private Object read() throws IOException, SerializeException {
+            byte tag = in.readByte();
+            switch (tag) {
+            case NULL:
+                return null;
+            case STRING:
+            case STRING_REF:
+                return readString(tag);
+            case INTEGER:
+                return in.readInt();
+            case LONG:
+                return in.readLong();
+            case FLOAT:
+                return in.readFloat();
+            case DOUBLE:
+                return in.readDouble();
+            case BOOLEAN_TRUE:
+                return Boolean.TRUE;
+            case BOOLEAN_FALSE:
+                return Boolean.FALSE;
+            case BIG_DECIMAL:
+                int scale = readVarInt(in);
+                return new BigDecimal(new BigInteger(readBytes()), scale);
+            case LOCALE:
+                return UtilMisc.parseLocale(readString());
+            case TIMESTAMP:
+                java.sql.Timestamp timestamp = new java.sql.Timestamp(in.readLong());
+                timestamp.setNanos(in.readInt());
+                return timestamp;
+            case SQL_DATE:
+                return new java.sql.Date(in.readLong());
+            case SQL_TIME:
+                return new java.sql.Time(in.readLong());
+            case DATE:
+                return new java.util.Date(in.readLong());
+            case BYTES:
+                return readBytes();
+            case ARRAY_LIST:
+                return readCollection(new ArrayList<Object>());
+            case LINKED_LIST:
+            case COLLECTION:
+                return readCollection(new LinkedList<Object>());
+            case STACK:
+                return readCollection(new Stack<Object>());
+            case VECTOR:
+                return readCollection(new Vector<Object>());
+            case TREE_SET:
+                return readCollection(new TreeSet<Object>());
+            case HASH_SET:
+                return readCollection(new HashSet<Object>());
+            case HASH_MAP:
+            case MAP:
+                return readMap(new HashMap<Object, Object>());
+            case PROPERTIES:
+                return readMap(new Properties());
+            case HASHTABLE:
+                return readMap(new Hashtable<Object, Object>());
+            case WEAK_HASH_MAP:
+                return readMap(new WeakHashMap<Object, Object>());
+            case TREE_MAP:
+                return readMap(new TreeMap<Object, Object>());
+            case GENERIC_PK:
+                return readEntity(true);
+            case GENERIC_VALUE:
+                return readEntity(false);
+            case CUSTOM:
+                Object obj = UtilObject.getObject(readBytes());
+                if (obj == null) {
+                    throw new SerializeException("Problem deserializing object from byte array");
+                }
+                return obj;
+            default:
+                throw new SerializeException("Cannot deserialize object of type " + tag);
+            }
+        }
+
+        private Collection<Object> readCollection(Collection<Object> value) throws IOException, SerializeException {
+            int size = readVarInt(in);
+            for (int i = 0; i < size; i++) {
+                value.add(read());
+            }
+            return value;
+        }
+
+        private Map<Object, Object> readMap(Map<Object, Object> value) throws IOException, SerializeException {
+            int size = readVarInt(in);
+            for (int i = 0; i < size; i++) {
+                Object key = read();
+                value.put(key, read());
+            }
+            return value;
+        }
+
+        private GenericEntity readEntity(boolean isPK) throws IOException, SerializeException {
+            if (delegator == null) {
+                throw new SerializeException("A delegator is required to deserialize a GenericValue or GenericPK");
+            }
+            String entityName = readString();
+            int count = readVarInt(in);
+            Map<String, Object> fields = FastMap.newInstance();
+            for (int i = 0; i < count; i++) {
+                String name = readString();
+                fields.put(name, read());
+            }
+            if (isPK) {
+                return delegator.makePK(entityName, fields);
+            }
+            return delegator.makeValue(entityName, fields);
+        }
+    }
+}
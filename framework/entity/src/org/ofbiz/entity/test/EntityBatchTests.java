@@ -0,0 +1,177 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+/* This file has been modified by Open Source Strategies, Inc. */
+package org.ofbiz.entity.test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import javolution.util.FastList;
+import javolution.util.FastMap;
+
+import org.ofbiz.base.util.UtilMisc;
+import org.ofbiz.entity.Delegator;
+import org.ofbiz.entity.GenericEntity;
+import org.ofbiz.entity.GenericEntityException;
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.condition.EntityCondition;
+import org.ofbiz.entity.condition.EntityOperator;
+import org.ofbiz.entity.config.DatasourceInfo;
+import org.ofbiz.entity.config.EntityConfigUtil;
+import org.ofbiz.entity.eca.EntityEcaHandler;
+import org.ofbiz.entity.testtools.EntityTestCase;
+
+/**
+ * Tests the batched <code>storeAll</code>, used when the datasource has a <code>batch-size</code>: the values written
+ * and the order of the ECA rules, recorded by an <code>EntityEcaHandler</code> set on the delegator for the test.
+ */
+public class EntityBatchTests extends EntityTestCase {
+
+    private static final String PREFIX = "TEST-BATCH-";
+
+    private DatasourceInfo datasourceInfo;
+    private int originalBatchSize;
+    private EntityEcaHandler<?> originalEcaHandler;
+    private RecordingEcaHandler ecaHandler;
+
+    public EntityBatchTests(String name) {
+        super(name);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        datasourceInfo = EntityConfigUtil.getDatasourceInfo(delegator.getEntityHelperName("TestingType"));
+        originalBatchSize = datasourceInfo.batchSize;
+        datasourceInfo.batchSize = 10;
+        originalEcaHandler = delegator.getEntityEcaHandler();
+        removeTestingTypes();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        delegator.setEntityEcaHandler(originalEcaHandler);
+        datasourceInfo.batchSize = originalBatchSize;
+        removeTestingTypes();
+    }
+
+    private void removeTestingTypes() throws GenericEntityException {
+        delegator.removeByCondition("TestingType", EntityCondition.makeCondition("testingTypeId", EntityOperator.LIKE, PREFIX + "%"));
+    }
+
+    private List<GenericValue> makeTestingTypes(String description, int... ids) {
+        List<GenericValue> values = FastList.newInstance();
+        for (int id : ids) {
+            values.add(delegator.makeValue("TestingType", "testingTypeId", PREFIX + id, "description", description + " #" + id));
+        }
+        return values;
+    }
+
+    public void testBatchStoreAllResult() throws Exception {
+        assertEquals("Created the new values", 3, delegator.storeAll(makeTestingTypes("Batch", 1, 2, 3)));
+
+        // two changed values, one unchanged and one new
+        List<GenericValue> values = makeTestingTypes("Changed", 1, 2);
+        values.addAll(makeTestingTypes("Batch", 3));
+        values.addAll(makeTestingTypes("Batch", 4));
+        assertEquals("Stored the changed and new values only", 3, delegator.storeAll(values));
+
+        List<GenericValue> found = delegator.findList("TestingType", EntityCondition.makeCondition("testingTypeId", EntityOperator.LIKE, PREFIX + "%"), null, UtilMisc.toList("testingTypeId"), null, false);
+        assertEquals("All the values are written", 4, found.size());
+        assertEquals("Changed #1", found.get(0).getString("description"));
+        assertEquals("Changed #2", found.get(1).getString("description"));
+        assertEquals("Batch #3", found.get(2).getString("description"));
+        assertEquals("Batch #4", found.get(3).getString("description"));
+    }
+
+    public void testBatchStoreAllEcaOrderWithoutRunRules() throws Exception {
+        ecaHandler = new RecordingEcaHandler(delegator, false);
+        delegator.setEntityEcaHandler(ecaHandler);
+        delegator.storeAll(makeTestingTypes("Batch", 1, 2, 3));
+
+        // without RUN rules the chunk is written in one batch, after the rules of all the values
+        assertEquals(Arrays.asList(
+                "validate create " + PREFIX + "1", "run create " + PREFIX + "1", "validate create " + PREFIX + "2", "run create " + PREFIX + "2", "validate create " + PREFIX + "3", "run create " + PREFIX + "3",
+                "return create " + PREFIX + "1", "return create " + PREFIX + "2", "return create " + PREFIX + "3"), ecaHandler.events);
+    }
+
+    public void testBatchStoreAllEcaOrderWithRunRules() throws Exception {
+        delegator.storeAll(makeTestingTypes("Batch", 1));
+        ecaHandler = new RecordingEcaHandler(delegator, true);
+        delegator.setEntityEcaHandler(ecaHandler);
+        List<GenericValue> values = makeTestingTypes("Changed", 1);
+        values.addAll(makeTestingTypes("Batch", 2, 3));
+        assertEquals("Stored the changed and new values", 3, delegator.storeAll(values));
+
+        // each RUN rule sees the values before it written, as with create and store
+        assertEquals(Arrays.asList(
+                "validate store " + PREFIX + "1", "run store " + PREFIX + "1 found [Batch #1]", "return store " + PREFIX + "1",
+                "validate create " + PREFIX + "2", "run create " + PREFIX + "2 found [Changed #1]", "return create " + PREFIX + "2",
+                "validate create " + PREFIX + "3", "run create " + PREFIX + "3 found [Changed #1, Batch #2]", "return create " + PREFIX + "3"), ecaHandler.events);
+    }
+
+    /**
+     * Records the validate, run and return events of the test <code>TestingType</code>; the run events also record the
+     * descriptions of the test values found in the database when they run.
+     */
+    private static class RecordingEcaHandler implements EntityEcaHandler<String> {
+
+        private final Delegator delegator;
+        private final Map<String, List<String>> eventMap = FastMap.newInstance();
+        private final List<String> events = FastList.newInstance();
+        private final boolean recordFound;
+
+        private RecordingEcaHandler(Delegator delegator, boolean withRunRules) {
+            this.delegator = delegator;
+            this.recordFound = withRunRules;
+            eventMap.put(EV_VALIDATE, UtilMisc.toList("record"));
+            eventMap.put(EV_RETURN, UtilMisc.toList("record"));
+            if (withRunRules) {
+                eventMap.put(EV_RUN, UtilMisc.toList("record"));
+            }
+        }
+
+        public void setDelegator(Delegator delegator) {
+        }
+
+        public Map<String, List<String>> getEntityEventMap(String entityName) {
+            return "TestingType".equals(entityName) ? eventMap : null;
+        }
+
+        public void evalRules(String currentOperation, Map<String, List<String>> eventMap, String event, GenericEntity value, boolean isError) throws GenericEntityException {
+            if (eventMap == null || OP_FIND.equals(currentOperation) || !(EV_VALIDATE.equals(event) || EV_RUN.equals(event) || EV_RETURN.equals(event))) {
+                return;
+            }
+            String testingTypeId = value.getString("testingTypeId");
+            if (testingTypeId == null || !testingTypeId.startsWith(PREFIX)) {
+                return;
+            }
+            String record = event + " " + currentOperation + " " + testingTypeId;
+            if (recordFound && EV_RUN.equals(event)) {
+                List<GenericValue> found = delegator.findList("TestingType", EntityCondition.makeCondition("testingTypeId", EntityOperator.LIKE, PREFIX + "%"), null, UtilMisc.toList("testingTypeId"), null, false);
+                List<String> descriptions = FastList.newInstance();
+                for (GenericValue foundValue : found) {
+                    descriptions.add(foundValue.getString("description"));
+                }
+                record += " found " + descriptions;
+            }
+            events.add(record);
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+/* This file has been modified by Open Source Strategies, Inc. */
+package org.ofbiz.entity.test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.UtilMisc;
+import org.ofbiz.entity.Delegator;
+import org.ofbiz.entity.GenericEntity;
+import org.ofbiz.entity.GenericEntityException;
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.condition.EntityCondition;
+import org.ofbiz.entity.condition.EntityOperator;
+import org.ofbiz.entity.eca.EntityEcaHandler;
+import org.ofbiz.entity.testtools.EntityTestCase;
+import org.ofbiz.entity.transaction.TransactionUtil;
+
+/**
+ * Tests the cached finds of a thread in a transaction while another thread is loading the same value or list:
+ * the thread in the transaction must not wait for the other load, which could be blocked by its own locks.
+ * The other load is blocked by an <code>EntityEcaHandler</code> set on the delegator for the test.
+ */
+public class EntityCacheLoadTests extends EntityTestCase {
+
+    public static final String module = EntityCacheLoadTests.class.getName();
+
+    private static final String TESTING_TYPE_ID = "TEST-CACHE-LOAD";
+    private static final String LOADER_THREAD = "EntityCacheLoadTests-loader";
+
+    private EntityEcaHandler<?> originalEcaHandler;
+    private BlockingEcaHandler ecaHandler;
+
+    public EntityCacheLoadTests(String name) {
+        super(name);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        originalEcaHandler = delegator.getEntityEcaHandler();
+        delegator.removeByAnd("TestingType", UtilMisc.toMap("testingTypeId", TESTING_TYPE_ID));
+        delegator.create("TestingType", "testingTypeId", TESTING_TYPE_ID, "description", "Cache load");
+        delegator.clearCacheLine("TestingType");
+        ecaHandler = new BlockingEcaHandler();
+        delegator.setEntityEcaHandler(ecaHandler);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        ecaHandler.released.countDown();
+        delegator.setEntityEcaHandler(originalEcaHandler);
+        delegator.removeByAnd("TestingType", UtilMisc.toMap("testingTypeId", TESTING_TYPE_ID));
+        delegator.clearCacheLine("TestingType");
+    }
+
+    public void testFindOneInTransactionDoesNotWaitForLoad() throws Exception {
+        Thread loader = startLoader(new Runnable() {
+            public void run() {
+                try {
+                    delegator.findOne("TestingType", true, "testingTypeId", TESTING_TYPE_ID);
+                } catch (GenericEntityException e) {
+                    Debug.logError(e, module);
+                }
+            }
+        });
+
+        boolean beganTransaction = TransactionUtil.begin();
+        try {
+            long start = System.currentTimeMillis();
+            GenericValue value = delegator.findOne("TestingType", true, "testingTypeId", TESTING_TYPE_ID);
+            assertNotNull("Found the value in the transaction", value);
+            assertTrue("Did not wait for the blocked load", System.currentTimeMillis() - start < 10000);
+            assertTrue("The other load is still blocked", loader.isAlive());
+        } finally {
+            TransactionUtil.commit(beganTransaction);
+            ecaHandler.released.countDown();
+            loader.join(10000);
+        }
+        assertNotNull("The value is cached", delegator.findOne("TestingType", true, "testingTypeId", TESTING_TYPE_ID));
+    }
+
+    public void testFindListInTransactionDoesNotWaitForLoad() throws Exception {
+        final EntityCondition condition = EntityCondition.makeCondition("testingTypeId", EntityOperator.EQUALS, TESTING_TYPE_ID);
+        Thread loader = startLoader(new Runnable() {
+            public void run() {
+                try {
+                    delegator.findList("TestingType", condition, null, null, null, true);
+                } catch (GenericEntityException e) {
+                    Debug.logError(e, module);
+                }
+            }
+        });
+
+        boolean beganTransaction = TransactionUtil.begin();
+        try {
+            long start = System.currentTimeMillis();
+            List<GenericValue> values = delegator.findList("TestingType", condition, null, null, null, true);
+            assertEquals("Found the list in the transaction", 1, values.size());
+            assertTrue("Did not wait for the blocked load", System.currentTimeMillis() - start < 10000);
+            assertTrue("The other load is still blocked", loader.isAlive());
+        } finally {
+            TransactionUtil.commit(beganTransaction);
+            ecaHandler.released.countDown();
+            loader.join(10000);
+        }
+        assertEquals("The list is cached", 1, delegator.findList("TestingType", condition, null, null, null, true).size());
+    }
+
+    private Thread startLoader(Runnable find) throws InterruptedException {
+        Thread loader = new Thread(find, LOADER_THREAD);
+        loader.start();
+        assertTrue("The other load started", ecaHandler.blocked.await(10, TimeUnit.SECONDS));
+        return loader;
+    }
+
+    /** Blocks the cache put rules of the test <code>TestingType</code> in the loader thread until released. */
+    private static class BlockingEcaHandler implements EntityEcaHandler<String> {
+
+        private final CountDownLatch blocked = new CountDownLatch(1);
+        private final CountDownLatch released = new CountDownLatch(1);
+
+        public void setDelegator(Delegator delegator) {
+        }
+
+        public Map<String, List<String>> getEntityEventMap(String entityName) {
+            return null;
+        }
+
+        public void evalRules(String currentOperation, Map<String, List<String>> eventMap, String event, GenericEntity value, boolean isError) throws GenericEntityException {
+            if (!EV_CACHE_PUT.equals(event) || !"TestingType".equals(value.getEntityName()) || !LOADER_THREAD.equals(Thread.currentThread().getName())) {
+                return;
+            }
+            blocked.countDown();
+            try {
+                released.await(60, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
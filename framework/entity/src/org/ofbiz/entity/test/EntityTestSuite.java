@@ -25,8 +25,10 @@ import java.sql.Date;
 import java.sql.Time;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 
 import org.ofbiz.base.util.Debug;
@@ -45,6 +47,8 @@ import org.ofbiz.entity.condition.EntityExpr;
 import org.ofbiz.entity.condition.EntityOperator;
 import org.ofbiz.entity.config.DatasourceInfo;
 import org.ofbiz.entity.config.EntityConfigUtil;
+import org.ofbiz.entity.serialize.BinarySerializer;
+import org.ofbiz.entity.serialize.XmlSerializer;
 import org.ofbiz.entity.testtools.EntityTestCase;
 import org.ofbiz.entity.transaction.GenericTransactionException;
 import org.ofbiz.entity.transaction.TransactionUtil;
@@ -126,6 +130,32 @@ public class EntityTestSuite extends EntityTestCase {
         TransactionUtil.rollback(transBegin, null, null);
     }
 
+    /*
+     * Tests the binary serialization of a context holding GenericValues, and the reading of the XML serialization
+     */
+    public void testBinarySerialization() throws Exception {
+        Delegator localDelegator = DelegatorFactory.getDelegator("default");
+        List<GenericValue> values = new ArrayList<GenericValue>();
+        for (int i = 0; i < 100; i++) {
+            values.add(localDelegator.makeValue("TestingType", "testingTypeId", "TEST-BIN-" + i, "description", "Binary Testing Type #" + i));
+        }
+        Map<String, Object> context = new HashMap<String, Object>();
+        context.put("values", values);
+        context.put("primaryKey", localDelegator.makePK("TestingType", "testingTypeId", "TEST-BIN-1"));
+        context.put("amount", new BigDecimal("-1234.5600"));
+        context.put("now", UtilDateTime.nowTimestamp());
+        context.put("locale", Locale.FRANCE);
+        context.put("flag", Boolean.TRUE);
+        context.put("missing", null);
+
+        String binary = BinarySerializer.serialize(context);
+        assertTrue("Serialized content is binary", BinarySerializer.isBinary(binary));
+        String xml = XmlSerializer.serialize(context);
+        assertTrue("Binary form is smaller than the XML form", binary.length() < xml.length());
+        assertEquals("Binary form round trip", context, BinarySerializer.deserialize(binary, localDelegator));
+        assertEquals("XML form is still read", context, BinarySerializer.deserialize(xml, localDelegator));
+    }
+
     /*
      * Tests storing data with the delegator's .create method.  Also tests .findCountByCondition and .getNextSeqId
      */
@@ -417,6 +447,50 @@ public class EntityTestSuite extends EntityTestCase {
         }
     }
 
+    /*
+     * This test will read pages of unique items with an offset and limit, with a keyset and with EntityListIterator.getPartialList
+     */
+    public void testFindPage() throws Exception {
+        try {
+            List<GenericValue> newValues = new LinkedList<GenericValue>();
+            for (int i = 0; i < 25; i++) {
+                newValues.add(delegator.makeValue("Testing", "testingId", getTestId("T3-", i)));
+            }
+            delegator.storeAll(newValues);
+            EntityCondition condition = EntityCondition.makeCondition("testingId", EntityOperator.LIKE, "T3-%");
+
+            EntityFindOptions findOptions = new EntityFindOptions();
+            findOptions.setOffset(20);
+            findOptions.setLimit(10);
+            List<GenericValue> page = delegator.findList("Testing", condition, null, UtilMisc.toList("testingId"), findOptions, false);
+            assertEquals("Last page size", 5, page.size());
+            assertEquals("Last page first value", getTestId("T3-", 20), page.get(0).getString("testingId"));
+
+            findOptions = new EntityFindOptions();
+            findOptions.setLimit(10);
+            findOptions.setSeekAfter(UtilMisc.<Object>toList(getTestId("T3-", 14)));
+            page = delegator.findList("Testing", condition, null, UtilMisc.toList("-testingId"), findOptions, false);
+            assertEquals("Keyset page size", 10, page.size());
+            assertEquals("Keyset page first value", getTestId("T3-", 13), page.get(0).getString("testingId"));
+            assertEquals("Keyset page last value", getTestId("T3-", 4), page.get(9).getString("testingId"));
+
+            boolean beganTransaction = TransactionUtil.begin();
+            try {
+                EntityListIterator iterator = delegator.find("Testing", condition, null, null, UtilMisc.toList("testingId"), null);
+                page = iterator.getPartialList(11, 10);
+                assertEquals("Partial list size", 10, page.size());
+                assertEquals("Partial list first value", getTestId("T3-", 10), page.get(0).getString("testingId"));
+                assertEquals("Partial list result size", 25, iterator.getResultsSizeAfterPartialList());
+                iterator.close();
+            } finally {
+                TransactionUtil.commit(beganTransaction);
+            }
+        } finally {
+            List<GenericValue> entitiesToRemove = delegator.findList("Testing", EntityCondition.makeCondition("testingId", EntityOperator.LIKE, "T3-%"), null, null, null, false);
+            delegator.removeAll(entitiesToRemove);
+        }
+    }
+
     /*
      * This test will use the large number of unique items from above and test the EntityListIterator looping through the list
      */
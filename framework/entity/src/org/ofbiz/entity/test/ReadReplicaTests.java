@@ -0,0 +1,173 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+/* This file has been modified by Open Source Strategies, Inc. */
+package org.ofbiz.entity.test;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Map;
+
+import javolution.util.FastList;
+import javolution.util.FastMap;
+
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.condition.EntityCondition;
+import org.ofbiz.entity.condition.EntityOperator;
+import org.ofbiz.entity.config.EntityConfigUtil;
+import org.ofbiz.entity.datasource.GenericDAO;
+import org.ofbiz.entity.datasource.GenericHelperInfo;
+import org.ofbiz.entity.datasource.ReadReplicaRouter;
+import org.ofbiz.entity.jdbc.ConnectionFactory;
+import org.ofbiz.entity.model.ModelEntity;
+import org.ofbiz.entity.testtools.EntityTestCase;
+import org.ofbiz.entity.transaction.TransactionUtil;
+import org.ofbiz.entity.util.EntityFindOptions;
+
+/**
+ * Tests the routing of the finds to the read replica, with the <code>localderbyreplicatest</code> datasource of the
+ * test delegator and its <code>localderbyreplicatestreplica</code> replica.
+ * The replica is not replicated: a same <code>TestingReplica</code> is written with a different description in each
+ * database, so the description read tells which database a find used.
+ */
+public class ReadReplicaTests extends EntityTestCase {
+
+    private static final String PRIMARY = "localderbyreplicatest";
+    private static final String REPLICA = "localderbyreplicatestreplica";
+    private static final String TESTING_ID = "REPLICA-1";
+    private static final long WAIT_MILLIS = 10000;
+    private static final EntityCondition ALL = EntityCondition.makeCondition("testingReplicaId", EntityOperator.NOT_EQUAL, null);
+
+    private GenericHelperInfo replicaInfo;
+    private GenericDAO replicaDao;
+
+    public ReadReplicaTests(String name) {
+        super(name);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        ModelEntity modelEntity = delegator.getModelEntity("TestingReplica");
+        replicaInfo = new GenericHelperInfo(delegator.getEntityGroupName("TestingReplica"), REPLICA);
+        replicaDao = GenericDAO.getGenericDAO(replicaInfo);
+
+        // the replica is not checked on start, create its table here
+        Map<String, ModelEntity> modelEntities = FastMap.newInstance();
+        modelEntities.put(modelEntity.getEntityName(), modelEntity);
+        List<String> messages = FastList.newInstance();
+        replicaDao.checkDb(modelEntities, messages, true);
+
+        delegator.removeByCondition("TestingReplica", ALL);
+        replicaDao.deleteByCondition(modelEntity, ALL);
+        delegator.create("TestingReplica", "testingReplicaId", TESTING_ID, "description", "primary");
+        replicaDao.insert(delegator.makeValue("TestingReplica", "testingReplicaId", TESTING_ID, "description", "replica"));
+
+        // start the checks of the replica
+        ReadReplicaRouter.getRouter(EntityConfigUtil.getDatasourceInfo(PRIMARY));
+        waitForReplica(true);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        delegator.removeByCondition("TestingReplica", ALL);
+        delegator.clearCacheLine("TestingReplica");
+    }
+
+    public void testFindListOutsideTransactionUsesReplica() throws Exception {
+        assertEquals("Find outside of a transaction read from the replica", "replica", findDescription());
+    }
+
+    public void testFindListInTransactionUsesPrimary() throws Exception {
+        boolean beganTransaction = TransactionUtil.begin();
+        try {
+            assertEquals("Find in a transaction read from the primary", "primary", findDescription());
+        } finally {
+            TransactionUtil.commit(beganTransaction);
+        }
+    }
+
+    public void testFindByPrimaryKeyUsesPrimary() throws Exception {
+        GenericValue value = delegator.findOne("TestingReplica", false, "testingReplicaId", TESTING_ID);
+        assertEquals("Primary key find read from the primary", "primary", value.getString("description"));
+    }
+
+    public void testLaggingReplicaFallsBackToPrimary() throws Exception {
+        replicaDao.insert(delegator.makeValue("TestingReplica", "testingReplicaId", "LAG", "lagSeconds", new BigDecimal(3600)));
+        waitForReplica(false);
+        assertEquals("Find read from the primary while the replica lags", "primary", findDescription());
+
+        replicaDao.deleteByCondition(delegator.getModelEntity("TestingReplica"), EntityCondition.makeCondition("testingReplicaId", "LAG"));
+        waitForReplica(true);
+        assertEquals("Find read from the replica once it caught up", "replica", findDescription());
+    }
+
+    public void testCachedFindListUsesPrimary() throws Exception {
+        // the replica lags within its max-lag-seconds, so the finds which are not cached still read from it
+        replicaDao.insert(delegator.makeValue("TestingReplica", "testingReplicaId", "LAG", "lagSeconds", new BigDecimal(10)));
+        delegator.clearCacheLine("TestingReplica");
+        assertEquals("Find not cached read from the lagging replica", "replica", findDescription());
+
+        EntityFindOptions readOnlyOptions = new EntityFindOptions();
+        readOnlyOptions.setReadOnly(true);
+        List<GenericValue> values = delegator.findList("TestingReplica", EntityCondition.makeCondition("testingReplicaId", TESTING_ID), null, null, readOnlyOptions, true);
+        assertEquals("Cached find read from the primary", "primary", values.get(0).getString("description"));
+        values = delegator.findList("TestingReplica", EntityCondition.makeCondition("testingReplicaId", TESTING_ID), null, null, null, true);
+        assertEquals("The list read from the lagging replica was never cached", "primary", values.get(0).getString("description"));
+    }
+
+    public void testDownReplicaFallsBackToPrimary() throws Exception {
+        // the check query of the replica fails once its table is gone
+        Connection connection = ConnectionFactory.getConnection(replicaInfo);
+        try {
+            Statement statement = connection.createStatement();
+            statement.executeUpdate("DROP TABLE OFBIZ.TESTING_REPLICA");
+            statement.close();
+        } finally {
+            connection.close();
+        }
+        waitForReplica(false);
+        assertEquals("Find read from the primary while the replica is down", "primary", findDescription());
+    }
+
+    private String findDescription() throws Exception {
+        List<GenericValue> values = delegator.findList("TestingReplica", EntityCondition.makeCondition("testingReplicaId", TESTING_ID), null, null, null, false);
+        assertEquals("Found the TestingReplica", 1, values.size());
+        return values.get(0).getString("description");
+    }
+
+    private void waitForReplica(boolean usable) throws Exception {
+        long timeout = System.currentTimeMillis() + WAIT_MILLIS;
+        while (isReplicaUsable() != usable) {
+            if (System.currentTimeMillis() > timeout) {
+                fail("Replica " + REPLICA + " was not " + (usable ? "usable" : "skipped") + " after " + WAIT_MILLIS + " ms");
+            }
+            Thread.sleep(100);
+        }
+    }
+
+    private static boolean isReplicaUsable() {
+        for (Map<String, Object> statistics : ReadReplicaRouter.getStatistics()) {
+            if (PRIMARY.equals(statistics.get("datasourceName")) && REPLICA.equals(statistics.get("replicaName"))) {
+                return Boolean.TRUE.equals(statistics.get("usable"));
+            }
+        }
+        return false;
+    }
+}
@@ -20,6 +20,7 @@
 package org.ofbiz.entity.util;
 
 import java.sql.ResultSet;
+import java.util.List;
 
 /**
  * Contains a number of variables used to select certain advanced finding options.
@@ -47,6 +48,11 @@ public class EntityFindOptions implements java.io.Serializable {
     protected int fetchSize = -1;
     protected int maxRows = -1;
     protected boolean distinct = false;
+    protected boolean forUpdate = false;
+    protected int offset = 0;
+    protected int limit = -1;
+    protected List<Object> seekAfter = null;
+    protected boolean readOnly = false;
 
     /** Default constructor. Defaults are as follows:
      *      specifyTypeAndConcur = true
@@ -70,6 +76,16 @@ public class EntityFindOptions implements java.io.Serializable {
         this(specifyTypeAndConcur, resultSetType, resultSetConcurrency, -1, -1, distinct);
     }
 
+    /** Copy constructor, used to derive the options of a page find from the options of a find. */
+    public EntityFindOptions(EntityFindOptions findOptions) {
+        this(findOptions.specifyTypeAndConcur, findOptions.resultSetType, findOptions.resultSetConcurrency, findOptions.fetchSize, findOptions.maxRows, findOptions.distinct);
+        this.forUpdate = findOptions.forUpdate;
+        this.offset = findOptions.offset;
+        this.limit = findOptions.limit;
+        this.seekAfter = findOptions.seekAfter;
+        this.readOnly = findOptions.readOnly;
+    }
+
     /** If true the following two parameters (resultSetType and resultSetConcurrency) will be used to specify
      *      how the results will be used; if false the default values for the JDBC driver will be used
      */
@@ -145,4 +161,70 @@ public class EntityFindOptions implements java.io.Serializable {
     public void setDistinct(boolean distinct) {
         this.distinct = distinct;
     }
+
+    /** Specifies whether the selected rows should be locked until the end of the transaction, see the row-lock attribute of the datasource. */
+    public boolean getForUpdate() {
+        return forUpdate;
+    }
+
+    /** Specifies whether the selected rows should be locked until the end of the transaction, see the row-lock attribute of the datasource. */
+    public void setForUpdate(boolean forUpdate) {
+        this.forUpdate = forUpdate;
+    }
+
+    /** Specifies the number of rows to skip before the first row returned, 0 means none.
+     *      The rows are skipped by the database according to the offset-style attribute of the datasource,
+     *      or by moving the cursor when the datasource has no offset style.
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    /** Specifies the number of rows to skip before the first row returned, 0 means none.
+     *      The rows are skipped by the database according to the offset-style attribute of the datasource,
+     *      or by moving the cursor when the datasource has no offset style.
+     */
+    public void setOffset(int offset) {
+        this.offset = offset;
+    }
+
+    /** Specifies the max number of rows to return after the offset, -1 means all rows. */
+    public int getLimit() {
+        return limit;
+    }
+
+    /** Specifies the max number of rows to return after the offset, -1 means all rows. */
+    public void setLimit(int limit) {
+        this.limit = limit;
+    }
+
+    /** Specifies the values of the order by fields of the last row of the previous page, in the order by order;
+     *      only the rows sorting after it are returned (keyset pagination). The order by should end with the primary key
+     *      so that it is unique, and its fields should not be null. Null means no keyset.
+     */
+    public List<Object> getSeekAfter() {
+        return seekAfter;
+    }
+
+    /** Specifies the values of the order by fields of the last row of the previous page, in the order by order;
+     *      only the rows sorting after it are returned (keyset pagination). The order by should end with the primary key
+     *      so that it is unique, and its fields should not be null. Null means no keyset.
+     */
+    public void setSeekAfter(List<Object> seekAfter) {
+        this.seekAfter = seekAfter;
+    }
+
+    /** Specifies that the find only reads committed data and may be run on a read replica of the datasource,
+     *      see the read-replica element of the datasource. Ignored for the finds for update.
+     */
+    public boolean getReadOnly() {
+        return readOnly;
+    }
+
+    /** Specifies that the find only reads committed data and may be run on a read replica of the datasource,
+     *      see the read-replica element of the datasource. Ignored for the finds for update.
+     */
+    public void setReadOnly(boolean readOnly) {
+        this.readOnly = readOnly;
+    }
 }
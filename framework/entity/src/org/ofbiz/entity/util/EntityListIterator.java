@@ -36,8 +36,8 @@ import org.ofbiz.entity.GenericResultSetClosedException;
 import org.ofbiz.entity.GenericValue;
 import org.ofbiz.entity.condition.EntityCondition;
 import org.ofbiz.entity.datasource.GenericDAO;
+import org.ofbiz.entity.jdbc.RowMapper;
 import org.ofbiz.entity.jdbc.SQLProcessor;
-import org.ofbiz.entity.jdbc.SqlJdbcUtil;
 import org.ofbiz.entity.model.ModelEntity;
 import org.ofbiz.entity.model.ModelField;
 import org.ofbiz.entity.model.ModelFieldTypeReader;
@@ -63,9 +63,13 @@ public class EntityListIterator implements ListIterator<GenericValue> {
     protected EntityCondition whereCondition = null;
     protected EntityCondition havingCondition = null;
     protected boolean distinctQuery = false;
+    protected List<String> orderBy = null;
+    protected EntityFindOptions findOptions = null;
 
     private boolean haveShowHasNextWarning = false;
+    private RowMapper.Reader rowReader = null;
     private Integer resultSize = null;
+    private int skippedRows = 0;
 
     public EntityListIterator(SQLProcessor sqlp, ModelEntity modelEntity, List<ModelField> selectFields, ModelFieldTypeReader modelFieldTypeReader) {
         this(sqlp, modelEntity, selectFields, modelFieldTypeReader, null, null, null, false);
@@ -83,6 +87,16 @@ public class EntityListIterator implements ListIterator<GenericValue> {
         this.distinctQuery = distinctQuery;
     }
 
+    /**
+     * Creates the iterator of a find made by a <code>GenericDAO</code>, keeping its order by and find options so that
+     * {@link #getPartialList} can select a page with an offset and limit instead of moving the cursor to it.
+     */
+    public EntityListIterator(SQLProcessor sqlp, ModelEntity modelEntity, List<ModelField> selectFields, ModelFieldTypeReader modelFieldTypeReader, GenericDAO genericDAO, EntityCondition whereCondition, EntityCondition havingCondition, List<String> orderBy, EntityFindOptions findOptions) {
+        this(sqlp, modelEntity, selectFields, modelFieldTypeReader, genericDAO, whereCondition, havingCondition, findOptions.getDistinct());
+        this.orderBy = orderBy;
+        this.findOptions = findOptions;
+    }
+
     public EntityListIterator(ResultSet resultSet, ModelEntity modelEntity, List<ModelField> selectFields, ModelFieldTypeReader modelFieldTypeReader) {
         this.sqlp = null;
         this.resultSet = resultSet;
@@ -174,11 +188,10 @@ public class EntityListIterator implements ListIterator<GenericValue> {
 
         GenericValue value = GenericValue.create(modelEntity);
 
-        for (int j = 0; j < selectFields.size(); j++) {
-            ModelField curField = selectFields.get(j);
-
-            SqlJdbcUtil.getValue(resultSet, j + 1, curField, value, modelFieldTypeReader);
+        if (rowReader == null) {
+            rowReader = RowMapper.getRowMapper(modelEntity, selectFields, modelFieldTypeReader).getReader(resultSet);
         }
+        rowReader.read(value);
 
         value.setDelegator(this.delegator);
         value.synchronizedWithDatasource();
@@ -240,6 +253,31 @@ public class EntityListIterator implements ListIterator<GenericValue> {
         }
     }
 
+    /** Moves the cursor forward by the given number of rows without making values, used by the <code>GenericDAO</code>
+     * to skip the offset of a find on the datasources which cannot skip it in the query; the skipped rows are then
+     * before the first result, for hasNext() and getCompleteList().
+     * @return false if there were fewer rows than the given number
+     */
+    public boolean skip(int rows) throws GenericEntityException {
+        if (closed) throw new GenericResultSetClosedException("This EntityListIterator has been closed, this operation cannot be performed");
+
+        try {
+            for (int i = 0; i < rows; i++) {
+                if (!resultSet.next()) {
+                    return false;
+                }
+                skippedRows++;
+            }
+            return true;
+        } catch (SQLException e) {
+            if (!closed) {
+                this.close();
+                Debug.logWarning("Warning: auto-closed EntityListIterator because of exception: " + e.toString(), module);
+            }
+            throw new GenericEntityException("Error skipping " + rows + " rows", e);
+        }
+    }
+
     /**
      * PLEASE NOTE: Because of the nature of the JDBC ResultSet interface this method can be very inefficient; it is much better to just use next() until it returns null
      * For example, you could use the following to iterate through the results in an EntityListIterator:
@@ -263,7 +301,7 @@ public class EntityListIterator implements ListIterator<GenericValue> {
             } else {
                 // do a quick game to see if the resultSet is empty:
                 // if we are not in the first or beforeFirst positions and we haven't made any values yet, the result set is empty so return false
-                if (!haveMadeValue && !resultSet.isBeforeFirst() && !resultSet.isFirst()) {
+                if (!haveMadeValue && !resultSet.isBeforeFirst() && !resultSet.isFirst() && resultSet.getRow() != skippedRows) {
                     return false;
                 } else {
                     return true;
@@ -428,7 +466,11 @@ public class EntityListIterator implements ListIterator<GenericValue> {
             // if the resultSet has been moved forward at all, move back to the beginning
             if (haveMadeValue && !resultSet.isBeforeFirst()) {
                 // do a quick check to see if the ResultSet is empty
-                resultSet.beforeFirst();
+                if (skippedRows > 0) {
+                    resultSet.absolute(skippedRows);
+                } else {
+                    resultSet.beforeFirst();
+                }
             }
             List<GenericValue> list = FastList.newInstance();
             GenericValue nextValue = null;
@@ -454,6 +496,8 @@ public class EntityListIterator implements ListIterator<GenericValue> {
 
     /** Gets a partial list of results starting at start and containing at most number elements.
      * Start is a one based value, ie 1 is the first element.
+     * When the cursor was not used yet and the datasource supports it, the page is selected with an offset and limit
+     * instead of moving the cursor to start, which on most drivers reads all the previous rows.
      */
     public List<GenericValue> getPartialList(int start, int number) throws GenericEntityException {
         try {
@@ -463,6 +507,10 @@ public class EntityListIterator implements ListIterator<GenericValue> {
             // just in case the caller missed the 1 based thingy
             if (start == 0) start = 1;
 
+            if (start > 1 && !haveMadeValue && skippedRows == 0 && findOptions != null && genericDAO.isOffsetSupported(modelEntity, orderBy, findOptions)) {
+                return getPartialListFromDatasource(start, number);
+            }
+
             // if starting on result 1 just call next() to avoid scrollable issues in some databases
             if (start == 1) {
                 if (!resultSet.next()) {
@@ -505,6 +553,37 @@ public class EntityListIterator implements ListIterator<GenericValue> {
         }
     }
 
+    private List<GenericValue> getPartialListFromDatasource(int start, int number) throws GenericEntityException {
+        EntityFindOptions pageOptions = new EntityFindOptions(findOptions);
+        pageOptions.setResultSetType(EntityFindOptions.TYPE_FORWARD_ONLY);
+        pageOptions.setOffset(Math.max(0, findOptions.getOffset()) + start - 1);
+        int limit = number;
+        if (findOptions.getLimit() >= 0) {
+            limit = Math.min(number, findOptions.getLimit() - (start - 1));
+            if (limit <= 0) {
+                return FastList.newInstance();
+            }
+        }
+        pageOptions.setLimit(limit);
+
+        List<String> fieldsToSelect = FastList.newInstance();
+        for (ModelField field : selectFields) {
+            fieldsToSelect.add(field.getName());
+        }
+        EntityListIterator page = genericDAO.selectListIteratorByCondition(modelEntity, whereCondition, havingCondition, fieldsToSelect, orderBy, pageOptions);
+        try {
+            page.setDelegator(delegator);
+            List<GenericValue> list = FastList.newInstance();
+            GenericValue nextValue = null;
+            while (list.size() < limit && (nextValue = page.next()) != null) {
+                list.add(nextValue);
+            }
+            return list;
+        } finally {
+            page.close();
+        }
+    }
+
     public int getResultsSizeAfterPartialList() throws GenericEntityException {
         if (genericDAO != null) {
             if (resultSize == null) {
@@ -513,6 +592,13 @@ public class EntityListIterator implements ListIterator<GenericValue> {
                     efo = new EntityFindOptions();
                     efo.setDistinct(distinctQuery);
                 }
+                if (findOptions != null && findOptions.getReadOnly()) {
+                    // count on the same replica as the rows were read from
+                    if (efo == null) {
+                        efo = new EntityFindOptions();
+                    }
+                    efo.setReadOnly(true);
+                }
                 resultSize = (int) genericDAO.selectCountByCondition(modelEntity, whereCondition, havingCondition, selectFields, efo);
             }
             return resultSize;
@@ -24,10 +24,19 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.Hashtable;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.transaction.Transaction;
 
+import javolution.util.FastList;
+import javolution.util.FastMap;
+
+import org.ofbiz.base.concurrent.ExecutionPool;
 import org.ofbiz.base.util.Debug;
 import org.ofbiz.entity.GenericEntityException;
 import org.ofbiz.entity.datasource.GenericHelperInfo;
@@ -45,6 +54,9 @@ public class SequenceUtil {
 
     public static final String module = SequenceUtil.class.getName();
 
+    /** Fetches the next range of the banks in the background */
+    private static final ExecutorService refillExecutor = ExecutionPool.getExecutor("OFBiz-sequence-refill", 1);
+
     private final Map<String, SequenceBank> sequences = new Hashtable<String, SequenceBank>();
     private final GenericHelperInfo helperInfo;
     private final long bankSize;
@@ -94,6 +106,19 @@ public class SequenceUtil {
         bank.refresh(staggerMax);
     }
 
+    /**
+     * Gets the statistics of each sequence bank: the current bank size, the number of times a thread had to wait
+     * for the database because the bank was exhausted and nothing was prefetched, and the number and time of the refills.
+     * @return a List of Maps, one per sequence name
+     */
+    public List<Map<String, Object>> getBankStatistics() {
+        List<Map<String, Object>> statistics = FastList.newInstance();
+        for (SequenceBank bank: sequences.values()) {
+            statistics.add(bank.getStatistics());
+        }
+        return statistics;
+    }
+
     private SequenceBank getBank(String seqName, ModelEntity seqModelEntity) {
         SequenceBank bank = sequences.get(seqName);
 
@@ -110,6 +135,42 @@ public class SequenceUtil {
         return bank;
     }
 
+    /** A range of sequenced ids obtained from the database, ids are taken from it without locking. */
+    private static class IdRange {
+        private final AtomicLong curSeqId;
+        private final long maxSeqId;
+        private final long size;
+        private final long createdNanos = System.nanoTime();
+
+        private IdRange(long curSeqId, long maxSeqId) {
+            this.curSeqId = new AtomicLong(curSeqId);
+            this.maxSeqId = maxSeqId;
+            this.size = maxSeqId - curSeqId;
+        }
+
+        /** Takes the next id, or returns -1 if the range does not have stagger ids left. */
+        private long take(long stagger) {
+            while (true) {
+                long seqId = curSeqId.get();
+                if (seqId + stagger > maxSeqId) {
+                    return -1;
+                }
+                if (curSeqId.compareAndSet(seqId, seqId + stagger)) {
+                    return seqId;
+                }
+            }
+        }
+
+        private long remaining() {
+            return maxSeqId - curSeqId.get();
+        }
+    }
+
+    /**
+     * Sequence bank for one sequence name. Ids are taken from the current range with an atomic counter; when half of
+     * the range is used the next range is fetched in the background so that, in the normal case, a thread never waits
+     * on the database. The size of the ranges grows when they are drained quickly and shrinks back when they last long.
+     */
     private class SequenceBank {
         public static final long defaultBankSize = 10;
         public static final long maxBankSize = 5000;
@@ -117,60 +178,172 @@ public class SequenceUtil {
         public static final long minWaitMillis = 5;
         public static final long maxWaitMillis = 50;
         public static final int maxTries = 5;
+        /** Ranges drained faster than this double the bank size */
+        public static final long fastDrainMillis = 10000;
+        /** Ranges lasting longer than this halve the bank size */
+        public static final long slowDrainMillis = 300000;
 
-        private long curSeqId;
-        private long maxSeqId;
         private final String seqName;
+        private volatile IdRange current;
+        /** The prefetched next range, guarded by the bank monitor */
+        private IdRange standby = null;
+        private final AtomicBoolean refillPending = new AtomicBoolean(false);
+        private volatile long bankSize;
+
+        private final AtomicLong exhaustionStalls = new AtomicLong();
+        private final AtomicLong refillCount = new AtomicLong();
+        private final AtomicLong refillTotalNanos = new AtomicLong();
+        private final AtomicLong refillMaxNanos = new AtomicLong();
 
         private SequenceBank(String seqName) {
             this.seqName = seqName;
-            curSeqId = 0;
-            maxSeqId = 0;
-            fillBank(1);
+            this.bankSize = SequenceUtil.this.bankSize;
+            IdRange range = fillBank(this.bankSize);
+            this.current = range != null ? range : new IdRange(0, 0);
         }
 
-        private synchronized Long getNextSeqId(long staggerMax) {
+        private Long getNextSeqId(long staggerMax) {
             long stagger = 1;
             if (staggerMax > 1) {
                 stagger = Math.round(Math.random() * staggerMax);
                 if (stagger == 0) stagger = 1;
             }
 
-            if ((curSeqId + stagger) <= maxSeqId) {
-                Long retSeqId = Long.valueOf(curSeqId);
-                curSeqId += stagger;
-                return retSeqId;
-            } else {
-                fillBank(stagger);
-                if ((curSeqId + stagger) <= maxSeqId) {
-                    Long retSeqId = Long.valueOf(curSeqId);
-                    curSeqId += stagger;
-                    return retSeqId;
-                } else {
+            IdRange range = current;
+            long seqId = range.take(stagger);
+            if (seqId >= 0) {
+                scheduleRefillIfLow(range);
+                return Long.valueOf(seqId);
+            }
+            return getNextSeqIdFromNextRange(stagger);
+        }
+
+        /** Slow path, the current range is exhausted: switch to the prefetched range or fetch one and wait for it. */
+        private synchronized Long getNextSeqIdFromNextRange(long stagger) {
+            // another thread may have switched the range while this one was waiting for the monitor
+            IdRange range = current;
+            long seqId = range.take(stagger);
+            if (seqId >= 0) {
+                return Long.valueOf(seqId);
+            }
+
+            IdRange next = standby;
+            standby = null;
+            if (next == null || next.remaining() < stagger) {
+                exhaustionStalls.incrementAndGet();
+                long fillSize = this.bankSize;
+                if (stagger > 1) {
+                    // NOTE: could use staggerMax for this, but if that is done it would be easier to guess a valid next id without a brute force attack
+                    fillSize = stagger * defaultBankSize;
+                }
+                if (fillSize > maxBankSize) fillSize = maxBankSize;
+                next = fillBank(fillSize);
+                if (next == null) {
                     Debug.logError("[SequenceUtil.SequenceBank.getNextSeqId] Fill bank failed, returning null", module);
                     return null;
                 }
             }
+            adaptBankSize(range);
+            current = next;
+
+            seqId = next.take(stagger);
+            if (seqId < 0) {
+                Debug.logError("[SequenceUtil.SequenceBank.getNextSeqId] Fill bank failed, returning null", module);
+                return null;
+            }
+            scheduleRefillIfLow(next);
+            return Long.valueOf(seqId);
         }
 
-        private void refresh(long staggerMax) {
-            this.curSeqId = this.maxSeqId;
-            this.fillBank(staggerMax);
+        private void scheduleRefillIfLow(IdRange range) {
+            if (range.remaining() * 2 > range.size || range != current) {
+                return;
+            }
+            if (refillPending.compareAndSet(false, true)) {
+                try {
+                    refillExecutor.execute(new Runnable() {
+                        public void run() {
+                            try {
+                                prefetch();
+                            } finally {
+                                refillPending.set(false);
+                            }
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    refillPending.set(false);
+                    Debug.logWarning("Could not schedule the refill of sequence bank [" + seqName + "]: " + e.toString(), module);
+                }
+            }
         }
 
-        private synchronized void fillBank(long stagger) {
-            //Debug.logWarning("[SequenceUtil.SequenceBank.fillBank] Starting fillBank Thread Name is: " + Thread.currentThread().getName() + ":" + Thread.currentThread().toString(), module);
+        /** Fetches the next range while holding the monitor, so a thread exhausting the current range waits for it instead of fetching another one. */
+        private synchronized void prefetch() {
+            if (standby == null) {
+                standby = fillBank(this.bankSize);
+            }
+        }
 
-            // no need to get a new bank, SeqIds available
-            if ((curSeqId + stagger) <= maxSeqId) return;
+        /** Grows the bank size when the finished range was drained quickly, shrinks it back towards the configured size when it lasted long. */
+        private void adaptBankSize(IdRange finished) {
+            if (finished.size <= 0) {
+                return;
+            }
+            long lifetimeMillis = (System.nanoTime() - finished.createdNanos) / 1000000;
+            long newBankSize = this.bankSize;
+            if (lifetimeMillis < fastDrainMillis) {
+                newBankSize = Math.min(newBankSize * 2, maxBankSize);
+            } else if (lifetimeMillis > slowDrainMillis) {
+                newBankSize = Math.max(newBankSize / 2, SequenceUtil.this.bankSize);
+            }
+            if (newBankSize != this.bankSize) {
+                if (Debug.verboseOn()) Debug.logVerbose("Sequence bank size for [" + seqName + "] changed from " + this.bankSize + " to " + newBankSize + ", last range lasted " + lifetimeMillis + "ms", module);
+                this.bankSize = newBankSize;
+            }
+        }
 
-            long bankSize = SequenceUtil.this.bankSize;
-            if (stagger > 1) {
-                // NOTE: could use staggerMax for this, but if that is done it would be easier to guess a valid next id without a brute force attack
-                bankSize = stagger * defaultBankSize;
+        private synchronized void refresh(long staggerMax) {
+            // the prefetched range comes from the same sequence row, so it can't be trusted either
+            standby = null;
+            long fillSize = this.bankSize;
+            if (staggerMax > 1) {
+                fillSize = Math.min(staggerMax * defaultBankSize, maxBankSize);
             }
+            IdRange range = fillBank(fillSize);
+            current = range != null ? range : new IdRange(0, 0);
+        }
 
-            if (bankSize > maxBankSize) bankSize = maxBankSize;
+        private Map<String, Object> getStatistics() {
+            Map<String, Object> statistics = FastMap.newInstance();
+            IdRange range = current;
+            statistics.put("seqName", seqName);
+            statistics.put("bankSize", Long.valueOf(bankSize));
+            statistics.put("curSeqId", Long.valueOf(range.curSeqId.get()));
+            statistics.put("maxSeqId", Long.valueOf(range.maxSeqId));
+            statistics.put("exhaustionStalls", Long.valueOf(exhaustionStalls.get()));
+            long refills = refillCount.get();
+            statistics.put("refillCount", Long.valueOf(refills));
+            statistics.put("refillAvgMillis", Double.valueOf(refills > 0 ? refillTotalNanos.get() / 1000000.0 / refills : 0));
+            statistics.put("refillMaxMillis", Double.valueOf(refillMaxNanos.get() / 1000000.0));
+            return statistics;
+        }
+
+        /** Gets a new range of ids of the given size from the database, or null if it could not be obtained. */
+        private IdRange fillBank(long bankSize) {
+            long startNanos = System.nanoTime();
+            IdRange range = fetchRange(bankSize);
+            long elapsedNanos = System.nanoTime() - startNanos;
+            refillCount.incrementAndGet();
+            refillTotalNanos.addAndGet(elapsedNanos);
+            long maxNanos = refillMaxNanos.get();
+            while (elapsedNanos > maxNanos && !refillMaxNanos.compareAndSet(maxNanos, elapsedNanos)) {
+                maxNanos = refillMaxNanos.get();
+            }
+            return range;
+        }
+
+        private IdRange fetchRange(long bankSize) {
+            //Debug.logWarning("[SequenceUtil.SequenceBank.fillBank] Starting fillBank Thread Name is: " + Thread.currentThread().getName() + ":" + Thread.currentThread().toString(), module);
 
             long val1 = 0;
             long val2 = 0;
@@ -313,7 +486,7 @@ public class SequenceUtil {
                     if (numTries >= maxTries) {
                         String errMsg = "[SequenceUtil.SequenceBank.fillBank] maxTries (" + maxTries + ") reached for seqName [" + this.seqName + "], giving up.";
                         Debug.logError(errMsg, module);
-                        return;
+                        return null;
                     }
 
                     // collision happened, wait a bounded random amount of time then continue
@@ -326,17 +499,18 @@ public class SequenceUtil {
                         java.lang.Thread.sleep(waitTime);
                     } catch (Exception e) {
                         Debug.logWarning(e, "Error waiting in sequence util", module);
-                        return;
+                        return null;
                     }
                 }
 
                 numTries++;
             }
 
-            curSeqId = val1;
-            maxSeqId = val2;
-            if (Debug.infoOn()) Debug.logInfo("Got bank of sequenced IDs for [" + this.seqName + "]; curSeqId=" + curSeqId + ", maxSeqId=" + maxSeqId + ", bankSize=" + bankSize, module);
-            //Debug.logWarning("[SequenceUtil.SequenceBank.fillBank] Ending fillBank Thread Name is: " + Thread.currentThread().getName() + ":" + Thread.currentThread().toString(), module);
+            if (val1 + bankSize != val2) {
+                return null;
+            }
+            if (Debug.infoOn()) Debug.logInfo("Got bank of sequenced IDs for [" + this.seqName + "]; curSeqId=" + val1 + ", maxSeqId=" + val2 + ", bankSize=" + bankSize, module);
+            return new IdRange(val1, val2);
         }
     }
 }
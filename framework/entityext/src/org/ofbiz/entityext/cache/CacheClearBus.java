@@ -0,0 +1,395 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+/* This file has been modified by Open Source Strategies, Inc. */
+package org.ofbiz.entityext.cache;
+
+import java.io.IOException;
+import java.security.SecureRandom;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.SystemException;
+import javax.transaction.Transaction;
+import javax.transaction.TransactionManager;
+
+import javolution.util.FastList;
+import javolution.util.FastMap;
+
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.UtilProperties;
+import org.ofbiz.base.util.UtilValidate;
+import org.ofbiz.entity.Delegator;
+import org.ofbiz.entity.DelegatorFactory;
+import org.ofbiz.entity.transaction.GenericTransactionException;
+import org.ofbiz.entity.transaction.TransactionFactory;
+import org.ofbiz.entity.transaction.TransactionUtil;
+
+/**
+ * Collects the distributed cache clears of the delegators and sends them to the other servers in batches.
+ * <p>
+ * The clears made in a transaction are kept until it commits, and dropped if it rolls back since the other servers
+ * caches are then still valid. The committed clears are coalesced per delegator and sent by a background thread every
+ * <code>cache.clear.windowMillis</code>, or as soon as <code>cache.clear.maxBatchSize</code> clears are waiting, as
+ * binary <code>CacheClearFrame</code>s. The frames are carried by the <code>CacheClearTransport</code> configured with
+ * <code>cache.clear.transport</code> in <code>entitycacheclear.properties</code>.
+ */
+public final class CacheClearBus {
+
+    public static final String module = CacheClearBus.class.getName();
+    public static final String CONFIG = "entitycacheclear";
+
+    /** Identifies the frames sent by this server, which are ignored when they come back. */
+    private static final long nodeId = new SecureRandom().nextLong();
+
+    private static final Object instanceLock = new Object();
+    private static volatile CacheClearBus instance = null;
+    private static volatile boolean initialized = false;
+
+    private final CacheClearTransport transport;
+    private final ConcurrentMap<String, EntityCacheServices> senders = new ConcurrentHashMap<String, EntityCacheServices>();
+    private final ConcurrentMap<Transaction, TransactionClears> transactionClears = new ConcurrentHashMap<Transaction, TransactionClears>();
+
+    private final Object flushLock = new Object();
+    private Map<String, Set<CacheClearFrame.Clear>> pending = FastMap.newInstance();
+    private int pendingCount = 0;
+    private final Thread sender;
+
+    private final AtomicLong clears = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong rolledBack = new AtomicLong();
+    private final AtomicLong framesSent = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicLong sendErrors = new AtomicLong();
+    private final AtomicLong framesReceived = new AtomicLong();
+    private final AtomicLong clearsReceived = new AtomicLong();
+
+    /**
+     * Creates a bus sending its frames with the given transport, which is started.
+     * @param transport the <code>CacheClearTransport</code> to use
+     * @throws IOException if the transport could not be started
+     */
+    public CacheClearBus(CacheClearTransport transport) throws IOException {
+        this.transport = transport;
+        transport.start(this);
+        sender = new Thread(new Runnable() {
+            public void run() {
+                while (true) {
+                    LockSupport.parkNanos(getWindowMillis() * 1000000L);
+                    try {
+                        flush();
+                    } catch (Throwable t) {
+                        Debug.logError(t, "Error sending the distributed cache clears", module);
+                    }
+                }
+            }
+        }, "CacheClearBus");
+        sender.setDaemon(true);
+        sender.start();
+    }
+
+    /**
+     * Gets the bus configured in <code>entitycacheclear.properties</code>.
+     * @return the <code>CacheClearBus</code>, or null when the clears are sent one by one with the distributed cache clear services
+     */
+    public static CacheClearBus getInstance() {
+        if (!initialized) {
+            synchronized (instanceLock) {
+                if (!initialized) {
+                    instance = createInstance();
+                    initialized = true;
+                }
+            }
+        }
+        return instance;
+    }
+
+    private static CacheClearBus createInstance() {
+        String transportName = UtilProperties.getPropertyValue(CONFIG, "cache.clear.transport", "service");
+        CacheClearTransport transport = null;
+        if (UtilValidate.isEmpty(transportName) || "none".equals(transportName)) {
+            return null;
+        } else if ("service".equals(transportName)) {
+            transport = new ServiceCacheClearTransport();
+        } else if ("tcp".equals(transportName)) {
+            transport = new TcpCacheClearTransport();
+        } else {
+            try {
+                ClassLoader loader = Thread.currentThread().getContextClassLoader();
+                transport = (CacheClearTransport) loader.loadClass(transportName).newInstance();
+            } catch (Exception e) {
+                Debug.logError(e, "Could not create the cache clear transport [" + transportName + "], the distributed cache clears will be sent one by one", module);
+                return null;
+            }
+        }
+        try {
+            CacheClearBus bus = new CacheClearBus(transport);
+            Debug.logInfo("Distributed cache clears are sent in batches with the [" + transportName + "] transport", module);
+            return bus;
+        } catch (IOException e) {
+            Debug.logError(e, "Could not start the cache clear transport [" + transportName + "], the distributed cache clears will be sent one by one", module);
+            return null;
+        }
+    }
+
+    private static long getWindowMillis() {
+        return Math.max(10, (long) UtilProperties.getPropertyNumber(CONFIG, "cache.clear.windowMillis", 200));
+    }
+
+    private static int getMaxBatchSize() {
+        return Math.max(1, (int) UtilProperties.getPropertyNumber(CONFIG, "cache.clear.maxBatchSize", 1000));
+    }
+
+    /**
+     * Registers the distributed cache clear of a delegator, used by the transports which send through the services of the delegator.
+     * @param cacheServices the <code>EntityCacheServices</code> of the delegator
+     */
+    public void register(EntityCacheServices cacheServices) {
+        senders.put(cacheServices.delegator.getDelegatorName(), cacheServices);
+    }
+
+    /**
+     * Gets the distributed cache clear registered for a delegator.
+     * @param delegatorName the name of the delegator
+     * @return the <code>EntityCacheServices</code> of the delegator, or null if none was registered
+     */
+    public EntityCacheServices getSender(String delegatorName) {
+        return senders.get(delegatorName);
+    }
+
+    /**
+     * Adds a cache clear to send to the other servers, once the current transaction if any has committed.
+     * @param delegatorName the name of the delegator which caches are cleared
+     * @param clear the cache clear
+     */
+    public void add(String delegatorName, CacheClearFrame.Clear clear) {
+        clears.incrementAndGet();
+        Transaction transaction = getActiveTransaction();
+        if (transaction != null) {
+            TransactionClears txClears = transactionClears.get(transaction);
+            if (txClears == null) {
+                txClears = new TransactionClears(transaction);
+                try {
+                    TransactionUtil.registerSynchronization(txClears);
+                    transactionClears.put(transaction, txClears);
+                } catch (GenericTransactionException e) {
+                    Debug.logWarning(e, "Could not wait for the transaction to commit, sending the cache clear now", module);
+                    txClears = null;
+                }
+            }
+            if (txClears != null) {
+                txClears.add(delegatorName, clear);
+                return;
+            }
+        }
+        List<CacheClearFrame.Clear> single = FastList.newInstance();
+        single.add(clear);
+        enqueue(delegatorName, single);
+    }
+
+    private static Transaction getActiveTransaction() {
+        try {
+            TransactionManager tm = TransactionFactory.getTransactionManager();
+            if (tm != null && tm.getStatus() == Status.STATUS_ACTIVE) {
+                return tm.getTransaction();
+            }
+        } catch (SystemException e) {
+            Debug.logWarning(e, "Could not get the current transaction", module);
+        }
+        return null;
+    }
+
+    private void enqueue(String delegatorName, Iterable<CacheClearFrame.Clear> newClears) {
+        boolean full;
+        synchronized (flushLock) {
+            Set<CacheClearFrame.Clear> delegatorClears = pending.get(delegatorName);
+            if (delegatorClears == null) {
+                delegatorClears = new LinkedHashSet<CacheClearFrame.Clear>();
+                pending.put(delegatorName, delegatorClears);
+            }
+            for (CacheClearFrame.Clear clear : newClears) {
+                if (delegatorClears.add(clear)) {
+                    pendingCount++;
+                } else {
+                    coalesced.incrementAndGet();
+                }
+            }
+            full = pendingCount >= getMaxBatchSize();
+        }
+        if (full) {
+            LockSupport.unpark(sender);
+        }
+    }
+
+    /**
+     * Sends all the waiting cache clears, in frames of at most <code>cache.clear.maxBatchSize</code> clears.
+     */
+    public void flush() {
+        Map<String, Set<CacheClearFrame.Clear>> toSend;
+        synchronized (flushLock) {
+            if (pendingCount == 0) {
+                return;
+            }
+            toSend = pending;
+            pending = FastMap.newInstance();
+            pendingCount = 0;
+        }
+        int maxBatchSize = getMaxBatchSize();
+        for (Map.Entry<String, Set<CacheClearFrame.Clear>> entry : toSend.entrySet()) {
+            Set<CacheClearFrame.Clear> delegatorClears = entry.getValue();
+            // clearing all the caches makes the other clears of the batch useless
+            for (CacheClearFrame.Clear clear : delegatorClears) {
+                if (clear.getType() == CacheClearFrame.CLEAR_ALL) {
+                    coalesced.addAndGet(delegatorClears.size() - 1);
+                    delegatorClears = new LinkedHashSet<CacheClearFrame.Clear>();
+                    delegatorClears.add(clear);
+                    break;
+                }
+            }
+            List<CacheClearFrame.Clear> batch = FastList.newInstance();
+            Iterator<CacheClearFrame.Clear> it = delegatorClears.iterator();
+            while (it.hasNext()) {
+                batch.add(it.next());
+                if (batch.size() == maxBatchSize || !it.hasNext()) {
+                    send(entry.getKey(), batch);
+                    batch.clear();
+                }
+            }
+        }
+    }
+
+    private void send(String delegatorName, List<CacheClearFrame.Clear> batch) {
+        try {
+            byte[] frame = CacheClearFrame.encode(nodeId, delegatorName, batch);
+            transport.send(delegatorName, frame);
+            framesSent.incrementAndGet();
+            bytesSent.addAndGet(frame.length);
+            if (Debug.verboseOn()) Debug.logVerbose("Sent " + batch.size() + " cache clears of delegator [" + delegatorName + "] in " + frame.length + " bytes", module);
+        } catch (IOException e) {
+            sendErrors.incrementAndGet();
+            Debug.logError(e, "Could not send " + batch.size() + " cache clears of delegator [" + delegatorName + "]", module);
+        }
+    }
+
+    /**
+     * Clears the cache lines of a frame received from another server; the frames sent by this server are ignored.
+     * @param frame the frame bytes
+     * @throws IOException if the bytes are not a valid frame
+     */
+    public void receive(byte[] frame) throws IOException {
+        CacheClearFrame decoded = CacheClearFrame.decode(frame);
+        if (decoded.getSenderId() == nodeId) {
+            return;
+        }
+        framesReceived.incrementAndGet();
+        clearsReceived.addAndGet(decoded.getClears().size());
+        apply(decoded);
+    }
+
+    /**
+     * Clears the cache lines of a frame in the delegator it names.
+     * @param frame a <code>CacheClearFrame</code> value
+     */
+    public static void apply(CacheClearFrame frame) {
+        Delegator delegator = DelegatorFactory.getDelegator(frame.getDelegatorName());
+        if (delegator == null) {
+            Debug.logWarning("Delegator [" + frame.getDelegatorName() + "] not found, ignoring " + frame.getClears().size() + " cache clears", module);
+            return;
+        }
+        if (Debug.verboseOn()) Debug.logVerbose("Clearing " + frame.getClears().size() + " cache lines of delegator [" + frame.getDelegatorName() + "]", module);
+        frame.apply(delegator);
+    }
+
+    /**
+     * Stops the transport; the waiting clears are sent first.
+     */
+    public void stop() {
+        flush();
+        transport.stop();
+    }
+
+    /**
+     * Gets the counters of the bus.
+     * @return a <code>Map</code> with the number of clears added, coalesced and dropped on rollback, the number of frames
+     *  and bytes sent, the send errors, and the number of frames and clears received
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> statistics = FastMap.newInstance();
+        statistics.put("clears", clears.get());
+        statistics.put("coalesced", coalesced.get());
+        statistics.put("rolledBack", rolledBack.get());
+        statistics.put("framesSent", framesSent.get());
+        statistics.put("bytesSent", bytesSent.get());
+        statistics.put("sendErrors", sendErrors.get());
+        statistics.put("framesReceived", framesReceived.get());
+        statistics.put("clearsReceived", clearsReceived.get());
+        synchronized (flushLock) {
+            statistics.put("pending", pendingCount);
+        }
+        return statistics;
+    }
+
+    /**
+     * The clears made in a transaction, queued when it commits.
+     */
+    private final class TransactionClears implements Synchronization {
+
+        private final Transaction transaction;
+        private final Map<String, Set<CacheClearFrame.Clear>> clearsByDelegator = FastMap.newInstance();
+
+        private TransactionClears(Transaction transaction) {
+            this.transaction = transaction;
+        }
+
+        private synchronized void add(String delegatorName, CacheClearFrame.Clear clear) {
+            Set<CacheClearFrame.Clear> delegatorClears = clearsByDelegator.get(delegatorName);
+            if (delegatorClears == null) {
+                delegatorClears = new LinkedHashSet<CacheClearFrame.Clear>();
+                clearsByDelegator.put(delegatorName, delegatorClears);
+            }
+            if (!delegatorClears.add(clear)) {
+                coalesced.incrementAndGet();
+            }
+        }
+
+        public void beforeCompletion() {
+        }
+
+        public void afterCompletion(int status) {
+            transactionClears.remove(transaction);
+            synchronized (this) {
+                for (Map.Entry<String, Set<CacheClearFrame.Clear>> entry : clearsByDelegator.entrySet()) {
+                    if (status == Status.STATUS_COMMITTED) {
+                        enqueue(entry.getKey(), entry.getValue());
+                    } else {
+                        rolledBack.addAndGet(entry.getValue().size());
+                    }
+                }
+            }
+        }
+    }
+}
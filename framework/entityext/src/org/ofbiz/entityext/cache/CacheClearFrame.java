@@ -0,0 +1,710 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+/* This file has been modified by Open Source Strategies, Inc. */
+package org.ofbiz.entityext.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javolution.util.FastList;
+import javolution.util.FastMap;
+import javolution.util.FastSet;
+
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.entity.Delegator;
+import org.ofbiz.entity.GenericEntity;
+import org.ofbiz.entity.GenericPK;
+import org.ofbiz.entity.condition.EntityComparisonOperator;
+import org.ofbiz.entity.condition.EntityCondition;
+import org.ofbiz.entity.condition.EntityConditionList;
+import org.ofbiz.entity.condition.EntityExpr;
+import org.ofbiz.entity.condition.EntityFieldMap;
+import org.ofbiz.entity.condition.EntityFieldValue;
+import org.ofbiz.entity.condition.EntityJoinOperator;
+import org.ofbiz.entity.condition.EntityOperator;
+import org.ofbiz.entity.condition.EntityWhereString;
+
+/**
+ * A batch of cache clears of a delegator, in the binary form sent to the other servers by the <code>CacheClearBus</code>.
+ * <p>
+ * Only the entity name and the fields of the values and primary keys are written, each field value with a one byte type
+ * tag followed by its raw form. The conditions are written as a tree of expressions, lists and field maps over the same
+ * typed values. Nothing is deserialized as a Java object: a frame with an unknown tag is rejected, and a clear which
+ * cannot be written this way, such as a value with an object field or a condition using a function, is sent as the
+ * clear of all the cache lines of its entity instead.
+ */
+public final class CacheClearFrame {
+
+    public static final String module = CacheClearFrame.class.getName();
+
+    private static final int MAGIC = 0x43434632; // CCF2
+
+    /** Conditions nested deeper than this are rejected, to protect against a frame which is not from a peer. */
+    private static final int MAX_CONDITION_DEPTH = 64;
+
+    public static final byte CLEAR_ALL = 0;
+    public static final byte CLEAR_VALUE = 1;
+    public static final byte CLEAR_DUMMY_PK = 2;
+    public static final byte CLEAR_PRIMARY_KEY = 3;
+    public static final byte CLEAR_CONDITION = 4;
+    public static final byte CLEAR_ENTITY = 5;
+
+    private static final byte TYPE_NULL = 0;
+    private static final byte TYPE_STRING = 1;
+    private static final byte TYPE_LONG = 2;
+    private static final byte TYPE_INTEGER = 3;
+    private static final byte TYPE_BIG_DECIMAL = 4;
+    private static final byte TYPE_DOUBLE = 5;
+    private static final byte TYPE_FLOAT = 6;
+    private static final byte TYPE_TIMESTAMP = 7;
+    private static final byte TYPE_DATE = 8;
+    private static final byte TYPE_TIME = 9;
+    private static final byte TYPE_BOOLEAN = 10;
+    private static final byte TYPE_BYTES = 11;
+
+    private static final byte CONDITION_NULL = 0;
+    private static final byte CONDITION_EXPR = 1;
+    private static final byte CONDITION_LIST = 2;
+    private static final byte CONDITION_FIELD_MAP = 3;
+    private static final byte CONDITION_WHERE = 4;
+
+    private static final byte OPERAND_VALUE = 0;
+    private static final byte OPERAND_FIELD = 1;
+    private static final byte OPERAND_CONDITION = 2;
+    private static final byte OPERAND_LIST = 3;
+    private static final byte OPERAND_SET = 4;
+
+    private static final Map<Integer, EntityOperator<?, ?, ?>> operators = FastMap.newInstance();
+    static {
+        EntityOperator<?, ?, ?>[] known = {EntityOperator.EQUALS, EntityOperator.NOT_EQUAL, EntityOperator.LESS_THAN, EntityOperator.GREATER_THAN,
+                EntityOperator.LESS_THAN_EQUAL_TO, EntityOperator.GREATER_THAN_EQUAL_TO, EntityOperator.IN, EntityOperator.BETWEEN, EntityOperator.NOT,
+                EntityOperator.AND, EntityOperator.OR, EntityOperator.LIKE, EntityOperator.NOT_LIKE, EntityOperator.NOT_IN};
+        for (EntityOperator<?, ?, ?> operator : known) {
+            operators.put(operator.getId(), operator);
+        }
+    }
+
+    private final long senderId;
+    private final String delegatorName;
+    private final List<Clear> clears;
+
+    private CacheClearFrame(long senderId, String delegatorName, List<Clear> clears) {
+        this.senderId = senderId;
+        this.delegatorName = delegatorName;
+        this.clears = clears;
+    }
+
+    /** Gets the id of the server which sent the frame. */
+    public long getSenderId() {
+        return senderId;
+    }
+
+    /** Gets the name of the delegator which caches are cleared. */
+    public String getDelegatorName() {
+        return delegatorName;
+    }
+
+    /** Gets the cache clears of the frame. */
+    public List<Clear> getClears() {
+        return clears;
+    }
+
+    /**
+     * Clears the cache lines of the frame in the given delegator, without distributing them again.
+     * @param delegator the delegator to clear, which should be the one named in the frame
+     */
+    public void apply(Delegator delegator) {
+        for (Clear clear : clears) {
+            clear.apply(delegator);
+        }
+    }
+
+    /**
+     * Writes a batch of cache clears.
+     * @param senderId the id of the sending server
+     * @param delegatorName the name of the delegator which caches are cleared
+     * @param clears the cache clears to write
+     * @return the frame bytes
+     * @throws IOException if a value could not be written
+     */
+    public static byte[] encode(long senderId, String delegatorName, Collection<Clear> clears) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + clears.size() * 48);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeLong(senderId);
+        out.writeUTF(delegatorName);
+        out.writeInt(clears.size());
+        for (Clear clear : clears) {
+            out.writeByte(clear.type);
+            if (clear.type == CLEAR_ALL) {
+                continue;
+            }
+            out.writeUTF(clear.entityName);
+            if (clear.type == CLEAR_ENTITY) {
+                continue;
+            } else if (clear.type == CLEAR_CONDITION) {
+                writeCondition(out, clear.condition);
+            } else {
+                out.writeShort(clear.fields.size());
+                for (Map.Entry<String, Object> field : clear.fields.entrySet()) {
+                    out.writeUTF(field.getKey());
+                    writeValue(out, field.getValue());
+                }
+            }
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Reads a batch of cache clears.
+     * @param frame the frame bytes, as written by {@link #encode}
+     * @return a <code>CacheClearFrame</code> value
+     * @throws IOException if the bytes are not a valid frame
+     */
+    public static CacheClearFrame decode(byte[] frame) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(frame));
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a cache clear frame");
+        }
+        long senderId = in.readLong();
+        String delegatorName = in.readUTF();
+        int count = in.readInt();
+        List<Clear> clears = FastList.newInstance();
+        for (int i = 0; i < count; i++) {
+            byte type = in.readByte();
+            if (type == CLEAR_ALL) {
+                clears.add(new Clear(type, null, null, null));
+            } else if (type == CLEAR_ENTITY) {
+                clears.add(new Clear(type, in.readUTF(), null, null));
+            } else if (type == CLEAR_CONDITION) {
+                String entityName = in.readUTF();
+                clears.add(new Clear(type, entityName, null, readCondition(in, 0)));
+            } else if (type == CLEAR_VALUE || type == CLEAR_DUMMY_PK || type == CLEAR_PRIMARY_KEY) {
+                String entityName = in.readUTF();
+                int fieldCount = in.readUnsignedShort();
+                Map<String, Object> fields = FastMap.newInstance();
+                for (int j = 0; j < fieldCount; j++) {
+                    String name = in.readUTF();
+                    fields.put(name, readValue(in));
+                }
+                clears.add(new Clear(type, entityName, fields, null));
+            } else {
+                throw new IOException("Unknown cache clear type " + type);
+            }
+        }
+        return new CacheClearFrame(senderId, delegatorName, clears);
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(value.length);
+            out.write(value);
+        }
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > in.available()) {
+            throw new IOException("Invalid byte array length " + length);
+        }
+        byte[] value = new byte[length];
+        in.readFully(value);
+        return value;
+    }
+
+    private static void writeValue(DataOutputStream out, Object value) throws IOException {
+        if (value == null || value == GenericEntity.NULL_FIELD) {
+            out.writeByte(TYPE_NULL);
+        } else if (value instanceof String) {
+            out.writeByte(TYPE_STRING);
+            out.writeUTF((String) value);
+        } else if (value instanceof Long) {
+            out.writeByte(TYPE_LONG);
+            out.writeLong((Long) value);
+        } else if (value instanceof Integer) {
+            out.writeByte(TYPE_INTEGER);
+            out.writeInt((Integer) value);
+        } else if (value instanceof BigDecimal) {
+            out.writeByte(TYPE_BIG_DECIMAL);
+            out.writeUTF(value.toString());
+        } else if (value instanceof Double) {
+            out.writeByte(TYPE_DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (value instanceof Float) {
+            out.writeByte(TYPE_FLOAT);
+            out.writeFloat((Float) value);
+        } else if (value instanceof Timestamp) {
+            out.writeByte(TYPE_TIMESTAMP);
+            out.writeLong(((Timestamp) value).getTime());
+            out.writeInt(((Timestamp) value).getNanos());
+        } else if (value instanceof java.sql.Date) {
+            out.writeByte(TYPE_DATE);
+            out.writeLong(((java.sql.Date) value).getTime());
+        } else if (value instanceof Time) {
+            out.writeByte(TYPE_TIME);
+            out.writeLong(((Time) value).getTime());
+        } else if (value instanceof Boolean) {
+            out.writeByte(TYPE_BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof byte[]) {
+            out.writeByte(TYPE_BYTES);
+            writeBytes(out, (byte[]) value);
+        } else {
+            throw new IOException("Cannot write a field value of type " + value.getClass().getName());
+        }
+    }
+
+    /** Checks if a field value is of one of the types written by <code>writeValue</code>. */
+    private static boolean isValueWritable(Object value) {
+        return value == null || value == GenericEntity.NULL_FIELD || value instanceof String || value instanceof Long || value instanceof Integer
+            || value instanceof BigDecimal || value instanceof Double || value instanceof Float || value instanceof Timestamp
+            || value instanceof java.sql.Date || value instanceof Time || value instanceof Boolean || value instanceof byte[];
+    }
+
+    private static Object readValue(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+        case TYPE_NULL:
+            return null;
+        case TYPE_STRING:
+            return in.readUTF();
+        case TYPE_LONG:
+            return in.readLong();
+        case TYPE_INTEGER:
+            return in.readInt();
+        case TYPE_BIG_DECIMAL:
+            return new BigDecimal(in.readUTF());
+        case TYPE_DOUBLE:
+            return in.readDouble();
+        case TYPE_FLOAT:
+            return in.readFloat();
+        case TYPE_TIMESTAMP:
+            Timestamp timestamp = new Timestamp(in.readLong());
+            timestamp.setNanos(in.readInt());
+            return timestamp;
+        case TYPE_DATE:
+            return new java.sql.Date(in.readLong());
+        case TYPE_TIME:
+            return new Time(in.readLong());
+        case TYPE_BOOLEAN:
+            return in.readBoolean();
+        case TYPE_BYTES:
+            return readBytes(in);
+        default:
+            throw new IOException("Unknown field value type " + type);
+        }
+    }
+
+    /**
+     * Checks if a condition can be written by <code>writeCondition</code>: expressions on plain fields, lists and field maps
+     * of them, and where strings.
+     */
+    private static boolean isConditionWritable(EntityCondition condition, int depth) {
+        if (depth > MAX_CONDITION_DEPTH) {
+            return false;
+        }
+        if (condition == null || condition instanceof EntityWhereString) {
+            return true;
+        } else if (condition instanceof EntityFieldMap) {
+            Iterator<Map.Entry<String, Object>> fieldIter = ((EntityFieldMap) condition).getFieldEntryIterator();
+            while (fieldIter.hasNext()) {
+                if (!isValueWritable(fieldIter.next().getValue())) {
+                    return false;
+                }
+            }
+            return true;
+        } else if (condition instanceof EntityConditionList) {
+            Iterator<? extends EntityCondition> conditionIter = ((EntityConditionList<?>) condition).getConditionIterator();
+            while (conditionIter.hasNext()) {
+                if (!isConditionWritable(conditionIter.next(), depth + 1)) {
+                    return false;
+                }
+            }
+            return operators.containsKey(((EntityConditionList<?>) condition).getOperator().getId());
+        } else if (condition instanceof EntityExpr) {
+            EntityExpr expr = (EntityExpr) condition;
+            return operators.containsKey(expr.getOperator().getId()) && isOperandWritable(expr.getLhs(), depth) && isOperandWritable(expr.getRhs(), depth);
+        }
+        return false;
+    }
+
+    private static boolean isOperandWritable(Object operand, int depth) {
+        if (operand instanceof EntityFieldValue) {
+            // only a plain field, not an aliased field of a view
+            EntityFieldValue field = (EntityFieldValue) operand;
+            return field.equals(EntityFieldValue.makeFieldValue(field.getFieldName()));
+        } else if (operand instanceof EntityCondition) {
+            return isConditionWritable((EntityCondition) operand, depth + 1);
+        } else if (operand instanceof List || operand instanceof Set) {
+            for (Object value : (Collection<?>) operand) {
+                if (!isValueWritable(value)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return isValueWritable(operand);
+    }
+
+    private static void writeCondition(DataOutputStream out, EntityCondition condition) throws IOException {
+        if (condition == null) {
+            out.writeByte(CONDITION_NULL);
+        } else if (condition instanceof EntityWhereString) {
+            out.writeByte(CONDITION_WHERE);
+            out.writeUTF(((EntityWhereString) condition).getWhereString());
+        } else if (condition instanceof EntityFieldMap) {
+            // written as its fields and operators, so it is read back as a field map which equals the original
+            EntityFieldMap fieldMap = (EntityFieldMap) condition;
+            Map<String, Object> fields = FastMap.newInstance();
+            Iterator<Map.Entry<String, Object>> fieldIter = fieldMap.getFieldEntryIterator();
+            while (fieldIter.hasNext()) {
+                Map.Entry<String, Object> field = fieldIter.next();
+                fields.put(field.getKey(), field.getValue());
+            }
+            EntityOperator<?, ?, ?> compOp = fields.isEmpty() ? EntityOperator.EQUALS : fieldMap.getCondition(0).getOperator();
+            out.writeByte(CONDITION_FIELD_MAP);
+            out.writeByte(compOp.getId());
+            out.writeByte(fieldMap.getOperator().getId());
+            out.writeShort(fields.size());
+            for (Map.Entry<String, Object> field : fields.entrySet()) {
+                out.writeUTF(field.getKey());
+                writeValue(out, field.getValue());
+            }
+        } else if (condition instanceof EntityConditionList) {
+            EntityConditionList<?> list = (EntityConditionList<?>) condition;
+            out.writeByte(CONDITION_LIST);
+            out.writeByte(list.getOperator().getId());
+            out.writeShort(list.getConditionListSize());
+            Iterator<? extends EntityCondition> conditionIter = list.getConditionIterator();
+            while (conditionIter.hasNext()) {
+                writeCondition(out, conditionIter.next());
+            }
+        } else if (condition instanceof EntityExpr) {
+            EntityExpr expr = (EntityExpr) condition;
+            out.writeByte(CONDITION_EXPR);
+            writeOperand(out, expr.getLhs());
+            out.writeByte(expr.getOperator().getId());
+            writeOperand(out, expr.getRhs());
+        } else {
+            throw new IOException("Cannot write a condition of type " + condition.getClass().getName());
+        }
+    }
+
+    private static void writeOperand(DataOutputStream out, Object operand) throws IOException {
+        if (operand instanceof EntityFieldValue) {
+            out.writeByte(OPERAND_FIELD);
+            out.writeUTF(((EntityFieldValue) operand).getFieldName());
+        } else if (operand instanceof EntityCondition) {
+            out.writeByte(OPERAND_CONDITION);
+            writeCondition(out, (EntityCondition) operand);
+        } else if (operand instanceof List || operand instanceof Set) {
+            // keep the kind of collection, a list is never equal to a set
+            Collection<?> values = (Collection<?>) operand;
+            out.writeByte(operand instanceof List ? OPERAND_LIST : OPERAND_SET);
+            out.writeInt(values.size());
+            for (Object value : values) {
+                writeValue(out, value);
+            }
+        } else {
+            out.writeByte(OPERAND_VALUE);
+            writeValue(out, operand);
+        }
+    }
+
+    private static EntityCondition readCondition(DataInputStream in, int depth) throws IOException {
+        if (depth > MAX_CONDITION_DEPTH) {
+            throw new IOException("Condition nested too deeply");
+        }
+        byte type = in.readByte();
+        switch (type) {
+        case CONDITION_NULL:
+            return null;
+        case CONDITION_WHERE:
+            return EntityCondition.makeConditionWhere(in.readUTF());
+        case CONDITION_FIELD_MAP:
+            EntityComparisonOperator<?, ?> compOp = readComparisonOperator(in);
+            EntityJoinOperator joinOp = readJoinOperator(in);
+            int fieldCount = in.readUnsignedShort();
+            Map<String, Object> fields = FastMap.newInstance();
+            for (int i = 0; i < fieldCount; i++) {
+                String name = in.readUTF();
+                fields.put(name, readValue(in));
+            }
+            return EntityCondition.makeCondition(fields, compOp, joinOp);
+        case CONDITION_LIST:
+            EntityJoinOperator listOp = readJoinOperator(in);
+            int conditionCount = in.readUnsignedShort();
+            List<EntityCondition> conditions = FastList.newInstance();
+            for (int i = 0; i < conditionCount; i++) {
+                conditions.add(readCondition(in, depth + 1));
+            }
+            return EntityCondition.makeCondition(conditions, listOp);
+        case CONDITION_EXPR:
+            Object lhs = readOperand(in, depth);
+            EntityOperator<?, ?, ?> operator = readOperator(in);
+            Object rhs = readOperand(in, depth);
+            try {
+                if (operator instanceof EntityJoinOperator) {
+                    if (!(lhs instanceof EntityCondition) || !(rhs instanceof EntityCondition)) {
+                        throw new IOException("Join expression on values which are not conditions");
+                    }
+                    return EntityCondition.makeCondition((EntityCondition) lhs, (EntityJoinOperator) operator, (EntityCondition) rhs);
+                }
+                return EntityCondition.makeCondition(lhs, (EntityComparisonOperator<?, ?>) operator, rhs);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Invalid condition expression: " + e.getMessage());
+            }
+        default:
+            throw new IOException("Unknown condition type " + type);
+        }
+    }
+
+    private static Object readOperand(DataInputStream in, int depth) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+        case OPERAND_VALUE:
+            return readValue(in);
+        case OPERAND_FIELD:
+            return EntityFieldValue.makeFieldValue(in.readUTF());
+        case OPERAND_CONDITION:
+            return readCondition(in, depth + 1);
+        case OPERAND_LIST:
+        case OPERAND_SET:
+            int size = in.readInt();
+            if (size < 0 || size > in.available()) {
+                throw new IOException("Invalid collection size " + size);
+            }
+            Collection<Object> values;
+            if (type == OPERAND_LIST) {
+                values = FastList.newInstance();
+            } else {
+                values = FastSet.newInstance();
+            }
+            for (int i = 0; i < size; i++) {
+                values.add(readValue(in));
+            }
+            return values;
+        default:
+            throw new IOException("Unknown condition operand type " + type);
+        }
+    }
+
+    private static EntityOperator<?, ?, ?> readOperator(DataInputStream in) throws IOException {
+        int id = in.readByte();
+        EntityOperator<?, ?, ?> operator = operators.get(id);
+        if (operator == null) {
+            throw new IOException("Unknown condition operator " + id);
+        }
+        return operator;
+    }
+
+    private static EntityComparisonOperator<?, ?> readComparisonOperator(DataInputStream in) throws IOException {
+        EntityOperator<?, ?, ?> operator = readOperator(in);
+        if (!(operator instanceof EntityComparisonOperator)) {
+            throw new IOException("Not a comparison operator " + operator);
+        }
+        return (EntityComparisonOperator<?, ?>) operator;
+    }
+
+    private static EntityJoinOperator readJoinOperator(DataInputStream in) throws IOException {
+        EntityOperator<?, ?, ?> operator = readOperator(in);
+        if (!(operator instanceof EntityJoinOperator)) {
+            throw new IOException("Not a join operator " + operator);
+        }
+        return (EntityJoinOperator) operator;
+    }
+
+    /**
+     * Creates the clear of all the entity caches.
+     * @return a <code>Clear</code> value
+     */
+    public static Clear clearAll() {
+        return new Clear(CLEAR_ALL, null, null, null);
+    }
+
+    /**
+     * Creates the clear of the cache lines of a value.
+     * @param value the value stored or removed
+     * @return a <code>Clear</code> value
+     */
+    public static Clear clearValue(GenericEntity value) {
+        return makeFieldsClear(CLEAR_VALUE, value);
+    }
+
+    /**
+     * Creates the clear of the cache lines matching a partial primary key.
+     * @param dummyPK the fields of the lines to clear
+     * @return a <code>Clear</code> value
+     */
+    public static Clear clearDummyPK(GenericEntity dummyPK) {
+        return makeFieldsClear(CLEAR_DUMMY_PK, dummyPK);
+    }
+
+    /**
+     * Creates the clear of the cache lines of a primary key.
+     * @param primaryKey the primary key of the lines to clear
+     * @return a <code>Clear</code> value
+     */
+    public static Clear clearPrimaryKey(GenericPK primaryKey) {
+        return makeFieldsClear(CLEAR_PRIMARY_KEY, primaryKey);
+    }
+
+    /**
+     * Creates the clear of the cache lines of a condition.
+     * @param entityName the entity of the condition
+     * @param condition the condition of the lines to clear, can be null
+     * @return a <code>Clear</code> value, which clears all the cache lines of the entity if the condition cannot be written
+     */
+    public static Clear clearCondition(String entityName, EntityCondition condition) {
+        if (!isConditionWritable(condition, 0)) {
+            if (Debug.verboseOn()) Debug.logVerbose("Cannot write the condition [" + condition + "], clearing all the cache lines of entity [" + entityName + "]", module);
+            return clearEntity(entityName);
+        }
+        return new Clear(CLEAR_CONDITION, entityName, null, condition);
+    }
+
+    /**
+     * Creates the clear of all the cache lines of an entity.
+     * @param entityName the entity to clear
+     * @return a <code>Clear</code> value
+     */
+    public static Clear clearEntity(String entityName) {
+        return new Clear(CLEAR_ENTITY, entityName, null, null);
+    }
+
+    private static Clear makeFieldsClear(byte type, GenericEntity entity) {
+        Map<String, Object> fields = entity.getAllFields();
+        for (Object value : fields.values()) {
+            if (!isValueWritable(value)) {
+                if (Debug.verboseOn()) Debug.logVerbose("Cannot write a field value of type " + value.getClass().getName() + ", clearing all the cache lines of entity [" + entity.getEntityName() + "]", module);
+                return clearEntity(entity.getEntityName());
+            }
+        }
+        return new Clear(type, entity.getEntityName(), fields, null);
+    }
+
+    /**
+     * A cache clear, equal to another one clearing the same lines so the clears of a batch can be coalesced.
+     */
+    public static final class Clear {
+
+        private final byte type;
+        private final String entityName;
+        private final Map<String, Object> fields;
+        private final EntityCondition condition;
+        private final int hashCode;
+
+        private Clear(byte type, String entityName, Map<String, Object> fields, EntityCondition condition) {
+            this.type = type;
+            this.entityName = entityName;
+            this.fields = fields;
+            this.condition = condition;
+            int hash = type;
+            if (entityName != null) {
+                hash = hash * 31 + entityName.hashCode();
+            }
+            if (fields != null) {
+                hash = hash * 31 + fields.hashCode();
+            }
+            if (condition != null) {
+                hash = hash * 31 + condition.hashCode();
+            }
+            this.hashCode = hash;
+        }
+
+        public byte getType() {
+            return type;
+        }
+
+        public String getEntityName() {
+            return entityName;
+        }
+
+        /**
+         * Clears the cache lines in the given delegator, without distributing them again.
+         * @param delegator the delegator to clear
+         */
+        public void apply(Delegator delegator) {
+            switch (type) {
+            case CLEAR_ALL:
+                delegator.clearAllCaches(false);
+                break;
+            case CLEAR_VALUE:
+                delegator.clearCacheLine(delegator.makeValue(entityName, fields), false);
+                break;
+            case CLEAR_DUMMY_PK:
+                delegator.clearCacheLineFlexible(delegator.makeValue(entityName, fields), false);
+                break;
+            case CLEAR_PRIMARY_KEY:
+                delegator.clearCacheLine(delegator.makePK(entityName, fields), false);
+                break;
+            case CLEAR_CONDITION:
+                delegator.clearCacheLineByCondition(entityName, condition, false);
+                break;
+            case CLEAR_ENTITY:
+                delegator.getCache().remove(entityName);
+                break;
+            default:
+                break;
+            }
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Clear)) {
+                return false;
+            }
+            Clear other = (Clear) obj;
+            return type == other.type && hashCode == other.hashCode
+                && (entityName == null ? other.entityName == null : entityName.equals(other.entityName))
+                && (fields == null ? other.fields == null : fields.equals(other.fields))
+                && (condition == null ? other.condition == null : condition.equals(other.condition));
+        }
+
+        @Override
+        public String toString() {
+            return "[" + type + "] " + entityName + (fields != null ? " " + fields : "") + (condition != null ? " " + condition : "");
+        }
+    }
+}
@@ -0,0 +1,49 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+/* This file has been modified by Open Source Strategies, Inc. */
+package org.ofbiz.entityext.cache;
+
+import java.io.IOException;
+
+/**
+ * Sends the cache clear frames of the <code>CacheClearBus</code> to the other servers, and hands the frames received
+ * from them back to the bus.
+ */
+public interface CacheClearTransport {
+
+    /**
+     * Starts the transport; the frames received from the other servers are given to {@link CacheClearBus#receive(byte[])}.
+     * @param bus the bus using the transport
+     * @throws IOException if the transport could not be started
+     */
+    public void start(CacheClearBus bus) throws IOException;
+
+    /**
+     * Sends a frame to the other servers.
+     * @param delegatorName the name of the delegator which caches are cleared
+     * @param frame the frame bytes
+     * @throws IOException if the frame could not be sent
+     */
+    public void send(String delegatorName, byte[] frame) throws IOException;
+
+    /**
+     * Stops the transport.
+     */
+    public void stop();
+}
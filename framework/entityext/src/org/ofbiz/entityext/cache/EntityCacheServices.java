@@ -19,8 +19,10 @@
 /* This file has been modified by Open Source Strategies, Inc. */
 package org.ofbiz.entityext.cache;
 
+import java.io.IOException;
 import java.util.Map;
 
+import org.ofbiz.base.util.Base64;
 import org.ofbiz.base.util.Debug;
 import org.ofbiz.base.util.UtilMisc;
 import org.ofbiz.entity.Delegator;
@@ -38,6 +40,9 @@ import org.ofbiz.service.ServiceUtil;
 
 /**
  * Entity Engine Cache Services
+ * <p>
+ * When a <code>CacheClearBus</code> is configured in <code>entitycacheclear.properties</code> the distributed clears
+ * are sent to the other servers in batches by the bus, otherwise each clear runs its own distributed service.
  */
 public class EntityCacheServices implements DistributedCacheClear {
 
@@ -53,6 +58,10 @@ public class EntityCacheServices implements DistributedCacheClear {
         this.delegator = delegator;
         this.dispatcher = EntityServiceFactory.getLocalDispatcher(delegator);
         this.userLoginId = userLoginId;
+        CacheClearBus bus = CacheClearBus.getInstance();
+        if (bus != null) {
+            bus.register(this);
+        }
     }
 
     public GenericValue getAuthUserLogin() {
@@ -65,8 +74,51 @@ public class EntityCacheServices implements DistributedCacheClear {
         return userLogin;
     }
 
+    /**
+     * Runs a distributed cache clear service, as the user configured for the delegator.
+     * @param serviceName the name of the service to run asynchronously
+     * @param parameters the name and value pairs of the service parameters, without the userLogin
+     */
+    public void runDistributedService(String serviceName, Object... parameters) {
+        if (this.dispatcher == null) {
+            Debug.logWarning("No dispatcher is available, somehow the setDelegator (which also creates a dispatcher) was not called, not running distributed cache clear", module);
+            return;
+        }
+
+        GenericValue userLogin = getAuthUserLogin();
+        if (userLogin == null) {
+            Debug.logWarning("The userLogin for distributed cache clear was not found with userLoginId [" + userLoginId + "], not clearing remote caches.", module);
+            return;
+        }
+
+        Map<String, Object> context = UtilMisc.toMap(parameters);
+        context.put("userLogin", userLogin);
+        try {
+            this.dispatcher.runAsync(serviceName, context, false);
+        } catch (GenericServiceException e) {
+            Debug.logError(e, "Error running the " + serviceName + " service", module);
+        }
+    }
+
+    /**
+     * Adds a clear to the <code>CacheClearBus</code> when one is configured.
+     * @param clear the cache clear
+     * @return true if the bus sends the clear, false if the clear must be sent with the distributed services
+     */
+    protected boolean addToBus(CacheClearFrame.Clear clear) {
+        CacheClearBus bus = CacheClearBus.getInstance();
+        if (bus == null || this.delegator == null) {
+            return false;
+        }
+        bus.add(this.delegator.getDelegatorName(), clear);
+        return true;
+    }
+
     public void distributedClearCacheLine(GenericValue value) {
         // Debug.logInfo("running distributedClearCacheLine for value: " + value, module);
+        if (addToBus(CacheClearFrame.clearValue(value))) {
+            return;
+        }
         if (this.dispatcher == null) {
             Debug.logWarning("No dispatcher is available, somehow the setDelegator (which also creates a dispatcher) was not called, not running distributed cache clear", module);
             return;
@@ -87,6 +139,9 @@ public class EntityCacheServices implements DistributedCacheClear {
 
     public void distributedClearCacheLineFlexible(GenericEntity dummyPK) {
         // Debug.logInfo("running distributedClearCacheLineFlexible for dummyPK: " + dummyPK, module);
+        if (addToBus(CacheClearFrame.clearDummyPK(dummyPK))) {
+            return;
+        }
         if (this.dispatcher == null) {
             Debug.logWarning("No dispatcher is available, somehow the setDelegator (which also creates a dispatcher) was not called, not running distributed cache clear", module);
             return;
@@ -107,6 +162,9 @@ public class EntityCacheServices implements DistributedCacheClear {
 
     public void distributedClearCacheLineByCondition(String entityName, EntityCondition condition) {
         // Debug.logInfo("running distributedClearCacheLineByCondition for (name, condition): " + entityName + ", " + condition + ")", module);
+        if (addToBus(CacheClearFrame.clearCondition(entityName, condition))) {
+            return;
+        }
         if (this.dispatcher == null) {
             Debug.logWarning("No dispatcher is available, somehow the setDelegator (which also creates a dispatcher) was not called, not running distributed cache clear", module);
             return;
@@ -127,6 +185,9 @@ public class EntityCacheServices implements DistributedCacheClear {
 
     public void distributedClearCacheLine(GenericPK primaryKey) {
         // Debug.logInfo("running distributedClearCacheLine for primaryKey: " + primaryKey, module);
+        if (addToBus(CacheClearFrame.clearPrimaryKey(primaryKey))) {
+            return;
+        }
         if (this.dispatcher == null) {
             Debug.logWarning("No dispatcher is available, somehow the setDelegator (which also creates a dispatcher) was not called, not running distributed cache clear", module);
             return;
@@ -146,6 +207,9 @@ public class EntityCacheServices implements DistributedCacheClear {
     }
 
     public void clearAllCaches() {
+        if (addToBus(CacheClearFrame.clearAll())) {
+            return;
+        }
         if (this.dispatcher == null) {
             Debug.logWarning("No dispatcher is available, somehow the setDelegator (which also creates a dispatcher) was not called, not running distributed clear all caches", module);
             return;
@@ -217,4 +281,27 @@ public class EntityCacheServices implements DistributedCacheClear {
         }
         return ServiceUtil.returnSuccess();
     }
+
+    /**
+     * Clear Cache Lines Service: clears the cache lines of a frame sent by the <code>CacheClearBus</code> of another server
+     *@param ctx The DispatchContext that this service is operating in
+     *@param context Map containing the input parameters
+     *@return Map with the result of the service, the output parameters
+     */
+    public static Map<String, Object> clearCacheLines(DispatchContext dctx, Map<String, ? extends Object> context) {
+        String frame = (String) context.get("frame");
+        try {
+            byte[] bytes = Base64.base64Decode(frame.getBytes("US-ASCII"));
+            CacheClearBus bus = CacheClearBus.getInstance();
+            if (bus != null) {
+                bus.receive(bytes);
+            } else {
+                CacheClearBus.apply(CacheClearFrame.decode(bytes));
+            }
+        } catch (IOException e) {
+            Debug.logError(e, "Invalid cache clear frame", module);
+            return ServiceUtil.returnError("Invalid cache clear frame: " + e.getMessage());
+        }
+        return ServiceUtil.returnSuccess();
+    }
 }
@@ -0,0 +1,50 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+/* This file has been modified by Open Source Strategies, Inc. */
+package org.ofbiz.entityext.cache;
+
+import java.io.IOException;
+
+import org.ofbiz.base.util.Base64;
+
+/**
+ * Sends the cache clear frames with the <code>distributedClearCacheLines</code> service, which is a JMS service by
+ * default so each frame is one message on the topic, received by the <code>clearCacheLines</code> service of the other servers.
+ */
+public class ServiceCacheClearTransport implements CacheClearTransport {
+
+    public static final String module = ServiceCacheClearTransport.class.getName();
+
+    private CacheClearBus bus = null;
+
+    public void start(CacheClearBus bus) throws IOException {
+        this.bus = bus;
+    }
+
+    public void send(String delegatorName, byte[] frame) throws IOException {
+        EntityCacheServices sender = bus.getSender(delegatorName);
+        if (sender == null) {
+            throw new IOException("No distributed cache clear registered for delegator [" + delegatorName + "]");
+        }
+        sender.runDistributedService("distributedClearCacheLines", "frame", new String(Base64.base64Encode(frame), "US-ASCII"));
+    }
+
+    public void stop() {
+    }
+}
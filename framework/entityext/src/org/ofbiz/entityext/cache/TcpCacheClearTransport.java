@@ -0,0 +1,362 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+/* This file has been modified by Open Source Strategies, Inc. */
+package org.ofbiz.entityext.cache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+import javolution.util.FastList;
+import javolution.util.FastSet;
+
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.StringUtil;
+import org.ofbiz.base.util.UtilProperties;
+import org.ofbiz.base.util.UtilValidate;
+
+/**
+ * Sends the cache clear frames over TCP to a fixed list of peers, without a message broker.
+ * <p>
+ * Each server listens on <code>cache.clear.tcp.port</code> and keeps one connection open to each of the
+ * <code>cache.clear.tcp.peers</code>, given as a comma separated list of <code>host:port</code>; the list can be the
+ * same on all the servers since the frames a server sends to itself are ignored. The frames are written with their
+ * length first. A frame which cannot be written to a peer is sent again once on a new connection.
+ * <p>
+ * The connections are not authenticated, so only the connections from the addresses of the peers are accepted, and
+ * when no <code>cache.clear.tcp.bindAddress</code> is set the transport listens on the address of the peer which is
+ * this server, or on the loopback address when none is.
+ */
+public class TcpCacheClearTransport implements CacheClearTransport {
+
+    public static final String module = TcpCacheClearTransport.class.getName();
+
+    /** Frames bigger than this are refused, to protect against a connection which is not from a peer. */
+    private static final int MAX_FRAME_SIZE = 64 * 1024 * 1024;
+
+    private final String bindHost;
+    private final int port;
+    private final List<Peer> peers = FastList.newInstance();
+    private final int connectTimeout;
+    private volatile Set<InetAddress> peerAddresses = null;
+    private final Set<Socket> accepted = new CopyOnWriteArraySet<Socket>();
+    private volatile ServerSocket serverSocket = null;
+    private volatile CacheClearBus bus = null;
+
+    /**
+     * Creates a transport configured from <code>entitycacheclear.properties</code>.
+     */
+    public TcpCacheClearTransport() {
+        this(UtilProperties.getPropertyValue(CacheClearBus.CONFIG, "cache.clear.tcp.bindAddress"),
+                (int) UtilProperties.getPropertyNumber(CacheClearBus.CONFIG, "cache.clear.tcp.port", 10523),
+                StringUtil.split(UtilProperties.getPropertyValue(CacheClearBus.CONFIG, "cache.clear.tcp.peers"), ","),
+                (int) UtilProperties.getPropertyNumber(CacheClearBus.CONFIG, "cache.clear.tcp.connectTimeout", 2000));
+    }
+
+    /**
+     * Creates a transport.
+     * @param bindHost the address to listen on, or empty for the address of the peer which is this server or the loopback address
+     * @param port the port to listen on
+     * @param peerAddresses the <code>host:port</code> of the peers, can be null
+     * @param connectTimeout the timeout in milliseconds to connect to a peer
+     */
+    public TcpCacheClearTransport(String bindHost, int port, List<String> peerAddresses, int connectTimeout) {
+        this.bindHost = bindHost;
+        this.port = port;
+        this.connectTimeout = connectTimeout;
+        if (peerAddresses != null) {
+            for (String peerAddress : peerAddresses) {
+                peerAddress = peerAddress.trim();
+                int colon = peerAddress.lastIndexOf(':');
+                if (colon <= 0) {
+                    Debug.logWarning("Invalid cache clear peer [" + peerAddress + "], it should be host:port", module);
+                    continue;
+                }
+                peers.add(new Peer(peerAddress.substring(0, colon), Integer.parseInt(peerAddress.substring(colon + 1))));
+            }
+        }
+    }
+
+    public void start(CacheClearBus bus) throws IOException {
+        this.bus = bus;
+        peerAddresses = resolvePeerAddresses();
+        InetAddress bindAddress;
+        if (UtilValidate.isNotEmpty(bindHost)) {
+            bindAddress = InetAddress.getByName(bindHost);
+        } else {
+            bindAddress = getLocalPeerAddress();
+        }
+        final ServerSocket server = new ServerSocket();
+        server.setReuseAddress(true);
+        server.bind(new InetSocketAddress(bindAddress, port));
+        serverSocket = server;
+        Thread acceptor = new Thread(new Runnable() {
+            public void run() {
+                while (!server.isClosed()) {
+                    try {
+                        Socket socket = server.accept();
+                        if (!isPeer(socket.getInetAddress())) {
+                            Debug.logWarning("Refused a cache clear connection from " + socket.getRemoteSocketAddress() + ", which is not a configured peer", module);
+                            close(socket);
+                            continue;
+                        }
+                        socket.setTcpNoDelay(true);
+                        accepted.add(socket);
+                        Thread reader = new Thread(new Reader(socket), "CacheClearBus-tcp-reader-" + socket.getRemoteSocketAddress());
+                        reader.setDaemon(true);
+                        reader.start();
+                    } catch (IOException e) {
+                        if (!server.isClosed()) {
+                            Debug.logWarning(e, "Error accepting a cache clear connection", module);
+                        }
+                    }
+                }
+            }
+        }, "CacheClearBus-tcp-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        Debug.logInfo("Listening for cache clears on " + server.getLocalSocketAddress() + ", sending to " + peers.size() + " peers", module);
+    }
+
+    /**
+     * Resolves the addresses of the peers; a peer which cannot be resolved is left out until the next resolution.
+     */
+    private Set<InetAddress> resolvePeerAddresses() {
+        Set<InetAddress> addresses = FastSet.newInstance();
+        for (Peer peer : peers) {
+            try {
+                for (InetAddress address : InetAddress.getAllByName(peer.host)) {
+                    addresses.add(address);
+                }
+            } catch (UnknownHostException e) {
+                Debug.logWarning("Could not resolve the cache clear peer [" + peer.host + "]", module);
+            }
+        }
+        return addresses;
+    }
+
+    /**
+     * Checks if a connection comes from one of the peers, resolving the peers again once when it does not, in case one of
+     * their addresses changed.
+     */
+    private boolean isPeer(InetAddress address) {
+        if (peerAddresses.contains(address)) {
+            return true;
+        }
+        peerAddresses = resolvePeerAddresses();
+        return peerAddresses.contains(address);
+    }
+
+    /**
+     * Gets the address of the peer which is this server: a peer on the listening port with an address of one of the local
+     * network interfaces; or the loopback address when there is none.
+     */
+    private InetAddress getLocalPeerAddress() throws UnknownHostException {
+        for (Peer peer : peers) {
+            if (peer.port != port) {
+                continue;
+            }
+            try {
+                InetAddress address = InetAddress.getByName(peer.host);
+                if (address.isLoopbackAddress() || NetworkInterface.getByInetAddress(address) != null) {
+                    return address;
+                }
+            } catch (IOException e) {
+                Debug.logWarning("Could not resolve the cache clear peer [" + peer.host + "]", module);
+            }
+        }
+        return InetAddress.getByName(null);
+    }
+
+    /**
+     * Gives a frame received from a peer to the bus.
+     * @param frame the frame bytes
+     * @throws IOException if the bytes are not a valid frame
+     */
+    protected void receive(byte[] frame) throws IOException {
+        bus.receive(frame);
+    }
+
+    /**
+     * Gets the address the transport listens on.
+     * @return the local address, or null if the transport is not started
+     */
+    public InetAddress getLocalAddress() {
+        ServerSocket server = serverSocket;
+        return server == null ? null : server.getInetAddress();
+    }
+
+    /**
+     * Gets the port the transport listens on, useful when it was started on port 0.
+     * @return the local port, or -1 if the transport is not started
+     */
+    public int getLocalPort() {
+        ServerSocket server = serverSocket;
+        return server == null ? -1 : server.getLocalPort();
+    }
+
+    public void send(String delegatorName, byte[] frame) throws IOException {
+        IOException error = null;
+        for (Peer peer : peers) {
+            try {
+                peer.send(frame);
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    public void stop() {
+        ServerSocket server = serverSocket;
+        serverSocket = null;
+        if (server != null) {
+            try {
+                server.close();
+            } catch (IOException e) {
+                Debug.logWarning(e, module);
+            }
+        }
+        for (Socket socket : accepted) {
+            close(socket);
+        }
+        accepted.clear();
+        for (Peer peer : peers) {
+            peer.close();
+        }
+    }
+
+    private static void close(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            Debug.logWarning(e, module);
+        }
+    }
+
+    /**
+     * The connection to a peer, opened when the first frame is sent.
+     */
+    private final class Peer {
+
+        private final String host;
+        private final int port;
+        private Socket socket = null;
+        private DataOutputStream out = null;
+
+        private Peer(String host, int port) {
+            this.host = host;
+            this.port = port;
+        }
+
+        private synchronized void send(byte[] frame) throws IOException {
+            try {
+                write(frame);
+            } catch (IOException e) {
+                // the peer may have restarted since the last frame
+                close();
+                try {
+                    write(frame);
+                } catch (IOException e2) {
+                    close();
+                    throw new IOException("Could not send a cache clear frame to " + host + ":" + port + ": " + e2.getMessage());
+                }
+            }
+        }
+
+        private void write(byte[] frame) throws IOException {
+            if (out == null) {
+                Socket newSocket = new Socket();
+                newSocket.setTcpNoDelay(true);
+                newSocket.connect(new InetSocketAddress(InetAddress.getByName(host), port), connectTimeout);
+                socket = newSocket;
+                out = new DataOutputStream(new BufferedOutputStream(newSocket.getOutputStream()));
+            }
+            out.writeInt(frame.length);
+            out.write(frame);
+            out.flush();
+        }
+
+        private synchronized void close() {
+            if (socket != null) {
+                TcpCacheClearTransport.close(socket);
+            }
+            socket = null;
+            out = null;
+        }
+    }
+
+    /**
+     * Reads the frames of an accepted connection and gives them to the bus.
+     */
+    private final class Reader implements Runnable {
+
+        private final Socket socket;
+
+        private Reader(Socket socket) {
+            this.socket = socket;
+        }
+
+        public void run() {
+            try {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                while (true) {
+                    int length = in.readInt();
+                    if (length < 0 || length > MAX_FRAME_SIZE) {
+                        Debug.logWarning("Invalid cache clear frame length " + length + " from " + socket.getRemoteSocketAddress() + ", closing the connection", module);
+                        break;
+                    }
+                    byte[] frame = new byte[length];
+                    in.readFully(frame);
+                    try {
+                        receive(frame);
+                    } catch (IOException e) {
+                        Debug.logWarning(e, "Invalid cache clear frame from " + socket.getRemoteSocketAddress(), module);
+                    } catch (RuntimeException e) {
+                        Debug.logError(e, "Error clearing the cache lines of a frame from " + socket.getRemoteSocketAddress(), module);
+                    }
+                }
+            } catch (EOFException e) {
+                // the peer closed the connection
+            } catch (SocketException e) {
+                // the connection was closed or reset
+            } catch (IOException e) {
+                Debug.logWarning(e, "Error reading cache clears from " + socket.getRemoteSocketAddress(), module);
+            } finally {
+                accepted.remove(socket);
+                close(socket);
+            }
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+/* This file has been modified by Open Source Strategies, Inc. */
+package org.ofbiz.entityext.cache.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.InetAddress;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.ofbiz.base.test.GenericTestCaseBase;
+import org.ofbiz.base.util.UtilMisc;
+import org.ofbiz.entity.condition.EntityCondition;
+import org.ofbiz.entity.condition.EntityFunction;
+import org.ofbiz.entity.condition.EntityOperator;
+import org.ofbiz.entityext.cache.CacheClearFrame;
+import org.ofbiz.entityext.cache.TcpCacheClearTransport;
+
+public class CacheClearTransportTests extends GenericTestCaseBase {
+
+    private TcpCacheClearTransport receiver = null;
+    private TcpCacheClearTransport sender = null;
+    private final BlockingQueue<byte[]> received = new LinkedBlockingQueue<byte[]>();
+
+    public CacheClearTransportTests(String name) {
+        super(name);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (receiver != null) {
+            receiver.stop();
+        }
+        if (sender != null) {
+            sender.stop();
+        }
+        super.tearDown();
+    }
+
+    /** Starts a transport keeping the frames it receives, instead of clearing the caches. */
+    private TcpCacheClearTransport startReceiver(String bindHost, List<String> peers) throws IOException {
+        TcpCacheClearTransport transport = new TcpCacheClearTransport(bindHost, 0, peers, 2000) {
+            @Override
+            protected void receive(byte[] frame) throws IOException {
+                received.add(frame);
+            }
+        };
+        transport.start(null);
+        return transport;
+    }
+
+    private static List<CacheClearFrame.Clear> makeClears() {
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        return Arrays.asList(
+                CacheClearFrame.clearAll(),
+                CacheClearFrame.clearEntity("Product"),
+                CacheClearFrame.clearCondition("Product", null),
+                CacheClearFrame.clearCondition("Product", EntityCondition.makeCondition("productTypeId", "FINISHED_GOOD")),
+                CacheClearFrame.clearCondition("ProductPrice", EntityCondition.makeCondition(UtilMisc.toList(
+                        EntityCondition.makeCondition("price", EntityOperator.GREATER_THAN, new BigDecimal("10.50")),
+                        EntityCondition.makeCondition("fromDate", EntityOperator.LESS_THAN_EQUAL_TO, now),
+                        EntityCondition.makeCondition("productId", EntityOperator.IN, UtilMisc.toList("GZ-1000", "GZ-1001")),
+                        EntityCondition.makeCondition("thruDate", EntityOperator.NOT_EQUAL, null)), EntityOperator.OR)),
+                CacheClearFrame.clearCondition("ProductPrice", EntityCondition.makeCondition(UtilMisc.toMap("productId", "GZ-1000", "quantity", Long.valueOf(3)))),
+                CacheClearFrame.clearCondition("Product", EntityCondition.makeConditionWhere("PRODUCT_ID = 'GZ-1000'")));
+    }
+
+    public void testFrameRoundTrip() throws Exception {
+        List<CacheClearFrame.Clear> clears = makeClears();
+        byte[] frame = CacheClearFrame.encode(42, "default", clears);
+        CacheClearFrame decoded = CacheClearFrame.decode(frame);
+        assertEquals("sender", 42, decoded.getSenderId());
+        assertEquals("delegator", "default", decoded.getDelegatorName());
+        assertEquals("clears", clears, decoded.getClears());
+    }
+
+    public void testConditionNotWritable() throws Exception {
+        CacheClearFrame.Clear clear = CacheClearFrame.clearCondition("Product", EntityCondition.makeCondition(EntityFunction.UPPER_FIELD("productName"), EntityOperator.LIKE, "GIZMO%"));
+        assertEquals("condition with a function", CacheClearFrame.CLEAR_ENTITY, clear.getType());
+        assertEquals("entity of the condition", "Product", clear.getEntityName());
+        clear = CacheClearFrame.clearCondition("Product", EntityCondition.makeCondition("productName", EntityOperator.EQUALS, new StringBuilder("Gizmo")));
+        assertEquals("condition on an object value", CacheClearFrame.CLEAR_ENTITY, clear.getType());
+    }
+
+    public void testUnknownTypeRejected() throws Exception {
+        // a value clear which field has the tag of a serialized object, as written by the previous frame version
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.write(Arrays.copyOf(CacheClearFrame.encode(1, "default", new ArrayList<CacheClearFrame.Clear>()), 12 + 2 + "default".length()));
+        out.writeInt(1);
+        out.writeByte(CacheClearFrame.CLEAR_VALUE);
+        out.writeUTF("Product");
+        out.writeShort(1);
+        out.writeUTF("productId");
+        out.writeByte(12);
+        out.writeInt(4);
+        out.write(new byte[] {(byte) 0xac, (byte) 0xed, 0, 5});
+        out.flush();
+        try {
+            CacheClearFrame.decode(bytes.toByteArray());
+            fail("Frame with an unknown field value type decoded");
+        } catch (IOException e) {
+            // expected
+        }
+
+        // a frame of the previous version
+        bytes.reset();
+        out.writeInt(0x43434631);
+        out.writeLong(1);
+        out.writeUTF("default");
+        out.writeInt(0);
+        out.flush();
+        try {
+            CacheClearFrame.decode(bytes.toByteArray());
+            fail("Frame with an unknown magic number decoded");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    public void testDefaultBindAddress() throws Exception {
+        receiver = startReceiver(null, null);
+        assertTrue("Bound to loopback without peers", receiver.getLocalAddress().isLoopbackAddress());
+    }
+
+    public void testLoopback() throws Exception {
+        receiver = startReceiver("127.0.0.1", UtilMisc.toList("127.0.0.1:1"));
+        sender = new TcpCacheClearTransport("127.0.0.1", 0, UtilMisc.toList("127.0.0.1:" + receiver.getLocalPort()), 2000);
+
+        List<CacheClearFrame.Clear> clears = makeClears();
+        byte[] frame = CacheClearFrame.encode(7, "default", clears);
+        sender.send("default", frame);
+        sender.send("default", CacheClearFrame.encode(7, "default", UtilMisc.toList(CacheClearFrame.clearAll())));
+
+        byte[] first = received.poll(10, TimeUnit.SECONDS);
+        assertNotNull("First frame received", first);
+        assertEquals("First frame clears", clears, CacheClearFrame.decode(first).getClears());
+        byte[] second = received.poll(10, TimeUnit.SECONDS);
+        assertNotNull("Second frame received", second);
+        assertEquals("Second frame clears", UtilMisc.toList(CacheClearFrame.clearAll()), CacheClearFrame.decode(second).getClears());
+    }
+
+    public void testNotPeerRefused() throws Exception {
+        // the only peer is a documentation address, so the loopback connection is not from a peer
+        receiver = startReceiver("127.0.0.1", UtilMisc.toList("192.0.2.1:10523"));
+        assertFalse("Loopback is not a peer", InetAddress.getByName("192.0.2.1").isLoopbackAddress());
+        sender = new TcpCacheClearTransport("127.0.0.1", 0, UtilMisc.toList("127.0.0.1:" + receiver.getLocalPort()), 2000);
+        try {
+            sender.send("default", CacheClearFrame.encode(7, "default", UtilMisc.toList(CacheClearFrame.clearAll())));
+        } catch (IOException e) {
+            // the connection may already be closed
+        }
+        assertNull("Frame from a host which is not a peer", received.poll(1, TimeUnit.SECONDS));
+    }
+}
@@ -19,14 +19,19 @@
 /* This file has been modified by Open Source Strategies, Inc. */
 package org.ofbiz.security;
 
+import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.servlet.http.HttpSession;
 
 import javolution.util.FastList;
+import javolution.util.FastMap;
 
 import org.ofbiz.base.util.Debug;
 import org.ofbiz.base.util.UtilMisc;
@@ -34,6 +39,7 @@ import org.ofbiz.base.util.UtilValidate;
 import org.ofbiz.entity.Delegator;
 import org.ofbiz.entity.GenericEntityException;
 import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.cache.Cache;
 import org.ofbiz.entity.condition.EntityCondition;
 import org.ofbiz.entity.condition.EntityConditionList;
 import org.ofbiz.entity.condition.EntityExpr;
@@ -43,6 +49,12 @@ import org.ofbiz.entity.util.EntityUtil;
 /**
  * An implementation of the Security interface that uses the OFBiz database
  * for permission storage.
+ * <p>
+ * Permission checks use a compiled permission set per userLogin: each permission id is mapped to
+ * a bit index, the permissions of each security group are compiled to a BitSet, and the groups of a
+ * userLogin are or-ed together. The compiled sets live in the entity object cache, under the
+ * SecurityGroupPermission and UserLoginSecurityGroup entities, so they are dropped by the
+ * regular entity cache clears when those entities change.
  */
 public class OFBizSecurity implements Security {
 
@@ -55,6 +67,9 @@ public class OFBizSecurity implements Security {
         "FACILITY", UtilMisc.toMap("name", "FacilityParty", "pkey", "facilityId"),
         "MARKETING", UtilMisc.toMap("name", "MarketingCampaignRole", "pkey", "marketingCampaignId"));
 
+    /** Bit index of each permission id, shared by all the delegators */
+    protected static final ConcurrentMap<String, Integer> permissionBits = new ConcurrentHashMap<String, Integer>();
+
     protected OFBizSecurity() {}
 
     protected OFBizSecurity(Delegator delegator) {
@@ -90,14 +105,14 @@ public class OFBizSecurity implements Security {
      * @see org.ofbiz.security.Security#securityGroupPermissionExists(java.lang.String, java.lang.String)
      */
     public boolean securityGroupPermissionExists(String groupId, String permission) {
-        GenericValue securityGroupPermissionValue = delegator.makeValue("SecurityGroupPermission",
-                UtilMisc.toMap("groupId", groupId, "permissionId", permission));
-        try {
-            return delegator.findOne(securityGroupPermissionValue.getEntityName(), securityGroupPermissionValue, false) != null;
-        } catch (GenericEntityException e) {
-            Debug.logWarning(e, module);
-            return false;
+        Integer bit = permissionBits.get(permission);
+        if (bit == null) {
+            // make sure the permission ids are loaded before concluding nobody has this one
+            getGroupPermissions();
+            bit = permissionBits.get(permission);
         }
+        BitSet groupPermissions = getGroupPermissions().get(groupId);
+        return bit != null && groupPermissions != null && groupPermissions.get(bit.intValue());
     }
 
     /**
@@ -117,15 +132,7 @@ public class OFBizSecurity implements Security {
     public boolean hasPermission(String permission, GenericValue userLogin) {
         if (userLogin == null) return false;
 
-        Iterator<GenericValue> iterator = findUserLoginSecurityGroupByUserLoginId(userLogin.getString("userLoginId"));
-        GenericValue userLoginSecurityGroup = null;
-
-        while (iterator.hasNext()) {
-            userLoginSecurityGroup = iterator.next();
-            if (securityGroupPermissionExists(userLoginSecurityGroup.getString("groupId"), permission)) return true;
-        }
-
-        return false;
+        return getCompiledPermissions(userLogin.getString("userLoginId")).hasPermission(permission);
     }
 
     /**
@@ -150,22 +157,126 @@ public class OFBizSecurity implements Security {
         if (userLogin == null) return false;
 
         // if (Debug.infoOn()) Debug.logInfo("hasEntityPermission: entity=" + entity + ", action=" + action, module);
-        Iterator<GenericValue> iterator = findUserLoginSecurityGroupByUserLoginId(userLogin.getString("userLoginId"));
-        GenericValue userLoginSecurityGroup = null;
+        CompiledPermissions permissions = getCompiledPermissions(userLogin.getString("userLoginId"));
+        return permissions.hasPermission(entity + "_ADMIN") || permissions.hasPermission(entity + action);
+    }
 
-        while (iterator.hasNext()) {
-            userLoginSecurityGroup = iterator.next();
+    /**
+     * Gets the bit index of a permission id, allocating a new one the first time the id is seen.
+     */
+    protected static int getPermissionBit(String permissionId) {
+        Integer bit = permissionBits.get(permissionId);
+        if (bit == null) {
+            synchronized (permissionBits) {
+                bit = permissionBits.get(permissionId);
+                if (bit == null) {
+                    bit = Integer.valueOf(permissionBits.size());
+                    permissionBits.put(permissionId, bit);
+                }
+            }
+        }
+        return bit.intValue();
+    }
 
-            // if (Debug.infoOn()) Debug.logInfo("hasEntityPermission: userLoginSecurityGroup=" + userLoginSecurityGroup.toString(), module);
+    /**
+     * Gets the permissions of all the security groups compiled to BitSets, from the entity object cache or
+     * by reading the whole SecurityGroupPermission entity. The cached Map is removed on any change to
+     * SecurityGroupPermission, and is never modified once cached.
+     */
+    protected Map<String, BitSet> getGroupPermissions() {
+        Cache cache = delegator.getCache();
+        Map<String, BitSet> groupPermissions = cache.get("SecurityGroupPermission", null, "compiledGroupPermissions");
+        if (groupPermissions != null) {
+            return groupPermissions;
+        }
 
-            // always try _ADMIN first so that it will cache first, keeping the cache smaller
-            if (securityGroupPermissionExists(userLoginSecurityGroup.getString("groupId"), entity + "_ADMIN"))
-                return true;
-            if (securityGroupPermissionExists(userLoginSecurityGroup.getString("groupId"), entity + action))
-                return true;
+        groupPermissions = FastMap.newInstance();
+        try {
+            List<GenericValue> securityGroupPermissions = delegator.findList("SecurityGroupPermission", null, null, null, null, false);
+            for (GenericValue securityGroupPermission: securityGroupPermissions) {
+                String groupId = securityGroupPermission.getString("groupId");
+                BitSet permissions = groupPermissions.get(groupId);
+                if (permissions == null) {
+                    permissions = new BitSet();
+                    groupPermissions.put(groupId, permissions);
+                }
+                permissions.set(getPermissionBit(securityGroupPermission.getString("permissionId")));
+            }
+        } catch (GenericEntityException e) {
+            // don't cache anything, so it is tried again on the next check
+            Debug.logWarning(e, module);
+            return groupPermissions;
         }
+        cache.put("SecurityGroupPermission", null, "compiledGroupPermissions", groupPermissions);
+        return groupPermissions;
+    }
 
-        return false;
+    /**
+     * Gets the compiled permissions of a userLogin, from the entity object cache or by compiling its current
+     * UserLoginSecurityGroup records. A cached set is recompiled when the group permissions were recompiled
+     * since, or when one of the userLogin group memberships starts or ends.
+     */
+    protected CompiledPermissions getCompiledPermissions(String userLoginId) {
+        Map<String, BitSet> groupPermissions = getGroupPermissions();
+        EntityCondition condition = EntityCondition.makeCondition("userLoginId", EntityOperator.EQUALS, userLoginId);
+        Cache cache = delegator.getCache();
+        CompiledPermissions compiled = cache.get("UserLoginSecurityGroup", condition, "compiledPermissions");
+        if (compiled != null && compiled.groupPermissions == groupPermissions && compiled.validUntil > System.currentTimeMillis()) {
+            return compiled;
+        }
+
+        List<GenericValue> userLoginSecurityGroups;
+        try {
+            userLoginSecurityGroups = delegator.findByAnd("UserLoginSecurityGroup", UtilMisc.toMap("userLoginId", userLoginId), null);
+        } catch (GenericEntityException e) {
+            // don't cache anything, so it is tried again on the next check
+            Debug.logWarning(e, module);
+            return new CompiledPermissions(groupPermissions, new BitSet(), 0);
+        }
+
+        long now = System.currentTimeMillis();
+        long validUntil = Long.MAX_VALUE;
+        BitSet permissions = new BitSet();
+        for (GenericValue userLoginSecurityGroup: userLoginSecurityGroups) {
+            Timestamp fromDate = userLoginSecurityGroup.getTimestamp("fromDate");
+            Timestamp thruDate = userLoginSecurityGroup.getTimestamp("thruDate");
+            if (fromDate != null && fromDate.getTime() > now) {
+                validUntil = Math.min(validUntil, fromDate.getTime());
+                continue;
+            }
+            if (thruDate != null) {
+                if (thruDate.getTime() <= now) continue;
+                validUntil = Math.min(validUntil, thruDate.getTime());
+            }
+            BitSet groupPermissionBits = groupPermissions.get(userLoginSecurityGroup.getString("groupId"));
+            if (groupPermissionBits != null) {
+                permissions.or(groupPermissionBits);
+            }
+        }
+
+        compiled = new CompiledPermissions(groupPermissions, permissions, validUntil);
+        cache.put("UserLoginSecurityGroup", condition, "compiledPermissions", compiled);
+        return compiled;
+    }
+
+    /**
+     * The permissions a userLogin has through its security groups, compiled from a given version of the group permissions.
+     */
+    protected static class CompiledPermissions {
+        protected final Map<String, BitSet> groupPermissions;
+        protected final BitSet permissions;
+        protected final long validUntil;
+
+        protected CompiledPermissions(Map<String, BitSet> groupPermissions, BitSet permissions, long validUntil) {
+            this.groupPermissions = groupPermissions;
+            this.permissions = permissions;
+            this.validUntil = validUntil;
+        }
+
+        public boolean hasPermission(String permission) {
+            Integer bit = permissionBits.get(permission);
+            return bit != null && permissions.get(bit.intValue());
+        }
     }
 
     /**
@@ -161,6 +161,9 @@ public class ModelService extends AbstractMap<String, Object> implements Seriali
     /** Sets the max number of times this service will retry when failed (persisted async only) */
     public int maxRetry = -1;
 
+    /** Priority of the non-persisted async jobs of this service in the job run queue, higher runs first */
+    public int priority = 0;
+
     /** Permission service name */
     public String permissionServiceName;
 
@@ -179,6 +182,9 @@ public class ModelService extends AbstractMap<String, Object> implements Seriali
     /** Semaphore sleep time (in milliseconds) */
     public int semaphoreSleep;
 
+    /** Semaphore lease time, after which a lock not released is taken over (in seconds) */
+    public int semaphoreLease;
+
     /** Set of services this service implements */
     public Set<ModelServiceIface> implServices = new LinkedHashSet<ModelServiceIface>();
 
@@ -223,6 +229,7 @@ public class ModelService extends AbstractMap<String, Object> implements Seriali
         this.requireNewTransaction = model.requireNewTransaction;
         this.transactionTimeout = model.transactionTimeout;
         this.maxRetry = model.maxRetry;
+        this.priority = model.priority;
         this.permissionServiceName = model.permissionServiceName;
         this.permissionMainAction = model.permissionMainAction;
         this.permissionResourceDesc = model.permissionResourceDesc;
@@ -236,6 +243,7 @@ public class ModelService extends AbstractMap<String, Object> implements Seriali
         this.semaphore = model.semaphore;
         this.semaphoreWait = model.semaphoreWait;
         this.semaphoreSleep = model.semaphoreSleep;
+        this.semaphoreLease = model.semaphoreLease;
 
         List<ModelParam> modelParamList = model.getModelParamList();
         for (ModelParam param: modelParamList) {
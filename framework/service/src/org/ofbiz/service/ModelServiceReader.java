@@ -264,6 +264,18 @@ public class ModelServiceReader implements Serializable {
         }
         service.semaphoreSleep = semaphoreSleep;
 
+        String semaphoreLeaseStr = UtilXml.checkEmpty(serviceElement.getAttribute("semaphore-lease-seconds"));
+        int semaphoreLease = 3600;
+        if (!UtilValidate.isEmpty(semaphoreLeaseStr)) {
+            try {
+                semaphoreLease = Integer.parseInt(semaphoreLeaseStr);
+            } catch (NumberFormatException e) {
+                Debug.logWarning(e, "Setting semaphore-lease to 1 hour (default)", module);
+                semaphoreLease = 3600;
+            }
+        }
+        service.semaphoreLease = semaphoreLease;
+
         // set the max retry field
         String maxRetryStr = UtilXml.checkEmpty(serviceElement.getAttribute("max-retry"));
         int maxRetry = -1;
@@ -277,6 +289,17 @@ public class ModelServiceReader implements Serializable {
         }
         service.maxRetry = maxRetry;
 
+        // set the async job priority
+        String priorityStr = UtilXml.checkEmpty(serviceElement.getAttribute("priority"));
+        if (!UtilValidate.isEmpty(priorityStr)) {
+            try {
+                service.priority = Integer.parseInt(priorityStr);
+            } catch (NumberFormatException e) {
+                Debug.logWarning(e, "Setting priority to 0 (default)", module);
+                service.priority = 0;
+            }
+        }
+
         // get the timeout and convert to int
         String timeoutStr = UtilXml.checkEmpty(serviceElement.getAttribute("transaction-timeout"), serviceElement.getAttribute("transaction-timout"));
         int timeout = 0;
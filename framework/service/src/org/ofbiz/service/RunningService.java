@@ -28,6 +28,7 @@ public class RunningService {
     protected ModelService model;
     protected String name;
     protected int mode;
+    protected ServiceDispatcher dispatcher;
 
     protected Timestamp startStamp;
     protected Timestamp endStamp;
@@ -44,6 +45,11 @@ public class RunningService {
         this.mode = mode;
     }
 
+    public RunningService(String localName, ModelService model, int mode, ServiceDispatcher dispatcher) {
+        this(localName, model, mode);
+        this.dispatcher = dispatcher;
+    }
+
     public ModelService getModelService() {
         return this.model;
     }
@@ -52,6 +58,10 @@ public class RunningService {
         return this.name;
     }
 
+    public ServiceDispatcher getDispatcher() {
+        return this.dispatcher;
+    }
+
     public int getMode() {
         return mode;
     }
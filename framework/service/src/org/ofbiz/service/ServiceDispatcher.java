@@ -19,6 +19,7 @@
 /* This file has been modified by Open Source Strategies, Inc. */
 package org.ofbiz.service;
 
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -35,7 +36,6 @@ import org.ofbiz.base.util.UtilProperties;
 import org.ofbiz.base.util.UtilTimer;
 import org.ofbiz.base.util.UtilValidate;
 import org.ofbiz.base.util.UtilXml;
-import org.ofbiz.base.util.collections.LRUMap;
 import org.ofbiz.entity.Delegator;
 import org.ofbiz.entity.DelegatorFactory;
 import org.ofbiz.entity.GenericDelegator;
@@ -70,7 +70,6 @@ public class ServiceDispatcher {
     public static final int lruLogSize = 200;
     public static final int LOCK_RETRIES = 3;
 
-    protected static final Map<RunningService, ServiceDispatcher> runLog = new LRUMap<RunningService, ServiceDispatcher>(lruLogSize);
     protected static Map<String, ServiceDispatcher> dispatchers = FastMap.newInstance();
     protected static boolean enableJM = true;
     protected static boolean enableJMS = true;
@@ -252,6 +251,18 @@ public class ServiceDispatcher {
      * @throws GenericServiceException
      */
     public Map<String, Object> runSync(String localName, ModelService modelService, Map<String, ? extends Object> params, boolean validateOut) throws ServiceAuthException, ServiceValidationException, GenericServiceException {
+        // set up the running service log
+        RunningService rs = this.logService(localName, modelService, GenericEngine.SYNC_MODE);
+        Map<String, Object> result = null;
+        try {
+            result = runSync(localName, modelService, params, validateOut, rs);
+            return result;
+        } finally {
+            ServiceStatistics.serviceFinished(rs, result);
+        }
+    }
+
+    private Map<String, Object> runSync(String localName, ModelService modelService, Map<String, ? extends Object> params, boolean validateOut, RunningService rs) throws ServiceAuthException, ServiceValidationException, GenericServiceException {
         // check for semaphore and aquire a lock
         ServiceSemaphore lock = null;
         if ("wait".equals(modelService.semaphore) || "fail".equals(modelService.semaphore)) {
@@ -276,9 +287,6 @@ public class ServiceDispatcher {
         boolean isFailure = false;
         boolean isError = false;
 
-        // set up the running service log
-        RunningService rs = this.logService(localName, modelService, GenericEngine.SYNC_MODE);
-
         // get eventMap once for all calls for speed, don't do event calls if it is null
         Map<String, List<ServiceEcaRule>> eventMap = ServiceEcaUtil.getServiceEventMap(modelService.name);
 
@@ -527,7 +535,6 @@ public class ServiceDispatcher {
                     Debug.logError(te, "Cannot rollback transaction", module);
                 }
                 checkDebug(modelService, 0, debugging);
-                rs.setEndStamp();
                 if (t instanceof ServiceAuthException) {
                     throw (ServiceAuthException) t;
                 } else if (t instanceof ServiceValidationException) {
@@ -593,7 +600,6 @@ public class ServiceDispatcher {
         if (eventMap != null) ServiceEcaUtil.evalRules(modelService.name, eventMap, "return", ctx, ecaContext, result, isError, isFailure);
 
         checkDebug(modelService, 0, debugging);
-        rs.setEndStamp();
 
         long timeToRun = System.currentTimeMillis() - serviceStartTime;
         if (Debug.timingOn() && timeToRun > 50) {
@@ -1069,24 +1075,8 @@ public class ServiceDispatcher {
 
     private RunningService logService(String localName, ModelService modelService, int mode) {
         // set up the running service log
-        RunningService rs = new RunningService(localName, modelService, mode);
-        if (runLog == null) {
-            Debug.logWarning("LRUMap is null", module);
-        } else {
-            synchronized(runLog) {
-                try {
-                    runLog.put(rs, this);
-                } catch (Throwable t) {
-                    Debug.logWarning("LRUMap problem; resetting LRU [" + runLog.size() + "]", module);
-                    runLog.clear();
-                    try {
-                        runLog.put(rs, this);
-                    } catch (Throwable t2) {
-                        Debug.logError(t2, "Unable to put() in reset LRU map!", module);
-                    }
-                }
-            }
-        }
+        RunningService rs = new RunningService(localName, modelService, mode, this);
+        ServiceStatistics.serviceStarted(rs);
         return rs;
     }
 
@@ -1126,7 +1116,17 @@ public class ServiceDispatcher {
         ServiceDispatcher.enableSvcs = enable;
     }
 
+    /**
+     * Gets the last services called with their dispatcher, the most recent first.
+     * @return a <code>Map</code> of <code>RunningService</code> to <code>ServiceDispatcher</code>
+     * @deprecated use {@link ServiceStatistics#getRecentServices()}
+     */
+    @Deprecated
     public static Map<RunningService, ServiceDispatcher> getServiceLogMap() {
+        Map<RunningService, ServiceDispatcher> runLog = new LinkedHashMap<RunningService, ServiceDispatcher>();
+        for (RunningService rs : ServiceStatistics.getRecentServices()) {
+            runLog.put(rs, rs.getDispatcher());
+        }
         return runLog;
     }
 
@@ -0,0 +1,364 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+/* This file has been modified by Open Source Strategies, Inc. */
+package org.ofbiz.service;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import javolution.util.FastList;
+import javolution.util.FastMap;
+
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.service.engine.GenericEngine;
+
+/**
+ * Runtime statistics of a service: the number of calls, errors and failures, the calls in progress, a
+ * histogram of the run times, from which the percentiles are estimated, and the wait and hold times of its semaphore.
+ * <p>
+ * All the counters are atomic so the services can record their calls without taking any lock. The last
+ * <code>ServiceDispatcher.lruLogSize</code> calls are also kept in a ring buffer, see {@link #getRecentServices()}.
+ */
+public final class ServiceStatistics implements ServiceStatisticsMXBean {
+
+    public static final String module = ServiceStatistics.class.getName();
+
+    /** Upper bounds in milliseconds of the histogram buckets, the last bucket has the longer times. */
+    private static final long[] BUCKET_BOUNDS = {1, 2, 3, 5, 7, 10, 15, 20, 30, 50, 75, 100, 150, 200, 300, 500, 750,
+        1000, 1500, 2000, 3000, 5000, 7500, 10000, 15000, 20000, 30000, 60000, 120000, 300000, Long.MAX_VALUE};
+
+    private static final ConcurrentMap<String, ServiceStatistics> statistics = new ConcurrentHashMap<String, ServiceStatistics>();
+    private static final AtomicReferenceArray<RunningService> recentServices = new AtomicReferenceArray<RunningService>(ServiceDispatcher.lruLogSize);
+    private static final AtomicLong recentIndex = new AtomicLong();
+
+    private final String serviceName;
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong inFlight = new AtomicLong();
+    private final AtomicLong asyncRequests = new AtomicLong();
+    private final AtomicLong totalTime = new AtomicLong();
+    private final AtomicLong maxTime = new AtomicLong();
+    private final AtomicLongArray histogram = new AtomicLongArray(BUCKET_BOUNDS.length);
+    private final AtomicLong semaphoreAcquired = new AtomicLong();
+    private final AtomicLong semaphoreRejected = new AtomicLong();
+    private final AtomicLong totalSemaphoreWait = new AtomicLong();
+    private final AtomicLong maxSemaphoreWait = new AtomicLong();
+    private final AtomicLong totalSemaphoreHold = new AtomicLong();
+    private final AtomicLong maxSemaphoreHold = new AtomicLong();
+
+    private ServiceStatistics(String serviceName) {
+        this.serviceName = serviceName;
+    }
+
+    /**
+     * Gets the statistics of a service, creating and registering them in JMX the first time.
+     * @param serviceName the service name
+     * @return the <code>ServiceStatistics</code>
+     */
+    public static ServiceStatistics getStatistics(String serviceName) {
+        ServiceStatistics serviceStatistics = statistics.get(serviceName);
+        if (serviceStatistics == null) {
+            ServiceStatistics newStatistics = new ServiceStatistics(serviceName);
+            serviceStatistics = statistics.putIfAbsent(serviceName, newStatistics);
+            if (serviceStatistics == null) {
+                serviceStatistics = newStatistics;
+                registerMBean(newStatistics);
+            }
+        }
+        return serviceStatistics;
+    }
+
+    private static void registerMBean(ServiceStatistics serviceStatistics) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName("org.ofbiz.service:type=ServiceStatistics,name=" + ObjectName.quote(serviceStatistics.serviceName));
+            if (!server.isRegistered(name)) {
+                server.registerMBean(serviceStatistics, name);
+            }
+        } catch (Exception e) {
+            Debug.logWarning(e, "Could not register the JMX statistics of service [" + serviceStatistics.serviceName + "]", module);
+        }
+    }
+
+    /**
+     * Gets the statistics of all the services called since the start.
+     * @return a <code>Collection</code> of <code>ServiceStatistics</code>
+     */
+    public static Collection<ServiceStatistics> getAllStatistics() {
+        return Collections.unmodifiableCollection(statistics.values());
+    }
+
+    /**
+     * Gets the last services called, the most recent first.
+     * @return a <code>List</code> of <code>RunningService</code>
+     */
+    public static List<RunningService> getRecentServices() {
+        List<RunningService> services = FastList.newInstance();
+        long last = recentIndex.get();
+        int size = recentServices.length();
+        for (long i = last - 1; i >= 0 && i >= last - size; i--) {
+            RunningService rs = recentServices.get((int) (i % size));
+            if (rs != null) {
+                services.add(rs);
+            }
+        }
+        return services;
+    }
+
+    /**
+     * Records the start of a service call.
+     * @param rs the <code>RunningService</code> of the call
+     */
+    static void serviceStarted(RunningService rs) {
+        ServiceStatistics serviceStatistics = getStatistics(rs.getModelService().name);
+        if (rs.getMode() == GenericEngine.SYNC_MODE) {
+            serviceStatistics.inFlight.incrementAndGet();
+        } else {
+            serviceStatistics.asyncRequests.incrementAndGet();
+        }
+        int size = recentServices.length();
+        recentServices.set((int) (recentIndex.getAndIncrement() % size), rs);
+    }
+
+    /**
+     * Records the end of a synchronous service call.
+     * @param rs the <code>RunningService</code> of the call
+     * @param result the result of the service, or <code>null</code> if it threw an exception
+     */
+    static void serviceFinished(RunningService rs, Map<String, Object> result) {
+        rs.setEndStamp();
+        ServiceStatistics serviceStatistics = getStatistics(rs.getModelService().name);
+        serviceStatistics.inFlight.decrementAndGet();
+        serviceStatistics.count.incrementAndGet();
+        if (result == null || ServiceUtil.isError(result)) {
+            serviceStatistics.errors.incrementAndGet();
+        } else if (ServiceUtil.isFailure(result)) {
+            serviceStatistics.failures.incrementAndGet();
+        }
+        long time = Math.max(0, rs.getEndStamp().getTime() - rs.getStartStamp().getTime());
+        serviceStatistics.totalTime.addAndGet(time);
+        updateMax(serviceStatistics.maxTime, time);
+        serviceStatistics.histogram.incrementAndGet(getBucket(time));
+    }
+
+    /**
+     * Records a semaphore lock obtained by a call of this service.
+     * @param waitTime the time in milliseconds the call waited for the lock
+     */
+    public void semaphoreAcquired(long waitTime) {
+        semaphoreAcquired.incrementAndGet();
+        totalSemaphoreWait.addAndGet(waitTime);
+        updateMax(maxSemaphoreWait, waitTime);
+    }
+
+    /**
+     * Records a call of this service which could not get the semaphore lock, because it was locked or the wait timed out.
+     * @param waitTime the time in milliseconds the call waited for the lock
+     */
+    public void semaphoreRejected(long waitTime) {
+        semaphoreRejected.incrementAndGet();
+        totalSemaphoreWait.addAndGet(waitTime);
+        updateMax(maxSemaphoreWait, waitTime);
+    }
+
+    /**
+     * Records the release of a semaphore lock.
+     * @param holdTime the time in milliseconds the lock was held
+     */
+    public void semaphoreReleased(long holdTime) {
+        totalSemaphoreHold.addAndGet(holdTime);
+        updateMax(maxSemaphoreHold, holdTime);
+    }
+
+    private static void updateMax(AtomicLong max, long value) {
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    private static int getBucket(long time) {
+        int low = 0;
+        int high = BUCKET_BOUNDS.length - 1;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (time < BUCKET_BOUNDS[middle]) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+        return low;
+    }
+
+    public String getServiceName() {
+        return serviceName;
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getErrors() {
+        return errors.get();
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+
+    public long getInFlight() {
+        return inFlight.get();
+    }
+
+    public long getAsyncRequests() {
+        return asyncRequests.get();
+    }
+
+    public long getAverageTime() {
+        long calls = count.get();
+        return calls > 0 ? totalTime.get() / calls : 0;
+    }
+
+    public long getMaxTime() {
+        return maxTime.get();
+    }
+
+    public long getSemaphoreAcquired() {
+        return semaphoreAcquired.get();
+    }
+
+    public long getSemaphoreRejected() {
+        return semaphoreRejected.get();
+    }
+
+    public long getAverageSemaphoreWait() {
+        long requests = semaphoreAcquired.get() + semaphoreRejected.get();
+        return requests > 0 ? totalSemaphoreWait.get() / requests : 0;
+    }
+
+    public long getMaxSemaphoreWait() {
+        return maxSemaphoreWait.get();
+    }
+
+    public long getAverageSemaphoreHold() {
+        long acquired = semaphoreAcquired.get();
+        return acquired > 0 ? totalSemaphoreHold.get() / acquired : 0;
+    }
+
+    public long getMaxSemaphoreHold() {
+        return maxSemaphoreHold.get();
+    }
+
+    /**
+     * Estimates a percentile of the run times from the histogram.
+     * @param percentile the percentile, between 0 and 100
+     * @return the upper bound of the histogram bucket holding the percentile, not more than the max time
+     */
+    public long getPercentile(double percentile) {
+        long total = 0;
+        long[] buckets = new long[histogram.length()];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = histogram.get(i);
+            total += buckets[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(total * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if (seen >= rank) {
+                return Math.min(BUCKET_BOUNDS[i], maxTime.get());
+            }
+        }
+        return maxTime.get();
+    }
+
+    public long getPercentile50() {
+        return getPercentile(50);
+    }
+
+    public long getPercentile95() {
+        return getPercentile(95);
+    }
+
+    public long getPercentile99() {
+        return getPercentile(99);
+    }
+
+    /** Resets the counters, except the calls in progress. */
+    public void reset() {
+        count.set(0);
+        errors.set(0);
+        failures.set(0);
+        asyncRequests.set(0);
+        totalTime.set(0);
+        maxTime.set(0);
+        for (int i = 0; i < histogram.length(); i++) {
+            histogram.set(i, 0);
+        }
+        semaphoreAcquired.set(0);
+        semaphoreRejected.set(0);
+        totalSemaphoreWait.set(0);
+        maxSemaphoreWait.set(0);
+        totalSemaphoreHold.set(0);
+        maxSemaphoreHold.set(0);
+    }
+
+    /**
+     * Gets a snapshot of the statistics.
+     * @return a <code>Map</code> with the service name, the counters, the average, max and percentile times
+     *  and the semaphore counters and times
+     */
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = FastMap.newInstance();
+        map.put("serviceName", serviceName);
+        map.put("count", getCount());
+        map.put("errors", getErrors());
+        map.put("failures", getFailures());
+        map.put("inFlight", getInFlight());
+        map.put("asyncRequests", getAsyncRequests());
+        map.put("averageTime", getAverageTime());
+        map.put("maxTime", getMaxTime());
+        map.put("percentile50", getPercentile50());
+        map.put("percentile95", getPercentile95());
+        map.put("percentile99", getPercentile99());
+        map.put("semaphoreAcquired", getSemaphoreAcquired());
+        map.put("semaphoreRejected", getSemaphoreRejected());
+        map.put("averageSemaphoreWait", getAverageSemaphoreWait());
+        map.put("maxSemaphoreWait", getMaxSemaphoreWait());
+        map.put("averageSemaphoreHold", getAverageSemaphoreHold());
+        map.put("maxSemaphoreHold", getMaxSemaphoreHold());
+        return map;
+    }
+}
@@ -0,0 +1,64 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+/* This file has been modified by Open Source Strategies, Inc. */
+package org.ofbiz.service;
+
+/**
+ * JMX view of the runtime statistics of a service, registered as
+ * <code>org.ofbiz.service:type=ServiceStatistics,name=&lt;service name&gt;</code>.
+ * The times are in milliseconds.
+ */
+public interface ServiceStatisticsMXBean {
+
+    public String getServiceName();
+
+    public long getCount();
+
+    public long getErrors();
+
+    public long getFailures();
+
+    public long getInFlight();
+
+    public long getAsyncRequests();
+
+    public long getAverageTime();
+
+    public long getMaxTime();
+
+    public long getPercentile50();
+
+    public long getPercentile95();
+
+    public long getPercentile99();
+
+    public long getSemaphoreAcquired();
+
+    public long getSemaphoreRejected();
+
+    public long getAverageSemaphoreWait();
+
+    public long getMaxSemaphoreWait();
+
+    public long getAverageSemaphoreHold();
+
+    public long getMaxSemaphoreHold();
+
+    public void reset();
+}
@@ -31,7 +31,6 @@ import org.ofbiz.base.util.UtilValidate;
 import org.ofbiz.entity.GenericEntityException;
 import org.ofbiz.entity.GenericValue;
 import org.ofbiz.entity.serialize.SerializeException;
-import org.ofbiz.entity.serialize.XmlSerializer;
 import org.ofbiz.service.DispatchContext;
 import org.ofbiz.service.GenericRequester;
 import org.ofbiz.service.GenericServiceException;
@@ -92,7 +91,7 @@ public abstract class GenericAsyncEngine extends AbstractEngine {
 
                 GenericValue runtimeData = dispatcher.getDelegator().makeValue("RuntimeData", "runtimeDataId", dataId);
 
-                runtimeData.set("runtimeInfo", XmlSerializer.serialize(context));
+                runtimeData.set("runtimeInfo", JobManager.serializeRuntimeInfo(context));
                 runtimeData.create();
 
                 // Get the userLoginId out of the context
@@ -142,7 +141,7 @@ public abstract class GenericAsyncEngine extends AbstractEngine {
                 String jobId = modelService.name + "." + name;
                 job = new GenericServiceJob(dctx, jobId, name, modelService.name, context, requester);
                 try {
-                    dispatcher.getJobManager().runJob(job);
+                    dispatcher.getJobManager().runJob(job, modelService.priority);
                 } catch (JobManagerException jse) {
                     throw new GenericServiceException("Cannot run job.", jse);
                 }
@@ -23,6 +23,8 @@ import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.ofbiz.service.DispatchContext;
 import org.ofbiz.service.GenericServiceException;
@@ -38,6 +40,9 @@ public final class StandardJavaEngine extends GenericAsyncEngine {
 
     public static final String module = StandardJavaEngine.class.getName();
 
+    /** The resolved method of each service, by service name. */
+    private final ConcurrentMap<String, ServiceMethod> serviceMethods = new ConcurrentHashMap<String, ServiceMethod>();
+
     public StandardJavaEngine(ServiceDispatcher dispatcher) {
         super(dispatcher);
     }
@@ -95,12 +100,11 @@ public final class StandardJavaEngine extends GenericAsyncEngine {
         }
 
         try {
-            Class<?> c = cl.loadClass(this.getLocation(modelService));
-            Method m = c.getMethod(modelService.invoke, DispatchContext.class, Map.class);
-            if (Modifier.isStatic(m.getModifiers())) {
-                result = m.invoke(null, dctx, context);
+            ServiceMethod serviceMethod = getServiceMethod(modelService, cl);
+            if (serviceMethod.isStatic) {
+                result = serviceMethod.method.invoke(null, dctx, context);
             } else {
-                result = m.invoke(c.newInstance(), dctx, context);
+                result = serviceMethod.method.invoke(serviceMethod.serviceClass.newInstance(), dctx, context);
             }
         } catch (ClassNotFoundException cnfe) {
             throw new GenericServiceException("Cannot find service [" + modelService.name + "] location class", cnfe);
@@ -124,5 +128,41 @@ public final class StandardJavaEngine extends GenericAsyncEngine {
 
         return result;
     }
-}
 
+    // Gets the resolved method of a service, resolving it again when the service definition was reloaded.
+    private ServiceMethod getServiceMethod(ModelService modelService, ClassLoader cl) throws ClassNotFoundException, NoSuchMethodException {
+        ServiceMethod serviceMethod = serviceMethods.get(modelService.name);
+        if (serviceMethod == null || serviceMethod.modelService != modelService || serviceMethod.classLoader != cl) {
+            Class<?> c = cl.loadClass(this.getLocation(modelService));
+            serviceMethod = new ServiceMethod(modelService, cl, c, c.getMethod(modelService.invoke, DispatchContext.class, Map.class));
+            serviceMethods.put(modelService.name, serviceMethod);
+        }
+        return serviceMethod;
+    }
+
+    /**
+     * The class and method implementing a service, as resolved for a given service definition and class loader.
+     */
+    private static final class ServiceMethod {
+
+        private final ModelService modelService;
+        private final ClassLoader classLoader;
+        private final Class<?> serviceClass;
+        private final Method method;
+        private final boolean isStatic;
+
+        private ServiceMethod(ModelService modelService, ClassLoader classLoader, Class<?> serviceClass, Method method) {
+            this.modelService = modelService;
+            this.classLoader = classLoader;
+            this.serviceClass = serviceClass;
+            this.method = method;
+            this.isStatic = Modifier.isStatic(method.getModifiers());
+            try {
+                // skip the access checks on each invoke, the method is public
+                method.setAccessible(true);
+            } catch (SecurityException e) {
+                Debug.logVerbose("Cannot suppress the access checks of " + method + ": " + e.getMessage(), module);
+            }
+        }
+    }
+}
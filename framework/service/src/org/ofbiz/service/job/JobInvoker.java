@@ -47,8 +47,10 @@ public class JobInvoker implements Runnable {
 
     private volatile boolean run = false;
     private volatile Job currentJob = null;
+    private volatile JobQueue.QueuedJob currentQueuedJob = null;
     private volatile int statusCode = 0;
     private volatile long jobStart = 0;
+    private long idleSince = System.currentTimeMillis();
 
     public JobInvoker(JobPoller jp) {
         this(jp, WAIT_TIME);
@@ -187,6 +189,34 @@ public class JobInvoker implements Runnable {
         }
     }
 
+    /**
+     * Gets the pool of the current running job.
+     * @return the pool id, or null when sleeping
+     */
+    public String getPoolId() {
+        JobQueue.QueuedJob queuedJob = this.currentQueuedJob;
+        return queuedJob == null ? null : queuedJob.getPoolId();
+    }
+
+    /**
+     * Gets the priority of the current running job.
+     * @return the priority, or null when sleeping
+     */
+    public Integer getPriority() {
+        JobQueue.QueuedJob queuedJob = this.currentQueuedJob;
+        return queuedJob == null ? null : queuedJob.getPriority();
+    }
+
+    /**
+     * Gets the time the current running job waited in the run queue.
+     * @return the time in milliseconds, or 0 when sleeping
+     */
+    public long getQueueTime() {
+        JobQueue.QueuedJob queuedJob = this.currentQueuedJob;
+        long start = this.jobStart;
+        return queuedJob == null || start == 0 ? 0 : start - queuedJob.getQueuedTime();
+    }
+
     /**
      * Returns the name of the service being run.
      * @return The name of the service being run.
@@ -220,36 +250,55 @@ public class JobInvoker implements Runnable {
 
     public synchronized void run() {
         while (run) {
-            Job job = jp.next();
+            JobQueue.QueuedJob queuedJob = null;
+            try {
+                queuedJob = jp.nextQueued(wait);
+            } catch (InterruptedException ie) {
+                Debug.logError(ie, "JobInvoker.run() : InterruptedException", module);
+                stop();
+            }
+            Job job = queuedJob == null ? null : queuedJob.getJob();
 
             if (job == null) {
-                try {
-                    java.lang.Thread.sleep(wait);
-                } catch (InterruptedException ie) {
-                    Debug.logError(ie, "JobInvoker.run() : InterruptedException", module);
-                    stop();
+                if (jp.retireIdleThread(this, System.currentTimeMillis() - idleSince)) {
+                    if (Debug.verboseOn()) Debug.logVerbose("Invoker: " + thread.getName() + " idle, stopping", module);
                 }
             } else {
                 Debug.logInfo("Invoker [" + thread.getName() + "] received job [" + job.getJobName() + "] from poller [" + jp.toString() + "]", module);
 
                 // setup the current job settings
                 this.currentJob = job;
+                this.currentQueuedJob = queuedJob;
                 this.statusCode = 1;
                 this.jobStart = System.currentTimeMillis();
+                JobPoolStatistics statistics = jp.getPoolStatistics(job);
+                statistics.jobStarted(job.getRuntime() > 0 ? jobStart - job.getRuntime() : 0);
+                JobPoolStatistics serviceStatistics = jp.getServiceStatistics(job);
+                if (serviceStatistics != null) {
+                    serviceStatistics.jobStarted(jobStart - queuedJob.getQueuedTime());
+                }
 
                 // execute the job
                 if (Debug.verboseOn()) Debug.logVerbose("Invoker: " + thread.getName() + " executing job -- " + job.getJobName(), module);
+                boolean isValid = true;
                 try {
                     job.exec();
                 } catch (InvalidJobException e) {
+                    isValid = false;
                     Debug.logWarning(e.getMessage(), module);
                 }
+                statistics.jobFinished(System.currentTimeMillis() - jobStart, isValid);
+                if (serviceStatistics != null) {
+                    serviceStatistics.jobFinished(System.currentTimeMillis() - jobStart, isValid);
+                }
                 if (Debug.verboseOn()) Debug.logVerbose("Invoker: " + thread.getName() + " finished executing job -- " + job.getJobName(), module);
 
                 // clear the current job settings
                 this.currentJob = null;
+                this.currentQueuedJob = null;
                 this.statusCode = 0;
                 this.jobStart = 0;
+                this.idleSince = System.currentTimeMillis();
 
                 // sanity check; make sure we don't have any transactions in place
                 try {
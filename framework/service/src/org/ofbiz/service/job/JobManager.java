@@ -19,12 +19,16 @@
 /* This file has been modified by Open Source Strategies, Inc. */
 package org.ofbiz.service.job;
 
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.sql.Timestamp;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
 
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+
 import javolution.util.FastList;
 import javolution.util.FastMap;
 
@@ -41,10 +45,12 @@ import org.ofbiz.entity.condition.EntityCondition;
 import org.ofbiz.entity.condition.EntityConditionList;
 import org.ofbiz.entity.condition.EntityExpr;
 import org.ofbiz.entity.condition.EntityOperator;
+import org.ofbiz.entity.serialize.BinarySerializer;
 import org.ofbiz.entity.serialize.SerializeException;
 import org.ofbiz.entity.serialize.XmlSerializer;
 import org.ofbiz.entity.transaction.GenericTransactionException;
 import org.ofbiz.entity.transaction.TransactionUtil;
+import org.ofbiz.entity.util.EntityFindOptions;
 import org.ofbiz.service.DispatchContext;
 import org.ofbiz.service.GenericDispatcher;
 import org.ofbiz.service.LocalDispatcher;
@@ -61,11 +67,29 @@ public class JobManager {
     public static final Map<String, Object> updateFields = UtilMisc.<String, Object>toMap("runByInstanceId", instanceId, "statusId", "SERVICE_QUEUED");
     public static final String module = JobManager.class.getName();
     public static final String dispatcherName = "JobDispatcher";
+    public static final int POLL_BATCH_SIZE = 50;
     public static Map<String, JobManager> registeredManagers = FastMap.newInstance();
 
     protected Delegator delegator;
     protected JobPoller jp;
 
+    /**
+     * Serializes the context of a persisted job for <code>RuntimeData.runtimeInfo</code>, in the compact form of
+     * <code>BinarySerializer</code> unless <code>runtimeData.serializer</code> is set to <code>xml</code> in
+     * <code>service.properties</code>. Both forms are read by <code>BinarySerializer.deserialize</code>.
+     * @param context the context to serialize
+     * @return the serialized context
+     * @throws SerializeException if an object of the context cannot be serialized
+     * @throws FileNotFoundException if the XML serialization fails
+     * @throws IOException if the XML serialization fails
+     */
+    public static String serializeRuntimeInfo(Map<String, ? extends Object> context) throws SerializeException, FileNotFoundException, IOException {
+        if ("xml".equals(UtilProperties.getPropertyValue("service", "runtimeData.serializer", "binary"))) {
+            return XmlSerializer.serialize(context);
+        }
+        return BinarySerializer.serialize(context);
+    }
+
     /** Creates a new JobManager object. */
     public JobManager(Delegator delegator) {
         this(delegator, true);
@@ -95,8 +119,19 @@ public class JobManager {
 
     /** Queues a Job to run now. */
     public void runJob(Job job) throws JobManagerException {
+        runJob(job, 0);
+    }
+
+    /**
+     * Queues a job to run now in the run queue of its pool; when the pool is full the job is run in the calling
+     * thread or rejected, see {@link JobPoller#queueNow(Job, int)}.
+     * @param job the job to run
+     * @param priority the priority of the job, the jobs with a higher priority are run first
+     * @throws JobManagerException if the job was rejected
+     */
+    public void runJob(Job job, int priority) throws JobManagerException {
         if (job.isValid()) {
-            jp.queueNow(job);
+            jp.queueNow(job, priority);
         }
     }
 
@@ -137,6 +172,10 @@ public class JobManager {
         EntityCondition poolCondition = EntityCondition.makeCondition(poolsExpr, EntityOperator.OR);
         EntityCondition mainCondition = EntityCondition.makeCondition(UtilMisc.toList(baseCondition, poolCondition));
 
+        if (isClaimMode()) {
+            return claim(mainCondition, order);
+        }
+
         // we will loop until we have no more to do
         boolean pollDone = false;
 
@@ -207,6 +246,112 @@ public class JobManager {
         return poll;
     }
 
+    /**
+     * Claims a batch of at most poll-batch-size due jobs for this instance, in a single transaction.
+     * The due jobs are selected FOR UPDATE (with SKIP LOCKED when the datasource row-lock is skip-locked, so that
+     * concurrent instances claim different jobs instead of waiting on each other), then only those still free are
+     * stamped with this instance id, which keeps the claim safe on databases without row locking.
+     * @param mainCondition the condition selecting the due jobs of the pools run by this instance
+     * @param order the order the jobs should be run in
+     * @return the <code>List</code> of claimed <code>Job</code>, empty if none could be claimed
+     */
+    protected List<Job> claim(EntityCondition mainCondition, List<String> order) {
+        List<Job> poll = FastList.newInstance();
+        boolean beganTransaction = false;
+        try {
+            beganTransaction = TransactionUtil.begin();
+            if (!beganTransaction) {
+                Debug.logError("Unable to poll for jobs; transaction was not started by this process", module);
+                return poll;
+            }
+
+            DispatchContext dctx = getDispatcher().getDispatchContext();
+            if (dctx == null) {
+                Debug.logError("Unable to locate DispatchContext object; not running jobs!", module);
+                return poll;
+            }
+
+            EntityFindOptions findOptions = new EntityFindOptions();
+            findOptions.setForUpdate(true);
+            findOptions.setMaxRows(pollBatchSize());
+            List<GenericValue> dueJobs = delegator.findList("JobSandbox", mainCondition, UtilMisc.toSet("jobId"), order, findOptions, false);
+            if (UtilValidate.isEmpty(dueJobs)) {
+                return poll;
+            }
+            List<String> jobIds = FastList.newInstance();
+            for (GenericValue dueJob : dueJobs) {
+                jobIds.add(dueJob.getString("jobId"));
+            }
+
+            // stamp the jobs which were not claimed by another instance meanwhile
+            EntityCondition idCondition = EntityCondition.makeCondition("jobId", EntityOperator.IN, jobIds);
+            delegator.storeByCondition("JobSandbox", updateFields, EntityCondition.makeCondition(UtilMisc.toList(idCondition,
+                    EntityCondition.makeCondition("runByInstanceId", EntityOperator.EQUALS, null))));
+            List<GenericValue> jobEnt = delegator.findList("JobSandbox", EntityCondition.makeCondition(UtilMisc.toList(idCondition,
+                    EntityCondition.makeCondition(updateFields))), null, order, null, false);
+
+            List<Job> localPoll = FastList.newInstance();
+            for (GenericValue v : jobEnt) {
+                Job job = new PersistedServiceJob(dctx, v, null);
+                try {
+                    job.queue();
+                    localPoll.add(job);
+                } catch (InvalidJobException e) {
+                    Debug.logError(e, module);
+                }
+            }
+
+            // nothing should go wrong at this point, so add to the general list
+            poll.addAll(localPoll);
+        } catch (Throwable t) {
+            // catch Throwable so nothing slips through the cracks... this is a fairly sensitive operation
+            String errMsg = "Error in claiming JobSandbox: [" + t.toString() + "]. Rolling back transaction.";
+            Debug.logError(t, errMsg, module);
+            try {
+                // only rollback the transaction if we started one...
+                TransactionUtil.rollback(beganTransaction, errMsg, t);
+            } catch (GenericEntityException e2) {
+                Debug.logError(e2, "[Delegator] Could not rollback transaction: " + e2.toString(), module);
+            }
+        } finally {
+            try {
+                // only commit the transaction if we started one... but make sure we try
+                TransactionUtil.commit(beganTransaction);
+            } catch (GenericTransactionException e) {
+                String errMsg = "Transaction error trying to commit when claiming the JobSandbox: " + e.toString();
+                // we don't really want to do anything different, so just log and move on
+                Debug.logError(e, errMsg, module);
+            }
+        }
+        return poll;
+    }
+
+    /**
+     * Checks if a poll returned a full batch, which means more jobs are probably due.
+     * @param pollSize the number of jobs returned by <code>poll</code>
+     * @return always false unless poll-claim-mode is select-for-update
+     */
+    public boolean isPollBatchFull(int pollSize) {
+        return isClaimMode() && pollSize >= pollBatchSize();
+    }
+
+    private boolean isClaimMode() {
+        return "select-for-update".equals(ServiceConfigUtil.getElementAttr("thread-pool", "poll-claim-mode"));
+    }
+
+    private int pollBatchSize() {
+        int size = POLL_BATCH_SIZE;
+        String sizeStr = ServiceConfigUtil.getElementAttr("thread-pool", "poll-batch-size");
+        if (UtilValidate.isNotEmpty(sizeStr)) {
+            try {
+                size = Integer.parseInt(sizeStr);
+            } catch (NumberFormatException nfe) {
+                Debug.logError("Problems reading values from serviceengine.xml file [" + nfe.toString() + "]. Using defaults.", module);
+            }
+        }
+        return size;
+    }
+
     public synchronized void reloadCrashedJobs() {
         String instanceId = UtilProperties.getPropertyValue("general.properties", "unique.instanceId", "ofbiz0");
         List<GenericValue> crashed = null;
@@ -337,7 +482,7 @@ public class JobManager {
         String dataId = null;
         try {
             GenericValue runtimeData = delegator.makeValue("RuntimeData");
-            runtimeData.set("runtimeInfo", XmlSerializer.serialize(context));
+            runtimeData.set("runtimeInfo", serializeRuntimeInfo(context));
             runtimeData = delegator.createSetNextSeqId(runtimeData);
             dataId = runtimeData.getString("runtimeDataId");
         } catch (GenericEntityException ee) {
@@ -421,6 +566,41 @@ public class JobManager {
         } catch (GenericEntityException e) {
             throw new JobManagerException(e.getMessage(), e);
         }
+
+        // a job due now in a pool run by this instance does not have to wait for the next poll
+        if (startTime <= System.currentTimeMillis()) {
+            List<String> pools = ServiceConfigUtil.getRunPools();
+            String jobPoolId = (String) jFields.get("poolId");
+            if (jobPoolId == null || (pools != null && pools.contains(jobPoolId))) {
+                wakeUpPollerAfterCommit();
+            }
+        }
+    }
+
+    /**
+     * Wakes up the poller once the current transaction commits, so it can see the new job.
+     */
+    private void wakeUpPollerAfterCommit() {
+        final JobPoller poller = jp;
+        if (poller == null) {
+            return;
+        }
+        try {
+            if (TransactionUtil.getStatus() == Status.STATUS_ACTIVE) {
+                TransactionUtil.registerSynchronization(new Synchronization() {
+                    public void beforeCompletion() { }
+                    public void afterCompletion(int status) {
+                        if (status == Status.STATUS_COMMITTED) {
+                            poller.wakeUp();
+                        }
+                    }
+                });
+            } else {
+                poller.wakeUp();
+            }
+        } catch (GenericTransactionException e) {
+            Debug.logWarning(e, "Could not register the job poller wake up, the job will run on the next poll", module);
+        }
     }
 
     /**
@@ -439,6 +619,22 @@ public class JobManager {
         return jp.getPoolState();
     }
 
+    /**
+     * Get the throughput and latency statistics of the jobs run from each pool.
+     * @return List containing a Map of statistics for each pool.
+     */
+    public List<Map<String, Object>> getPoolStatistics() {
+        return jp.getPoolStatistics();
+    }
+
+    /**
+     * Get the queue time and run time statistics of the non-persisted jobs of each service.
+     * @return List containing a Map of statistics for each service.
+     */
+    public List<Map<String, Object>> getServiceStatistics() {
+        return jp.getServiceStatistics();
+    }
+
     /** Close out the scheduler thread. */
     public void shutdown() {
         if (jp != null) {
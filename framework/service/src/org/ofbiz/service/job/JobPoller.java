@@ -21,15 +21,34 @@ package org.ofbiz.service.job;
 
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.transaction.Transaction;
 
 import javolution.util.FastList;
 import javolution.util.FastMap;
 
 import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.UtilProperties;
+import org.ofbiz.base.util.UtilValidate;
+import org.ofbiz.entity.transaction.GenericTransactionException;
+import org.ofbiz.entity.transaction.TransactionUtil;
 import org.ofbiz.service.config.ServiceConfigUtil;
 
 /**
  * JobPoller - Polls for persisted jobs to run.
+ * <p>
+ * The jobs are handed to the <code>JobInvoker</code> threads through a concurrent queue, and the number of invokers
+ * follows the queue depth between the min-threads and max-threads of the thread-pool configuration.
+ * The poller waits poll-db-millis between two polls, unless it is woken up by <code>wakeUp</code>, which the
+ * <code>JobManager</code> calls when a job due now is persisted by this instance.
+ * <p>
+ * The run queue is a <code>JobQueue</code> ordered by the priority of the services. The jobs waiting can be bounded per
+ * pool with <code>jobQueue.[poolId].capacity</code> in <code>service.properties</code>, the non-persisted jobs being in the
+ * <code>local</code> pool: when the pool is full a non-persisted job is run in the calling thread or rejected according to
+ * <code>jobQueue.[poolId].rejectPolicy</code>, and the poller does not claim more persisted jobs while its pools are full.
  */
 public class JobPoller implements Runnable {
 
@@ -39,22 +58,35 @@ public class JobPoller implements Runnable {
     public static final int MAX_THREADS = 15;
     public static final int MAX_JOBS = 3;
     public static final int POLL_WAIT = 20000;
+    /** Time after which an idle invoker above min-threads is stopped. */
+    public static final long IDLE_TTL = 60000;
+    /** Pool name used in the statistics for the jobs which are not persisted. */
+    public static final String LOCAL_POOL = "local";
+    /** Minimum time between two warnings that the jobs of a full pool are run by the callers. */
+    public static final long CALLER_RUNS_WARNING_INTERVAL = 60000;
     //public static final long MAX_TTL = 18000000;
 
     protected Thread thread = null;
     protected List<JobInvoker> pool = null;
-    protected List<Job> run = null;
+    protected JobQueue run = null;
     protected JobManager jm = null;
+    protected ConcurrentMap<String, JobPoolStatistics> poolStatistics = new ConcurrentHashMap<String, JobPoolStatistics>();
+    protected ConcurrentMap<String, JobPoolStatistics> serviceStatistics = new ConcurrentHashMap<String, JobPoolStatistics>();
+    protected ConcurrentMap<String, Long> callerRunsWarnings = new ConcurrentHashMap<String, Long>();
 
     protected volatile boolean isRunning = false;
 
+    // NOTE: the poller waits on its own lock so it can be woken up without holding the poller
+    private final Object wakeLock = new Object();
+    private boolean wakeRequested = false;
+
     /**
      * Creates a new JobScheduler
      * @param jm JobManager associated with this scheduler
      */
     public JobPoller(JobManager jm, boolean enabled) {
         this.jm = jm;
-        this.run = FastList.newInstance();
+        this.run = new JobQueue();
 
         // create the thread pool
         this.pool = createThreadPool();
@@ -79,7 +111,7 @@ public class JobPoller implements Runnable {
 
     protected JobPoller() {}
 
-    public synchronized void run() {
+    public void run() {
         try {
             // wait 30 seconds before the first poll
             java.lang.Thread.sleep(30000);
@@ -87,18 +119,31 @@ public class JobPoller implements Runnable {
         }
         while (isRunning) {
             try {
+                // do not claim more jobs than the run queue of the pools can hold, they can be run by another instance
+                if (isRunPoolsFull()) {
+                    if (Debug.verboseOn()) Debug.logVerbose("Run queue full for the pools " + ServiceConfigUtil.getRunPools() + ", not polling", module);
+                    waitForNextPoll(pollWaitTime());
+                    continue;
+                }
+
                 // grab a list of jobs to run.
                 List<Job> pollList = jm.poll();
                 //Debug.logInfo("Received poll list from JobManager [" + pollList.size() + "]", module);
 
-                for (Job job : pollList) {
-                    if (job.isValid()) {
-                        queueNow(job);
-                        //Debug.logInfo("Job [" + job.getJobId() + "] is queued", module);
+                if (pollList != null) {
+                    for (Job job : pollList) {
+                        if (job.isValid()) {
+                            queueNow(job);
+                            //Debug.logInfo("Job [" + job.getJobId() + "] is queued", module);
+                        }
                     }
                 }
-                // NOTE: using sleep instead of wait for stricter locking
-                java.lang.Thread.sleep(pollWaitTime());
+
+                // when a claiming poll got a full batch there are probably more jobs due, poll again as soon as the invokers can take them
+                if (pollList != null && jm.isPollBatchFull(pollList.size()) && run.size() < pool.size()) {
+                    continue;
+                }
+                waitForNextPoll(pollWaitTime());
             } catch (InterruptedException e) {
                 Debug.logError(e, module);
                 stop();
@@ -106,6 +151,28 @@ public class JobPoller implements Runnable {
         }
     }
 
+    /**
+     * Wakes up the poller so it polls for jobs right away instead of waiting for the end of poll-db-millis.
+     */
+    public void wakeUp() {
+        synchronized (wakeLock) {
+            wakeRequested = true;
+            wakeLock.notifyAll();
+        }
+    }
+
+    private void waitForNextPoll(long waitMillis) throws InterruptedException {
+        long until = System.currentTimeMillis() + waitMillis;
+        synchronized (wakeLock) {
+            long remaining = waitMillis;
+            while (!wakeRequested && isRunning && remaining > 0) {
+                wakeLock.wait(remaining);
+                remaining = until - System.currentTimeMillis();
+            }
+            wakeRequested = false;
+        }
+    }
+
     /**
      * Returns the JobManager
      */
@@ -118,6 +185,7 @@ public class JobPoller implements Runnable {
      */
     public void stop() {
         isRunning = false;
+        wakeUp();
         destroyThreadPool();
     }
 
@@ -133,11 +201,147 @@ public class JobPoller implements Runnable {
             stateMap.put("ttl", invoker.getTimeRemaining());
             stateMap.put("runTime", invoker.getCurrentRuntime());
             stateMap.put("status", invoker.getCurrentStatus());
+            stateMap.put("poolId", invoker.getPoolId());
+            stateMap.put("priority", invoker.getPriority());
+            stateMap.put("queueTime", invoker.getQueueTime());
             stateList.add(stateMap);
         }
         return stateList;
     }
 
+    /**
+     * Gets the queue time and run time statistics of the non-persisted jobs of each service, see {@link JobPoolStatistics#toMap()}.
+     * @return the <code>List</code> of statistics <code>Map</code>, which latency is the time the jobs waited in the run queue
+     */
+    public List<Map<String, Object>> getServiceStatistics() {
+        List<Map<String, Object>> statisticsList = FastList.newInstance();
+        for (JobPoolStatistics statistics : serviceStatistics.values()) {
+            Map<String, Object> statisticsMap = statistics.toMap();
+            statisticsMap.put("serviceName", statistics.getPoolId());
+            statisticsList.add(statisticsMap);
+        }
+        return statisticsList;
+    }
+
+    /**
+     * Gets the throughput and latency statistics of the jobs run from each pool, see {@link JobPoolStatistics#toMap()}.
+     * @return the <code>List</code> of statistics <code>Map</code>, with the run queue depth
+     */
+    public List<Map<String, Object>> getPoolStatistics() {
+        List<Map<String, Object>> statisticsList = FastList.newInstance();
+        for (JobPoolStatistics statistics : poolStatistics.values()) {
+            Map<String, Object> statisticsMap = statistics.toMap();
+            statisticsMap.put("queueDepth", run.getDepth(statistics.getPoolId()));
+            statisticsMap.put("queueCapacity", getQueueCapacity(statistics.getPoolId()));
+            statisticsList.add(statisticsMap);
+        }
+        Map<String, Object> queueMap = FastMap.newInstance();
+        queueMap.put("poolId", "*");
+        queueMap.put("queueDepth", run.size());
+        queueMap.put("invokers", pool.size());
+        statisticsList.add(queueMap);
+        return statisticsList;
+    }
+
+    /**
+     * Gets the statistics of the pool a job is run from.
+     * @param job a <code>Job</code> value
+     * @return a <code>JobPoolStatistics</code> value
+     */
+    public JobPoolStatistics getPoolStatistics(Job job) {
+        return getStatistics(poolStatistics, getPoolId(job));
+    }
+
+    /**
+     * Gets the statistics of the service of a non-persisted job.
+     * @param job a <code>Job</code> value
+     * @return a <code>JobPoolStatistics</code> value, or null if the job is persisted or does not run a service
+     */
+    public JobPoolStatistics getServiceStatistics(Job job) {
+        if (!(job instanceof GenericServiceJob) || job instanceof PersistedServiceJob) {
+            return null;
+        }
+        String serviceName = null;
+        try {
+            serviceName = ((GenericServiceJob) job).getServiceName();
+        } catch (InvalidJobException e) {
+            Debug.logWarning(e, module);
+        }
+        return serviceName == null ? null : getStatistics(serviceStatistics, serviceName);
+    }
+
+    private static JobPoolStatistics getStatistics(ConcurrentMap<String, JobPoolStatistics> statisticsMap, String id) {
+        JobPoolStatistics statistics = statisticsMap.get(id);
+        if (statistics == null) {
+            statistics = new JobPoolStatistics(id);
+            JobPoolStatistics existing = statisticsMap.putIfAbsent(id, statistics);
+            if (existing != null) {
+                statistics = existing;
+            }
+        }
+        return statistics;
+    }
+
+    /**
+     * Gets the pool a job is run from, which is <code>LOCAL_POOL</code> for the jobs which are not persisted.
+     * @param job a <code>Job</code> value
+     * @return the pool id
+     */
+    public static String getPoolId(Job job) {
+        String poolId = null;
+        if (job instanceof PersistedServiceJob) {
+            poolId = ((PersistedServiceJob) job).getPoolId();
+        }
+        return poolId == null ? LOCAL_POOL : poolId;
+    }
+
+    /**
+     * Gets the maximum number of jobs of a pool waiting in the run queue, from <code>jobQueue.[poolId].capacity</code>
+     * or else <code>jobQueue.capacity</code> in <code>service.properties</code>.
+     * @param poolId the pool
+     * @return the capacity, or 0 if the pool is not bounded
+     */
+    public static int getQueueCapacity(String poolId) {
+        String capacity = UtilProperties.getPropertyValue("service", "jobQueue." + poolId + ".capacity");
+        if (UtilValidate.isEmpty(capacity)) {
+            capacity = UtilProperties.getPropertyValue("service", "jobQueue.capacity", "0");
+        }
+        try {
+            return Math.max(0, Integer.parseInt(capacity.trim()));
+        } catch (NumberFormatException e) {
+            Debug.logWarning("Invalid job queue capacity [" + capacity + "] for pool [" + poolId + "], the pool is not bounded", module);
+            return 0;
+        }
+    }
+
+    /**
+     * Checks if a job which cannot be queued because its pool is full runs in the calling thread, from
+     * <code>jobQueue.[poolId].rejectPolicy</code> or else <code>jobQueue.rejectPolicy</code> in <code>service.properties</code>.
+     * @param poolId the pool
+     * @return true for the <code>caller-runs</code> policy, false for <code>abort</code>
+     */
+    public static boolean isCallerRuns(String poolId) {
+        String policy = UtilProperties.getPropertyValue("service", "jobQueue." + poolId + ".rejectPolicy");
+        if (UtilValidate.isEmpty(policy)) {
+            policy = UtilProperties.getPropertyValue("service", "jobQueue.rejectPolicy", "caller-runs");
+        }
+        return !"abort".equals(policy.trim());
+    }
+
+    private boolean isRunPoolsFull() {
+        List<String> runPools = ServiceConfigUtil.getRunPools();
+        if (UtilValidate.isEmpty(runPools)) {
+            return false;
+        }
+        for (String poolId : runPools) {
+            int capacity = getQueueCapacity(poolId);
+            if (capacity == 0 || run.getDepth(poolId) < capacity) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Stops all threads in the threadPool and clears
      * the pool as final step.
@@ -171,34 +375,154 @@ public class JobPoller implements Runnable {
      * Returns the next job to run
      */
     public Job next() {
-        if (run.size() > 0) {
-            // NOTE: this syncrhonized isn't really necessary as the only method that calls it is already synchronized (the JobInvoker.run method), so this is here as an added protection especially for the case where it might be used differently in the future
-            synchronized (run) {
-                // make sure the size is still greater than zero
-                if (run.size() > 0) {
-                    return run.remove(0);
-                }
-            }
-        }
-        return null;
+        JobQueue.QueuedJob queuedJob = run.poll();
+        return queuedJob == null ? null : queuedJob.getJob();
     }
 
     /**
-     * Adds a job to the RUN queue
+     * Returns the next job to run, waiting for one if the queue is empty.
+     * @param waitMillis the maximum time to wait
+     * @return the next <code>Job</code> or <code>null</code> if none was queued in time
+     * @throws InterruptedException if the invoker thread is interrupted while waiting
+     */
+    public Job next(long waitMillis) throws InterruptedException {
+        JobQueue.QueuedJob queuedJob = run.poll(waitMillis);
+        return queuedJob == null ? null : queuedJob.getJob();
+    }
+
+    /**
+     * Returns the next job to run with its queue information, waiting for one if the queue is empty.
+     * @param waitMillis the maximum time to wait
+     * @return the next <code>QueuedJob</code> or <code>null</code> if none was queued in time
+     * @throws InterruptedException if the invoker thread is interrupted while waiting
+     */
+    public JobQueue.QueuedJob nextQueued(long waitMillis) throws InterruptedException {
+        return run.poll(waitMillis);
+    }
+
+    /**
+     * Adds a job to the RUN queue whatever the capacity of its pool, used for the persisted jobs already claimed by this instance.
      */
     public void queueNow(Job job) {
-        //Debug.logInfo("[" + Thread.currentThread().getId() + "] Begin queueNow; holds run lock? " + Thread.holdsLock(run), module);
+        enqueue(job, getPoolId(job), 0, 0);
+    }
+
+    /**
+     * Adds a job to the RUN queue with a priority. When its pool is full the job is run in the calling thread,
+     * outside of the calling thread transaction, or rejected, according to the reject policy of the pool.
+     * Running the job in the calling thread makes the asynchronous call synchronous, which is logged as a warning
+     * at most once every <code>CALLER_RUNS_WARNING_INTERVAL</code> per pool.
+     * @param job the job to run
+     * @param priority the priority of the job, the jobs with a higher priority are run first
+     * @throws JobManagerException if the job was rejected
+     */
+    public void queueNow(Job job, int priority) throws JobManagerException {
+        String poolId = getPoolId(job);
+        int capacity = getQueueCapacity(poolId);
+        if (enqueue(job, poolId, priority, capacity)) {
+            return;
+        }
+        JobPoolStatistics statistics = getPoolStatistics(job);
+        JobPoolStatistics jobServiceStatistics = getServiceStatistics(job);
+        if (isCallerRuns(poolId)) {
+            statistics.jobRunByCaller();
+            if (jobServiceStatistics != null) {
+                jobServiceStatistics.jobRunByCaller();
+            }
+            warnCallerRuns(poolId, capacity, job);
+            runInCaller(job, statistics, jobServiceStatistics);
+        } else {
+            statistics.jobRejected();
+            if (jobServiceStatistics != null) {
+                jobServiceStatistics.jobRejected();
+            }
+            throw new JobManagerException("The run queue of pool [" + poolId + "] is full, job [" + job.getJobName() + "] rejected");
+        }
+    }
+
+    // the asynchronous calls become synchronous while the pool is full, which is worth a warning but not one per job
+    private void warnCallerRuns(String poolId, int capacity, Job job) {
+        long now = System.currentTimeMillis();
+        Long lastWarning = callerRunsWarnings.get(poolId);
+        boolean warn;
+        if (lastWarning == null) {
+            warn = callerRunsWarnings.putIfAbsent(poolId, now) == null;
+        } else {
+            warn = now - lastWarning >= CALLER_RUNS_WARNING_INTERVAL && callerRunsWarnings.replace(poolId, lastWarning, now);
+        }
+        if (warn) {
+            Debug.logWarning("Run queue of pool [" + poolId + "] full with " + capacity + " jobs waiting, running job [" + job.getJobName()
+                    + "] in the calling thread: the asynchronous calls of this pool run synchronously until the invokers catch up."
+                    + " See jobQueue." + poolId + ".capacity and jobQueue." + poolId + ".rejectPolicy in service.properties", module);
+        } else if (Debug.verboseOn()) {
+            Debug.logVerbose("Run queue of pool [" + poolId + "] full, running job [" + job.getJobName() + "] in the calling thread", module);
+        }
+    }
 
-        // NOTE DEJ20071201 MUST use a different object for the lock here because the "this" object is always held by the poller thread in the run method above (which sleeps and runs)
-        synchronized (run) {
-            run.add(job);
+    private void runInCaller(Job job, JobPoolStatistics statistics, JobPoolStatistics jobServiceStatistics) throws JobManagerException {
+        // the job is run as if it was async, so it must not join the transaction of the caller
+        Transaction parentTx = null;
+        try {
+            if (TransactionUtil.isTransactionInPlace()) {
+                parentTx = TransactionUtil.suspend();
+            }
+        } catch (GenericTransactionException e) {
+            throw new JobManagerException("Could not suspend the transaction to run job [" + job.getJobName() + "] in the calling thread", e);
+        }
+        try {
+            long start = System.currentTimeMillis();
+            statistics.jobStarted(0);
+            if (jobServiceStatistics != null) {
+                jobServiceStatistics.jobStarted(0);
+            }
+            boolean isValid = true;
+            try {
+                job.exec();
+            } catch (InvalidJobException e) {
+                isValid = false;
+                Debug.logWarning(e.getMessage(), module);
+            }
+            long runTime = System.currentTimeMillis() - start;
+            statistics.jobFinished(runTime, isValid);
+            if (jobServiceStatistics != null) {
+                jobServiceStatistics.jobFinished(runTime, isValid);
+            }
+        } finally {
+            if (parentTx != null) {
+                try {
+                    TransactionUtil.resume(parentTx);
+                } catch (GenericTransactionException e) {
+                    Debug.logError(e, "Could not resume the transaction suspended to run job [" + job.getJobName() + "]", module);
+                }
+            }
+        }
+    }
+
+    private boolean enqueue(Job job, String poolId, int priority, int capacity) {
+        if (run.offer(job, poolId, priority, capacity) == null) {
+            return false;
+        }
+        getPoolStatistics(job).jobQueued();
+        JobPoolStatistics jobServiceStatistics = getServiceStatistics(job);
+        if (jobServiceStatistics != null) {
+            jobServiceStatistics.jobQueued();
         }
         if (Debug.verboseOn()) Debug.logVerbose("New run queue size: " + run.size(), module);
-        if (run.size() > pool.size() && pool.size() < maxThreads()) {
+
+        // start more invokers when the queued jobs are more than the idle invokers can take, one per jobs-per-thread jobs waiting
+        int depth = run.size();
+        if (depth > 0 && pool.size() < maxThreads()) {
             synchronized (pool) {
-                if (run.size() > pool.size() && pool.size() < maxThreads()) {
-                    int calcSize = (run.size() / jobsPerThread()) - (pool.size());
-                    int addSize = calcSize > maxThreads() ? maxThreads() : calcSize;
+                int idle = 0;
+                for (JobInvoker invoker : pool) {
+                    if (invoker.getCurrentStatus() == 0) {
+                        idle++;
+                    }
+                }
+                if (depth > idle) {
+                    int jobsPerThread = Math.max(1, jobsPerThread());
+                    int calcSize = (depth - idle + jobsPerThread - 1) / jobsPerThread;
+                    int addSize = Math.min(calcSize, maxThreads() - pool.size());
 
                     for (int i = 0; i < addSize; i++) {
                         JobInvoker iv = new JobInvoker(this, invokerWaitTime());
@@ -207,6 +531,28 @@ public class JobPoller implements Runnable {
                 }
             }
         }
+        return true;
+    }
+
+    /**
+     * Checks if an invoker idle for a while should stop, which is when the pool has more than min-threads invokers
+     * and no job is waiting; the invoker is then removed from the pool.
+     * @param invoker the idle invoker
+     * @param idleMillis the time since the invoker finished its last job
+     * @return true if the invoker should stop
+     */
+    public boolean retireIdleThread(JobInvoker invoker, long idleMillis) {
+        if (idleMillis < IDLE_TTL || !run.isEmpty() || pool.size() <= minThreads()) {
+            return false;
+        }
+        synchronized (pool) {
+            if (pool.size() <= minThreads()) {
+                return false;
+            }
+            pool.remove(invoker);
+        }
+        invoker.stop();
+        return true;
     }
 
     /**
@@ -233,7 +579,7 @@ public class JobPoller implements Runnable {
 
     // Creates the invoker pool
     private List<JobInvoker> createThreadPool() {
-        List<JobInvoker> threadPool = FastList.newInstance();
+        List<JobInvoker> threadPool = new CopyOnWriteArrayList<JobInvoker>();
 
         while (threadPool.size() < minThreads()) {
             JobInvoker iv = new JobInvoker(this, invokerWaitTime());
@@ -0,0 +1,131 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+/* This file has been modified by Open Source Strategies, Inc. */
+package org.ofbiz.service.job;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javolution.util.FastMap;
+
+/**
+ * Throughput and latency counters of the jobs run from a pool by the <code>JobPoller</code>.
+ * The latency of a job is the time between its scheduled run time and the time an invoker starts it.
+ * The same counters are kept per service for the jobs which are not persisted, the latency then being the time
+ * spent in the run queue.
+ */
+public class JobPoolStatistics {
+
+    private final String poolId;
+    private final long since = System.currentTimeMillis();
+
+    private final AtomicLong queued = new AtomicLong();
+    private final AtomicLong started = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong invalid = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong callerRuns = new AtomicLong();
+    private final AtomicLong totalLatency = new AtomicLong();
+    private final AtomicLong maxLatency = new AtomicLong();
+    private final AtomicLong totalRunTime = new AtomicLong();
+    private final AtomicLong maxRunTime = new AtomicLong();
+
+    public JobPoolStatistics(String poolId) {
+        this.poolId = poolId;
+    }
+
+    public String getPoolId() {
+        return poolId;
+    }
+
+    /** Counts a job handed to the invokers. */
+    public void jobQueued() {
+        queued.incrementAndGet();
+    }
+
+    /** Counts a job rejected because the run queue of its pool was full. */
+    public void jobRejected() {
+        rejected.incrementAndGet();
+    }
+
+    /** Counts a job run in the calling thread because the run queue of its pool was full. */
+    public void jobRunByCaller() {
+        callerRuns.incrementAndGet();
+    }
+
+    /**
+     * Counts a job started by an invoker.
+     * @param latency the time in milliseconds between the job run time and now
+     */
+    public void jobStarted(long latency) {
+        started.incrementAndGet();
+        if (latency > 0) {
+            totalLatency.addAndGet(latency);
+            updateMax(maxLatency, latency);
+        }
+    }
+
+    /**
+     * Counts a job finished by an invoker.
+     * @param runTime the time in milliseconds the job ran
+     * @param isValid false when the job could not run
+     */
+    public void jobFinished(long runTime, boolean isValid) {
+        if (isValid) {
+            completed.incrementAndGet();
+        } else {
+            invalid.incrementAndGet();
+        }
+        totalRunTime.addAndGet(runTime);
+        updateMax(maxRunTime, runTime);
+    }
+
+    private static void updateMax(AtomicLong max, long value) {
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    /**
+     * Gets a snapshot of the counters.
+     * @return a <code>Map</code> with the pool id, the job counts including the jobs rejected or run by the caller
+     *  because the run queue was full, the average and max latency and run time in milliseconds
+     *  and the number of jobs completed per minute since the pool statistics were created
+     */
+    public Map<String, Object> toMap() {
+        long startedCount = started.get();
+        long finishedCount = completed.get() + invalid.get();
+        long elapsed = Math.max(1, System.currentTimeMillis() - since);
+        Map<String, Object> map = FastMap.newInstance();
+        map.put("poolId", poolId);
+        map.put("queued", queued.get());
+        map.put("started", startedCount);
+        map.put("completed", completed.get());
+        map.put("invalid", invalid.get());
+        map.put("rejected", rejected.get());
+        map.put("callerRuns", callerRuns.get());
+        map.put("averageLatency", startedCount > 0 ? totalLatency.get() / startedCount : 0L);
+        map.put("maxLatency", maxLatency.get());
+        map.put("averageRunTime", finishedCount > 0 ? totalRunTime.get() / finishedCount : 0L);
+        map.put("maxRunTime", maxRunTime.get());
+        map.put("completedPerMinute", completed.get() * 60000 / elapsed);
+        return map;
+    }
+}
@@ -0,0 +1,159 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+/* This file has been modified by Open Source Strategies, Inc. */
+package org.ofbiz.service.job;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The run queue of the <code>JobPoller</code>, which hands the jobs to the <code>JobInvoker</code> threads by priority,
+ * then in the order they were queued.
+ * <p>
+ * The number of jobs waiting is counted per pool, so a pool can be bounded without blocking the jobs of the other pools.
+ */
+public class JobQueue {
+
+    private final PriorityBlockingQueue<QueuedJob> queue = new PriorityBlockingQueue<QueuedJob>();
+    private final ConcurrentMap<String, AtomicInteger> depths = new ConcurrentHashMap<String, AtomicInteger>();
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * Adds a job to the queue, unless its pool already has <code>capacity</code> jobs waiting.
+     * @param job the job to run
+     * @param poolId the pool of the job
+     * @param priority the priority of the job, the jobs with a higher priority are run first
+     * @param capacity the maximum number of jobs of the pool waiting, or 0 for no limit
+     * @return the <code>QueuedJob</code>, or null if the pool is full
+     */
+    public QueuedJob offer(Job job, String poolId, int priority, int capacity) {
+        AtomicInteger depth = getDepthCounter(poolId);
+        if (depth.incrementAndGet() > capacity && capacity > 0) {
+            depth.decrementAndGet();
+            return null;
+        }
+        QueuedJob queuedJob = new QueuedJob(job, poolId, priority, sequence.incrementAndGet());
+        queue.add(queuedJob);
+        return queuedJob;
+    }
+
+    /**
+     * Gets the next job to run, waiting for one if the queue is empty.
+     * @param waitMillis the maximum time to wait
+     * @return the next <code>QueuedJob</code> or <code>null</code> if none was queued in time
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public QueuedJob poll(long waitMillis) throws InterruptedException {
+        return taken(queue.poll(waitMillis, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * Gets the next job to run without waiting.
+     * @return the next <code>QueuedJob</code> or <code>null</code> if the queue is empty
+     */
+    public QueuedJob poll() {
+        return taken(queue.poll());
+    }
+
+    private QueuedJob taken(QueuedJob queuedJob) {
+        if (queuedJob != null) {
+            getDepthCounter(queuedJob.getPoolId()).decrementAndGet();
+        }
+        return queuedJob;
+    }
+
+    private AtomicInteger getDepthCounter(String poolId) {
+        AtomicInteger depth = depths.get(poolId);
+        if (depth == null) {
+            depth = new AtomicInteger();
+            AtomicInteger existing = depths.putIfAbsent(poolId, depth);
+            if (existing != null) {
+                depth = existing;
+            }
+        }
+        return depth;
+    }
+
+    /**
+     * Gets the number of jobs of a pool waiting to run.
+     * @param poolId the pool
+     * @return an <code>int</code> value
+     */
+    public int getDepth(String poolId) {
+        AtomicInteger depth = depths.get(poolId);
+        return depth == null ? 0 : depth.get();
+    }
+
+    /** Gets the number of jobs waiting to run. */
+    public int size() {
+        return queue.size();
+    }
+
+    /** Checks if no job is waiting to run. */
+    public boolean isEmpty() {
+        return queue.isEmpty();
+    }
+
+    /**
+     * A job waiting in the queue, with the time it was queued.
+     */
+    public static final class QueuedJob implements Comparable<QueuedJob> {
+
+        private final Job job;
+        private final String poolId;
+        private final int priority;
+        private final long sequence;
+        private final long queuedTime = System.currentTimeMillis();
+
+        private QueuedJob(Job job, String poolId, int priority, long sequence) {
+            this.job = job;
+            this.poolId = poolId;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        public Job getJob() {
+            return job;
+        }
+
+        public String getPoolId() {
+            return poolId;
+        }
+
+        public int getPriority() {
+            return priority;
+        }
+
+        /** Gets the time in milliseconds the job was queued at. */
+        public long getQueuedTime() {
+            return queuedTime;
+        }
+
+        public int compareTo(QueuedJob other) {
+            if (priority != other.priority) {
+                return priority > other.priority ? -1 : 1;
+            }
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+    }
+}
@@ -41,8 +41,8 @@ import org.ofbiz.entity.GenericEntityException;
 import org.ofbiz.entity.GenericValue;
 import org.ofbiz.entity.condition.EntityCondition;
 import org.ofbiz.entity.condition.EntityFieldMap;
+import org.ofbiz.entity.serialize.BinarySerializer;
 import org.ofbiz.entity.serialize.SerializeException;
-import org.ofbiz.entity.serialize.XmlSerializer;
 import org.ofbiz.service.DispatchContext;
 import org.ofbiz.service.GenericRequester;
 import org.ofbiz.service.ServiceUtil;
@@ -62,6 +62,7 @@ public class PersistedServiceJob extends GenericServiceJob {
     private Timestamp storedDate = null;
     private long nextRecurrence = -1;
     private long maxRetry = -1;
+    private String poolId = null;
     private boolean warningLogged = false;
 
     /**
@@ -78,10 +79,18 @@ public class PersistedServiceJob extends GenericServiceJob {
         this.storedDate = jobValue.getTimestamp("runTime");
         this.runtime = storedDate.getTime();
         this.maxRetry = jobValue.get("maxRetry") != null ? jobValue.getLong("maxRetry").longValue() : -1;
+        this.poolId = jobValue.getString("poolId");
 
         // Debug.logInfo("=============== New PersistedServiceJob, delegator from dctx is [" + dctx.getDelegator().getDelegatorName() + "] and delegator from jobValue is [" + jobValue.getDelegator().getDelegatorName() + "]", module);
     }
 
+    /**
+     * Returns the pool this job runs from.
+     */
+    public String getPoolId() {
+        return poolId;
+    }
+
     @Override
     public void queue() throws InvalidJobException {
         super.queue();
@@ -283,7 +292,7 @@ public class PersistedServiceJob extends GenericServiceJob {
             if (!UtilValidate.isEmpty(jobObj.getString("runtimeDataId"))) {
                 GenericValue contextObj = jobObj.getRelatedOne("RuntimeData");
                 if (contextObj != null) {
-                    context = UtilGenerics.checkMap(XmlSerializer.deserialize(contextObj.getString("runtimeInfo"), delegator), String.class, Object.class);
+                    context = UtilGenerics.checkMap(BinarySerializer.deserialize(contextObj.getString("runtimeInfo"), delegator), String.class, Object.class);
                 }
             }
 
@@ -20,30 +20,56 @@
 package org.ofbiz.service.semaphore;
 
 import java.sql.Timestamp;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 import javax.transaction.Transaction;
 
+import org.ofbiz.base.concurrent.ExecutionPool;
 import org.ofbiz.base.util.Debug;
 import org.ofbiz.base.util.UtilDateTime;
+import org.ofbiz.base.util.UtilMisc;
 import org.ofbiz.entity.Delegator;
 import org.ofbiz.entity.GenericEntityException;
 import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.condition.EntityCondition;
 import org.ofbiz.entity.transaction.GenericTransactionException;
 import org.ofbiz.entity.transaction.TransactionUtil;
 import org.ofbiz.service.ModelService;
+import org.ofbiz.service.ServiceStatistics;
 
 /**
  * ServiceSemaphore
+ * <p>
+ * The callers of a same service in this JVM first queue on a fair local lock, so a release lets the next one in
+ * immediately and only the head of the queue checks the <code>ServiceSemaphore</code> entity. The entity row is the lock
+ * shared with the other servers; it is a lease which expires after the <code>semaphore-lease-seconds</code> of the service,
+ * after which it is taken over, so a lock left by a server or thread which went away is eventually reclaimed. The lease
+ * of a running service is renewed every third of its length, so only the locks whose holder stopped renewing them expire.
+ * A release only removes the row it holds, never one which was taken over by another caller.
+ * The wait and hold times are recorded in the {@link ServiceStatistics} of the service.
  */
 public class ServiceSemaphore {
-    // TODO: add something to make sure semaphores are cleaned up on failures and when the thread somehow goes away without cleaning it up
-    // TODO: write service engine test cases to make sure semaphore both blocking and timing out (use config to set sleep and wait to low values so it times out quickly)
-
     public static final String module = ServiceSemaphore.class.getName();
     public static final int SEMAPHORE_MODE_FAIL = 0;
     public static final int SEMAPHORE_MODE_WAIT = 1;
     public static final int SEMAPHORE_MODE_NONE = 2;
 
+    private static final int DB_CREATE = 0;
+    private static final int DB_DELETE = 1;
+    private static final int DB_RECLAIM = 2;
+    private static final int DB_RENEW = 3;
+
+    /** The local lock of each service name, shared by the callers of this JVM. */
+    private static final ConcurrentMap<String, Semaphore> localLocks = new ConcurrentHashMap<String, Semaphore>();
+    /** Renews the leases of the locks held by the running services. */
+    private static final ScheduledExecutorService leaseExecutor = ExecutionPool.getExecutor("ServiceSemaphore-lease", 1);
+
     protected Delegator delegator;
     protected GenericValue lock;
     protected ModelService model;
@@ -51,6 +77,15 @@ public class ServiceSemaphore {
     protected int wait = 0;
     protected int mode = SEMAPHORE_MODE_NONE;
     protected Timestamp lockTime = null;
+    protected long acquiredTime = 0;
+    /** The <code>lockThread</code> and <code>lockTime</code> of the row held by this semaphore. */
+    protected String lockThread = null;
+    protected Timestamp leaseTime = null;
+
+    private ScheduledFuture<?> leaseRenewal = null;
+
+    private Semaphore localLock = null;
+    private boolean localLockHeld = false;
 
     public ServiceSemaphore(Delegator delegator, ModelService model) {
         this.delegator = delegator;
@@ -59,21 +94,135 @@ public class ServiceSemaphore {
         this.lock = null;
     }
 
+    private static Semaphore getLocalLock(String serviceName) {
+        Semaphore localLock = localLocks.get(serviceName);
+        if (localLock == null) {
+            Semaphore newLock = new Semaphore(1, true);
+            localLock = localLocks.putIfAbsent(serviceName, newLock);
+            if (localLock == null) {
+                localLock = newLock;
+            }
+        }
+        return localLock;
+    }
+
     public void acquire() throws SemaphoreWaitException, SemaphoreFailException {
         if (mode == SEMAPHORE_MODE_NONE) return;
 
         lockTime = UtilDateTime.nowTimestamp();
+        localLock = getLocalLock(model.name);
 
-        if (this.checkLockNeedToWait()) {
-            waitOrFail();
+        boolean acquired = false;
+        try {
+            acquireLocalLock();
+            if (this.checkLockNeedToWait()) {
+                waitOrFail();
+            }
+            // the lock is held from here, it is released below if its lease renewal cannot be scheduled
+            scheduleLeaseRenewal();
+            acquired = true;
+        } finally {
+            long waitTime = System.currentTimeMillis() - lockTime.getTime();
+            if (acquired) {
+                acquiredTime = System.currentTimeMillis();
+                ServiceStatistics.getStatistics(model.name).semaphoreAcquired(waitTime);
+            } else {
+                releaseHeldLock();
+                releaseLocalLock();
+                ServiceStatistics.getStatistics(model.name).semaphoreRejected(waitTime);
+            }
         }
     }
 
     public void release() throws SemaphoreFailException {
         if (mode == SEMAPHORE_MODE_NONE) return;
 
-        // remove the lock file
-        dbWrite(lock, true);
+        try {
+            cancelLeaseRenewal();
+            // remove the lock file
+            dbWrite(lock, DB_DELETE);
+        } finally {
+            releaseLocalLock();
+            if (acquiredTime > 0) {
+                ServiceStatistics.getStatistics(model.name).semaphoreReleased(System.currentTimeMillis() - acquiredTime);
+                acquiredTime = 0;
+            }
+        }
+    }
+
+    private void scheduleLeaseRenewal() {
+        if (model.semaphoreLease <= 0 || lock == null) return;
+        long period = Math.max(model.semaphoreLease * 1000L / 3, 1L);
+        ScheduledFuture<?> renewal = leaseExecutor.scheduleAtFixedRate(new Runnable() {
+            public void run() {
+                // an exception thrown here would stop the renewals, so the lease of the running service would expire
+                try {
+                    if (!dbWrite(lock, DB_RENEW)) {
+                        Debug.logWarning("Service [" + model.name + "] semaphore lease was lost, it was taken over by another caller", module);
+                        cancelLeaseRenewal();
+                    }
+                } catch (Throwable t) {
+                    Debug.logError(t, "Could not renew the semaphore lease of service [" + model.name + "]", module);
+                }
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+        synchronized (this) {
+            leaseRenewal = renewal;
+        }
+    }
+
+    private synchronized void cancelLeaseRenewal() {
+        if (leaseRenewal != null) {
+            leaseRenewal.cancel(false);
+            leaseRenewal = null;
+        }
+    }
+
+    /** Removes the row of a lock which was taken but could not be handed to the caller. */
+    private void releaseHeldLock() {
+        if (lock == null) return;
+        try {
+            dbWrite(lock, DB_DELETE);
+        } catch (SemaphoreFailException e) {
+            Debug.logError(e, "Could not release the semaphore of service [" + model.name + "]", module);
+        }
+    }
+
+    private void acquireLocalLock() throws SemaphoreWaitException, SemaphoreFailException {
+        if (SEMAPHORE_MODE_FAIL == mode) {
+            if (!localLock.tryAcquire()) {
+                throw new SemaphoreFailException("Service [" + model.name + "] is locked");
+            }
+        } else {
+            try {
+                if (!localLock.tryAcquire(getRemainingWait(), TimeUnit.MILLISECONDS)) {
+                    throw waitTimeout();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                Debug.logInfo(e, "Wait interrupted: ServiceSemaphore.acquire()", module);
+                throw waitTimeout();
+            }
+        }
+        localLockHeld = true;
+    }
+
+    private void releaseLocalLock() {
+        if (localLockHeld) {
+            localLockHeld = false;
+            localLock.release();
+        }
+    }
+
+    private long getRemainingWait() {
+        return lockTime.getTime() + model.semaphoreWait * 1000L - System.currentTimeMillis();
+    }
+
+    private SemaphoreWaitException waitTimeout() {
+        double waitTimeSec = ((double) (System.currentTimeMillis() - lockTime.getTime()) / 1000.0);
+        String errMsg = "Service [" + model.name + "] with wait semaphore exceeded wait timeout, waited [" + waitTimeSec + "], wait started at " + lockTime;
+        Debug.logWarning(errMsg, module);
+        return new SemaphoreWaitException(errMsg);
     }
 
     private void waitOrFail() throws SemaphoreWaitException, SemaphoreFailException {
@@ -81,31 +230,22 @@ public class ServiceSemaphore {
             // fail
             throw new SemaphoreFailException("Service [" + model.name + "] is locked");
         } else if (SEMAPHORE_MODE_WAIT == mode) {
-            // get the wait and sleep values
-            long maxWaitCount = ((model.semaphoreWait * 1000) / model.semaphoreSleep);
-            long sleep = model.semaphoreSleep;
-
-            boolean timedOut = true;
-            while (wait < maxWaitCount) {
+            // the lock is held by another server, poll it as the head of the local queue
+            long remaining;
+            while ((remaining = getRemainingWait()) > 0) {
                 wait++;
                 try {
-                    Thread.sleep(sleep);
+                    Thread.sleep(Math.min(model.semaphoreSleep, remaining));
                 } catch (InterruptedException e) {
                     Debug.logInfo(e, "Sleep interrupted: ServiceSemaphone.waitOrFail()", module);
                 }
 
                 // try again
                 if (!checkLockNeedToWait()) {
-                    timedOut = false;
-                    break;
+                    return;
                 }
             }
-            if (timedOut) {
-                double waitTimeSec = ((double) (System.currentTimeMillis() - lockTime.getTime()) / 1000.0);
-                String errMsg = "Service [" + model.name + "] with wait semaphore exceeded wait timeout, waited [" + waitTimeSec + "], wait started at " + lockTime;
-                Debug.logWarning(errMsg, module);
-                throw new SemaphoreWaitException(errMsg);
-            }
+            throw waitTimeout();
         } else if (SEMAPHORE_MODE_NONE == mode) {
             Debug.logWarning("Semaphore mode [none] attempted to aquire a lock; but should not have!", module);
         } else {
@@ -124,23 +264,45 @@ public class ServiceSemaphore {
         }
 
         if (semaphore == null) {
-            semaphore = delegator.makeValue("ServiceSemaphore", "serviceName", model.name, "lockThread", threadName, "lockTime", lockTime);
+            // the lease starts when the lock is taken, not when the wait started
+            semaphore = delegator.makeValue("ServiceSemaphore", "serviceName", model.name, "lockThread", threadName, "lockTime", nowLeaseTime());
 
             // use the special method below so we can reuse the unqiue tx functions
-            dbWrite(semaphore, false);
+            dbWrite(semaphore, DB_CREATE);
 
             // we own the lock, no waiting
             return false;
+        } else if (isExpired(semaphore)) {
+            // the lease of the holder is over, take the lock over unless another caller just did
+            Debug.logWarning("Service [" + model.name + "] semaphore held by [" + semaphore.get("lockThread") + "] since " + semaphore.get("lockTime") + " has expired, reclaiming it", module);
+            return !dbWrite(semaphore, DB_RECLAIM);
         } else {
             // found a semaphore, need to wait
             return true;
         }
     }
 
-    private synchronized void dbWrite(GenericValue value, boolean delete) throws SemaphoreFailException {
+    private boolean isExpired(GenericValue semaphore) {
+        Timestamp semaphoreLockTime = semaphore.getTimestamp("lockTime");
+        return model.semaphoreLease > 0 && semaphoreLockTime != null
+            && semaphoreLockTime.getTime() + model.semaphoreLease * 1000L < System.currentTimeMillis();
+    }
+
+    /** The lease times are kept to the second so they still match the row on databases which drop the milliseconds. */
+    private static Timestamp nowLeaseTime() {
+        return new Timestamp(System.currentTimeMillis() / 1000 * 1000);
+    }
+
+    private EntityCondition makeHeldCondition() {
+        Map<String, Object> fields = UtilMisc.<String, Object>toMap("serviceName", model.name, "lockThread", lockThread, "lockTime", leaseTime);
+        return EntityCondition.makeCondition(fields);
+    }
+
+    private synchronized boolean dbWrite(GenericValue value, int operation) throws SemaphoreFailException {
         Transaction parent = null;
         boolean beganTx = false;
         boolean isError = false;
+        boolean written = true;
 
         try {
             // prepare the suspended transaction
@@ -152,12 +314,43 @@ public class ServiceSemaphore {
 
             // store the value
             try {
-                if (delete) {
-                    value.refresh();
-                    value.remove();
-                    lock = null;
+                if (operation == DB_DELETE || operation == DB_RENEW) {
+                    if (lock == null) {
+                        // already released
+                        written = false;
+                    } else if (operation == DB_DELETE) {
+                        // only remove the row this semaphore holds, it may have been taken over after the lease expired
+                        int count = delegator.removeByCondition("ServiceSemaphore", makeHeldCondition());
+                        if (count == 0) {
+                            Debug.logWarning("Service [" + model.name + "] semaphore held by [" + lockThread + "] since " + leaseTime + " was taken over before it was released", module);
+                        }
+                        lock = null;
+                        lockThread = null;
+                        leaseTime = null;
+                    } else {
+                        Timestamp renewTime = nowLeaseTime();
+                        written = delegator.storeByCondition("ServiceSemaphore", UtilMisc.toMap("lockTime", renewTime), makeHeldCondition()) > 0;
+                        if (written) {
+                            lock.set("lockTime", renewTime);
+                            leaseTime = renewTime;
+                        }
+                    }
+                } else if (operation == DB_RECLAIM) {
+                    // only take the lock over if it was not changed since it was read
+                    String threadName = Thread.currentThread().getName();
+                    Timestamp reclaimTime = nowLeaseTime();
+                    int count = delegator.storeByCondition("ServiceSemaphore", UtilMisc.toMap("lockThread", threadName, "lockTime", reclaimTime),
+                            EntityCondition.makeCondition(UtilMisc.toMap("serviceName", model.name, "lockThread", value.get("lockThread"), "lockTime", value.get("lockTime"))));
+                    written = count > 0;
+                    if (written) {
+                        lock = delegator.makeValue("ServiceSemaphore", "serviceName", model.name, "lockThread", threadName, "lockTime", reclaimTime);
+                        lockThread = threadName;
+                        leaseTime = reclaimTime;
+                    }
                 } else {
                     lock = value.create();
+                    lockThread = lock.getString("lockThread");
+                    leaseTime = lock.getTimestamp("lockTime");
                 }
             } catch (GenericEntityException e) {
                 Debug.logError(e, module);
@@ -190,5 +383,6 @@ public class ServiceSemaphore {
                 }
             }
         }
+        return written;
     }
 }
@@ -0,0 +1,207 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+/* This file has been modified by Open Source Strategies, Inc. */
+package org.ofbiz.service.test;
+
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.transaction.Transaction;
+
+import javolution.util.FastMap;
+
+import org.ofbiz.base.util.UtilProperties;
+import org.ofbiz.entity.transaction.GenericTransactionException;
+import org.ofbiz.entity.transaction.TransactionFactory;
+import org.ofbiz.entity.transaction.TransactionUtil;
+import org.ofbiz.service.GenericResultWaiter;
+import org.ofbiz.service.job.AbstractJob;
+import org.ofbiz.service.job.GenericServiceJob;
+import org.ofbiz.service.job.Job;
+import org.ofbiz.service.job.JobInvoker;
+import org.ofbiz.service.job.JobManager;
+import org.ofbiz.service.job.JobManagerException;
+import org.ofbiz.service.job.JobPoller;
+import org.ofbiz.service.job.JobQueue;
+import org.ofbiz.service.testtools.OFBizTestCase;
+
+/**
+ * Tests the caller-runs and abort policies of <code>JobPoller.queueNow</code> when the run queue of the local pool is full,
+ * with a poller whose invokers never take a job.
+ */
+public class JobPollerTests extends OFBizTestCase {
+
+    private String capacity = null;
+    private String rejectPolicy = null;
+    private IdlePoller poller = null;
+
+    public JobPollerTests(String name) {
+        super(name);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        capacity = UtilProperties.getPropertyValue("service", "jobQueue." + JobPoller.LOCAL_POOL + ".capacity");
+        rejectPolicy = UtilProperties.getPropertyValue("service", "jobQueue." + JobPoller.LOCAL_POOL + ".rejectPolicy");
+        // keep the queue small enough to fill, the jobs of the dispatcher are not queued in this poller
+        UtilProperties.setPropertyValueInMemory("service", "jobQueue." + JobPoller.LOCAL_POOL + ".capacity", "10");
+        poller = new IdlePoller(dispatcher.getJobManager());
+        for (int i = 0; i < 10; i++) {
+            poller.queueNow(new RecordingJob("filler" + i));
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        poller.stop();
+        UtilProperties.setPropertyValueInMemory("service", "jobQueue." + JobPoller.LOCAL_POOL + ".capacity", capacity);
+        UtilProperties.setPropertyValueInMemory("service", "jobQueue." + JobPoller.LOCAL_POOL + ".rejectPolicy", rejectPolicy);
+    }
+
+    private static Object getStatistic(JobPoller poller, Job job, String name) {
+        return poller.getPoolStatistics(job).toMap().get(name);
+    }
+
+    public void testQueuedUnderCapacity() throws Exception {
+        JobQueue.QueuedJob queuedJob = poller.nextQueuedNow();
+        assertNotNull("queued job", queuedJob);
+        RecordingJob job = new RecordingJob("queued");
+        poller.queueNow(job, 0);
+        assertNull("job not run by the caller", job.thread);
+        assertEquals("queued jobs", Long.valueOf(11), getStatistic(poller, job, "queued"));
+        assertEquals("caller runs", Long.valueOf(0), getStatistic(poller, job, "callerRuns"));
+    }
+
+    public void testCallerRunsSuspendsTransaction() throws Exception {
+        UtilProperties.setPropertyValueInMemory("service", "jobQueue." + JobPoller.LOCAL_POOL + ".rejectPolicy", "caller-runs");
+        boolean beganTransaction = TransactionUtil.begin();
+        try {
+            Transaction transaction = TransactionFactory.getTransactionManager().getTransaction();
+            RecordingJob job = new RecordingJob("callerRuns");
+            poller.queueNow(job, 0);
+
+            assertSame("job run by the caller", Thread.currentThread(), job.thread);
+            assertFalse("job run outside of the caller transaction", job.inTransaction);
+            assertTrue("caller transaction resumed", TransactionUtil.isTransactionInPlace());
+            assertSame("same caller transaction", transaction, TransactionFactory.getTransactionManager().getTransaction());
+        } finally {
+            TransactionUtil.rollback(beganTransaction, "Rolling back the caller-runs test transaction", null);
+        }
+        Job job = new RecordingJob("other");
+        assertEquals("caller runs", Long.valueOf(1), getStatistic(poller, job, "callerRuns"));
+        assertEquals("completed jobs", Long.valueOf(1), getStatistic(poller, job, "completed"));
+        assertEquals("queue still full", 10, poller.getQueueDepth());
+    }
+
+    public void testCallerRunsService() throws Exception {
+        UtilProperties.setPropertyValueInMemory("service", "jobQueue." + JobPoller.LOCAL_POOL + ".rejectPolicy", "caller-runs");
+        GenericResultWaiter waiter = new GenericResultWaiter();
+        Job job = new GenericServiceJob(dispatcher.getDispatchContext(), "testServiceJobContext.1", "1", "testServiceJobContext", FastMap.<String, Object>newInstance(), waiter);
+        boolean beganTransaction = TransactionUtil.begin();
+        try {
+            poller.queueNow(job, 0);
+        } finally {
+            TransactionUtil.rollback(beganTransaction, "Rolling back the caller-runs test transaction", null);
+        }
+
+        // the service has run before queueNow returned
+        assertTrue("service completed", waiter.isCompleted());
+        Map<String, Object> result = waiter.getResult();
+        assertEquals("service run by the caller", Thread.currentThread().getName(), result.get("threadName"));
+        assertEquals("service run outside of the caller transaction", Boolean.FALSE, result.get("inTransaction"));
+        Map<String, Object> serviceStatistics = poller.getServiceStatistics(job).toMap();
+        assertEquals("service caller runs", Long.valueOf(1), serviceStatistics.get("callerRuns"));
+        assertEquals("service completed", Long.valueOf(1), serviceStatistics.get("completed"));
+    }
+
+    public void testAbort() throws Exception {
+        UtilProperties.setPropertyValueInMemory("service", "jobQueue." + JobPoller.LOCAL_POOL + ".rejectPolicy", "abort");
+        RecordingJob job = new RecordingJob("aborted");
+        try {
+            poller.queueNow(job, 0);
+            fail("job not rejected");
+        } catch (JobManagerException e) {
+            // expected
+        }
+        assertNull("job not run", job.thread);
+        assertEquals("rejected jobs", Long.valueOf(1), getStatistic(poller, job, "rejected"));
+        assertEquals("caller runs", Long.valueOf(0), getStatistic(poller, job, "callerRuns"));
+        assertEquals("queue still full", 10, poller.getQueueDepth());
+
+        GenericResultWaiter waiter = new GenericResultWaiter();
+        Job serviceJob = new GenericServiceJob(dispatcher.getDispatchContext(), "testServiceJobContext.2", "2", "testServiceJobContext", FastMap.<String, Object>newInstance(), waiter);
+        try {
+            poller.queueNow(serviceJob, 0);
+            fail("service job not rejected");
+        } catch (JobManagerException e) {
+            // expected
+        }
+        assertFalse("service not run", waiter.isCompleted());
+        assertEquals("service rejected", Long.valueOf(1), poller.getServiceStatistics(serviceJob).toMap().get("rejected"));
+    }
+
+    /**
+     * A job recording the thread it runs in and if a transaction was in place.
+     */
+    private static final class RecordingJob extends AbstractJob {
+
+        private volatile Thread thread = null;
+        private volatile boolean inTransaction = false;
+
+        private RecordingJob(String name) {
+            super(name, name);
+        }
+
+        @Override
+        public void exec() {
+            thread = Thread.currentThread();
+            try {
+                inTransaction = TransactionUtil.isTransactionInPlace();
+            } catch (GenericTransactionException e) {
+                inTransaction = true;
+            }
+        }
+    }
+
+    /**
+     * A poller which does not poll and whose invokers never take a job, so the queued jobs stay in the run queue.
+     */
+    private static final class IdlePoller extends JobPoller {
+
+        private IdlePoller(JobManager jm) {
+            this.jm = jm;
+            this.run = new JobQueue();
+            this.pool = new CopyOnWriteArrayList<JobInvoker>();
+        }
+
+        @Override
+        public JobQueue.QueuedJob nextQueued(long waitMillis) throws InterruptedException {
+            Thread.sleep(Math.min(waitMillis, 100));
+            return null;
+        }
+
+        private JobQueue.QueuedJob nextQueuedNow() {
+            return run.poll();
+        }
+
+        private int getQueueDepth() {
+            return run.getDepth(LOCAL_POOL);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+/* This file has been modified by Open Source Strategies, Inc. */
+package org.ofbiz.service.test;
+
+import org.ofbiz.base.test.GenericTestCaseBase;
+import org.ofbiz.service.job.AbstractJob;
+import org.ofbiz.service.job.Job;
+import org.ofbiz.service.job.JobQueue;
+
+/**
+ * Tests the per pool capacity and the priority then arrival order of the <code>JobQueue</code>.
+ */
+public class JobQueueTests extends GenericTestCaseBase {
+
+    public JobQueueTests(String name) {
+        super(name);
+    }
+
+    private static Job makeJob(String name) {
+        return new AbstractJob(name, name) {
+            @Override
+            public void exec() {
+            }
+        };
+    }
+
+    private static String nextJobName(JobQueue queue) {
+        JobQueue.QueuedJob queuedJob = queue.poll();
+        return queuedJob == null ? null : queuedJob.getJob().getJobName();
+    }
+
+    public void testPoolCapacity() throws Exception {
+        JobQueue queue = new JobQueue();
+        assertNotNull("first job", queue.offer(makeJob("a1"), "a", 0, 2));
+        assertNotNull("second job", queue.offer(makeJob("a2"), "a", 0, 2));
+        assertNull("job over the capacity", queue.offer(makeJob("a3"), "a", 0, 2));
+        assertEquals("pool depth at the capacity", 2, queue.getDepth("a"));
+
+        assertNotNull("job of another pool", queue.offer(makeJob("b1"), "b", 0, 2));
+        assertEquals("other pool depth", 1, queue.getDepth("b"));
+        assertEquals("queue size", 3, queue.size());
+
+        assertEquals("first job out", "a1", nextJobName(queue));
+        assertEquals("pool depth after a poll", 1, queue.getDepth("a"));
+        assertNotNull("job after a poll", queue.offer(makeJob("a4"), "a", 0, 2));
+        assertNull("job over the capacity again", queue.offer(makeJob("a5"), "a", 0, 2));
+        assertEquals("unknown pool depth", 0, queue.getDepth("c"));
+    }
+
+    public void testUnboundedPool() throws Exception {
+        JobQueue queue = new JobQueue();
+        for (int i = 0; i < 100; i++) {
+            assertNotNull("job " + i, queue.offer(makeJob("job" + i), "a", 0, 0));
+        }
+        assertEquals("pool depth", 100, queue.getDepth("a"));
+        // the jobs queued without a capacity still count against the capacity of the next ones
+        assertNull("job over the capacity", queue.offer(makeJob("bounded"), "a", 0, 100));
+        assertNotNull("job under a larger capacity", queue.offer(makeJob("bounded"), "a", 0, 101));
+    }
+
+    public void testPriorityThenArrivalOrder() throws Exception {
+        JobQueue queue = new JobQueue();
+        queue.offer(makeJob("low1"), "a", 0, 0);
+        queue.offer(makeJob("high1"), "b", 10, 0);
+        queue.offer(makeJob("low2"), "a", 0, 0);
+        queue.offer(makeJob("medium1"), "a", 5, 0);
+        queue.offer(makeJob("high2"), "a", 10, 0);
+        queue.offer(makeJob("negative1"), "b", -1, 0);
+        queue.offer(makeJob("medium2"), "b", 5, 0);
+
+        String[] expected = {"high1", "high2", "medium1", "medium2", "low1", "low2", "negative1"};
+        for (String jobName : expected) {
+            assertEquals("next job", jobName, nextJobName(queue));
+        }
+        assertNull("no more jobs", queue.poll());
+        assertTrue("queue empty", queue.isEmpty());
+        assertEquals("pool a depth", 0, queue.getDepth("a"));
+        assertEquals("pool b depth", 0, queue.getDepth("b"));
+    }
+
+    public void testQueuedJob() throws Exception {
+        JobQueue queue = new JobQueue();
+        long before = System.currentTimeMillis();
+        Job job = makeJob("job");
+        queue.offer(job, "a", 3, 0);
+        JobQueue.QueuedJob queuedJob = queue.poll(1000);
+        assertSame("job", job, queuedJob.getJob());
+        assertEquals("pool", "a", queuedJob.getPoolId());
+        assertEquals("priority", 3, queuedJob.getPriority());
+        assertTrue("queued time", queuedJob.getQueuedTime() >= before && queuedJob.getQueuedTime() <= System.currentTimeMillis());
+    }
+
+    public void testPollWaits() throws Exception {
+        final JobQueue queue = new JobQueue();
+        long start = System.currentTimeMillis();
+        assertNull("nothing queued", queue.poll(100));
+        assertTrue("waited", System.currentTimeMillis() - start >= 90);
+
+        Thread producer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                queue.offer(makeJob("late"), "a", 0, 0);
+            }
+        };
+        producer.start();
+        JobQueue.QueuedJob queuedJob = queue.poll(10000);
+        producer.join();
+        assertNotNull("job queued while waiting", queuedJob);
+        assertEquals("job queued while waiting", "late", queuedJob.getJob().getJobName());
+        assertEquals("pool depth", 0, queue.getDepth("a"));
+    }
+}
@@ -29,6 +29,7 @@ import org.ofbiz.base.util.UtilMisc;
 import org.ofbiz.entity.Delegator;
 import org.ofbiz.entity.GenericEntityException;
 import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.transaction.GenericTransactionException;
 import org.ofbiz.entity.transaction.TransactionUtil;
 import org.ofbiz.service.DispatchContext;
 import org.ofbiz.service.GenericResultWaiter;
@@ -52,6 +53,17 @@ public class ServiceEngineTestServices {
         return ServiceUtil.returnSuccess();
     }
 
+    public static Map<String, Object> testServiceJobContext(DispatchContext dctx, Map<String, ? extends Object> context) {
+        Map<String, Object> result = ServiceUtil.returnSuccess();
+        result.put("threadName", Thread.currentThread().getName());
+        try {
+            result.put("inTransaction", Boolean.valueOf(TransactionUtil.isTransactionInPlace()));
+        } catch (GenericTransactionException e) {
+            return ServiceUtil.returnError(e.toString());
+        }
+        return result;
+    }
+
     public static Map<String, Object> testServiceDeadLockRetry(DispatchContext dctx, Map<String, ? extends Object> context) {
         LocalDispatcher dispatcher = dctx.getDispatcher();
         try {
@@ -0,0 +1,185 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+/* This file has been modified by Open Source Strategies, Inc. */
+package org.ofbiz.service.test;
+
+import java.sql.Timestamp;
+
+import org.ofbiz.base.util.UtilMisc;
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.condition.EntityCondition;
+import org.ofbiz.entity.condition.EntityOperator;
+import org.ofbiz.service.ModelService;
+import org.ofbiz.service.semaphore.SemaphoreFailException;
+import org.ofbiz.service.semaphore.SemaphoreWaitException;
+import org.ofbiz.service.semaphore.ServiceSemaphore;
+import org.ofbiz.service.testtools.OFBizTestCase;
+
+/**
+ * Tests the blocking, time out, lease and release of the <code>ServiceSemaphore</code>, with short waits and leases.
+ */
+public class ServiceSemaphoreTests extends OFBizTestCase {
+
+    private static final String SERVICE_PREFIX = "testServiceSemaphore";
+
+    public ServiceSemaphoreTests(String name) {
+        super(name);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        removeSemaphores();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        removeSemaphores();
+    }
+
+    private void removeSemaphores() throws Exception {
+        delegator.removeByCondition("ServiceSemaphore", EntityCondition.makeCondition("serviceName", EntityOperator.LIKE, SERVICE_PREFIX + "%"));
+    }
+
+    private ModelService makeModel(String name, String semaphore, int wait, int lease) {
+        ModelService model = new ModelService();
+        model.name = SERVICE_PREFIX + name;
+        model.semaphore = semaphore;
+        model.semaphoreWait = wait;
+        model.semaphoreSleep = 100;
+        model.semaphoreLease = lease;
+        return model;
+    }
+
+    private GenericValue findSemaphore(ModelService model) throws Exception {
+        return delegator.findOne("ServiceSemaphore", false, "serviceName", model.name);
+    }
+
+    public void testFailWhileLocked() throws Exception {
+        ModelService model = makeModel("Fail", "fail", 0, 0);
+        ServiceSemaphore holder = new ServiceSemaphore(delegator, model);
+        holder.acquire();
+        assertNotNull("Lock row created", findSemaphore(model));
+
+        ServiceSemaphore caller = new ServiceSemaphore(delegator, model);
+        try {
+            caller.acquire();
+            fail("Second caller should fail while the service is locked");
+        } catch (SemaphoreFailException e) {
+            // expected
+        }
+
+        holder.release();
+        assertNull("Lock row removed", findSemaphore(model));
+        caller.acquire();
+        caller.release();
+    }
+
+    public void testWaitTimesOut() throws Exception {
+        ModelService model = makeModel("WaitTimeout", "wait", 1, 0);
+        ServiceSemaphore holder = new ServiceSemaphore(delegator, model);
+        holder.acquire();
+        try {
+            long start = System.currentTimeMillis();
+            try {
+                new ServiceSemaphore(delegator, model).acquire();
+                fail("Second caller should time out while the service is locked");
+            } catch (SemaphoreWaitException e) {
+                // expected
+            }
+            assertTrue("Waited for the semaphore wait time", System.currentTimeMillis() - start >= 900);
+        } finally {
+            holder.release();
+        }
+    }
+
+    public void testWaitBlocksUntilRelease() throws Exception {
+        ModelService model = makeModel("WaitRelease", "wait", 10, 0);
+        final ServiceSemaphore holder = new ServiceSemaphore(delegator, model);
+        holder.acquire();
+        Thread releaser = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(500);
+                    holder.release();
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        long start = System.currentTimeMillis();
+        releaser.start();
+
+        ServiceSemaphore caller = new ServiceSemaphore(delegator, model);
+        caller.acquire();
+        assertTrue("Waited for the holder to release", System.currentTimeMillis() - start >= 400);
+        assertEquals("Lock row held by the caller", Thread.currentThread().getName(), findSemaphore(model).getString("lockThread"));
+        caller.release();
+        releaser.join();
+        assertNull("Lock row removed", findSemaphore(model));
+    }
+
+    public void testExpiredLockReclaimed() throws Exception {
+        ModelService model = makeModel("Reclaim", "wait", 5, 60);
+        // a lock left by a server which went away
+        Timestamp oldTime = new Timestamp(System.currentTimeMillis() / 1000 * 1000 - 3600 * 1000L);
+        delegator.create("ServiceSemaphore", UtilMisc.toMap("serviceName", model.name, "lockThread", "gone-server-thread", "lockTime", oldTime));
+
+        ServiceSemaphore caller = new ServiceSemaphore(delegator, model);
+        caller.acquire();
+        GenericValue semaphore = findSemaphore(model);
+        assertEquals("Expired lock taken over", Thread.currentThread().getName(), semaphore.getString("lockThread"));
+        assertTrue("Lease restarted", semaphore.getTimestamp("lockTime").after(oldTime));
+        caller.release();
+        assertNull("Lock row removed", findSemaphore(model));
+    }
+
+    public void testReleaseKeepsReclaimedLock() throws Exception {
+        ModelService model = makeModel("ReleaseReclaimed", "fail", 0, 60);
+        ServiceSemaphore holder = new ServiceSemaphore(delegator, model);
+        holder.acquire();
+
+        // another server took the lock over, as after an expired lease
+        Timestamp otherTime = new Timestamp(System.currentTimeMillis() / 1000 * 1000 + 1000);
+        delegator.storeByCondition("ServiceSemaphore", UtilMisc.toMap("lockThread", "other-server-thread", "lockTime", otherTime),
+                EntityCondition.makeCondition("serviceName", model.name));
+
+        holder.release();
+        GenericValue semaphore = findSemaphore(model);
+        assertNotNull("Lock row of the new holder kept", semaphore);
+        assertEquals("Lock row of the new holder kept", "other-server-thread", semaphore.getString("lockThread"));
+    }
+
+    public void testLeaseRenewed() throws Exception {
+        ModelService model = makeModel("Renew", "fail", 0, 2);
+        ServiceSemaphore holder = new ServiceSemaphore(delegator, model);
+        holder.acquire();
+        try {
+            Timestamp acquiredTime = findSemaphore(model).getTimestamp("lockTime");
+            Thread.sleep(3500);
+
+            GenericValue semaphore = findSemaphore(model);
+            assertEquals("Lock row still held", Thread.currentThread().getName(), semaphore.getString("lockThread"));
+            assertTrue("Lease renewed while the service runs", semaphore.getTimestamp("lockTime").after(acquiredTime));
+        } finally {
+            holder.release();
+        }
+        assertNull("Lock row removed", findSemaphore(model));
+    }
+}
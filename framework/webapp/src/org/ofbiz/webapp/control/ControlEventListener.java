@@ -36,6 +36,7 @@ import org.ofbiz.entity.GenericEntityException;
 import org.ofbiz.entity.GenericValue;
 import org.ofbiz.entity.serialize.XmlSerializer;
 import org.ofbiz.entity.transaction.TransactionUtil;
+import org.ofbiz.webapp.stats.ServerHitRecorder;
 
 /**
  * HttpSessionListener that gathers and tracks various information and statistics
@@ -77,7 +78,7 @@ public class ControlEventListener implements HttpSessionListener {
             GenericValue visit = (GenericValue) session.getAttribute("visit");
             if (visit != null) {
                 visit.set("thruDate", new Timestamp(session.getLastAccessedTime()));
-                visit.store();
+                ServerHitRecorder.store(visit);
             } else {
                 Debug.logWarning("Could not find visit value object in session [" + session.getId() + "] that is being destroyed", module);
             }
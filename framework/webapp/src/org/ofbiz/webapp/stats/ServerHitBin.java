@@ -23,12 +23,14 @@ import java.net.InetAddress;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.servlet.http.HttpServletRequest;
 
-import javolution.util.FastList;
-import javolution.util.FastMap;
-
 import org.ofbiz.base.util.Debug;
 import org.ofbiz.base.util.UtilHttp;
 import org.ofbiz.base.util.UtilMisc;
@@ -96,9 +98,7 @@ public class ServerHitBin {
     static void advanceAllBins(long toTime, Map<String, List<ServerHitBin>> binMap) {
         for (Map.Entry<String, List<ServerHitBin>> entry  :binMap.entrySet()) {
             if (entry.getValue() != null) {
-                for (ServerHitBin bin: entry.getValue()) {
-                    bin.advanceBin(toTime);
-                }
+                advanceBins(entry.getValue(), toTime);
             }
         }
     }
@@ -111,6 +111,50 @@ public class ServerHitBin {
         }
     }
 
+    /**
+     * Gets the <code>Map</code> of the bin lists by id for the given hit type.
+     * @param type the hit type, for example <code>REQUEST</code>
+     * @return the history <code>Map</code>, or <code>null</code> for an unknown type
+     */
+    public static ConcurrentMap<String, List<ServerHitBin>> getHistory(int type) {
+        switch (type) {
+        case REQUEST:
+            return requestHistory;
+        case EVENT:
+            return eventHistory;
+        case VIEW:
+            return viewHistory;
+        case ENTITY:
+            return entityHistory;
+        case SERVICE:
+            return serviceHistory;
+        default:
+            return null;
+        }
+    }
+
+    /**
+     * Gets the <code>Map</code> of the bins since the server started by id for the given hit type.
+     * @param type the hit type, for example <code>REQUEST</code>
+     * @return the since started <code>Map</code>, or <code>null</code> for an unknown type
+     */
+    public static ConcurrentMap<String, ServerHitBin> getSinceStarted(int type) {
+        switch (type) {
+        case REQUEST:
+            return requestSinceStarted;
+        case EVENT:
+            return eventSinceStarted;
+        case VIEW:
+            return viewSinceStarted;
+        case ENTITY:
+            return entitySinceStarted;
+        case SERVICE:
+            return serviceSinceStarted;
+        default:
+            return null;
+        }
+    }
+
     protected static void countHit(String baseId, int type, HttpServletRequest request, long startTime, long runningTime, GenericValue userLogin, boolean isOriginal) {
         String delegatorName = (String) request.getSession().getAttribute("delegatorName");
         Delegator delegator = null;
@@ -123,97 +167,18 @@ public class ServerHitBin {
 
         String id = makeIdTenantAware(baseId, delegator);
 
-        ServerHitBin bin = null;
-        List<ServerHitBin> binList = null;
-
-        switch (type) {
-        case REQUEST:
-            binList = requestHistory.get(id);
-            break;
-
-        case EVENT:
-            binList = eventHistory.get(id);
-            break;
-
-        case VIEW:
-            binList = viewHistory.get(id);
-            break;
-
-        case ENTITY:
-            binList = entityHistory.get(id);
-            break;
-
-        case SERVICE:
-            binList = serviceHistory.get(id);
-            break;
-        }
-
+        ConcurrentMap<String, List<ServerHitBin>> history = getHistory(type);
+        List<ServerHitBin> binList = history.get(id);
         if (binList == null) {
-            synchronized (ServerHitBin.class) {
-                switch (type) {
-                case REQUEST:
-                    binList = requestHistory.get(id);
-                    break;
-
-                case EVENT:
-                    binList = eventHistory.get(id);
-                    break;
-
-                case VIEW:
-                    binList = viewHistory.get(id);
-                    break;
-
-                case ENTITY:
-                    binList = entityHistory.get(id);
-                    break;
-
-                case SERVICE:
-                    binList = serviceHistory.get(id);
-                    break;
-                }
-                if (binList == null) {
-                    binList = FastList.newInstance();
-                    switch (type) {
-                    case REQUEST:
-                        requestHistory.put(id, binList);
-                        break;
-
-                    case EVENT:
-                        eventHistory.put(id, binList);
-                        break;
-
-                    case VIEW:
-                        viewHistory.put(id, binList);
-                        break;
-
-                    case ENTITY:
-                        entityHistory.put(id, binList);
-                        break;
-
-                    case SERVICE:
-                        serviceHistory.put(id, binList);
-                        break;
-                    }
-                }
-            }
-        }
-
-        if (binList.size() > 0) {
-            bin = binList.get(0);
-        }
-        if (bin == null) {
-            synchronized (ServerHitBin.class) {
-                if (binList.size() > 0) {
-                    bin = binList.get(0);
-                }
-                if (bin == null) {
-                    bin = new ServerHitBin(id, type, true, delegator);
-                    binList.add(0, bin);
-                }
+            List<ServerHitBin> newBinList = new CopyOnWriteArrayList<ServerHitBin>();
+            newBinList.add(new ServerHitBin(id, type, true, delegator));
+            binList = history.putIfAbsent(id, newBinList);
+            if (binList == null) {
+                binList = newBinList;
             }
         }
 
-        bin.addHit(startTime, runningTime);
+        ServerHitBin bin = addHit(binList, startTime + runningTime, runningTime);
         if (isOriginal && !id.startsWith("GLOBAL")) {
             try {
                 bin.saveHit(request, startTime, runningTime, userLogin);
@@ -243,101 +208,93 @@ public class ServerHitBin {
 
         String id = makeIdTenantAware(baseId, delegator);
 
-        ServerHitBin bin = null;
-
         // save in global, and try to get bin by id
-        switch (type) {
-        case REQUEST:
-            bin = (ServerHitBin) requestSinceStarted.get(id);
-            break;
-
-        case EVENT:
-            bin = (ServerHitBin) eventSinceStarted.get(id);
-            break;
+        ConcurrentMap<String, ServerHitBin> sinceStarted = getSinceStarted(type);
+        ServerHitBin bin = sinceStarted.get(id);
+        if (bin == null) {
+            ServerHitBin newBin = new ServerHitBin(id, type, false, delegator);
+            bin = sinceStarted.putIfAbsent(id, newBin);
+            if (bin == null) {
+                bin = newBin;
+            }
+        }
 
-        case VIEW:
-            bin = (ServerHitBin) viewSinceStarted.get(id);
-            break;
+        bin.addHit(runningTime);
 
-        case ENTITY:
-            bin = (ServerHitBin) entitySinceStarted.get(id);
-            break;
+        if (isOriginal)
+            countHitSinceStart("GLOBAL", type, startTime, runningTime, false, delegator);
+    }
 
-        case SERVICE:
-            bin = (ServerHitBin) serviceSinceStarted.get(id);
-            break;
+    /**
+     * Counts a hit in the current bin of a bin list. The hit is announced in the bin before checking that the bin is still
+     * current, so a bin which ended meanwhile is not used and the bin which ends it waits for the announced hits before
+     * persisting the bin; no hit is counted in a bin already persisted or dropped.
+     * @param binList the bins of an id, the most recent first
+     * @param toTime the time of the hit
+     * @param runningTime the running time of the hit
+     * @return the bin the hit was counted in
+     */
+    static ServerHitBin addHit(List<ServerHitBin> binList, long toTime, long runningTime) {
+        while (true) {
+            ServerHitBin bin = advanceBins(binList, toTime);
+            bin.pendingHits.incrementAndGet();
+            try {
+                if (binList.get(0) == bin) {
+                    bin.addHit(runningTime);
+                    return bin;
+                }
+            } finally {
+                bin.pendingHits.decrementAndGet();
+            }
         }
+    }
 
-        if (bin == null) {
-            synchronized (ServerHitBin.class) {
-                switch (type) {
-                case REQUEST:
-                    bin = (ServerHitBin) requestSinceStarted.get(id);
-                    break;
-
-                case EVENT:
-                    bin = (ServerHitBin) eventSinceStarted.get(id);
-                    break;
-
-                case VIEW:
-                    bin = (ServerHitBin) viewSinceStarted.get(id);
-                    break;
-
-                case ENTITY:
-                    bin = (ServerHitBin) entitySinceStarted.get(id);
-                    break;
-
-                case SERVICE:
-                    bin = (ServerHitBin) serviceSinceStarted.get(id);
-                    break;
+    /**
+     * Gets the current bin of a bin list, first starting new bins until the current one ends after the given time.
+     * The bins are only replaced at the head of the list, so the hits are counted without locking while the bin is current;
+     * an ended bin is persisted once the hits being counted in it are done, or removed from the list if it has no hit.
+     * @param binList the bins of an id, the most recent first
+     * @param toTime the time of the hit
+     * @return the current bin
+     */
+    static ServerHitBin advanceBins(List<ServerHitBin> binList, long toTime) {
+        ServerHitBin bin = binList.isEmpty() ? null : binList.get(0);
+        if (bin != null && (!bin.limitLength || toTime <= bin.endTime)) {
+            return bin;
+        }
+        synchronized (binList) {
+            bin = binList.get(0);
+            while (bin.limitLength && toTime > bin.endTime) {
+                ServerHitBin nextBin = new ServerHitBin(bin, bin.endTime + 1);
+                binList.add(0, nextBin);
+                // the hits announced before the new bin was visible are still counted in the ended bin
+                while (bin.pendingHits.get() > 0) {
+                    Thread.yield();
                 }
-
-                if (bin == null) {
-                    bin = new ServerHitBin(id, type, false, delegator);
-                    switch (type) {
-                    case REQUEST:
-                        requestSinceStarted.put(id, bin);
-                        break;
-
-                    case EVENT:
-                        eventSinceStarted.put(id, bin);
-                        break;
-
-                    case VIEW:
-                        viewSinceStarted.put(id, bin);
-                        break;
-
-                    case ENTITY:
-                        entitySinceStarted.put(id, bin);
-                        break;
-
-                    case SERVICE:
-                        serviceSinceStarted.put(id, bin);
-                        break;
-                    }
+                if (bin.numberHits.get() > 0) {
+                    bin.persistBin();
+                } else {
+                    binList.remove(bin);
                 }
+                bin = nextBin;
             }
+            return bin;
         }
-
-        bin.addHit(startTime, runningTime);
-
-        if (isOriginal)
-            countHitSinceStart("GLOBAL", type, startTime, runningTime, false, delegator);
     }
 
     // these Maps contain Lists of ServerHitBin objects by id, the most recent is first in the list
-    public static Map<String, List<ServerHitBin>> requestHistory = FastMap.newInstance();
-    public static Map<String, List<ServerHitBin>> eventHistory = FastMap.newInstance();
-    public static Map<String, List<ServerHitBin>> viewHistory = FastMap.newInstance();
-    public static Map<String, List<ServerHitBin>> entityHistory = FastMap.newInstance();
-    public static Map<String, List<ServerHitBin>> serviceHistory = FastMap.newInstance();
+    public static final ConcurrentMap<String, List<ServerHitBin>> requestHistory = new ConcurrentHashMap<String, List<ServerHitBin>>();
+    public static final ConcurrentMap<String, List<ServerHitBin>> eventHistory = new ConcurrentHashMap<String, List<ServerHitBin>>();
+    public static final ConcurrentMap<String, List<ServerHitBin>> viewHistory = new ConcurrentHashMap<String, List<ServerHitBin>>();
+    public static final ConcurrentMap<String, List<ServerHitBin>> entityHistory = new ConcurrentHashMap<String, List<ServerHitBin>>();
+    public static final ConcurrentMap<String, List<ServerHitBin>> serviceHistory = new ConcurrentHashMap<String, List<ServerHitBin>>();
 
     // these Maps contain ServerHitBin objects by id
-    public static Map<String, ServerHitBin> requestSinceStarted = FastMap.newInstance();
-    public static Map<String, ServerHitBin> eventSinceStarted = FastMap.newInstance();
-    public static Map<String, ServerHitBin> viewSinceStarted = FastMap.newInstance();
-    public static Map<String, ServerHitBin> entitySinceStarted = FastMap.newInstance();
-    public static Map<String, ServerHitBin> serviceSinceStarted = FastMap.newInstance();
+    public static final ConcurrentMap<String, ServerHitBin> requestSinceStarted = new ConcurrentHashMap<String, ServerHitBin>();
+    public static final ConcurrentMap<String, ServerHitBin> eventSinceStarted = new ConcurrentHashMap<String, ServerHitBin>();
+    public static final ConcurrentMap<String, ServerHitBin> viewSinceStarted = new ConcurrentHashMap<String, ServerHitBin>();
+    public static final ConcurrentMap<String, ServerHitBin> entitySinceStarted = new ConcurrentHashMap<String, ServerHitBin>();
+    public static final ConcurrentMap<String, ServerHitBin> serviceSinceStarted = new ConcurrentHashMap<String, ServerHitBin>();
 
     Delegator delegator;
     String delegatorName;
@@ -346,10 +303,13 @@ public class ServerHitBin {
     boolean limitLength;
     long startTime;
     long endTime;
-    long numberHits;
-    long totalRunningTime;
-    long minTime;
-    long maxTime;
+    // the hits are counted concurrently, the min and max times are updated with compare and set
+    final AtomicLong numberHits = new AtomicLong();
+    final AtomicLong totalRunningTime = new AtomicLong();
+    final AtomicLong minTime = new AtomicLong(Long.MAX_VALUE);
+    final AtomicLong maxTime = new AtomicLong();
+    // the hits being counted in this bin, see addHit
+    final AtomicInteger pendingHits = new AtomicInteger();
 
     public ServerHitBin(String id, int type, boolean limitLength, Delegator delegator) {
         super();
@@ -362,7 +322,19 @@ public class ServerHitBin {
         this.limitLength = limitLength;
         this.delegator = delegator;
         this.delegatorName = delegator.getDelegatorName();
-        reset(getEvenStartingTime());
+        setTimes(getEvenStartingTime());
+    }
+
+    /** Creates the bin following the given bin, starting at the given time. */
+    ServerHitBin(ServerHitBin previousBin, long startTime) {
+        super();
+
+        this.id = previousBin.id;
+        this.type = previousBin.type;
+        this.limitLength = previousBin.limitLength;
+        this.delegator = previousBin.delegator;
+        this.delegatorName = previousBin.delegatorName;
+        setTimes(startTime);
     }
 
     public Delegator getDelegator() {
@@ -406,7 +378,7 @@ public class ServerHitBin {
         return binLength;
     }
 
-    void reset(long startTime) {
+    private void setTimes(long startTime) {
         this.startTime = startTime;
         if (limitLength) {
             long binLength = getNewBinLength();
@@ -416,26 +388,6 @@ public class ServerHitBin {
         } else {
             this.endTime = 0;
         }
-        this.numberHits = 0;
-        this.totalRunningTime = 0;
-        this.minTime = Long.MAX_VALUE;
-        this.maxTime = 0;
-    }
-
-    ServerHitBin(ServerHitBin oldBin) {
-        super();
-
-        this.id = oldBin.id;
-        this.type = oldBin.type;
-        this.limitLength = oldBin.limitLength;
-        this.delegator = oldBin.delegator;
-        this.delegatorName = oldBin.delegatorName;
-        this.startTime = oldBin.startTime;
-        this.endTime = oldBin.endTime;
-        this.numberHits = oldBin.numberHits;
-        this.totalRunningTime = oldBin.totalRunningTime;
-        this.minTime = oldBin.minTime;
-        this.maxTime = oldBin.maxTime;
     }
 
     public String getId() {
@@ -482,31 +434,31 @@ public class ServerHitBin {
     }
 
     public long getNumberHits() {
-        return this.numberHits;
+        return this.numberHits.get();
     }
 
     public long getTotalRunningTime() {
-        return this.totalRunningTime;
+        return this.totalRunningTime.get();
     }
 
     public long getMinTime() {
-        return this.minTime;
+        return this.minTime.get();
     }
 
     public double getMinTimeSeconds() {
-        return ((double) this.minTime) / 1000.0;
+        return ((double) this.getMinTime()) / 1000.0;
     }
 
     public long getMaxTime() {
-        return this.maxTime;
+        return this.maxTime.get();
     }
 
     public double getMaxTimeSeconds() {
-        return ((double) this.maxTime) / 1000.0;
+        return ((double) this.getMaxTime()) / 1000.0;
     }
 
     public double getAvgTime() {
-        return ((double) this.totalRunningTime) / ((double) this.numberHits);
+        return ((double) this.getTotalRunningTime()) / ((double) this.getNumberHits());
     }
 
     public double getAvgTimeSeconds() {
@@ -515,86 +467,52 @@ public class ServerHitBin {
 
     /** return the hits per minute using the entire length of the bin as returned by getBinLengthMinutes() */
     public double getHitsPerMinute() {
-        return ((double) this.numberHits) / this.getBinLengthMinutes();
+        return ((double) this.getNumberHits()) / this.getBinLengthMinutes();
     }
 
-    synchronized void addHit(long startTime, long runningTime) {
-        advanceBin(startTime + runningTime);
-
-        this.numberHits++;
-        this.totalRunningTime += runningTime;
-        if (runningTime < this.minTime)
-            this.minTime = runningTime;
-        if (runningTime > this.maxTime)
-            this.maxTime = runningTime;
+    void addHit(long runningTime) {
+        this.numberHits.incrementAndGet();
+        this.totalRunningTime.addAndGet(runningTime);
+        long current = this.minTime.get();
+        while (runningTime < current && !this.minTime.compareAndSet(current, runningTime)) {
+            current = this.minTime.get();
+        }
+        current = this.maxTime.get();
+        while (runningTime > current && !this.maxTime.compareAndSet(current, runningTime)) {
+            current = this.maxTime.get();
+        }
     }
 
-    synchronized void advanceBin(long toTime) {
-        // first check to see if this bin has expired, if so save and recycle it
-        while (limitLength && toTime > this.endTime) {
-            List<ServerHitBin> binList = null;
-
-            switch (type) {
-            case REQUEST:
-                binList = requestHistory.get(id);
-                break;
-
-            case EVENT:
-                binList = eventHistory.get(id);
-                break;
-
-            case VIEW:
-                binList = viewHistory.get(id);
-                break;
-
-            case ENTITY:
-                binList = entityHistory.get(id);
-                break;
-
-            case SERVICE:
-                binList = serviceHistory.get(id);
-                break;
-            }
+    private void persistBin() {
+        // persist each bin when time ends if option turned on
+        if (UtilProperties.propertyValueEqualsIgnoreCase("serverstats", "stats.persist." + ServerHitBin.typeIds[type] + ".bin", "true")) {
+            GenericValue serverHitBin = delegator.makeValue("ServerHitBin");
+            serverHitBin.set("contentId", this.id);
+            serverHitBin.set("hitTypeId", ServerHitBin.typeIds[this.type]);
+            serverHitBin.set("binStartDateTime", new java.sql.Timestamp(this.startTime));
+            serverHitBin.set("binEndDateTime", new java.sql.Timestamp(this.endTime));
+            serverHitBin.set("numberHits", Long.valueOf(this.getNumberHits()));
+            serverHitBin.set("totalTimeMillis", Long.valueOf(this.getTotalRunningTime()));
+            serverHitBin.set("minTimeMillis", Long.valueOf(this.getMinTime()));
+            serverHitBin.set("maxTimeMillis", Long.valueOf(this.getMaxTime()));
+            // get localhost ip address and hostname to store
+            try {
+                InetAddress address = InetAddress.getLocalHost();
 
-            // the first in the list will be this object, remove and copy it,
-            // put the copy at the first of the list, then put this object back on
-            binList.remove(0);
-            if (this.numberHits > 0) {
-                binList.add(0, new ServerHitBin(this));
-
-                // persist each bin when time ends if option turned on
-                if (UtilProperties.propertyValueEqualsIgnoreCase("serverstats", "stats.persist." + ServerHitBin.typeIds[type] + ".bin", "true")) {
-                    GenericValue serverHitBin = delegator.makeValue("ServerHitBin");
-                    serverHitBin.set("contentId", this.id);
-                    serverHitBin.set("hitTypeId", ServerHitBin.typeIds[this.type]);
-                    serverHitBin.set("binStartDateTime", new java.sql.Timestamp(this.startTime));
-                    serverHitBin.set("binEndDateTime", new java.sql.Timestamp(this.endTime));
-                    serverHitBin.set("numberHits", Long.valueOf(this.numberHits));
-                    serverHitBin.set("totalTimeMillis", Long.valueOf(this.totalRunningTime));
-                    serverHitBin.set("minTimeMillis", Long.valueOf(this.minTime));
-                    serverHitBin.set("maxTimeMillis", Long.valueOf(this.maxTime));
-                    // get localhost ip address and hostname to store
-                    try {
-                        InetAddress address = InetAddress.getLocalHost();
-
-                        if (address != null) {
-                            serverHitBin.set("serverIpAddress", address.getHostAddress());
-                            serverHitBin.set("serverHostName", address.getHostName());
-                        } else {
-                            Debug.logError("Unable to get localhost internet address, was null", module);
-                        }
-                    } catch (java.net.UnknownHostException e) {
-                        Debug.logError("Unable to get localhost internet address: " + e.toString(), module);
-                    }
-                    try {
-                        delegator.createSetNextSeqId(serverHitBin);
-                    } catch (GenericEntityException e) {
-                        Debug.logError(e, "Could not save ServerHitBin:", module);
-                    }
+                if (address != null) {
+                    serverHitBin.set("serverIpAddress", address.getHostAddress());
+                    serverHitBin.set("serverHostName", address.getHostName());
+                } else {
+                    Debug.logError("Unable to get localhost internet address, was null", module);
                 }
+            } catch (java.net.UnknownHostException e) {
+                Debug.logError("Unable to get localhost internet address: " + e.toString(), module);
+            }
+            try {
+                ServerHitRecorder.createSetNextSeqId(serverHitBin);
+            } catch (GenericEntityException e) {
+                Debug.logError(e, "Could not save ServerHitBin:", module);
             }
-            this.reset(this.endTime + 1);
-            binList.add(0, this);
         }
     }
 
@@ -625,7 +543,7 @@ public class ServerHitBin {
             }
             String visitId = visit.getString("visitId");
 
-            Debug.logInfo("Visit delegatorName=" + visit.getDelegator().getDelegatorName() + ", ServerHitBin delegatorName=" + this.delegator.getDelegatorName(), module);
+            if (Debug.verboseOn()) Debug.logVerbose("Visit delegatorName=" + visit.getDelegator().getDelegatorName() + ", ServerHitBin delegatorName=" + this.delegator.getDelegatorName(), module);
 
             /* this isn't needed, the problem was better solved elsewhere, and without adding another query; leaving it here because it might be useful for something in the future
              * else {
@@ -718,7 +636,10 @@ public class ServerHitBin {
             	// every server hit even with equal startTimes but that could be
             	// solved adding a counter to the ServerHit's PK (a counter
             	// counting multiple hits at the same startTime).
-            	if (delegator.createOrStore(serverHit).equals(serverHit)) {
+            	if (ServerHitRecorder.isAsync()) {
+                    // written with storeAll, which also creates or updates the hit
+                    ServerHitRecorder.record(serverHit);
+                } else if (delegator.createOrStore(serverHit).equals(serverHit)) {
                     Debug.log("Duplicate ServerHit was updated: " + serverHit, module);
                 }
             } catch (GenericEntityException e) {
@@ -0,0 +1,261 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+/* This file has been modified by Open Source Strategies, Inc. */
+package org.ofbiz.webapp.stats;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import javolution.util.FastList;
+import javolution.util.FastMap;
+
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.UtilMisc;
+import org.ofbiz.base.util.UtilProperties;
+import org.ofbiz.entity.Delegator;
+import org.ofbiz.entity.GenericEntityException;
+import org.ofbiz.entity.GenericValue;
+
+/**
+ * Writes the ServerHit and ServerHitBin records and the Visit updates of the request threads.
+ * <p>
+ * The Visit and Visitor records are still created in the request threads, since other records such as TrackingCodeVisit,
+ * ProductSearchResult or ShoppingList reference them as soon as they are created.
+ * <p>
+ * When <code>stats.persist.async</code> is set in <code>serverstats.properties</code> the records are added to a
+ * bounded lock-free queue and written by a background thread with <code>Delegator.storeAll</code>, which uses
+ * JDBC batches when the datasource has a <code>batch-size</code>. The queue is written when it has
+ * <code>stats.persist.async.batchSize</code> records or every <code>stats.persist.async.flushMillis</code>.
+ * When the queue is full the <code>stats.persist.async.overflow</code> policy either discards the record
+ * or writes it in the request thread. Otherwise the records are written in the request thread as before.
+ */
+public final class ServerHitRecorder {
+
+    public static final String module = ServerHitRecorder.class.getName();
+
+    /** The order the entities are written in, so the values referenced by the other records are written first. */
+    private static final List<String> entityOrder = UtilMisc.toList("Visit", "ServerHit", "ServerHitBin");
+
+    private static final ConcurrentLinkedQueue<GenericValue> queue = new ConcurrentLinkedQueue<GenericValue>();
+    private static final AtomicInteger queueSize = new AtomicInteger();
+    private static final Object flushLock = new Object();
+    private static volatile Thread writer = null;
+
+    private static final AtomicLong queued = new AtomicLong();
+    private static final AtomicLong written = new AtomicLong();
+    private static final AtomicLong writtenByCaller = new AtomicLong();
+    private static final AtomicLong discarded = new AtomicLong();
+    private static final AtomicLong failed = new AtomicLong();
+    private static final AtomicLong batches = new AtomicLong();
+
+    private ServerHitRecorder() { }
+
+    /**
+     * Checks if the records are written by the background thread.
+     * @return the <code>stats.persist.async</code> setting
+     */
+    public static boolean isAsync() {
+        return UtilProperties.propertyValueEqualsIgnoreCase("serverstats", "stats.persist.async", "true");
+    }
+
+    private static int getCapacity() {
+        return (int) UtilProperties.getPropertyNumber("serverstats", "stats.persist.async.capacity", 10000);
+    }
+
+    private static int getBatchSize() {
+        return Math.max(1, (int) UtilProperties.getPropertyNumber("serverstats", "stats.persist.async.batchSize", 500));
+    }
+
+    private static long getFlushMillis() {
+        return Math.max(10, (long) UtilProperties.getPropertyNumber("serverstats", "stats.persist.async.flushMillis", 2000));
+    }
+
+    /**
+     * Creates a new value with the next sequence id for its primary key.
+     * @param value the value to create
+     * @return the value, with its primary key set
+     * @throws GenericEntityException if the value could not be written in the request thread
+     */
+    public static GenericValue createSetNextSeqId(GenericValue value) throws GenericEntityException {
+        if (!isAsync()) {
+            return value.getDelegator().createSetNextSeqId(value);
+        }
+        value.setNextSeqId();
+        record(value);
+        return value;
+    }
+
+    /**
+     * Stores a value, which is created if it was not written yet.
+     * @param value the value to store
+     * @throws GenericEntityException if the value could not be written in the request thread
+     */
+    public static void store(GenericValue value) throws GenericEntityException {
+        if (!isAsync()) {
+            value.store();
+            return;
+        }
+        record(value);
+    }
+
+    /**
+     * Adds a value to the queue of records to create or store. A copy of the value is queued, so the caller
+     * can keep changing it.
+     * @param value the value to write
+     * @throws GenericEntityException if the queue is full and the value could not be written in the request thread
+     */
+    public static void record(GenericValue value) throws GenericEntityException {
+        GenericValue copy = (GenericValue) value.clone();
+        if (queueSize.incrementAndGet() > getCapacity()) {
+            queueSize.decrementAndGet();
+            if ("discard".equals(UtilProperties.getPropertyValue("serverstats", "stats.persist.async.overflow", "write"))) {
+                discarded.incrementAndGet();
+            } else {
+                writtenByCaller.incrementAndGet();
+                copy.getDelegator().storeAll(UtilMisc.toList(copy));
+            }
+            return;
+        }
+        queue.add(copy);
+        queued.incrementAndGet();
+
+        Thread currentWriter = getWriter();
+        if (queueSize.get() >= getBatchSize()) {
+            LockSupport.unpark(currentWriter);
+        }
+    }
+
+    private static Thread getWriter() {
+        Thread currentWriter = writer;
+        if (currentWriter == null) {
+            synchronized (flushLock) {
+                currentWriter = writer;
+                if (currentWriter == null) {
+                    currentWriter = new Thread(new Runnable() {
+                        public void run() {
+                            while (true) {
+                                LockSupport.parkNanos(getFlushMillis() * 1000000L);
+                                try {
+                                    flush();
+                                } catch (Throwable t) {
+                                    Debug.logError(t, "Error writing the server hit records", module);
+                                }
+                            }
+                        }
+                    }, "ServerHitRecorder");
+                    currentWriter.setDaemon(true);
+                    currentWriter.start();
+                    writer = currentWriter;
+                }
+            }
+        }
+        return currentWriter;
+    }
+
+    /**
+     * Writes all the queued records, in batches of <code>stats.persist.async.batchSize</code> records.
+     */
+    public static void flush() {
+        synchronized (flushLock) {
+            int batchSize = getBatchSize();
+            List<GenericValue> batch = FastList.newInstance();
+            GenericValue value;
+            while ((value = queue.poll()) != null) {
+                queueSize.decrementAndGet();
+                batch.add(value);
+                if (batch.size() == batchSize) {
+                    write(batch);
+                    batch.clear();
+                }
+            }
+            if (batch.size() > 0) {
+                write(batch);
+            }
+        }
+    }
+
+    private static void write(List<GenericValue> batch) {
+        // each delegator writes its values in one transaction, in the order of the entities
+        Map<String, List<GenericValue>> valuesByDelegator = FastMap.newInstance();
+        for (GenericValue value : batch) {
+            String delegatorName = value.getDelegator().getDelegatorName();
+            List<GenericValue> values = valuesByDelegator.get(delegatorName);
+            if (values == null) {
+                values = FastList.newInstance();
+                valuesByDelegator.put(delegatorName, values);
+            }
+            values.add(value);
+        }
+        for (List<GenericValue> values : valuesByDelegator.values()) {
+            Collections.sort(values, entityComparator);
+            Delegator delegator = values.get(0).getDelegator();
+            batches.incrementAndGet();
+            try {
+                delegator.storeAll(values);
+                written.addAndGet(values.size());
+            } catch (GenericEntityException e) {
+                // write them one by one so only the values in error are lost
+                Debug.logWarning(e, "Could not write a batch of " + values.size() + " server hit records, writing them one by one", module);
+                for (GenericValue value : values) {
+                    try {
+                        delegator.storeAll(UtilMisc.toList(value));
+                        written.incrementAndGet();
+                    } catch (GenericEntityException e2) {
+                        failed.incrementAndGet();
+                        Debug.logError(e2, "Could not write " + value.getEntityName() + " record: " + value, module);
+                    }
+                }
+            }
+        }
+    }
+
+    private static final Comparator<GenericValue> entityComparator = new Comparator<GenericValue>() {
+        public int compare(GenericValue value1, GenericValue value2) {
+            return getEntityIndex(value1) - getEntityIndex(value2);
+        }
+
+        private int getEntityIndex(GenericValue value) {
+            int index = entityOrder.indexOf(value.getEntityName());
+            return index < 0 ? entityOrder.size() : index;
+        }
+    };
+
+    /**
+     * Gets the counters of the records.
+     * @return a <code>Map</code> with the number of records queued, written by the background thread, written by the
+     *  request threads because the queue was full, discarded and failed, the number of batches and the current queue size
+     */
+    public static Map<String, Object> getStatistics() {
+        Map<String, Object> statistics = FastMap.newInstance();
+        statistics.put("queued", queued.get());
+        statistics.put("written", written.get());
+        statistics.put("writtenByCaller", writtenByCaller.get());
+        statistics.put("discarded", discarded.get());
+        statistics.put("failed", failed.get());
+        statistics.put("batches", batches.get());
+        statistics.put("queueSize", queueSize.get());
+        return statistics;
+    }
+}
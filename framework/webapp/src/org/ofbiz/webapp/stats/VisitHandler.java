@@ -77,7 +77,7 @@ public class VisitHandler {
             }
 
             try {
-                visit.store();
+                ServerHitRecorder.store(visit);
             } catch (GenericEntityException e) {
                 Debug.logError(e, "Could not update visit: ", module);
             }
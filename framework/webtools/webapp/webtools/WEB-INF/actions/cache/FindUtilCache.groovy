@@ -45,6 +45,8 @@ names.each { cacheName ->
         cache.removeHitCount = UtilFormatOut.formatQuantity(utilCache.getRemoveHitCount());
         cache.removeMissCount = UtilFormatOut.formatQuantity(utilCache.getRemoveMissCount());
         cache.maxInMemory = UtilFormatOut.formatQuantity(utilCache.getMaxInMemory());
+        cache.weight = UtilFormatOut.formatQuantity(utilCache.getWeight());
+        cache.maxWeight = UtilFormatOut.formatQuantity(utilCache.getMaxWeight());
         cache.expireTime = UtilFormatOut.formatQuantity(utilCache.getExpireTime());
         cache.useSoftReference = utilCache.getUseSoftReference().toString();
         cache.useFileSystemStore = utilCache.getUseFileSystemStore().toString();
@@ -27,6 +27,7 @@ import java.sql.Timestamp;
 import org.ofbiz.base.util.UtilMisc;
 import org.ofbiz.service.ServiceDispatcher;
 import org.ofbiz.service.RunningService;
+import org.ofbiz.service.ServiceStatistics;
 import org.ofbiz.service.engine.GenericEngine;
 import org.ofbiz.base.util.UtilHttp;
 import org.ofbiz.base.util.UtilProperties;
@@ -34,9 +35,8 @@ import org.ofbiz.base.util.UtilProperties;
 uiLabelMap = UtilProperties.getResourceBundleMap("WebtoolsUiLabels", locale);
 uiLabelMap.addBottomResourceBundle("CommonUiLabels");
 
-log = ServiceDispatcher.getServiceLogMap();
 serviceList = [];
-log.each { rs, value ->
+ServiceStatistics.getRecentServices().each { rs ->
     service = [:];
     service.serviceName = rs.getModelService().name;
     service.localName = rs.getLocalName();
@@ -47,3 +47,9 @@ log.each { rs, value ->
     serviceList.add(service);
 }
 context.services = serviceList;
+
+serviceStatistics = [];
+ServiceStatistics.getAllStatistics().each { stats ->
+    serviceStatistics.add(stats.toMap());
+}
+context.serviceStatistics = serviceStatistics.sort { a, b -> b.count <=> a.count };
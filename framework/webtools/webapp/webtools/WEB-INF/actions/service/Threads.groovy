@@ -49,6 +49,8 @@ jobs.each { job ->
     threads.add(job);
 }
 context.threads = threads;
+context.jobPools = dispatcher.getJobManager().getPoolStatistics();
+context.jobServices = dispatcher.getJobManager().getServiceStatistics();
 
 // Some stuff for general threads on the server
 currentThread = Thread.currentThread();
@@ -54,6 +54,7 @@ under the License.
                 <td>${uiLabelMap.WebtoolsMisses}</td>
                 <td>${uiLabelMap.WebtoolsRemoves}</td>
                 <td>${uiLabelMap.WebtoolsMaxInMemory}</td>
+                <td>${uiLabelMap.WebtoolsCacheWeight}</td>
                 <td>${uiLabelMap.WebtoolsExpireTime}</td>
                 <td align="center">${uiLabelMap.WebtoolsUseSoftRef}</td>
                 <td align="center">${uiLabelMap.WebtoolsUseFileStore}</td>
@@ -68,6 +69,7 @@ under the License.
                     <td>${cache.missCountTot?if_exists}/${cache.missCountNotFound?if_exists}/${cache.missCountExpired?if_exists}/${cache.missCountSoftRef?if_exists}</td>
                     <td>${cache.removeHitCount?if_exists}/${cache.removeMissCount?if_exists}</td>
                     <td>${cache.maxInMemory?if_exists}</td>
+                    <td>${cache.weight?if_exists}/${cache.maxWeight?if_exists}</td>
                     <td>${cache.expireTime?if_exists}</td>
                     <td align="center">${cache.useSoftReference?if_exists}</td>
                     <td align="center">${cache.useFileSystemStore?if_exists}</td>
@@ -49,3 +49,38 @@ under the License.
     </table>
   </div>
 </div>
+<div class="screenlet">
+  <div class="screenlet-title-bar">
+    <h3>${uiLabelMap.WebtoolsServiceStatistics}</h3>
+  </div>
+  <div class="screenlet-body">
+    <table class="basic-table hover-bar" cellspacing="0">
+      <tr class="header-row">
+        <td>${uiLabelMap.WebtoolsServiceName}</td>
+        <td>${uiLabelMap.WebtoolsServiceCalls}</td>
+        <td>${uiLabelMap.WebtoolsServiceErrors}</td>
+        <td>${uiLabelMap.WebtoolsServiceFailures}</td>
+        <td>${uiLabelMap.WebtoolsServiceInFlight}</td>
+        <td>${uiLabelMap.WebtoolsServiceAsyncRequests}</td>
+        <td>${uiLabelMap.WebtoolsServiceTimes}</td>
+        <td>${uiLabelMap.WebtoolsServicePercentiles}</td>
+        <td>${uiLabelMap.WebtoolsServiceSemaphoreTimes}</td>
+      </tr>
+      <#assign alt_row = false>
+      <#list serviceStatistics as stats>
+        <tr<#if alt_row> class="alternate-row"</#if>>
+          <td>${stats.serviceName}</td>
+          <td>${stats.count}</td>
+          <td>${stats.errors}</td>
+          <td>${stats.failures}</td>
+          <td>${stats.inFlight}</td>
+          <td>${stats.asyncRequests}</td>
+          <td>${stats.averageTime} / ${stats.maxTime}</td>
+          <td>${stats.percentile50} / ${stats.percentile95} / ${stats.percentile99}</td>
+          <td><#if stats.semaphoreAcquired != 0 || stats.semaphoreRejected != 0>${stats.averageSemaphoreWait} / ${stats.averageSemaphoreHold}</#if></td>
+        </tr>
+        <#assign alt_row = !alt_row>
+      </#list>
+    </table>
+  </div>
+</div>
@@ -33,6 +33,9 @@ under the License.
         <td>${uiLabelMap.WebtoolsUsage}</td>
         <td>${uiLabelMap.WebtoolsTTL} (ms)</td>
         <td>${uiLabelMap.CommonTime} (ms)</td>
+        <td>${uiLabelMap.WebtoolsJobPool}</td>
+        <td>${uiLabelMap.WebtoolsJobPriority}</td>
+        <td>${uiLabelMap.WebtoolsJobQueueTime} (ms)</td>
       </tr>
       <#assign alt_row = false>
       <#list threads as thread>
@@ -44,6 +47,89 @@ under the License.
         <td>${thread.usage?if_exists}</td>
         <td>${thread.ttl?if_exists}</td>
         <td>${thread.runTime?if_exists}</td>
+        <td>${thread.poolId?if_exists}</td>
+        <td>${thread.priority?if_exists}</td>
+        <td>${thread.queueTime?if_exists}</td>
+      </tr>
+      <#-- toggle the row color -->
+      <#assign alt_row = !alt_row>
+      </#list>
+    </table>
+  </div>
+</div>
+<div class="screenlet">
+  <div class="screenlet-title-bar">
+    <h3>${uiLabelMap.WebtoolsServiceEngineJobPools}</h3>
+  </div>
+  <div class="screenlet-body">
+    <table class="basic-table hover-bar" cellspacing="0">
+      <tr class="header-row">
+        <td>${uiLabelMap.WebtoolsJobPool}</td>
+        <td>${uiLabelMap.WebtoolsJobsQueued}</td>
+        <td>${uiLabelMap.WebtoolsJobsCompleted}</td>
+        <td>${uiLabelMap.WebtoolsJobsInvalid}</td>
+        <td>${uiLabelMap.WebtoolsJobsRejected}</td>
+        <td>${uiLabelMap.WebtoolsJobsCallerRuns}</td>
+        <td>${uiLabelMap.WebtoolsJobQueueDepth}</td>
+        <td>${uiLabelMap.WebtoolsJobsPerMinute}</td>
+        <td>${uiLabelMap.WebtoolsJobLatency} (ms)</td>
+        <td>${uiLabelMap.WebtoolsJobRunTime} (ms)</td>
+      </tr>
+      <#assign alt_row = false>
+      <#list jobPools as jobPool>
+      <tr valign="middle"<#if alt_row> class="alternate-row"</#if>>
+        <#if !jobPool.completed?exists>
+        <td>${uiLabelMap.WebtoolsJobRunQueue}</td>
+        <td>${jobPool.queueDepth}</td>
+        <td colspan="8">${jobPool.invokers} ${uiLabelMap.WebtoolsThread}</td>
+        <#else>
+        <td>${jobPool.poolId}</td>
+        <td>${jobPool.queued}</td>
+        <td>${jobPool.completed}</td>
+        <td>${jobPool.invalid}</td>
+        <td>${jobPool.rejected}</td>
+        <td>${jobPool.callerRuns}</td>
+        <td>${jobPool.queueDepth} / <#if jobPool.queueCapacity == 0>-<#else>${jobPool.queueCapacity}</#if></td>
+        <td>${jobPool.completedPerMinute}</td>
+        <td>${jobPool.averageLatency} / ${jobPool.maxLatency}</td>
+        <td>${jobPool.averageRunTime} / ${jobPool.maxRunTime}</td>
+        </#if>
+      </tr>
+      <#-- toggle the row color -->
+      <#assign alt_row = !alt_row>
+      </#list>
+    </table>
+  </div>
+</div>
+<div class="screenlet">
+  <div class="screenlet-title-bar">
+    <h3>${uiLabelMap.WebtoolsServiceEngineJobServices}</h3>
+  </div>
+  <div class="screenlet-body">
+    <table class="basic-table hover-bar" cellspacing="0">
+      <tr class="header-row">
+        <td>${uiLabelMap.WebtoolsService}</td>
+        <td>${uiLabelMap.WebtoolsJobsQueued}</td>
+        <td>${uiLabelMap.WebtoolsJobsCompleted}</td>
+        <td>${uiLabelMap.WebtoolsJobsInvalid}</td>
+        <td>${uiLabelMap.WebtoolsJobsRejected}</td>
+        <td>${uiLabelMap.WebtoolsJobsCallerRuns}</td>
+        <td>${uiLabelMap.WebtoolsJobsPerMinute}</td>
+        <td>${uiLabelMap.WebtoolsJobQueueTime} (avg / max) (ms)</td>
+        <td>${uiLabelMap.WebtoolsJobRunTime} (ms)</td>
+      </tr>
+      <#assign alt_row = false>
+      <#list jobServices as jobService>
+      <tr valign="middle"<#if alt_row> class="alternate-row"</#if>>
+        <td>${jobService.serviceName}</td>
+        <td>${jobService.queued}</td>
+        <td>${jobService.completed}</td>
+        <td>${jobService.invalid}</td>
+        <td>${jobService.rejected}</td>
+        <td>${jobService.callerRuns}</td>
+        <td>${jobService.completedPerMinute}</td>
+        <td>${jobService.averageLatency} / ${jobService.maxLatency}</td>
+        <td>${jobService.averageRunTime} / ${jobService.maxRunTime}</td>
       </tr>
       <#-- toggle the row color -->
       <#assign alt_row = !alt_row>
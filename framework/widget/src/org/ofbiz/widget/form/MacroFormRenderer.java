@@ -49,6 +49,7 @@ import org.ofbiz.base.util.UtilHttp;
 import org.ofbiz.base.util.UtilMisc;
 import org.ofbiz.base.util.UtilProperties;
 import org.ofbiz.base.util.UtilValidate;
+import org.ofbiz.base.util.cache.UtilCache;
 import org.ofbiz.base.util.string.FlexibleStringExpander;
 import org.ofbiz.base.util.template.FreeMarkerWorker;
 import org.ofbiz.entity.Delegator;
@@ -82,6 +83,8 @@ import org.ofbiz.widget.screen.ModelScreenWidget;
 import com.ibm.icu.util.Calendar;
 
 import freemarker.core.Environment;
+import freemarker.core.ParseException;
+import freemarker.template.SimpleScalar;
 import freemarker.template.Template;
 import freemarker.template.TemplateException;
 
@@ -93,6 +96,10 @@ import freemarker.template.TemplateException;
 public class MacroFormRenderer implements FormStringRenderer {
 
     public static final String module = MacroFormRenderer.class.getName();
+    /** The compiled macro calls, by macro call with its String arguments replaced by the MACRO_ARGUMENT variables. */
+    private static final UtilCache<String, Template> macroCallCache = UtilCache.createUtilCache("widget.form.macroCalls", 2000, 0, false);
+    /** The prefix of the variables holding the String arguments of a macro call, see {@link #getMacroCall(String, List)}. */
+    public static final String MACRO_ARGUMENT = "_macroArgument";
     private Template macroLibrary;
     private WeakHashMap<Appendable, Environment> environments = new WeakHashMap<Appendable, Environment>();
     private StringUtil.SimpleEncoder internalEncoder;
@@ -128,10 +135,20 @@ public class MacroFormRenderer implements FormStringRenderer {
     private void executeMacro(Appendable writer, String macro) throws IOException {
         try {
             Environment environment = getEnvironment(writer);
-            Reader templateReader = new StringReader(macro);
-            // FIXME: I am using a Date as an hack to provide a unique name for the template...
-            Template template = new Template((new java.util.Date()).toString(), templateReader, FreeMarkerWorker.getDefaultOfbizConfig());
-            templateReader.close();
+            // the String arguments are given as variables so the call only needs to be parsed once for all their values
+            List<String> arguments = FastList.newInstance();
+            String macroCall = getMacroCall(macro, arguments);
+            Template template = macroCall == null ? null : getMacroCallTemplate(macroCall);
+            if (template == null) {
+                Reader templateReader = new StringReader(macro);
+                // FIXME: I am using a Date as an hack to provide a unique name for the template...
+                template = new Template((new java.util.Date()).toString(), templateReader, FreeMarkerWorker.getDefaultOfbizConfig());
+                templateReader.close();
+            } else {
+                for (int i = 0; i < arguments.size(); i++) {
+                    environment.setVariable(MACRO_ARGUMENT + i, new SimpleScalar(arguments.get(i)));
+                }
+            }
             environment.include(template);
         } catch (TemplateException e) {
             Debug.logError(e, "Error rendering screen thru ftl", module);
@@ -140,6 +157,107 @@ public class MacroFormRenderer implements FormStringRenderer {
         }
     }
 
+    /**
+     * Gets the parsed template of a macro call returned by {@link #getMacroCall(String, List)}, which is cached.
+     * @param macroCall the macro call with the argument variables
+     * @return the <code>Template</code>, or <code>null</code> if it could not be parsed
+     */
+    public static Template getMacroCallTemplate(String macroCall) {
+        Template template = macroCallCache.get(macroCall);
+        if (template == null) {
+            try {
+                template = new Template("macroCall" + macroCallCache.size(), new StringReader(macroCall), FreeMarkerWorker.getDefaultOfbizConfig());
+            } catch (IOException e) {
+                // parse it again as is, which reports the error
+                return null;
+            }
+            macroCallCache.put(macroCall, template);
+        }
+        return template;
+    }
+
+    /**
+     * Replaces the double quoted String arguments of the FTL directives of a macro call by variables.
+     * The arguments which use an interpolation are kept as they are.
+     * @param macro the macro call
+     * @param arguments the list where the values of the replaced arguments are added, the variable names are
+     *  <code>MACRO_ARGUMENT</code> followed by their index in the list
+     * @return the macro call with the variables, or <code>null</code> if it could not be read
+     */
+    public static String getMacroCall(String macro, List<String> arguments) {
+        int length = macro.length();
+        StringBuilder macroCall = new StringBuilder(length);
+        boolean inDirective = false;
+        int parentheses = 0;
+        // the last character of the directive before the current position, not counting the white spaces
+        char previous = 0;
+        int i = 0;
+        while (i < length) {
+            char c = macro.charAt(i);
+            if (!inDirective) {
+                if (c == '<' && i + 1 < length && (macro.charAt(i + 1) == '@' || macro.charAt(i + 1) == '#')) {
+                    if (macro.startsWith("<#--", i)) {
+                        return null;
+                    }
+                    inDirective = true;
+                    parentheses = 0;
+                    previous = 0;
+                }
+                macroCall.append(c);
+                i++;
+                continue;
+            }
+
+            if (c == '"' || c == '\'') {
+                if (previous == 'r') {
+                    // raw strings do not use escapes
+                    return null;
+                }
+                int end = i + 1;
+                while (end < length && macro.charAt(end) != c) {
+                    end += macro.charAt(end) == '\\' ? 2 : 1;
+                }
+                if (end >= length) {
+                    return null;
+                }
+                String value = null;
+                if (c == '"' && "=[,:{(".indexOf(previous) >= 0) {
+                    try {
+                        value = freemarker.template.utility.StringUtil.FTLStringLiteralDec(macro.substring(i + 1, end));
+                    } catch (ParseException e) {
+                        return null;
+                    }
+                    if (value.indexOf("${") >= 0 || value.indexOf("#{") >= 0) {
+                        value = null;
+                    }
+                }
+                if (value == null) {
+                    macroCall.append(macro, i, end + 1);
+                } else {
+                    macroCall.append(MACRO_ARGUMENT).append(arguments.size());
+                    arguments.add(value);
+                }
+                previous = c;
+                i = end + 1;
+                continue;
+            }
+
+            if (c == '(') {
+                parentheses++;
+            } else if (c == ')') {
+                parentheses--;
+            } else if (c == '>' && parentheses <= 0) {
+                inDirective = false;
+            }
+            if (!Character.isWhitespace(c)) {
+                previous = c;
+            }
+            macroCall.append(c);
+            i++;
+        }
+        return macroCall.toString();
+    }
+
     private Environment getEnvironment(Appendable writer) throws TemplateException, IOException {
         Environment environment = environments.get(writer);
         if (environment == null) {
@@ -0,0 +1,140 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+/* This file has been modified by Open Source Strategies, Inc. */
+package org.ofbiz.widget.form.test;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javolution.util.FastList;
+import javolution.util.FastMap;
+
+import org.ofbiz.base.test.GenericTestCaseBase;
+import org.ofbiz.base.util.template.FreeMarkerWorker;
+import org.ofbiz.widget.form.MacroFormRenderer;
+
+import freemarker.core.Environment;
+import freemarker.template.SimpleScalar;
+import freemarker.template.Template;
+
+/**
+ * Tests the rewriting of the macro calls of the <code>MacroFormRenderer</code>, which replaces their String arguments
+ * by variables so a call is only parsed once: the rewritten call and its arguments, and its rendering compared to the
+ * rendering of the original call.
+ */
+public class MacroFormRendererTests extends GenericTestCaseBase {
+
+    private static final String LIBRARY = "<#macro m a=\"\" b=\"\" c=[] d={}>[${a}|${b}|<#list c as x>${x};</#list><#list d?keys as k>${k}=${d[k]};</#list>]</#macro>";
+
+    public MacroFormRendererTests(String name) {
+        super(name);
+    }
+
+    private static String arg(int index) {
+        return MacroFormRenderer.MACRO_ARGUMENT + index;
+    }
+
+    private static void assertMacroCall(String label, String macro, String expectedCall, String... expectedArguments) throws Exception {
+        List<String> arguments = FastList.newInstance();
+        assertEquals(label + ": call", expectedCall, MacroFormRenderer.getMacroCall(macro, arguments));
+        assertEquals(label + ": arguments", Arrays.asList(expectedArguments), arguments);
+        assertEquals(label + ": rendering", render(macro, null, null), render(macro, expectedCall, arguments));
+    }
+
+    private static void assertNotRewritten(String label, String macro) throws Exception {
+        List<String> arguments = FastList.newInstance();
+        assertNull(label + ": call", MacroFormRenderer.getMacroCall(macro, arguments));
+        assertEquals(label + ": arguments", Collections.<String>emptyList(), arguments);
+    }
+
+    /** Renders the original macro as the renderer did before, or its rewritten call with its arguments. */
+    private static String render(String macro, String macroCall, List<String> arguments) throws Exception {
+        Template library = new Template("library", new StringReader(LIBRARY), FreeMarkerWorker.getDefaultOfbizConfig());
+        StringWriter writer = new StringWriter();
+        Environment environment = library.createProcessingEnvironment(FastMap.newInstance(), writer);
+        environment.process();
+        environment.setVariable("x", new SimpleScalar("interpolated"));
+        Template template;
+        if (macroCall == null) {
+            template = new Template("macro", new StringReader(macro), FreeMarkerWorker.getDefaultOfbizConfig());
+        } else {
+            template = MacroFormRenderer.getMacroCallTemplate(macroCall);
+            assertNotNull("Parsed the macro call " + macroCall, template);
+            for (int i = 0; i < arguments.size(); i++) {
+                environment.setVariable(arg(i), new SimpleScalar(arguments.get(i)));
+            }
+        }
+        environment.include(template);
+        return writer.toString();
+    }
+
+    public void testStringArguments() throws Exception {
+        assertMacroCall("double quoted", "<@m a=\"one\" b=\"two\" />", "<@m a=" + arg(0) + " b=" + arg(1) + " />", "one", "two");
+        assertMacroCall("empty", "<@m a=\"\" />", "<@m a=" + arg(0) + " />", "");
+        assertMacroCall("text around", "<div class=\"x\"><@m a=\"v\"/></div>", "<div class=\"x\"><@m a=" + arg(0) + "/></div>", "v");
+    }
+
+    public void testEscapedQuotes() throws Exception {
+        assertMacroCall("escaped quotes", "<@m a=\"say \\\"hi\\\"\" b=\"back\\\\slash\" />", "<@m a=" + arg(0) + " b=" + arg(1) + " />", "say \"hi\"", "back\\slash");
+        assertMacroCall("markup", "<@m a=\"<b>bold</b>\" />", "<@m a=" + arg(0) + " />", "<b>bold</b>");
+    }
+
+    public void testInterpolationsAreKept() throws Exception {
+        assertMacroCall("dollar interpolation", "<@m a=\"${x}\" b=\"v\" />", "<@m a=\"${x}\" b=" + arg(0) + " />", "v");
+        assertMacroCall("hash interpolation", "<@m a=\"#{1}\" />", "<@m a=\"#{1}\" />");
+    }
+
+    public void testSingleQuotesAreKept() throws Exception {
+        assertMacroCall("single quotes", "<@m a='single' b=\"double\" />", "<@m a='single' b=" + arg(0) + " />", "double");
+        assertMacroCall("double quote in single quotes", "<@m a='say \"hi\"' />", "<@m a='say \"hi\"' />");
+    }
+
+    public void testRawStringsAreNotRewritten() throws Exception {
+        assertNotRewritten("raw string", "<@m a=r\"c:\\dir\" />");
+    }
+
+    public void testCommentsAreNotRewritten() throws Exception {
+        assertNotRewritten("comment", "<#-- \"note\" --><@m a=\"v\" />");
+    }
+
+    public void testUnterminatedStringIsNotRewritten() throws Exception {
+        assertNotRewritten("unterminated", "<@m a=\"v />");
+    }
+
+    public void testSequencesAndHashes() throws Exception {
+        assertMacroCall("sequence", "<@m c=[\"x\", \"y\"] />", "<@m c=[" + arg(0) + ", " + arg(1) + "] />", "x", "y");
+        assertMacroCall("hash", "<@m d={\"k\": \"v\", \"l\":\"w\"} />", "<@m d={" + arg(0) + ": " + arg(1) + ", " + arg(2) + ":" + arg(3) + "} />", "k", "v", "l", "w");
+    }
+
+    public void testNestedParentheses() throws Exception {
+        assertMacroCall("comparison in parentheses", "<@m a=(1 > 0)?string(\"yes\", \"no\") />", "<@m a=(1 > 0)?string(" + arg(0) + ", " + arg(1) + ") />", "yes", "no");
+        assertMacroCall("concatenation", "<@m a=(\"x\" + \"y\") />", "<@m a=(" + arg(0) + " + \"y\") />", "x");
+        assertMacroCall("nested", "<@m a=((\"x\")) b=\"v\" />", "<@m a=((" + arg(0) + ")) b=" + arg(1) + " />", "x", "v");
+    }
+
+    public void testMacroCallTemplateIsCached() throws Exception {
+        String macroCall = MacroFormRenderer.getMacroCall("<@m a=\"one\" />", FastList.<String>newInstance());
+        String otherMacroCall = MacroFormRenderer.getMacroCall("<@m a=\"two\" />", FastList.<String>newInstance());
+        assertEquals("different values give the same call", macroCall, otherMacroCall);
+        assertSame("the call is parsed once", MacroFormRenderer.getMacroCallTemplate(macroCall), MacroFormRenderer.getMacroCallTemplate(otherMacroCall));
+    }
+}
@@ -26,6 +26,7 @@ import org.ofbiz.entity.GenericValue;
 import org.ofbiz.entity.condition.EntityCondition;
 import org.ofbiz.entity.condition.EntityOperator;
 import org.ofbiz.entity.util.EntityUtil;
+import com.opensourcestrategies.financials.util.UtilFinancial;
 
 import java.math.BigDecimal;
 import java.util.*;
@@ -267,10 +268,11 @@ public class GLAccountTree {
             EntityUtil.getFilterByDateExpr()
         );
         List<GenericValue> rootAccounts = delegator.findByAnd("GlAccountOrganizationAndClass", conditions, UtilMisc.toList("accountCode"));
+        Map<String, BigDecimal> pendingBalances = UtilFinancial.getPendingPostedBalances(organizationPartyId, delegator);
         for (GenericValue account : rootAccounts) {
-            GLAccountInTree rootNode = new GLAccountInTree(delegator, account.getString("glAccountId"), account.getBigDecimal("postedBalance"));
+            GLAccountInTree rootNode = new GLAccountInTree(delegator, account.getString("glAccountId"), UtilFinancial.getPostedBalance(account, pendingBalances));
             tree.rootAccounts.add(rootNode);
-            populateChildren(delegator, rootNode, organizationPartyId);
+            populateChildren(delegator, rootNode, organizationPartyId, pendingBalances);
         }
         return tree;
     }
@@ -285,8 +287,12 @@ public class GLAccountTree {
      * @exception GenericEntityException if an error occurs
      * @exception AccountingException if an error occurs
      */
-    @SuppressWarnings("unchecked")
     public static void populateChildren(Delegator delegator, GLAccountInTree node, String organizationPartyId) throws GenericEntityException, AccountingException {
+        populateChildren(delegator, node, organizationPartyId, UtilFinancial.getPendingPostedBalances(organizationPartyId, delegator));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void populateChildren(Delegator delegator, GLAccountInTree node, String organizationPartyId, Map<String, BigDecimal> pendingBalances) throws GenericEntityException, AccountingException {
         List conditions = UtilMisc.toList(
                 EntityCondition.makeCondition("organizationPartyId", EntityOperator.EQUALS, organizationPartyId),
                 EntityCondition.makeCondition("parentGlAccountId", EntityOperator.EQUALS, node.glAccountId),
@@ -294,9 +300,9 @@ public class GLAccountTree {
             );
         List<GenericValue> children = delegator.findByAnd("GlAccountOrganizationAndClass", conditions);
         for (GenericValue child : children) {
-            GLAccountInTree childNode = new GLAccountInTree(delegator, child.getString("glAccountId"), child.getBigDecimal("postedBalance"));
+            GLAccountInTree childNode = new GLAccountInTree(delegator, child.getString("glAccountId"), UtilFinancial.getPostedBalance(child, pendingBalances));
             node.addChild(childNode);
-            populateChildren(delegator, childNode, organizationPartyId);
+            populateChildren(delegator, childNode, organizationPartyId, pendingBalances);
         }
     }
 
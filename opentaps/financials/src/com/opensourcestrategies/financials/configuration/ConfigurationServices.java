@@ -17,6 +17,7 @@
 
 package com.opensourcestrategies.financials.configuration;
 
+import java.math.BigDecimal;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -34,6 +35,8 @@ import org.ofbiz.service.ServiceUtil;
 import org.opentaps.common.util.UtilCommon;
 import org.opentaps.common.util.UtilMessage;
 
+import com.opensourcestrategies.financials.util.UtilFinancial;
+
 /**
  * ConfigurationServices - Services for configuring GL Accounts.
  *
@@ -105,9 +108,10 @@ public final class ConfigurationServices {
                 return ServiceUtil.returnError("Could not remove Gl Account from organization because it is associated with an inventory variance reason through VarianceReasonGlAccount.");
             }
 
-            // make sure the posted balance is null or zero
+            // make sure the posted balance is null or zero, including the balance changes which are not compacted yet
             GenericValue val = delegator.findByPrimaryKey("GlAccountOrganization", fields);
-            if (val.get("postedBalance") != null && val.getDouble("postedBalance") != 0) {
+            BigDecimal postedBalance = UtilFinancial.getPostedBalance(val, UtilFinancial.getPendingPostedBalances(organizationPartyId, delegator));
+            if (postedBalance != null && postedBalance.signum() != 0) {
                 return ServiceUtil.returnError("Could not remove Gl Account from organization because it has a non zero posted balance.");
             }
 
@@ -3116,6 +3116,12 @@ public final class LedgerServices {
                  lastClosedTimePeriodId = ((GenericValue) tmpResult.get("lastClosedTimePeriod")).getString("customTimePeriodId");
             }
 
+            // fold the balance changes still journaled, including the closing transaction's, into the GlAccountHistory
+            tmpResult = dispatcher.runSync("compactGlAccountBalanceDeltas", UtilMisc.toMap("organizationPartyId", organizationPartyId, "userLogin", userLogin));
+            if (ServiceUtil.isError(tmpResult)) {
+                return tmpResult;
+            }
+
             // now set the ending balance for all GlAccountHistory entries for this time period and organization
             // bringing forward gl account history from previous time period for ASSET, LIABILITY, and EQUITY accounts
             // we do this by creating a Map of the current period's GlAccountHistory and then adding in those from the previous period
@@ -3257,6 +3263,12 @@ public final class LedgerServices {
             String organizationPartyId = (String) context.get("organizationPartyId");
             String customTimePeriodId = (String) context.get("customTimePeriodId");
 
+            // the postedBalance must include the balance changes still journaled
+            Map tmpResult = dispatcher.runSync("compactGlAccountBalanceDeltas", UtilMisc.toMap("organizationPartyId", organizationPartyId, "userLogin", userLogin));
+            if (ServiceUtil.isError(tmpResult)) {
+                return tmpResult;
+            }
+
             // find the REVENUE, EXPENSE, and INCOME gl accounts for the organization
             // IMPORTANT: also make sure the PROFIT_LOSS_ACCOUNT is included, even if it is classified differently
             EntityCondition glAccountConditions = EntityCondition.makeCondition(EntityOperator.AND,
@@ -3282,7 +3294,7 @@ public final class LedgerServices {
                 Debug.logInfo("Found posted transactions which closed on [" + lastTransactionDate + "] and will set GlAccountOrganization to income statement from [" + fromDate + "] to [" + thruDate + "]", MODULE);
 
             }
-            Map tmpResult = dispatcher.runSync("getIncomeStatementAccountSumsByDate", UtilMisc.toMap("organizationPartyId", organizationPartyId,
+            tmpResult = dispatcher.runSync("getIncomeStatementAccountSumsByDate", UtilMisc.toMap("organizationPartyId", organizationPartyId,
                     "fromDate", fromDate,
                     "thruDate", thruDate,
                     "glFiscalTypeId", "ACTUAL", "userLogin", userLogin));
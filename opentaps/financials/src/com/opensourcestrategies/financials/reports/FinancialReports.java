@@ -1369,6 +1369,8 @@ public final class FinancialReports {
 
             // constants
             EntityFindOptions options = new EntityFindOptions(true, EntityFindOptions.TYPE_SCROLL_INSENSITIVE, EntityFindOptions.CONCUR_READ_ONLY, true);
+            // this report only reads posted invoices, so it can run on a read replica
+            options.setReadOnly(true);
             String organizationPartyId = UtilCommon.getOrganizationPartyId(request);
             jrParameters.put("organizationPartyId", organizationPartyId);
             jrParameters.put("organizationName", PartyHelper.getPartyName(delegator, (String) ctxt.get("organizationPartyId"), false));
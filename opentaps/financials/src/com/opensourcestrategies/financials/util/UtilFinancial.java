@@ -618,6 +618,58 @@ public final class UtilFinancial {
         }
     }
 
+    /**
+     * Gets the changes of the posted balances of an organization which are still recorded in <code>GlAccountBalanceDelta</code>,
+     * when posting with <code>financials.ledger.balanceJournal</code>, and were not folded yet into its <code>GlAccountOrganization</code>.
+     * @param organizationPartyId a <code>String</code> value
+     * @param delegator a <code>Delegator</code> value
+     * @return the <code>Map</code> of glAccountId to the pending change of its posted balance
+     * @exception GenericEntityException if an error occurs
+     */
+    public static Map<String, BigDecimal> getPendingPostedBalances(String organizationPartyId, Delegator delegator) throws GenericEntityException {
+        Map<String, BigDecimal> pendingBalances = FastMap.newInstance();
+        List<GenericValue> pendings = delegator.findByAnd("GlAccountBalanceDeltaSum", UtilMisc.toMap("organizationPartyId", organizationPartyId, "customTimePeriodId", null));
+        for (GenericValue pending : pendings) {
+            if (pending.get("postedBalance") != null) {
+                pendingBalances.put(pending.getString("glAccountId"), pending.getBigDecimal("postedBalance"));
+            }
+        }
+        return pendingBalances;
+    }
+
+    /**
+     * Gets the changes of the posted debits and credits of an organization for a time period which are still recorded in
+     * <code>GlAccountBalanceDelta</code>, and were not folded yet into its <code>GlAccountHistory</code>.
+     * @param organizationPartyId a <code>String</code> value
+     * @param customTimePeriodId a <code>String</code> value
+     * @param delegator a <code>Delegator</code> value
+     * @return the <code>Map</code> of glAccountId to its <code>GlAccountBalanceDeltaSum</code>
+     * @exception GenericEntityException if an error occurs
+     */
+    public static Map<String, GenericValue> getPendingPostedDebitsAndCredits(String organizationPartyId, String customTimePeriodId, Delegator delegator) throws GenericEntityException {
+        Map<String, GenericValue> pendingHistories = FastMap.newInstance();
+        List<GenericValue> pendings = delegator.findByAnd("GlAccountBalanceDeltaSum", UtilMisc.toMap("organizationPartyId", organizationPartyId, "customTimePeriodId", customTimePeriodId));
+        for (GenericValue pending : pendings) {
+            pendingHistories.put(pending.getString("glAccountId"), pending);
+        }
+        return pendingHistories;
+    }
+
+    /**
+     * Gets the posted balance of a <code>GlAccountOrganization</code>, or of a view including its postedBalance, with its pending change.
+     * @param orgAccount the <code>GlAccountOrganization</code> value
+     * @param pendingBalances the pending changes from {@link #getPendingPostedBalances}
+     * @return the posted balance, <code>null</code> if the account has neither a posted balance nor a pending change
+     */
+    public static BigDecimal getPostedBalance(GenericValue orgAccount, Map<String, BigDecimal> pendingBalances) {
+        BigDecimal postedBalance = orgAccount.getBigDecimal("postedBalance");
+        BigDecimal pendingBalance = pendingBalances.get(orgAccount.getString("glAccountId"));
+        if (pendingBalance == null) {
+            return postedBalance;
+        }
+        return postedBalance == null ? pendingBalance : postedBalance.add(pendingBalance);
+    }
+
     /**
      * Verify that the trial balance from GlAccountOrganization balances on debit and credit sides.
      * @param organizationPartyId a <code>String</code> value
@@ -628,22 +680,25 @@ public final class UtilFinancial {
      * @exception GenericEntityException if an error occurs
      */
     public static boolean isGlAccountOrganizationInBalance(String organizationPartyId, Delegator delegator, int decimals, RoundingMode rounding) throws GenericEntityException {
-        EntityCondition conditions = EntityCondition.makeCondition(EntityOperator.AND,
-                EntityCondition.makeCondition("organizationPartyId", EntityOperator.EQUALS, organizationPartyId),
-                EntityCondition.makeCondition("postedBalance", EntityOperator.NOT_EQUAL, null));
-        List<GenericValue> trialBalances = delegator.findByCondition("GlAccountOrganization", conditions, UtilMisc.toList("glAccountId", "postedBalance"), UtilMisc.toList("glAccountId"));
+        List<GenericValue> trialBalances = delegator.findByCondition("GlAccountOrganization", EntityCondition.makeCondition("organizationPartyId", EntityOperator.EQUALS, organizationPartyId),
+                UtilMisc.toList("glAccountId", "postedBalance"), UtilMisc.toList("glAccountId"));
+        Map<String, BigDecimal> pendingBalances = getPendingPostedBalances(organizationPartyId, delegator);
         BigDecimal debitTotal = BigDecimal.ZERO;
         BigDecimal creditTotal = BigDecimal.ZERO;
 
         // go through and add up the debit and credit totals
         for (GenericValue accountBalance : trialBalances) {
+            BigDecimal postedBalance = getPostedBalance(accountBalance, pendingBalances);
+            if (postedBalance == null) {
+                continue;
+            }
             GenericValue glAccount = accountBalance.getRelatedOneCache("GlAccount");
             if (UtilAccounting.isDebitAccount(glAccount)) {
-                debitTotal = debitTotal.add(accountBalance.getBigDecimal("postedBalance")).setScale(decimals + 1, rounding);
-                Debug.logVerbose("[" + glAccount.get("glAccountId") + "] is a debit account, so added [" + accountBalance.get("postedBalance") + "] and the debit total is now [" + debitTotal + "]", MODULE);
+                debitTotal = debitTotal.add(postedBalance).setScale(decimals + 1, rounding);
+                Debug.logVerbose("[" + glAccount.get("glAccountId") + "] is a debit account, so added [" + postedBalance + "] and the debit total is now [" + debitTotal + "]", MODULE);
             } else {
-                creditTotal = creditTotal.add(accountBalance.getBigDecimal("postedBalance")).setScale(decimals + 1, rounding);
-                Debug.logVerbose("[" + glAccount.get("glAccountId") + "] is a credit account, so added [" + accountBalance.get("postedBalance") + "] and the credit total is now [" + creditTotal + "]", MODULE);
+                creditTotal = creditTotal.add(postedBalance).setScale(decimals + 1, rounding);
+                Debug.logVerbose("[" + glAccount.get("glAccountId") + "] is a credit account, so added [" + postedBalance + "] and the credit total is now [" + creditTotal + "]", MODULE);
             }
         }
 
@@ -675,6 +730,18 @@ public final class UtilFinancial {
         BigDecimal debitTotal = BigDecimal.ZERO;
         BigDecimal creditTotal = BigDecimal.ZERO;
 
+        // the closing of a time period folds its pending changes first, so they only need to be added for an open period
+        if (!"Y".equals(timePeriod.getString("isClosed"))) {
+            for (GenericValue pending : getPendingPostedDebitsAndCredits(organizationPartyId, customTimePeriodId, delegator).values()) {
+                if (pending.get("postedDebits") != null) {
+                    debitTotal = debitTotal.add(pending.getBigDecimal("postedDebits")).setScale(decimals + 1, rounding);
+                }
+                if (pending.get("postedCredits") != null) {
+                    creditTotal = creditTotal.add(pending.getBigDecimal("postedCredits")).setScale(decimals + 1, rounding);
+                }
+            }
+        }
+
         for (GenericValue accountHistory : glAccountHistories) {
             GenericValue glAccount = accountHistory.getRelatedOneCache("GlAccount");
             Debug.logVerbose("account history = " + accountHistory, MODULE);
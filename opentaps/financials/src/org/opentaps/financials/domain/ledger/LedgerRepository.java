@@ -20,9 +20,11 @@ import java.math.BigDecimal;
 import java.sql.Timestamp;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javolution.util.FastList;
+import javolution.util.FastMap;
 import javolution.util.FastSet;
 import org.ofbiz.base.util.GeneralException;
 import org.ofbiz.base.util.UtilDateTime;
@@ -36,6 +38,7 @@ import org.opentaps.base.constants.StatusItemConstants;
 import org.opentaps.base.entities.AcctgTagPostingCheck;
 import org.opentaps.base.entities.AcctgTransAndEntries;
 import org.opentaps.base.entities.AcctgTransEntry;
+import org.opentaps.base.entities.GlAccountBalanceDelta;
 import org.opentaps.base.entities.GlAccountClass;
 import org.opentaps.base.entities.GlAccountHistory;
 import org.opentaps.base.entities.GlAccountOrganization;
@@ -229,6 +232,15 @@ public class LedgerRepository extends Repository implements LedgerRepositoryInte
        return findOne(GlAccountHistory.class, map(GlAccountHistory.Fields.glAccountId, glAccountId, GlAccountHistory.Fields.organizationPartyId, organizationPartyId, GlAccountHistory.Fields.customTimePeriodId, customTimePeriodId));
     }
 
+    /** {@inheritDoc} */
+    public List<GlAccountBalanceDelta> getPendingBalanceDeltas(String organizationPartyId, int maxDeltas) throws RepositoryException {
+        Map<GlAccountBalanceDelta.Fields, Object> conditions = FastMap.newInstance();
+        if (organizationPartyId != null) {
+            conditions.put(GlAccountBalanceDelta.Fields.organizationPartyId, organizationPartyId);
+        }
+        return findPage(GlAccountBalanceDelta.class, conditions, Arrays.asList(GlAccountBalanceDelta.Fields.glAccountBalanceDeltaId.name()), 0, maxDeltas);
+    }
+
     /** {@inheritDoc} */
     public InvoiceAdjustmentGlAccount getInvoiceAdjustmentGlAccount(String organizationPartyId, String invoiceTypeId, String invoiceAdjustmentTypeId) throws RepositoryException, EntityNotFoundException {
        return findOneNotNullCache(InvoiceAdjustmentGlAccount.class, map(InvoiceAdjustmentGlAccount.Fields.organizationPartyId, organizationPartyId, InvoiceAdjustmentGlAccount.Fields.invoiceTypeId, invoiceTypeId, InvoiceAdjustmentGlAccount.Fields.invoiceAdjustmentTypeId, invoiceAdjustmentTypeId));
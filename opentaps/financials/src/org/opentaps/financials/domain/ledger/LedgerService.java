@@ -27,11 +27,13 @@ import org.ofbiz.base.util.Debug;
 import org.ofbiz.base.util.GeneralException;
 import org.ofbiz.base.util.UtilDateTime;
 import org.ofbiz.base.util.UtilMisc;
+import org.ofbiz.base.util.UtilProperties;
 import org.ofbiz.entity.condition.EntityCondition;
 import org.ofbiz.entity.condition.EntityOperator;
 import org.opentaps.base.constants.GlFiscalTypeConstants;
 import org.opentaps.base.entities.AcctgTransEntry;
 import org.opentaps.base.entities.CustomTimePeriod;
+import org.opentaps.base.entities.GlAccountBalanceDelta;
 import org.opentaps.base.entities.GlAccountHistory;
 import org.opentaps.base.entities.GlAccountOrganization;
 import org.opentaps.domain.DomainService;
@@ -57,6 +59,7 @@ public class LedgerService extends DomainService implements LedgerServiceInterfa
 
     private String acctgTransId = null;
     private String skipCheckAcctgTags = null;
+    private String organizationPartyId = null;
 
     /**
      * Default constructor.
@@ -75,6 +78,11 @@ public class LedgerService extends DomainService implements LedgerServiceInterfa
         this.skipCheckAcctgTags = skipCheckAcctgTags;
     }
 
+    /** {@inheritDoc} */
+    public void setOrganizationPartyId(String organizationPartyId) {
+        this.organizationPartyId = organizationPartyId;
+    }
+
     /** {@inheritDoc} */
     public void postAcctgTrans() throws ServiceException {
         try {
@@ -140,6 +148,9 @@ public class LedgerService extends DomainService implements LedgerServiceInterfa
             return;
         }
 
+        // with the balance journal, only record the changes, they are folded into the balances later by compactBalanceDeltas
+        boolean useBalanceJournal = isBalanceJournalEnabled();
+
         // for lazy loading the time periods by organization and the organization accounts
         Map<String, List<CustomTimePeriod>> timePeriodMap = FastMap.newInstance();
         Map<String, GlAccountOrganization> orgAccountMap = FastMap.newInstance();
@@ -165,8 +176,20 @@ public class LedgerService extends DomainService implements LedgerServiceInterfa
                 orgAccountMap.put(entry.getOrganizationPartyId(), orgAccount);
             }
 
-            // calculate the new posted balance
             BigDecimal postingAmount = account.getNormalizedAmount(entry);
+            if (useBalanceJournal) {
+                createBalanceDelta(account, entry, null, postingAmount, null, null);
+                for (CustomTimePeriod period : openTimePeriods) {
+                    if (getSpecification().isDebit(entry)) {
+                        createBalanceDelta(account, entry, period.getCustomTimePeriodId(), null, entry.getAmount(), null);
+                    } else if (getSpecification().isCredit(entry)) {
+                        createBalanceDelta(account, entry, period.getCustomTimePeriodId(), null, null, entry.getAmount());
+                    }
+                }
+                continue;
+            }
+
+            // calculate the new posted balance
             BigDecimal postedBalance = orgAccount.getPostedBalance() == null ? BigDecimal.ZERO : orgAccount.getPostedBalance();
             orgAccount.setPostedBalance(postedBalance.add(postingAmount));
             account.getRepository().update(orgAccount);
@@ -210,6 +233,96 @@ public class LedgerService extends DomainService implements LedgerServiceInterfa
         }
     }
 
+    /** {@inheritDoc} */
+    public void compactBalanceDeltas() throws ServiceException {
+        int compactSize = (int) UtilProperties.getPropertyNumber("financials", "financials.ledger.balanceJournal.compactSize", 5000);
+        try {
+            LedgerRepositoryInterface ledgerRepository = getRepository();
+            // the service semaphore ensures a single compaction runs at a time, so the deltas read here cannot be folded twice
+            List<GlAccountBalanceDelta> deltas;
+            do {
+                deltas = ledgerRepository.getPendingBalanceDeltas(organizationPartyId, compactSize);
+                if (deltas.isEmpty()) {
+                    break;
+                }
+
+                // sum the deltas by account and organization, and by account, organization and time period
+                Map<List<String>, BigDecimal> balanceDeltas = FastMap.newInstance();
+                Map<List<String>, BigDecimal[]> historyDeltas = FastMap.newInstance();
+                for (GlAccountBalanceDelta delta : deltas) {
+                    if (delta.getCustomTimePeriodId() == null) {
+                        List<String> key = UtilMisc.toList(delta.getGlAccountId(), delta.getOrganizationPartyId());
+                        BigDecimal balance = balanceDeltas.get(key);
+                        balanceDeltas.put(key, (balance == null ? BigDecimal.ZERO : balance).add(delta.getPostedBalance() == null ? BigDecimal.ZERO : delta.getPostedBalance()));
+                    } else {
+                        List<String> key = UtilMisc.toList(delta.getGlAccountId(), delta.getOrganizationPartyId(), delta.getCustomTimePeriodId());
+                        BigDecimal[] debitsAndCredits = historyDeltas.get(key);
+                        if (debitsAndCredits == null) {
+                            debitsAndCredits = new BigDecimal[] {BigDecimal.ZERO, BigDecimal.ZERO};
+                            historyDeltas.put(key, debitsAndCredits);
+                        }
+                        if (delta.getPostedDebits() != null) {
+                            debitsAndCredits[0] = debitsAndCredits[0].add(delta.getPostedDebits());
+                        }
+                        if (delta.getPostedCredits() != null) {
+                            debitsAndCredits[1] = debitsAndCredits[1].add(delta.getPostedCredits());
+                        }
+                    }
+                }
+
+                // then apply each sum with a single update
+                for (Map.Entry<List<String>, BigDecimal> balanceDelta : balanceDeltas.entrySet()) {
+                    GlAccountOrganization orgAccount = ledgerRepository.getOrganizationAccount(balanceDelta.getKey().get(0), balanceDelta.getKey().get(1));
+                    BigDecimal postedBalance = orgAccount.getPostedBalance() == null ? BigDecimal.ZERO : orgAccount.getPostedBalance();
+                    orgAccount.setPostedBalance(postedBalance.add(balanceDelta.getValue()));
+                    ledgerRepository.update(orgAccount);
+                }
+                for (Map.Entry<List<String>, BigDecimal[]> historyDelta : historyDeltas.entrySet()) {
+                    List<String> key = historyDelta.getKey();
+                    GlAccountHistory history = ledgerRepository.getAccountHistory(key.get(0), key.get(1), key.get(2));
+                    if (history == null) {
+                        history = new GlAccountHistory();
+                        history.setGlAccountId(key.get(0));
+                        history.setOrganizationPartyId(key.get(1));
+                        history.setCustomTimePeriodId(key.get(2));
+                        history.setPostedDebits(BigDecimal.ZERO);
+                        history.setPostedCredits(BigDecimal.ZERO);
+                    }
+                    history.setPostedDebits(history.getPostedDebits().add(historyDelta.getValue()[0]));
+                    history.setPostedCredits(history.getPostedCredits().add(historyDelta.getValue()[1]));
+                    ledgerRepository.createOrUpdate(history);
+                }
+
+                ledgerRepository.remove(deltas);
+                Debug.logInfo("Compacted " + deltas.size() + " GL account balance changes into " + balanceDeltas.size() + " account balances and " + historyDeltas.size() + " account histories", MODULE);
+            } while (deltas.size() >= compactSize);
+        } catch (GeneralException e) {
+            throw new ServiceException(e);
+        }
+    }
+
+    /**
+     * Checks if the posting only records the balance changes in <code>GlAccountBalanceDelta</code>.
+     * @return the value of <code>financials.ledger.balanceJournal</code>
+     */
+    private boolean isBalanceJournalEnabled() {
+        return "Y".equals(UtilProperties.getPropertyValue("financials", "financials.ledger.balanceJournal", "N"));
+    }
+
+    // record a change of the posted balance, or of the posted debits and credits for a time period, of the account of the entry
+    private void createBalanceDelta(GeneralLedgerAccount account, AcctgTransEntry entry, String customTimePeriodId, BigDecimal postedBalance, BigDecimal postedDebits, BigDecimal postedCredits) throws RepositoryException {
+        GlAccountBalanceDelta delta = new GlAccountBalanceDelta();
+        delta.setGlAccountBalanceDeltaId(account.getRepository().getNextSeqId(delta));
+        delta.setGlAccountId(entry.getGlAccountId());
+        delta.setOrganizationPartyId(entry.getOrganizationPartyId());
+        delta.setCustomTimePeriodId(customTimePeriodId);
+        delta.setAcctgTransId(entry.getAcctgTransId());
+        delta.setPostedBalance(postedBalance);
+        delta.setPostedDebits(postedDebits);
+        delta.setPostedCredits(postedCredits);
+        account.getRepository().create(delta);
+    }
+
     // verify the open time periods and if something's wrong, throw a ledger exception
     private void validateOpenTimePeriods(List<CustomTimePeriod> periods, AccountingTransaction transaction, AcctgTransEntry entry) throws RepositoryException, LedgerException {
 
@@ -740,6 +740,21 @@ public interface RepositoryInterface extends DomainContextInterface {
      */
     public <T extends EntityInterface> List<T> findPage(Class<T> entityName, EntityCondition condition, List<String> fields, List<String> orderBy, int pageStart, int pageSize) throws RepositoryException;
 
+    /**
+     * Find the page of entities following the given last entity of the previous page (keyset pagination).
+     * Unlike a page start, the cost does not grow with the page number, and the pages do not shift when entities are
+     * added or removed before them. The order by should end with the primary key and its fields should not be null.
+     * @param <T> the entity class
+     * @param entityName class to find and return
+     * @param condition the EntityCondition used to find the entities
+     * @param orderBy list of fields to order by
+     * @param seekAfter the values of the order by fields of the last entity of the previous page, or <code>null</code> for the first page
+     * @param pageSize the number of entities to return at most
+     * @return the partial list of entities found
+     * @throws RepositoryException if an error occurs
+     */
+    public <T extends EntityInterface> List<T> findPageAfter(Class<T> entityName, EntityCondition condition, List<String> orderBy, List<Object> seekAfter, int pageSize) throws RepositoryException;
+
     /* findList by list of Conditions */
 
     /**
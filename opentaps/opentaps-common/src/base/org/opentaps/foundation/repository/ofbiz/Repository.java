@@ -30,7 +30,6 @@ import org.ofbiz.entity.condition.EntityCondition;
 import org.ofbiz.entity.condition.EntityConditionList;
 import org.ofbiz.entity.condition.EntityOperator;
 import org.ofbiz.entity.model.ModelEntity;
-import org.ofbiz.entity.transaction.TransactionUtil;
 import org.ofbiz.entity.util.EntityFindOptions;
 import org.ofbiz.security.Security;
 import org.ofbiz.service.LocalDispatcher;
@@ -39,7 +38,6 @@ import org.opentaps.foundation.entity.EntityFieldInterface;
 import org.opentaps.foundation.entity.EntityInterface;
 import org.opentaps.foundation.entity.EntityNotFoundException;
 import org.opentaps.foundation.entity.util.EntityListIterator;
-import org.opentaps.foundation.exception.FoundationException;
 import org.opentaps.foundation.infrastructure.DomainContextInterface;
 import org.opentaps.foundation.infrastructure.Infrastructure;
 import org.opentaps.foundation.infrastructure.User;
@@ -872,22 +870,7 @@ public class Repository implements RepositoryInterface  {
      * @throws RepositoryException if an error occurs
      */
     private <T extends EntityInterface> List<T> findPage(Class<T> entityName, String genericValueName, Map<? extends EntityFieldInterface<? super T>, Object> conditions, List<String> orderBy, int pageStart, int pageSize) throws RepositoryException {
-        try {
-            boolean t = TransactionUtil.begin();
-            EntityListIterator<T> it = findIterator(entityName, genericValueName, conditions, orderBy);
-            List<T> values = null;
-            try {
-                values = it.getPartialList(pageStart + 1, pageSize);
-            } finally {
-                it.close();
-            }
-            TransactionUtil.commit(t);
-            return values;
-        } catch (GenericEntityException e) {
-            throw new RepositoryException(e);
-        } catch (FoundationException e) {
-            throw new RepositoryException(e);
-        }
+        return findPage(entityName, genericValueName, EntityCondition.makeCondition(toSimpleMap(conditions)), null, orderBy, null, pageStart, pageSize);
     }
 
     /**
@@ -904,22 +887,7 @@ public class Repository implements RepositoryInterface  {
      * @throws RepositoryException if an error occurs
      */
     private <T extends EntityInterface> List<T> findPage(Class<T> entityName, String genericValueName, Map<? extends EntityFieldInterface<? super T>, Object> conditions, List<String> fields, List<String> orderBy, int pageStart, int pageSize) throws RepositoryException {
-        try {
-            boolean t = TransactionUtil.begin();
-            EntityListIterator<T> it = findIterator(entityName, genericValueName, conditions, fields, orderBy);
-            List<T> values = null;
-            try {
-                values = it.getPartialList(pageStart + 1, pageSize);
-            } finally {
-                it.close();
-            }
-            TransactionUtil.commit(t);
-            return values;
-        } catch (GenericEntityException e) {
-            throw new RepositoryException(e);
-        } catch (FoundationException e) {
-            throw new RepositoryException(e);
-        }
+        return findPage(entityName, genericValueName, EntityCondition.makeCondition(toSimpleMap(conditions)), fields, orderBy, null, pageStart, pageSize);
     }
 
     /* findList */
@@ -1153,22 +1121,7 @@ public class Repository implements RepositoryInterface  {
      * @throws RepositoryException if an error occurs
      */
     private <T extends EntityInterface> List<T> findPage(Class<T> entityName, String genericValueName, List<? extends EntityCondition> conditions, List<String> orderBy, int pageStart, int pageSize) throws RepositoryException {
-        try {
-            boolean t = TransactionUtil.begin();
-            EntityListIterator<T> it = findIterator(entityName, genericValueName, conditions, orderBy);
-            List<T> values = null;
-            try {
-                values = it.getPartialList(pageStart + 1, pageSize);
-            } finally {
-                it.close();
-            }
-            TransactionUtil.commit(t);
-            return values;
-        } catch (GenericEntityException e) {
-            throw new RepositoryException(e);
-        } catch (FoundationException e) {
-            throw new RepositoryException(e);
-        }
+        return findPage(entityName, genericValueName, EntityCondition.makeCondition(conditions), null, orderBy, null, pageStart, pageSize);
     }
 
     /**
@@ -1185,22 +1138,7 @@ public class Repository implements RepositoryInterface  {
      * @throws RepositoryException if an error occurs
      */
     private <T extends EntityInterface> List<T> findPage(Class<T> entityName, String genericValueName, List<? extends EntityCondition> conditions, List<String> fields, List<String> orderBy, int pageStart, int pageSize) throws RepositoryException {
-        try {
-            boolean t = TransactionUtil.begin();
-            EntityListIterator<T> it = findIterator(entityName, genericValueName, conditions, fields, orderBy);
-            List<T> values = null;
-            try {
-                values = it.getPartialList(pageStart + 1, pageSize);
-            } finally {
-                it.close();
-            }
-            TransactionUtil.commit(t);
-            return values;
-        } catch (GenericEntityException e) {
-            throw new RepositoryException(e);
-        } catch (FoundationException e) {
-            throw new RepositoryException(e);
-        }
+        return findPage(entityName, genericValueName, EntityCondition.makeCondition(conditions), fields, orderBy, null, pageStart, pageSize);
     }
 
     // by List<EntityExpr>
@@ -1459,22 +1397,7 @@ public class Repository implements RepositoryInterface  {
      * @throws RepositoryException if an error occurs
      */
     private <T extends EntityInterface> List<T> findPage(Class<T> entityName, String genericValueName, EntityCondition condition, List<String> orderBy, int pageStart, int pageSize) throws RepositoryException {
-        try {
-            boolean t = TransactionUtil.begin();
-            EntityListIterator<T> it = findIterator(entityName, genericValueName, condition, orderBy);
-            List<T> values = null;
-            try {
-                values = it.getPartialList(pageStart + 1, pageSize);
-            } finally {
-                it.close();
-            }
-            TransactionUtil.commit(t);
-            return values;
-        } catch (GenericEntityException e) {
-            throw new RepositoryException(e);
-        } catch (FoundationException e) {
-            throw new RepositoryException(e);
-        }
+        return findPage(entityName, genericValueName, condition, null, orderBy, null, pageStart, pageSize);
     }
 
     /**
@@ -1491,21 +1414,41 @@ public class Repository implements RepositoryInterface  {
      * @throws RepositoryException if an error occurs
      */
     private <T extends EntityInterface> List<T> findPage(Class<T> entityName, String genericValueName, EntityCondition condition, List<String> fields, List<String> orderBy, int pageStart, int pageSize) throws RepositoryException {
+        return findPage(entityName, genericValueName, condition, fields, orderBy, null, pageStart, pageSize);
+    }
+
+    /** {@inheritDoc} */
+    public <T extends EntityInterface> List<T> findPageAfter(Class<T> entityName, EntityCondition condition, List<String> orderBy, List<Object> seekAfter, int pageSize) throws RepositoryException {
+        return findPage(entityName, getEntityBaseName(entityName), condition, null, orderBy, seekAfter, 0, pageSize);
+    }
+
+    /**
+     * Find a page of entities by conditions, letting the database skip the rows before the page with an offset
+     * or with the keyset of the last entity of the previous page.
+     * @param <T> the entity class
+     * @param entityName class to find and return
+     * @param genericValueName name of the entity in Ofbiz
+     * @param condition the EntityCondition used to find the entities
+     * @param fields the list of field to select, or <code>null</code> to select all the fields; duplicates are filtered out when given
+     * @param orderBy list of fields to order by
+     * @param seekAfter the values of the order by fields of the last entity of the previous page, or <code>null</code>
+     * @param pageStart the index of the first entity, starting at 0
+     * @param pageSize the number of entities to return at most
+     * @return the partial list of entities found
+     * @throws RepositoryException if an error occurs
+     */
+    private <T extends EntityInterface> List<T> findPage(Class<T> entityName, String genericValueName, EntityCondition condition, List<String> fields, List<String> orderBy, List<Object> seekAfter, int pageStart, int pageSize) throws RepositoryException {
+        EntityFindOptions findOptions = new EntityFindOptions(fields == null ? PAGE_FIND_OPTIONS : DISTINCT_FIND_OPTIONS);
+        // the page is read once, no need for a scrollable cursor
+        findOptions.setResultSetType(EntityFindOptions.TYPE_FORWARD_ONLY);
+        findOptions.setOffset(pageStart);
+        findOptions.setLimit(pageSize);
+        findOptions.setSeekAfter(seekAfter);
         try {
-            boolean t = TransactionUtil.begin();
-            EntityListIterator<T> it = findIterator(entityName, genericValueName, condition, fields, orderBy);
-            List<T> values = null;
-            try {
-                values = it.getPartialList(pageStart + 1, pageSize);
-            } finally {
-                it.close();
-            }
-            TransactionUtil.commit(t);
-            return values;
+            List<GenericValue> values = getDelegator().findList(genericValueName, condition, fields == null ? null : new HashSet<String>(fields), orderBy, findOptions, false);
+            return loadFromGeneric(entityName, values, this);
         } catch (GenericEntityException e) {
             throw new RepositoryException(e);
-        } catch (FoundationException e) {
-            throw new RepositoryException(e);
         }
     }
 
@@ -41,11 +41,14 @@ import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.ofbiz.base.util.Debug;
 import org.ofbiz.base.util.ObjectType;
@@ -69,6 +72,9 @@ import org.opentaps.foundation.util.FoundationUtils;
  * This service engine executes standard Java object services as specified by calling the set__ methods for each of the parameters,
  * then executing the void method without parameters for the service location, and then uses the get_ methods to retrieve the resulting
  * values before passing them back into the service dispatcher.
+ * <p>
+ * The service class and its invoke, set__ and get__ methods are looked up on the first call of each service and kept
+ * with its <code>ModelService</code>, so the following calls only instantiate the service object and invoke the methods.
  */
 public class POJOJavaEngine extends GenericAsyncEngine {
 
@@ -81,6 +87,9 @@ public class POJOJavaEngine extends GenericAsyncEngine {
      */
     public static final List<String> SERVICE_ENGINE_OUT_PARAMS = Arrays.asList("responseMessage", "errorMessage", "errorMessageList", "successMessage", "successMessageList", "userLogin", "locale", "timeZone");
 
+    /** The resolved class and methods of each service, by service name. */
+    private final ConcurrentMap<String, CompiledService> compiledServices = new ConcurrentHashMap<String, CompiledService>();
+
     /**
      * Default constructor.
      * @param dispatcher a <code>ServiceDispatcher</code> value
@@ -166,7 +175,8 @@ public class POJOJavaEngine extends GenericAsyncEngine {
 
         try {
             // instantiate the Java service object and set the Infrastructure and userLogin
-            Class serviceClass = cl.loadClass(this.getLocation(modelService));
+            CompiledService compiledService = getCompiledService(modelService, cl);
+            Class serviceClass = compiledService.serviceClass;
             Service service = (Service) serviceClass.newInstance();     // force cast so we can use the setInfrastructure and setUser methods, instead of calling them by reflection
             service.setInfrastructure(new Infrastructure(dctx.getDispatcher()));  // the dispatcher is a ServiceDispatcher, but dctx.getDispatcher() gets a LocalDispatcher
             GenericValue userLogin = (GenericValue) context.get("userLogin");
@@ -187,39 +197,27 @@ public class POJOJavaEngine extends GenericAsyncEngine {
             context.remove("timeZone");
 
             // now get the set method corresponding to each context parameter and call it to set up the service parameters
-            Set<String> contextKeys = context.keySet();
-            for (String contextKey : contextKeys) {
+            for (Map.Entry<String, Object> contextEntry : context.entrySet()) {
+                String contextKey = contextEntry.getKey();
                 if (UtilValidate.isNotEmpty(contextKey)) {
-                    // get method name from parameter name: orderId -> setOrderId
-                    String setMethodName = FoundationUtils.setterName(contextKey);
                     // get the value of this context parameter
-                    Object contextValue = context.get(contextKey);
+                    Object contextValue = contextEntry.getValue();
                     // empty values should be set to Null instead
                     if (UtilValidate.isEmpty(contextValue)) {
                         contextValue = null;
                     }
-                    // now get the method from the method name and a single parameter of the class of the context value
-                    // for example, if context has key-value pair "orderId":(String) "WS10000" then we will look for
-                    // setOrderId(String s) method.  The type of the set__ method will be that declared in the services XML
-                    ModelParam modelParam = modelService.getParam(contextKey);
-                    // this will turn String into java.lang.String and Timestamp into java.sql.Timestamp
-                    Class[] setMethodParams = {ObjectType.loadInfoClass(modelParam.type, cl)};
-                    Method setMethod = null;
-                    try {
-                         setMethod = serviceClass.getMethod(setMethodName, setMethodParams);
-                    } catch (NoSuchMethodException ex) {
-                        throw new GenericServiceException("No method [" + setMethodName + "] with parameter [" + getParameterClasses(setMethodParams) + "] found for context key [" + contextKey + "] in service [" + localName + "]", ex);
-                    }
                     // now call the set method
                     Object[] setMethodInvokeParams = {contextValue};
-                    setMethod.invoke(service, setMethodInvokeParams);
+                    compiledService.getSetter(contextKey, localName).invoke(service, setMethodInvokeParams);
                 }
             }
 
             // now execute the main method, which should be a void method without parameters
             try {
-                Method serviceInvokeMethod = serviceClass.getMethod(invokeMethodName);
-                serviceInvokeMethod.invoke(service);
+                if (compiledService.invokeMethod == null) {
+                    throw new NoSuchMethodException(invokeMethodName);
+                }
+                compiledService.invokeMethod.invoke(service);
             } catch (Throwable ex) {
                 if (ex instanceof InvocationTargetException) {
                     // handle exceptions only from the service
@@ -247,21 +245,9 @@ public class POJOJavaEngine extends GenericAsyncEngine {
             results.put("userLogin", userLogin);
             results.put("locale", locale);
 
-            // now we get the out parameters which are not the standard service engine ones
-            Set<String> serviceOutParams = modelService.getOutParamNames();
-            serviceOutParams.removeAll(SERVICE_ENGINE_OUT_PARAMS);
-
-            // next we go through each out parameter of the service and try to find their get__ method without parameters
-            for (String outParam : serviceOutParams) {
-                // ie, invoiceId becomes getInvoiceId()
-                String getMethodName = FoundationUtils.getterName(outParam);
-                try {
-                    Method getMethod = serviceClass.getMethod(getMethodName);
-                    results.put(outParam, getMethod.invoke(service));
-                } catch (NoSuchMethodException ex) {
-                    throw new GenericServiceException("No method [" + getMethodName + "] without parameters found for in [" + serviceClassName + "]", ex);
-                }
-
+            // next we go through each out parameter of the service, which are not the standard service engine ones, and call their get__ method
+            for (Map.Entry<String, Method> getter : compiledService.getGetters().entrySet()) {
+                results.put(getter.getKey(), getter.getValue().invoke(service));
             }
 
             // set success messages
@@ -290,4 +276,103 @@ public class POJOJavaEngine extends GenericAsyncEngine {
         }
 
     }
+
+    /**
+     * Gets the resolved class and methods of a service, resolving them again when the service definition was reloaded.
+     * @param modelService a <code>ModelService</code> value
+     * @param cl the <code>ClassLoader</code> of the service dispatcher
+     * @return a <code>CompiledService</code> value
+     * @exception ClassNotFoundException if the service class cannot be found
+     */
+    private CompiledService getCompiledService(ModelService modelService, ClassLoader cl) throws ClassNotFoundException {
+        CompiledService compiledService = compiledServices.get(modelService.name);
+        if (compiledService == null || compiledService.modelService != modelService || compiledService.classLoader != cl) {
+            compiledService = new CompiledService(modelService, cl, cl.loadClass(this.getLocation(modelService)));
+            compiledServices.put(modelService.name, compiledService);
+        }
+        return compiledService;
+    }
+
+    /**
+     * The service class of a POJO service with its invoke method, and its set__ and get__ methods resolved as they are first needed.
+     */
+    private final class CompiledService {
+
+        private final ModelService modelService;
+        private final ClassLoader classLoader;
+        private final Class<?> serviceClass;
+        /** the invoke method, or <code>null</code> if the class has no such method. */
+        private final Method invokeMethod;
+        private final ConcurrentMap<String, Method> setters = new ConcurrentHashMap<String, Method>();
+        private volatile Map<String, Method> getters = null;
+
+        private CompiledService(ModelService modelService, ClassLoader classLoader, Class<?> serviceClass) {
+            this.modelService = modelService;
+            this.classLoader = classLoader;
+            this.serviceClass = serviceClass;
+            Method method = null;
+            try {
+                method = accessible(serviceClass.getMethod(modelService.invoke));
+            } catch (NoSuchMethodException e) {
+                // reported as an error result when the service is called
+            }
+            this.invokeMethod = method;
+        }
+
+        /**
+         * Gets the set__ method for a context parameter, for example if context has key-value pair "orderId":(String) "WS10000"
+         * this is the <code>setOrderId(String s)</code> method. The type of the set__ method is the one declared in the services XML.
+         */
+        @SuppressWarnings("unchecked")
+        private Method getSetter(String contextKey, String localName) throws Exception {
+            Method setMethod = setters.get(contextKey);
+            if (setMethod == null) {
+                // get method name from parameter name: orderId -> setOrderId
+                String setMethodName = FoundationUtils.setterName(contextKey);
+                ModelParam modelParam = modelService.getParam(contextKey);
+                // this will turn String into java.lang.String and Timestamp into java.sql.Timestamp
+                Class[] setMethodParams = {ObjectType.loadInfoClass(modelParam.type, classLoader)};
+                try {
+                    setMethod = accessible(serviceClass.getMethod(setMethodName, setMethodParams));
+                } catch (NoSuchMethodException ex) {
+                    throw new GenericServiceException("No method [" + setMethodName + "] with parameter [" + getParameterClasses(setMethodParams) + "] found for context key [" + contextKey + "] in service [" + localName + "]", ex);
+                }
+                setters.put(contextKey, setMethod);
+            }
+            return setMethod;
+        }
+
+        /**
+         * Gets the get__ method of each out parameter of the service which is not a standard service engine one,
+         * ie, invoiceId becomes getInvoiceId().
+         */
+        private Map<String, Method> getGetters() throws Exception {
+            Map<String, Method> getMethods = getters;
+            if (getMethods == null) {
+                getMethods = new LinkedHashMap<String, Method>();
+                Set<String> serviceOutParams = modelService.getOutParamNames();
+                serviceOutParams.removeAll(SERVICE_ENGINE_OUT_PARAMS);
+                for (String outParam : serviceOutParams) {
+                    String getMethodName = FoundationUtils.getterName(outParam);
+                    try {
+                        getMethods.put(outParam, accessible(serviceClass.getMethod(getMethodName)));
+                    } catch (NoSuchMethodException ex) {
+                        throw new GenericServiceException("No method [" + getMethodName + "] without parameters found for in [" + modelService.location + "]", ex);
+                    }
+                }
+                getters = getMethods;
+            }
+            return getMethods;
+        }
+    }
+
+    // skip the access checks on each invoke, the methods are all public
+    private static Method accessible(Method method) {
+        try {
+            method.setAccessible(true);
+        } catch (SecurityException e) {
+            Debug.logVerbose("Cannot suppress the access checks of " + method + ": " + e.getMessage(), module);
+        }
+        return method;
+    }
 }
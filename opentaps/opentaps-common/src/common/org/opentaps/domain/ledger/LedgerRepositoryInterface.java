@@ -166,6 +166,15 @@ public interface LedgerRepositoryInterface extends RepositoryInterface {
      */
     public GlAccountHistory getAccountHistory(String glAccountId, String organizationPartyId, String customTimePeriodId) throws RepositoryException;
 
+    /**
+     * Finds pending <code>GlAccountBalanceDelta</code>, which are recorded instead of updating the balances when posting with the balance journal.
+     * @param organizationPartyId the organization to find the deltas for, or <code>null</code> for all the organizations
+     * @param maxDeltas the maximum number of deltas to return
+     * @return the list of <code>GlAccountBalanceDelta</code>
+     * @exception RepositoryException if an error occurs
+     */
+    public List<GlAccountBalanceDelta> getPendingBalanceDeltas(String organizationPartyId, int maxDeltas) throws RepositoryException;
+
     /**
      * Finds entity for configuring gl account by invoice type.
      * @param organizationPartyId a <code>String</code> value
@@ -38,6 +38,12 @@ public interface LedgerServiceInterface extends ServiceInterface {
      */
     public void setSkipCheckAcctgTags(String skipCheckAcctgTags);
 
+    /**
+     * Sets the organization party ID, optional parameter for {@link #compactBalanceDeltas}.
+     * @param organizationPartyId the organization party ID
+     */
+    public void setOrganizationPartyId(String organizationPartyId);
+
     /**
      * Service to post a transaction to the ledger.
      * Uses the acctgTransId to find the transaction.
@@ -71,4 +77,12 @@ public interface LedgerServiceInterface extends ServiceInterface {
      */
     public void updatePostedAmountAcctgTrans() throws ServiceException;
 
+    /**
+     * Service to fold the <code>GlAccountBalanceDelta</code> recorded when posting with the balance journal into the
+     * <code>GlAccountOrganization</code> and <code>GlAccountHistory</code> balances, and remove them.
+     * @throws ServiceException if an error occurs
+     * @see #setOrganizationPartyId optional input <code>organizationPartyId</code>
+     */
+    public void compactBalanceDeltas() throws ServiceException;
+
 }
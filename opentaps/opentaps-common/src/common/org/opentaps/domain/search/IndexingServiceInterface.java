@@ -16,6 +16,9 @@
  */
 package org.opentaps.domain.search;
 
+import java.util.List;
+import java.util.Map;
+
 import org.opentaps.foundation.service.ServiceException;
 
 /**
@@ -41,4 +44,17 @@ public interface IndexingServiceInterface {
      * @throws ServiceException if an error occurs
      */
     public void createIndexForGenericEntity() throws ServiceException;
+
+    /**
+     * Service to get the statistics of the indexing queues, used when the index is updated asynchronously.
+     * @throws ServiceException if an error occurs
+     * @see #getStatistics output <code>statistics</code>
+     */
+    public void getIndexingQueueStatistics() throws ServiceException;
+
+    /**
+     * Gets the statistics of each indexing queue: depth, lag, batch sizes and counters.
+     * @return a <code>List</code> of statistics <code>Map</code>
+     */
+    public List<Map<String, Object>> getStatistics();
 }
@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) Open Source Strategies, Inc.
+ *
+ * Opentaps is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Opentaps is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Opentaps.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.opentaps.tests.financials;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.List;
+import java.util.Map;
+
+import com.opensourcestrategies.financials.util.UtilFinancial;
+import javolution.util.FastMap;
+import org.ofbiz.base.util.UtilDateTime;
+import org.ofbiz.base.util.UtilMisc;
+import org.ofbiz.base.util.UtilProperties;
+import org.ofbiz.entity.GenericValue;
+import org.opentaps.base.entities.CustomTimePeriod;
+import org.opentaps.domain.organization.OrganizationRepositoryInterface;
+
+/**
+ * Tests the posting with <code>financials.ledger.balanceJournal</code>: the same transactions are posted to an organization
+ * updating its balances directly and to an organization journaling the balance changes, whose balances must be the same
+ * once the changes are read with the balances, once they are compacted, and once a time period is closed.
+ */
+public class LedgerBalanceJournalTests extends FinancialsTestCase {
+
+    private static final String TEMPLATE_ORG = "STATEMENT-TEST";
+    private static final int DECIMALS = 2;
+    private static final RoundingMode ROUNDING = RoundingMode.HALF_UP;
+
+    private String balanceJournal;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        balanceJournal = UtilProperties.getPropertyValue("financials", "financials.ledger.balanceJournal", "N");
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        UtilProperties.setPropertyValueInMemory("financials", "financials.ledger.balanceJournal", balanceJournal);
+        super.tearDown();
+    }
+
+    /**
+     * Verify that the balances of the journaled organization, read with their pending changes and then compacted,
+     * are the same as the balances updated directly.
+     * @throws Exception if an error occurs
+     */
+    public void testBalanceJournalMatchesDirectUpdate() throws Exception {
+        String directOrganizationPartyId = createOrganizationWithPostedTransactions("Direct balance update", false);
+        String journalOrganizationPartyId = createOrganizationWithPostedTransactions("Balance journal", true);
+
+        // before the compaction, the balances are only right when the pending changes are added
+        Map<String, BigDecimal> pendingBalances = UtilFinancial.getPendingPostedBalances(journalOrganizationPartyId, delegator);
+        assertFalse("The posting recorded balance changes", pendingBalances.isEmpty());
+        Map<String, GenericValue> journalAccounts = getOrganizationAccounts(journalOrganizationPartyId);
+        for (GenericValue directAccount : getOrganizationAccounts(directOrganizationPartyId).values()) {
+            String glAccountId = directAccount.getString("glAccountId");
+            assertEquals("Posted balance with the pending changes of GL account [" + glAccountId + "]", zeroIfNull(UtilFinancial.getPostedBalance(journalAccounts.get(glAccountId), pendingBalances)), zeroIfNull(directAccount.getBigDecimal("postedBalance")));
+        }
+        assertPostedBalancesEqual(journalOrganizationPartyId, DECIMALS, ROUNDING);
+        for (String customTimePeriodId : getTimePeriodIds(journalOrganizationPartyId).values()) {
+            assertGlAccountHistoryBalancesEqual(journalOrganizationPartyId, customTimePeriodId, DECIMALS, ROUNDING);
+        }
+
+        runAndAssertServiceSuccess("compactGlAccountBalanceDeltas", UtilMisc.toMap("organizationPartyId", journalOrganizationPartyId, "userLogin", demofinadmin));
+        assertEquals("No balance change is left after the compaction", 0, delegator.findByAnd("GlAccountBalanceDelta", UtilMisc.toMap("organizationPartyId", journalOrganizationPartyId)).size());
+
+        // after the compaction, the stored balances are the ones updated directly
+        journalAccounts = getOrganizationAccounts(journalOrganizationPartyId);
+        for (GenericValue directAccount : getOrganizationAccounts(directOrganizationPartyId).values()) {
+            String glAccountId = directAccount.getString("glAccountId");
+            assertEquals("Compacted posted balance of GL account [" + glAccountId + "]", zeroIfNull(journalAccounts.get(glAccountId).getBigDecimal("postedBalance")), zeroIfNull(directAccount.getBigDecimal("postedBalance")));
+        }
+        Map<String, String> directPeriods = getTimePeriodIds(directOrganizationPartyId);
+        Map<String, String> journalPeriods = getTimePeriodIds(journalOrganizationPartyId);
+        for (Map.Entry<String, String> directPeriod : directPeriods.entrySet()) {
+            String journalPeriodId = journalPeriods.get(directPeriod.getKey());
+            assertNotNull("Time period [" + directPeriod.getKey() + "] was copied", journalPeriodId);
+            Map<String, GenericValue> journalHistories = getAccountHistories(journalOrganizationPartyId, journalPeriodId);
+            Map<String, GenericValue> directHistories = getAccountHistories(directOrganizationPartyId, directPeriod.getValue());
+            assertEquals("Same GL account histories for time period [" + directPeriod.getKey() + "]", journalHistories.keySet(), directHistories.keySet());
+            for (GenericValue directHistory : directHistories.values()) {
+                GenericValue journalHistory = journalHistories.get(directHistory.getString("glAccountId"));
+                assertEquals("Posted debits of " + journalHistory, journalHistory.getBigDecimal("postedDebits"), directHistory.getBigDecimal("postedDebits"));
+                assertEquals("Posted credits of " + journalHistory, journalHistory.getBigDecimal("postedCredits"), directHistory.getBigDecimal("postedCredits"));
+            }
+        }
+    }
+
+    /**
+     * Verify that closing a time period folds the pending balance changes before computing its ending balances.
+     * @throws Exception if an error occurs
+     */
+    public void testClosingTimePeriodCompactsBalanceJournal() throws Exception {
+        String journalOrganizationPartyId = createOrganizationWithPostedTransactions("Balance journal closing", true);
+        assertFalse("The posting recorded balance changes", delegator.findByAnd("GlAccountBalanceDelta", UtilMisc.toMap("organizationPartyId", journalOrganizationPartyId)).isEmpty());
+
+        // close the periods of the first fiscal year, as FinancialStatementTests does
+        OrganizationRepositoryInterface orgRepo = organizationDomain.getOrganizationRepository();
+        for (CustomTimePeriod period : orgRepo.getOpenFiscalTimePeriods(journalOrganizationPartyId, UtilDateTime.toTimestamp(1, 1, 2008, 0, 0, 0))) {
+            runAndAssertServiceSuccess("closeTimePeriod", UtilMisc.toMap("organizationPartyId", journalOrganizationPartyId, "customTimePeriodId", period.getCustomTimePeriodId(), "userLogin", demofinadmin));
+        }
+
+        assertEquals("Closing a time period compacted the balance changes", 0, delegator.findByAnd("GlAccountBalanceDelta", UtilMisc.toMap("organizationPartyId", journalOrganizationPartyId)).size());
+        assertAllTrialBalancesEqual(journalOrganizationPartyId, DECIMALS, ROUNDING);
+    }
+
+    private String createOrganizationWithPostedTransactions(String name, boolean useBalanceJournal) throws Exception {
+        String organizationPartyId = createOrganizationFromTemplate(TEMPLATE_ORG, name + " " + UtilDateTime.nowTimestamp());
+        UtilProperties.setPropertyValueInMemory("financials", "financials.ledger.balanceJournal", useBalanceJournal ? "Y" : "N");
+        for (String acctgTransId : copyAllAcctgTransAndEntries(TEMPLATE_ORG, organizationPartyId)) {
+            runAndAssertServiceSuccess("postAcctgTrans", UtilMisc.toMap("userLogin", demofinadmin, "acctgTransId", acctgTransId));
+        }
+        return organizationPartyId;
+    }
+
+    private Map<String, GenericValue> getOrganizationAccounts(String organizationPartyId) throws Exception {
+        Map<String, GenericValue> accounts = FastMap.newInstance();
+        for (GenericValue account : delegator.findByAnd("GlAccountOrganization", UtilMisc.toMap("organizationPartyId", organizationPartyId))) {
+            accounts.put(account.getString("glAccountId"), account);
+        }
+        return accounts;
+    }
+
+    private Map<String, GenericValue> getAccountHistories(String organizationPartyId, String customTimePeriodId) throws Exception {
+        Map<String, GenericValue> histories = FastMap.newInstance();
+        for (GenericValue history : delegator.findByAnd("GlAccountHistory", UtilMisc.toMap("organizationPartyId", organizationPartyId, "customTimePeriodId", customTimePeriodId))) {
+            histories.put(history.getString("glAccountId"), history);
+        }
+        return histories;
+    }
+
+    /** The time periods copied from the template have new IDs, they are matched by their type and dates. */
+    private Map<String, String> getTimePeriodIds(String organizationPartyId) throws Exception {
+        Map<String, String> periodIds = FastMap.newInstance();
+        List<GenericValue> periods = delegator.findByAnd("CustomTimePeriod", UtilMisc.toMap("organizationPartyId", organizationPartyId));
+        for (GenericValue period : periods) {
+            periodIds.put(period.getString("periodTypeId") + " " + period.get("fromDate") + " " + period.get("thruDate"), period.getString("customTimePeriodId"));
+        }
+        return periodIds;
+    }
+
+    private static BigDecimal zeroIfNull(BigDecimal value) {
+        return value == null ? BigDecimal.ZERO : value;
+    }
+}
@@ -0,0 +1,345 @@
+/*
+ * Copyright (c) Open Source Strategies, Inc.
+ *
+ * Opentaps is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Opentaps is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Opentaps.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.opentaps.search;
+
+import java.io.Serializable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javolution.util.FastList;
+import javolution.util.FastMap;
+import org.hibernate.CacheMode;
+import org.hibernate.FlushMode;
+import org.hibernate.Transaction;
+import org.hibernate.search.FullTextSession;
+import org.hibernate.search.Search;
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.UtilMisc;
+import org.ofbiz.base.util.UtilProperties;
+import org.ofbiz.entity.GenericPK;
+import org.opentaps.foundation.entity.Entity;
+import org.opentaps.foundation.entity.hibernate.Session;
+import org.opentaps.foundation.infrastructure.Infrastructure;
+
+/**
+ * Queue of the entities waiting to be indexed, used by <code>IndexingService.createIndexForGenericEntity</code>
+ * when <code>search.index.queue.enabled</code> is set in <code>opentaps-search.properties</code>.
+ * <p>
+ * The changes are coalesced by primary key, so an entity updated many times before the worker gets to it is
+ * only indexed once, and a single worker thread indexes them in batches, each batch in one Hibernate session.
+ * A batch is indexed as soon as <code>search.index.queue.batchSize</code> entities are waiting, or when the
+ * oldest one waited for <code>search.index.queue.flushIntervalMillis</code>.
+ * The queue holds at most <code>search.index.queue.capacity</code> entities, when it is full the callers wait
+ * up to <code>search.index.queue.offerTimeoutMillis</code> for some room, then the change is dropped with an error.
+ */
+public final class IndexingQueue {
+
+    private static final String MODULE = IndexingQueue.class.getName();
+    private static final String CONFIG = "opentaps-search.properties";
+
+    /** One queue per delegator, since the worker indexes through the delegator Hibernate session factory. */
+    private static final Map<String, IndexingQueue> QUEUES = FastMap.newInstance();
+
+    private final Infrastructure infrastructure;
+    private final int capacity;
+    private final int batchSize;
+    private final long flushIntervalMillis;
+    private final long offerTimeoutMillis;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    /** the primary keys waiting to be indexed and the time they were queued, oldest first; guarded by <code>lock</code> */
+    private final LinkedHashMap<GenericPK, Long> pending = new LinkedHashMap<GenericPK, Long>();
+
+    // statistics, guarded by lock
+    private long queuedCount = 0;
+    private long coalescedCount = 0;
+    private long droppedCount = 0;
+    private long indexedCount = 0;
+    private long failedCount = 0;
+    private long batchCount = 0;
+    private int lastBatchSize = 0;
+    private int maxBatchSize = 0;
+    private long lastBatchMillis = 0;
+    private long lastLagMillis = 0;
+    private long maxLagMillis = 0;
+
+    private IndexingQueue(Infrastructure infrastructure) {
+        this.infrastructure = infrastructure;
+        this.capacity = (int) UtilProperties.getPropertyNumber(CONFIG, "search.index.queue.capacity", 10000);
+        this.batchSize = (int) UtilProperties.getPropertyNumber(CONFIG, "search.index.queue.batchSize", 200);
+        this.flushIntervalMillis = (long) UtilProperties.getPropertyNumber(CONFIG, "search.index.queue.flushIntervalMillis", 1000);
+        this.offerTimeoutMillis = (long) UtilProperties.getPropertyNumber(CONFIG, "search.index.queue.offerTimeoutMillis", 5000);
+    }
+
+    /**
+     * Checks if the entity changes should be indexed through the queue.
+     * @return a <code>boolean</code> value
+     */
+    public static boolean isEnabled() {
+        return "Y".equals(UtilProperties.getPropertyValue(CONFIG, "search.index.queue.enabled", "N"));
+    }
+
+    /**
+     * Gets the queue for the delegator of the given <code>Infrastructure</code>, starting its worker the first time.
+     * @param infrastructure an <code>Infrastructure</code> value
+     * @return an <code>IndexingQueue</code> value
+     */
+    public static IndexingQueue getInstance(Infrastructure infrastructure) {
+        String delegatorName = infrastructure.getDelegator().getDelegatorName();
+        synchronized (QUEUES) {
+            IndexingQueue queue = QUEUES.get(delegatorName);
+            if (queue == null) {
+                queue = new IndexingQueue(infrastructure);
+                Thread worker = new Thread(queue.new Worker(), "opentaps-search-indexer-" + delegatorName);
+                worker.setDaemon(true);
+                worker.start();
+                QUEUES.put(delegatorName, queue);
+            }
+            return queue;
+        }
+    }
+
+    /**
+     * Gets the statistics of all the queues.
+     * @return a <code>List</code> of <code>Map</code>, one for each delegator
+     */
+    public static List<Map<String, Object>> getAllStatistics() {
+        List<Map<String, Object>> statistics = FastList.newInstance();
+        synchronized (QUEUES) {
+            for (Map.Entry<String, IndexingQueue> entry : QUEUES.entrySet()) {
+                Map<String, Object> queueStatistics = entry.getValue().getStatistics();
+                queueStatistics.put("delegatorName", entry.getKey());
+                statistics.add(queueStatistics);
+            }
+        }
+        return statistics;
+    }
+
+    /**
+     * Queues an entity to be indexed, or purged from the index if it no longer exists when its batch is indexed.
+     * @param pk the primary key of the entity
+     * @return <code>false</code> if the queue stayed full and the change was dropped
+     */
+    public boolean add(GenericPK pk) {
+        lock.lock();
+        try {
+            if (pending.containsKey(pk)) {
+                coalescedCount++;
+                return true;
+            }
+            long waitNanos = TimeUnit.MILLISECONDS.toNanos(offerTimeoutMillis);
+            while (pending.size() >= capacity) {
+                if (waitNanos <= 0) {
+                    droppedCount++;
+                    Debug.logError("Search indexing queue is full (" + capacity + " entities), could not queue [" + pk + "]; the search index must be rebuilt with opentaps.createHibernateSearchIndex", MODULE);
+                    return false;
+                }
+                try {
+                    waitNanos = notFull.awaitNanos(waitNanos);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    droppedCount++;
+                    return false;
+                }
+            }
+            pending.put(pk, System.currentTimeMillis());
+            queuedCount++;
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the queue statistics: its depth and the lag of the oldest waiting entity, and the indexing batches counters.
+     * @return a <code>Map</code> of statistic name to value
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> statistics = FastMap.newInstance();
+        lock.lock();
+        try {
+            long now = System.currentTimeMillis();
+            statistics.put("depth", pending.size());
+            statistics.put("capacity", capacity);
+            statistics.put("lagMillis", pending.isEmpty() ? 0L : now - pending.values().iterator().next());
+            statistics.put("lastLagMillis", lastLagMillis);
+            statistics.put("maxLagMillis", maxLagMillis);
+            statistics.put("queued", queuedCount);
+            statistics.put("coalesced", coalescedCount);
+            statistics.put("dropped", droppedCount);
+            statistics.put("indexed", indexedCount);
+            statistics.put("failed", failedCount);
+            statistics.put("batches", batchCount);
+            statistics.put("lastBatchSize", lastBatchSize);
+            statistics.put("maxBatchSize", maxBatchSize);
+            statistics.put("averageBatchSize", batchCount == 0 ? 0.0 : (double) (indexedCount + failedCount) / batchCount);
+            statistics.put("lastBatchMillis", lastBatchMillis);
+        } finally {
+            lock.unlock();
+        }
+        return statistics;
+    }
+
+    // waits until a batch is ready, then removes it from the queue
+    private List<GenericPK> takeBatch() throws InterruptedException {
+        lock.lock();
+        try {
+            while (true) {
+                if (pending.isEmpty()) {
+                    notEmpty.await();
+                    continue;
+                }
+                long waitedMillis = System.currentTimeMillis() - pending.values().iterator().next();
+                if (pending.size() >= batchSize || waitedMillis >= flushIntervalMillis) {
+                    break;
+                }
+                notEmpty.await(flushIntervalMillis - waitedMillis, TimeUnit.MILLISECONDS);
+            }
+
+            List<GenericPK> batch = FastList.newInstance();
+            long now = System.currentTimeMillis();
+            Iterator<Map.Entry<GenericPK, Long>> it = pending.entrySet().iterator();
+            while (it.hasNext() && batch.size() < batchSize) {
+                Map.Entry<GenericPK, Long> entry = it.next();
+                if (batch.isEmpty()) {
+                    lastLagMillis = now - entry.getValue();
+                    maxLagMillis = Math.max(maxLagMillis, lastLagMillis);
+                }
+                batch.add(entry.getKey());
+                it.remove();
+            }
+            notFull.signalAll();
+            return batch;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // indexes a batch in a single session, returns the number of entities indexed or purged
+    private int indexBatch(List<GenericPK> batch) throws Exception {
+        Session session = null;
+        FullTextSession fullTextSession = null;
+        Transaction tx = null;
+        try {
+            session = infrastructure.getSession();
+            fullTextSession = Search.getFullTextSession(session.getHibernateSession());
+            fullTextSession.setFlushMode(FlushMode.COMMIT);
+            fullTextSession.setCacheMode(CacheMode.IGNORE);
+            tx = fullTextSession.beginTransaction();
+
+            for (GenericPK pk : batch) {
+                Class<?> cls = IndexingService.getEntityClass(pk.getEntityName());
+                Serializable id = IndexingService.getEntityId(pk);
+                if (id == null) {
+                    continue;
+                }
+                Entity entity = (Entity) fullTextSession.get(cls, id);
+                if (entity != null) {
+                    fullTextSession.index(entity);
+                } else {
+                    fullTextSession.purge(cls, id);
+                }
+            }
+
+            fullTextSession.flushToIndexes();
+            fullTextSession.clear();
+            tx.commit();
+            return batch.size();
+        } catch (Exception e) {
+            if (tx != null) {
+                try {
+                    tx.rollback();
+                } catch (Exception e2) {
+                    Debug.logWarning(e2, "Could not rollback the hibernate transaction on error.", MODULE);
+                }
+            }
+            throw e;
+        } finally {
+            try {
+                if (fullTextSession != null) {
+                    fullTextSession.close();
+                }
+            } catch (Exception e) {
+                Debug.logWarning(e, "Could not close the FullTextSession.", MODULE);
+            }
+            try {
+                if (session != null && session.isOpen()) {
+                    session.close();
+                }
+            } catch (Exception e) {
+                Debug.logWarning(e, "Could not close the Session.", MODULE);
+            }
+        }
+    }
+
+    private void recordBatch(int size, int indexed, long startMillis) {
+        lock.lock();
+        try {
+            batchCount++;
+            indexedCount += indexed;
+            failedCount += size - indexed;
+            lastBatchSize = size;
+            maxBatchSize = Math.max(maxBatchSize, size);
+            lastBatchMillis = System.currentTimeMillis() - startMillis;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Indexes the queued entities until the JVM exits. */
+    private class Worker implements Runnable {
+        public void run() {
+            while (true) {
+                List<GenericPK> batch;
+                try {
+                    batch = takeBatch();
+                } catch (InterruptedException e) {
+                    Debug.logWarning("Search indexing worker interrupted, stopping with " + pending.size() + " entities still queued", MODULE);
+                    return;
+                }
+
+                long startMillis = System.currentTimeMillis();
+                int indexed = 0;
+                try {
+                    indexed = indexBatch(batch);
+                } catch (Throwable t) {
+                    // retry one at a time so a single bad entity does not lose the whole batch
+                    Debug.logError(t, "Could not index a batch of " + batch.size() + " entities, retrying them one by one", MODULE);
+                    for (GenericPK pk : batch) {
+                        try {
+                            indexed += indexBatch(UtilMisc.toList(pk));
+                        } catch (Throwable t2) {
+                            Debug.logError(t2, "Could not index [" + pk + "]", MODULE);
+                        }
+                    }
+                }
+                recordBatch(batch.size(), indexed, startMillis);
+                if (Debug.verboseOn()) {
+                    Debug.logVerbose("Indexed " + indexed + " of " + batch.size() + " queued entities in " + (System.currentTimeMillis() - startMillis) + "ms", MODULE);
+                }
+            }
+        }
+    }
+}
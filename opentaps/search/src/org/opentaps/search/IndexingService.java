@@ -19,8 +19,13 @@ package org.opentaps.search;
 import java.io.Serializable;
 import java.util.Enumeration;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+
+import javolution.util.FastList;
 import org.hibernate.CacheMode;
 import org.hibernate.Criteria;
 import org.hibernate.FetchMode;
@@ -34,7 +39,10 @@ import org.hibernate.search.Search;
 import org.ofbiz.base.util.Debug;
 import org.ofbiz.base.util.UtilProperties;
 import org.ofbiz.entity.GenericEntity;
+import org.ofbiz.entity.GenericPK;
 import org.ofbiz.entity.model.ModelEntity;
+import org.ofbiz.entity.transaction.GenericTransactionException;
+import org.ofbiz.entity.transaction.TransactionUtil;
 import org.opentaps.domain.search.IndexingServiceInterface;
 import org.opentaps.foundation.entity.Entity;
 import org.opentaps.foundation.entity.hibernate.HibernateUtil;
@@ -45,8 +53,11 @@ import org.opentaps.foundation.service.ServiceException;
 /**
  * Implementation of the IndexingServiceInterface.
  * <ul>
- *  <li>the <code>createHibernateSearchIndex</code> service regenerates the search index for all entities configured in <code>entitysearch.properties</code>
- *  <li>the <code>createIndexForGenericEntity</code> service updates the search index with the values of an entity set by <code>setValue</code>
+ *  <li>the <code>createHibernateSearchIndex</code> service regenerates the search index for all entities configured in <code>entitysearch.properties</code>,
+ *   using the {@link MassIndexer} when <code>search.reindex.threads</code> is more than one
+ *  <li>the <code>createIndexForGenericEntity</code> service updates the search index with the values of an entity set by <code>setValue</code>,
+ *   or only queues it in the {@link IndexingQueue} when <code>search.index.queue.enabled</code> is set
+ *  <li>the <code>getIndexingQueueStatistics</code> service returns the statistics of the indexing queues
  * </ul>
  */
 public class IndexingService extends Service implements IndexingServiceInterface {
@@ -54,6 +65,7 @@ public class IndexingService extends Service implements IndexingServiceInterface
     private static final String MODULE = IndexingService.class.getName();
 
     private GenericEntity value = null;
+    private List<Map<String, Object>> statistics = null;
 
     /**
      * Default constructor.
@@ -73,6 +85,8 @@ public class IndexingService extends Service implements IndexingServiceInterface
     @SuppressWarnings("unchecked")
     public void createHibernateSearchIndex() throws ServiceException {
         try {
+            boolean parallel = MassIndexer.getThreads() > 1;
+            List<Class<?>> classes = FastList.newInstance();
             Properties entitySearchProperties = UtilProperties.getProperties("entitysearch.properties");
             Enumeration enumeration = entitySearchProperties.propertyNames();
             while (enumeration.hasMoreElements()) {
@@ -83,12 +97,24 @@ public class IndexingService extends Service implements IndexingServiceInterface
                     if (!key.contains(".")) {
                         key = "org.opentaps.base.entities." + key;
                     }
-                    Debug.logInfo("creating index for entity [" + key + "]", MODULE);
                     Class cls = Class.forName(key);
-                    createHibernateSearchIndex(new Class[] {cls});
+                    if (parallel) {
+                        // only can create index for none-view entities
+                        if (!((Entity) cls.newInstance()).isView()) {
+                            classes.add(cls);
+                        }
+                    } else {
+                        Debug.logInfo("creating index for entity [" + key + "]", MODULE);
+                        createHibernateSearchIndex(new Class[] {cls});
+                    }
                 }
             }
-        } catch (ClassNotFoundException e) {
+            if (parallel) {
+                new MassIndexer(getInfrastructure()).index(classes);
+            }
+        } catch (ServiceException e) {
+            throw e;
+        } catch (Exception e) {
             Debug.logError(e, MODULE);
             throw new ServiceException(e);
         }
@@ -199,6 +225,11 @@ public class IndexingService extends Service implements IndexingServiceInterface
             return;
         }
 
+        if (IndexingQueue.isEnabled()) {
+            queueIndexForGenericEntity();
+            return;
+        }
+
         Session session = null;
         FullTextSession fullTextSession = null;
         Transaction tx = null;
@@ -214,23 +245,8 @@ public class IndexingService extends Service implements IndexingServiceInterface
             tx = fullTextSession.beginTransaction();
 
             String entityName = value.getEntityName();
-            ModelEntity modelEntity = value.getModelEntity();
-            List<String> pkFieldNames = modelEntity.getPkFieldNames();
-
-            Class cls = Class.forName("org.opentaps.base.entities." + entityName);
-            Serializable id = null;
-
-            if (pkFieldNames.size() > 1) {
-                // multi fields pk
-                Class pkCls = Class.forName("org.opentaps.base.entities." + entityName + "Pk");
-                id = (Serializable) pkCls.newInstance();
-                for (String pkFieldName : pkFieldNames) {
-                    HibernateUtil.setFieldValue(id, pkFieldName, value.get(pkFieldName));
-                }
-            } else if (pkFieldNames.size() ==  1) {
-                // simple field pk
-                id = (Serializable) value.get(pkFieldNames.get(0));
-            }
+            Class cls = getEntityClass(entityName);
+            Serializable id = getEntityId(value);
 
             Debug.logInfo("createIndexForGenericEntity: got id [" + id + "] for entity: " + entityName, MODULE);
             if (id != null) {
@@ -282,4 +298,78 @@ public class IndexingService extends Service implements IndexingServiceInterface
             }
         }
     }
+
+    /** {@inheritDoc} */
+    public void getIndexingQueueStatistics() throws ServiceException {
+        statistics = IndexingQueue.getAllStatistics();
+    }
+
+    /** {@inheritDoc} */
+    public List<Map<String, Object>> getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Queues the value to be indexed by the <code>IndexingQueue</code> worker.
+     * When called in a transaction, the value is only queued once the transaction commits, so the worker
+     * indexes the committed data, and nothing is queued if it rolls back.
+     * @throws ServiceException if an error occurs
+     */
+    private void queueIndexForGenericEntity() throws ServiceException {
+        final IndexingQueue queue = IndexingQueue.getInstance(getInfrastructure());
+        final GenericPK pk = value.getPrimaryKey();
+        try {
+            if (TransactionUtil.getStatus() == Status.STATUS_ACTIVE) {
+                TransactionUtil.registerSynchronization(new Synchronization() {
+                    public void beforeCompletion() { }
+                    public void afterCompletion(int status) {
+                        if (status == Status.STATUS_COMMITTED) {
+                            queue.add(pk);
+                        }
+                    }
+                });
+            } else {
+                queue.add(pk);
+            }
+        } catch (GenericTransactionException e) {
+            Debug.logError(e, MODULE);
+            throw new ServiceException(e);
+        }
+    }
+
+    /**
+     * Gets the hibernate entity class of an entity.
+     * @param entityName the entity name
+     * @return the <code>Class</code> of the entity
+     * @throws ClassNotFoundException if the entity has no hibernate class
+     */
+    static Class<?> getEntityClass(String entityName) throws ClassNotFoundException {
+        return Class.forName("org.opentaps.base.entities." + entityName);
+    }
+
+    /**
+     * Gets the hibernate id of an entity value, which is the value of its primary key field, or
+     * an instance of the entity Pk class for entities having multiple primary key fields.
+     * @param value a <code>GenericEntity</code> value
+     * @return the id, or <code>null</code> if the entity has no primary key
+     * @throws Exception if the Pk class cannot be instantiated
+     */
+    static Serializable getEntityId(GenericEntity value) throws Exception {
+        ModelEntity modelEntity = value.getModelEntity();
+        List<String> pkFieldNames = modelEntity.getPkFieldNames();
+        Serializable id = null;
+
+        if (pkFieldNames.size() > 1) {
+            // multi fields pk
+            Class<?> pkCls = Class.forName("org.opentaps.base.entities." + value.getEntityName() + "Pk");
+            id = (Serializable) pkCls.newInstance();
+            for (String pkFieldName : pkFieldNames) {
+                HibernateUtil.setFieldValue(id, pkFieldName, value.get(pkFieldName));
+            }
+        } else if (pkFieldNames.size() ==  1) {
+            // simple field pk
+            id = (Serializable) value.get(pkFieldNames.get(0));
+        }
+        return id;
+    }
 }
@@ -0,0 +1,331 @@
+/*
+ * Copyright (c) Open Source Strategies, Inc.
+ *
+ * Opentaps is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Opentaps is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Opentaps.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.opentaps.search;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javolution.util.FastList;
+import org.hibernate.CacheMode;
+import org.hibernate.Criteria;
+import org.hibernate.FetchMode;
+import org.hibernate.FlushMode;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Transaction;
+import org.hibernate.criterion.CriteriaSpecification;
+import org.hibernate.criterion.Order;
+import org.hibernate.criterion.Projections;
+import org.hibernate.criterion.Restrictions;
+import org.hibernate.metadata.ClassMetadata;
+import org.hibernate.search.FullTextSession;
+import org.hibernate.search.Search;
+import org.ofbiz.base.concurrent.ExecutionPool;
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.UtilProperties;
+import org.opentaps.foundation.entity.hibernate.Session;
+import org.opentaps.foundation.infrastructure.Infrastructure;
+
+/**
+ * Rebuilds the search index of several entity classes on a pool of worker threads, used by
+ * <code>IndexingService.createHibernateSearchIndex</code> when <code>search.reindex.threads</code> is more than one.
+ * <p>
+ * The primary key space of each entity is first split into ranges of <code>search.reindex.partitionSize</code> rows
+ * by scrolling over its ids only, then each range is loaded and indexed by a worker in its own session and transaction,
+ * with a scrollable cursor which is flushed to the index and cleared every <code>Session.FETCH_SIZE</code> rows.
+ * All the entity classes are planned and indexed concurrently, and each class index is optimized once its last range is done.
+ * Entities with a composite primary key cannot be split and are indexed as a single range.
+ */
+final class MassIndexer {
+
+    private static final String MODULE = MassIndexer.class.getName();
+    private static final String CONFIG = "opentaps-search.properties";
+
+    private final Infrastructure infrastructure;
+    private final int threads;
+    private final int partitionSize;
+    private final boolean purgeAll;
+
+    /**
+     * Creates a new <code>MassIndexer</code> configured from <code>opentaps-search.properties</code>.
+     * @param infrastructure an <code>Infrastructure</code> value
+     */
+    MassIndexer(Infrastructure infrastructure) {
+        this.infrastructure = infrastructure;
+        this.threads = getThreads();
+        this.partitionSize = Math.max(Session.FETCH_SIZE, (int) UtilProperties.getPropertyNumber(CONFIG, "search.reindex.partitionSize", 10000));
+        this.purgeAll = !"N".equals(UtilProperties.getPropertyValue(CONFIG, "search.reindex.purgeAll", "Y"));
+    }
+
+    /**
+     * Gets the number of worker threads configured for rebuilding the index.
+     * @return an <code>int</code> value
+     */
+    static int getThreads() {
+        return (int) UtilProperties.getPropertyNumber(CONFIG, "search.reindex.threads", 1);
+    }
+
+    /**
+     * Rebuilds the index of the given entity classes, returning once all of them are done.
+     * @param classes the entity classes to index, which must not be view entities
+     * @throws Exception if an entity class could not be indexed, the other classes are still indexed
+     */
+    void index(List<Class<?>> classes) throws Exception {
+        long startTime = System.currentTimeMillis();
+        ExecutorService executor = ExecutionPool.getExecutor("opentaps-search-reindex", threads);
+        Exception error = null;
+        try {
+            // plan the ranges of all the entities concurrently
+            List<Future<ClassProgress>> plans = FastList.newInstance();
+            for (Class<?> cls : classes) {
+                plans.add(executor.submit(new Planner(cls)));
+            }
+            List<Future<?>> partitions = FastList.newInstance();
+            for (Future<ClassProgress> plan : plans) {
+                try {
+                    ClassProgress progress = plan.get();
+                    for (Partition partition : progress.partitions) {
+                        partitions.add(executor.submit(partition));
+                    }
+                } catch (ExecutionException e) {
+                    error = handleError(error, e);
+                }
+            }
+            for (Future<?> partition : partitions) {
+                try {
+                    partition.get();
+                } catch (ExecutionException e) {
+                    error = handleError(error, e);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        Debug.logInfo("Search index rebuilt for " + classes.size() + " entities in " + (System.currentTimeMillis() - startTime) + " ms using " + threads + " threads", MODULE);
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    private static Exception handleError(Exception error, ExecutionException e) {
+        Debug.logError(e.getCause(), MODULE);
+        if (error != null) {
+            return error;
+        }
+        return e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+    }
+
+    /**
+     * Runs some work in a new <code>FullTextSession</code> and transaction.
+     */
+    private abstract class SessionWork<T> implements Callable<T> {
+
+        public T call() throws Exception {
+            Session session = null;
+            FullTextSession fullTextSession = null;
+            Transaction tx = null;
+            try {
+                session = infrastructure.getSession();
+                fullTextSession = Search.getFullTextSession(session.getHibernateSession());
+                fullTextSession.setFlushMode(FlushMode.COMMIT);
+                fullTextSession.setCacheMode(CacheMode.IGNORE);
+                tx = fullTextSession.beginTransaction();
+                T result = run(fullTextSession);
+                tx.commit();
+                return result;
+            } catch (Exception e) {
+                if (tx != null) {
+                    try {
+                        tx.rollback();
+                    } catch (Exception e2) {
+                        Debug.logWarning(e2, "Could not rollback the hibernate transaction on error.", MODULE);
+                    }
+                }
+                throw e;
+            } finally {
+                try {
+                    if (fullTextSession != null) {
+                        fullTextSession.close();
+                    }
+                } catch (Exception e) {
+                    Debug.logWarning(e, "Could not close the FullTextSession.", MODULE);
+                }
+                try {
+                    if (session != null && session.isOpen()) {
+                        session.close();
+                    }
+                } catch (Exception e) {
+                    Debug.logWarning(e, "Could not close the Session.", MODULE);
+                }
+            }
+        }
+
+        protected abstract T run(FullTextSession fullTextSession) throws Exception;
+    }
+
+    /**
+     * Purges the index of an entity class and splits its primary key space into partitions.
+     */
+    private final class Planner extends SessionWork<ClassProgress> {
+
+        private final Class<?> entityClass;
+
+        private Planner(Class<?> entityClass) {
+            this.entityClass = entityClass;
+        }
+
+        @Override
+        protected ClassProgress run(FullTextSession fullTextSession) throws Exception {
+            ClassProgress progress = new ClassProgress(entityClass);
+            if (purgeAll) {
+                fullTextSession.purgeAll(entityClass);
+                fullTextSession.flushToIndexes();
+            }
+
+            ClassMetadata metadata = fullTextSession.getSessionFactory().getClassMetadata(entityClass);
+            if (metadata == null || metadata.getIdentifierType().isComponentType()) {
+                // composite keys cannot be compared as a range, index the whole table at once
+                progress.partitions.add(new Partition(progress, null, null, null));
+                progress.remaining.set(1);
+                Debug.logInfo("Rebuilding the search index of [" + entityClass.getName() + "] in a single range", MODULE);
+                return progress;
+            }
+
+            // scroll over the ids only, and keep the first id of each range
+            String idProperty = metadata.getIdentifierPropertyName();
+            ScrollableResults scroll = fullTextSession.createCriteria(entityClass)
+                .setProjection(Projections.id())
+                .addOrder(Order.asc(idProperty))
+                .setCacheMode(CacheMode.IGNORE)
+                .setFetchSize(Session.FETCH_SIZE)
+                .scroll(ScrollMode.FORWARD_ONLY);
+            List<Serializable> bounds = FastList.newInstance();
+            long count = 0;
+            try {
+                while (scroll.next()) {
+                    if (count % partitionSize == 0) {
+                        bounds.add((Serializable) scroll.get(0));
+                    }
+                    count++;
+                }
+            } finally {
+                scroll.close();
+            }
+
+            for (int i = 0; i < bounds.size(); i++) {
+                // the first range is open so it also gets rows inserted before the first id, and the last so it gets those after
+                Serializable from = i == 0 ? null : bounds.get(i);
+                Serializable to = i == bounds.size() - 1 ? null : bounds.get(i + 1);
+                progress.partitions.add(new Partition(progress, idProperty, from, to));
+            }
+            if (progress.partitions.isEmpty()) {
+                progress.partitions.add(new Partition(progress, null, null, null));
+            }
+            progress.total = count;
+            progress.remaining.set(progress.partitions.size());
+            Debug.logInfo("Rebuilding the search index of [" + entityClass.getName() + "]: " + count + " rows in " + progress.partitions.size() + " ranges", MODULE);
+            return progress;
+        }
+    }
+
+    /**
+     * Indexes the rows of an entity class having their id in the range [from, to), and optimizes the class index
+     * when it is the last range of its class.
+     */
+    private final class Partition extends SessionWork<Object> {
+
+        private final ClassProgress progress;
+        private final String idProperty;
+        private final Serializable from;
+        private final Serializable to;
+
+        private Partition(ClassProgress progress, String idProperty, Serializable from, Serializable to) {
+            this.progress = progress;
+            this.idProperty = idProperty;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Object run(FullTextSession fullTextSession) throws Exception {
+            try {
+                Criteria query = fullTextSession.createCriteria(progress.entityClass)
+                    .setFetchMode("distributor", FetchMode.JOIN)
+                    .setResultTransformer(CriteriaSpecification.DISTINCT_ROOT_ENTITY)
+                    .setFlushMode(FlushMode.COMMIT)
+                    .setCacheMode(CacheMode.IGNORE)
+                    .setFetchSize(Session.FETCH_SIZE);
+                if (from != null) {
+                    query.add(Restrictions.ge(idProperty, from));
+                }
+                if (to != null) {
+                    query.add(Restrictions.lt(idProperty, to));
+                }
+
+                ScrollableResults scroll = query.scroll(ScrollMode.FORWARD_ONLY);
+                int batch = 0;
+                try {
+                    while (scroll.next()) {
+                        batch++;
+                        fullTextSession.index(scroll.get(0));
+                        if (batch % Session.FETCH_SIZE == 0) {
+                            fullTextSession.flushToIndexes();
+                            fullTextSession.clear();
+                        }
+                    }
+                } finally {
+                    scroll.close();
+                }
+                fullTextSession.flushToIndexes();
+                fullTextSession.clear();
+
+                long indexed = progress.indexed.addAndGet(batch);
+                int done = progress.partitions.size() - progress.remaining.get() + 1;
+                Debug.logInfo("Search index of [" + progress.entityClass.getName() + "]: range " + done + "/" + progress.partitions.size() + " done, " + indexed + "/" + progress.total + " rows indexed", MODULE);
+                return null;
+            } finally {
+                if (progress.remaining.decrementAndGet() == 0) {
+                    fullTextSession.getSearchFactory().optimize(progress.entityClass);
+                    Debug.logInfo("Search index of [" + progress.entityClass.getName() + "] rebuilt, " + progress.indexed.get() + " rows indexed in " + (System.currentTimeMillis() - progress.startTime) + " ms", MODULE);
+                }
+            }
+        }
+    }
+
+    /**
+     * The ranges of an entity class and how many of them are done.
+     */
+    private static final class ClassProgress {
+
+        private final Class<?> entityClass;
+        private final List<Partition> partitions = FastList.newInstance();
+        private final AtomicInteger remaining = new AtomicInteger();
+        private final AtomicLong indexed = new AtomicLong();
+        private final long startTime = System.currentTimeMillis();
+        private long total = 0;
+
+        private ClassProgress(Class<?> entityClass) {
+            this.entityClass = entityClass;
+        }
+    }
+}
@@ -23,6 +23,7 @@ import org.ofbiz.base.util.UtilMisc;
 import org.ofbiz.base.util.Debug;
 import org.ofbiz.base.util.UtilValidate;
 import org.ofbiz.base.util.StringUtil;
+import org.ofbiz.content.search.SearchIndexManager;
 import org.ofbiz.content.search.SearchWorker;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
@@ -55,11 +56,11 @@ featureIdByType = ParametricSearch.makeFeatureIdByTypeMap(paramMap);
 
 combQuery = new BooleanQuery();
 indexPath = null;
-searcher = null;
+indexManager = null;
 analyzer = null;
 try {
     indexPath = SearchWorker.getIndexPath(null);
-    searcher = new IndexSearcher(indexPath);
+    indexManager = SearchIndexManager.getSearchInstance(indexPath);
     analyzer = new StandardAnalyzer();
 } catch (java.io.FileNotFoundException e) {
     Debug.logError(e, "Search.groovy");
@@ -95,14 +96,13 @@ if (featureIdByType) {
     combQuery.add(featureQuery, featuresRequired, false);
 }
 
-if (searcher) {
+if (indexManager) {
     Debug.logInfo("in search searchFeature3, combQuery:" + combQuery.toString(), "");
-    hits = searcher.search(combQuery);
-    Debug.logInfo("in search, hits:" + hits.length(), "");
+    hits = indexManager.search(combQuery);
+    Debug.logInfo("in search, hits:" + hits.size(), "");
     contentList = [];
     hitSet = new HashSet();
-    for (start = 0; start < hits.length(); start++) {
-        doc = hits.doc(start);
+    hits.each { doc ->
         contentId = doc.contentId;
         content = delegator.findByPrimaryKeyCache("Content", [contentId : contentId]);
         if (!hitSet.contains(contentId)) {